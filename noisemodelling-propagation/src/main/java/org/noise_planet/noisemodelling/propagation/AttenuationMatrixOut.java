@@ -0,0 +1,113 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Store the attenuation of each source-receiver pair in an {@link AttenuationMatrixWriter} instead of the heap.
+ * Parts of line sources are merged, source and receiver identifiers are the primary keys of
+ * {@link PropagationProcessData} if available.
+ * @author Nicolas Fortin
+ */
+public class AttenuationMatrixOut extends ComputeRaysOut {
+    private final AttenuationMatrixWriter writer;
+    private ThreadAttenuationMatrixOut directOut = null;
+
+    /**
+     * @param pathData Meteorological data
+     * @param inputData Sources and receivers identifiers
+     * @param writer Output file, shared by all computation cells
+     */
+    public AttenuationMatrixOut(PropagationProcessPathData pathData, PropagationProcessData inputData,
+                                AttenuationMatrixWriter writer) {
+        super(false, pathData, inputData);
+        this.writer = writer;
+    }
+
+    public AttenuationMatrixWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public synchronized double[] addPropagationPaths(long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
+        if(directOut == null) {
+            directOut = new ThreadAttenuationMatrixOut(this);
+        }
+        return directOut.addPropagationPaths(sourceId, sourceLi, receiverId, propagationPath);
+    }
+
+    @Override
+    public synchronized void finalizeReceiver(long receiverId) {
+        if(directOut != null) {
+            directOut.finalizeReceiver(receiverId);
+        }
+    }
+
+    @Override
+    public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+        return new ThreadAttenuationMatrixOut(this);
+    }
+
+    /**
+     * Keep the attenuation of the sources of the receiver being computed by the thread
+     */
+    public static class ThreadAttenuationMatrixOut implements IComputeRaysOut {
+        private final AttenuationMatrixOut multiThreadParent;
+        private final Map<Long, double[]> sourcesAttenuation = new HashMap<>();
+
+        public ThreadAttenuationMatrixOut(AttenuationMatrixOut multiThreadParent) {
+            this.multiThreadParent = multiThreadParent;
+        }
+
+        @Override
+        public double[] addPropagationPaths(long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
+            multiThreadParent.rayCount.addAndGet(propagationPath.size());
+            double[] attenuation = multiThreadParent.computeAttenuation(multiThreadParent.genericMeteoData, sourceId,
+                    sourceLi, receiverId, propagationPath);
+            if(attenuation.length > 0) {
+                double[] previous = sourcesAttenuation.get(sourceId);
+                // Merge parts of line sources
+                sourcesAttenuation.put(sourceId, previous == null ? attenuation :
+                        ComputeRays.sumDbArray(previous, attenuation));
+            }
+            return attenuation;
+        }
+
+        @Override
+        public void finalizeReceiver(long receiverId) {
+            if(sourcesAttenuation.isEmpty()) {
+                return;
+            }
+            PropagationProcessData inputData = multiThreadParent.inputData;
+            long receiverPK = receiverId;
+            if(inputData != null && receiverId < inputData.receiversPk.size()) {
+                receiverPK = inputData.receiversPk.get((int) receiverId);
+            }
+            long[] sourceIds = new long[sourcesAttenuation.size()];
+            double[][] attenuation = new double[sourceIds.length][];
+            int i = 0;
+            for(Map.Entry<Long, double[]> entry : sourcesAttenuation.entrySet()) {
+                long sourcePK = entry.getKey();
+                if(inputData != null && sourcePK < inputData.sourcesPk.size()) {
+                    sourcePK = inputData.sourcesPk.get((int) sourcePK);
+                }
+                sourceIds[i] = sourcePK;
+                attenuation[i] = entry.getValue();
+                i++;
+            }
+            sourcesAttenuation.clear();
+            try {
+                multiThreadParent.writer.writeReceiver(receiverPK, sourceIds, attenuation);
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+            return multiThreadParent.subProcess(receiverStart, receiverEnd);
+        }
+    }
+}
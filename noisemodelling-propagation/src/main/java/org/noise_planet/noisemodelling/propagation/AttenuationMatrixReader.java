@@ -0,0 +1,238 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read the source-receiver attenuation written by {@link AttenuationMatrixWriter} using memory mapped buffers.
+ * Receiver levels can be computed again from new source emissions without any propagation computation.
+ * Read methods are thread safe.
+ * @author Nicolas Fortin
+ */
+public class AttenuationMatrixReader implements Closeable {
+    // A buffer cannot map more than 2GB, receiver blocks are spread over several buffers
+    private static final long MAXIMUM_SEGMENT_SIZE = Integer.MAX_VALUE;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int frequencyCount;
+    private final boolean singlePrecision;
+    // Sorted receiver identifiers and their block offset in the file
+    private final long[] receiverIds;
+    private final long[] blockOffsets;
+    private final long[] segmentOffsets;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * @param matrixFile File written by {@link AttenuationMatrixWriter}
+     * @throws IOException If the file cannot be read or is not an attenuation matrix
+     */
+    public AttenuationMatrixReader(File matrixFile) throws IOException {
+        file = new RandomAccessFile(matrixFile, "r");
+        channel = file.getChannel();
+        try {
+            long fileSize = channel.size();
+            if(fileSize < AttenuationMatrixWriter.HEADER_SIZE + AttenuationMatrixWriter.FOOTER_SIZE) {
+                throw new IOException("Not an attenuation matrix file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, AttenuationMatrixWriter.HEADER_SIZE);
+            if(header.getInt() != AttenuationMatrixWriter.MAGIC || header.getInt() != AttenuationMatrixWriter.VERSION) {
+                throw new IOException("Not an attenuation matrix file or unsupported version");
+            }
+            frequencyCount = header.getInt();
+            singlePrecision = header.getInt() != 0;
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    fileSize - AttenuationMatrixWriter.FOOTER_SIZE, AttenuationMatrixWriter.FOOTER_SIZE);
+            int receiverCount = footer.getInt();
+            long indexPosition = footer.getLong();
+            receiverIds = new long[receiverCount];
+            blockOffsets = new long[receiverCount];
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexPosition, receiverCount * 16L);
+            for(int i = 0; i < receiverCount; i++) {
+                receiverIds[i] = index.getLong();
+                blockOffsets[i] = index.getLong();
+            }
+            // Split the blocks area into segments, a block is never split between two segments
+            long[] sortedOffsets = Arrays.copyOf(blockOffsets, receiverCount);
+            Arrays.sort(sortedOffsets);
+            List<Long> segmentStarts = new ArrayList<>();
+            long segmentStart = AttenuationMatrixWriter.HEADER_SIZE;
+            segmentStarts.add(segmentStart);
+            for(int i = 0; i < receiverCount; i++) {
+                long blockEnd = i + 1 < receiverCount ? sortedOffsets[i + 1] : indexPosition;
+                if(blockEnd - segmentStart > MAXIMUM_SEGMENT_SIZE) {
+                    segmentStart = sortedOffsets[i];
+                    segmentStarts.add(segmentStart);
+                }
+            }
+            segmentOffsets = new long[segmentStarts.size()];
+            segments = new MappedByteBuffer[segmentStarts.size()];
+            for(int i = 0; i < segmentOffsets.length; i++) {
+                segmentOffsets[i] = segmentStarts.get(i);
+                long segmentEnd = i + 1 < segmentOffsets.length ? segmentStarts.get(i + 1) : indexPosition;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentOffsets[i],
+                        segmentEnd - segmentOffsets[i]);
+            }
+        } catch (IOException | RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    public int getFrequencyCount() {
+        return frequencyCount;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * @return Number of receivers in the file
+     */
+    public int getReceiverCount() {
+        return receiverIds.length;
+    }
+
+    /**
+     * @return Receiver identifiers sorted by ascending order
+     */
+    public long[] getReceiverIds() {
+        return Arrays.copyOf(receiverIds, receiverIds.length);
+    }
+
+    /**
+     * @return Segment index of the receiver block or -1 if the receiver is not in the file
+     */
+    private int getSegmentIndex(int receiverIndex) {
+        int segmentIndex = Arrays.binarySearch(segmentOffsets, blockOffsets[receiverIndex]);
+        if(segmentIndex < 0) {
+            segmentIndex = -segmentIndex - 2;
+        }
+        return segmentIndex;
+    }
+
+    /**
+     * @param receiverId Receiver identifier
+     * @return Number of sources of the receiver, 0 if the receiver is not in the file
+     */
+    int getSourceCount(long receiverId) {
+        int receiverIndex = Arrays.binarySearch(receiverIds, receiverId);
+        if(receiverIndex < 0) {
+            return 0;
+        }
+        int segmentIndex = getSegmentIndex(receiverIndex);
+        return segments[segmentIndex].getInt((int) (blockOffsets[receiverIndex] - segmentOffsets[segmentIndex]) + 8);
+    }
+
+    /**
+     * Visit the attenuation of all sources of a receiver. The attenuation array is reused between sources.
+     * @return False if the receiver is not in the file
+     */
+    boolean visitReceiver(long receiverId, AttenuationVisitor visitor) {
+        int receiverIndex = Arrays.binarySearch(receiverIds, receiverId);
+        if(receiverIndex < 0) {
+            return false;
+        }
+        int segmentIndex = getSegmentIndex(receiverIndex);
+        // Absolute get methods, the buffer position is shared by threads
+        MappedByteBuffer segment = segments[segmentIndex];
+        int position = (int) (blockOffsets[receiverIndex] - segmentOffsets[segmentIndex]) + 8;
+        int sourceCount = segment.getInt(position);
+        position += 4;
+        double[] attenuation = new double[frequencyCount];
+        for(int i = 0; i < sourceCount; i++) {
+            long sourceId = segment.getLong(position);
+            position += 8;
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                if(singlePrecision) {
+                    attenuation[idFreq] = segment.getFloat(position);
+                    position += 4;
+                } else {
+                    attenuation[idFreq] = segment.getDouble(position);
+                    position += 8;
+                }
+            }
+            visitor.visit(sourceId, attenuation);
+        }
+        return true;
+    }
+
+    /**
+     * @param receiverId Receiver identifier
+     * @return Attenuation spectrum (dB) of each source of the receiver, empty if the receiver is not in the file
+     */
+    public List<ComputeRaysOut.verticeSL> getAttenuation(final long receiverId) {
+        final List<ComputeRaysOut.verticeSL> attenuation = new ArrayList<>();
+        visitReceiver(receiverId, new AttenuationVisitor() {
+            @Override
+            public void visit(long sourceId, double[] sourceAttenuation) {
+                attenuation.add(new ComputeRaysOut.verticeSL(receiverId, sourceId,
+                        Arrays.copyOf(sourceAttenuation, sourceAttenuation.length)));
+            }
+        });
+        return attenuation;
+    }
+
+    /**
+     * Compute the sound level of a receiver from the emission of the sources
+     * @param receiverId Receiver identifier
+     * @param sourcesLevel Emission spectrum (dB) by source identifier, sources not in the map are not emitting
+     * @return Sound level spectrum (dB) or empty array if no source contributes to the receiver
+     */
+    public double[] computeReceiverLevel(long receiverId, final Map<Long, double[]> sourcesLevel) {
+        final double[] power = new double[frequencyCount];
+        final boolean[] contribution = new boolean[]{false};
+        visitReceiver(receiverId, new AttenuationVisitor() {
+            @Override
+            public void visit(long sourceId, double[] sourceAttenuation) {
+                double[] emission = sourcesLevel.get(sourceId);
+                if(emission != null) {
+                    for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                        power[idFreq] += ComputeRays.dbaToW(emission[idFreq] + sourceAttenuation[idFreq]);
+                    }
+                    contribution[0] = true;
+                }
+            }
+        });
+        return contribution[0] ? ComputeRays.wToDba(power) : new double[0];
+    }
+
+    /**
+     * Compute the sound level of all receivers from the emission of the sources
+     * @param sourcesLevel Emission spectrum (dB) by source identifier, sources not in the map are not emitting
+     * @return Sound level spectrum (dB) by receiver identifier, only for receivers with at least one emitting source
+     */
+    public Map<Long, double[]> computeReceiversLevels(Map<Long, double[]> sourcesLevel) {
+        Map<Long, double[]> levels = new HashMap<>(receiverIds.length);
+        for(long receiverId : receiverIds) {
+            double[] level = computeReceiverLevel(receiverId, sourcesLevel);
+            if(level.length > 0) {
+                levels.put(receiverId, level);
+            }
+        }
+        return levels;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            file.close();
+        }
+    }
+
+    interface AttenuationVisitor {
+        void visit(long sourceId, double[] sourceAttenuation);
+    }
+}
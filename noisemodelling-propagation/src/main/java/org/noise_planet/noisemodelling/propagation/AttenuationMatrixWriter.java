@@ -0,0 +1,159 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Write the attenuation spectrum of each source-receiver pair into a binary file, read back with
+ * {@link AttenuationMatrixReader}.
+ * The file contains one block by receiver, blocks are written in the computation order. Pairs of a block are sorted
+ * by source identifier. An index of the blocks sorted by receiver identifier is written at the end of the file.
+ * A receiver must be written only once. This class is thread safe.
+ * @author Nicolas Fortin
+ */
+public class AttenuationMatrixWriter implements Closeable {
+    static final int MAGIC = 0x4E4D414D; // NMAM
+    static final int VERSION = 1;
+    /** Magic, version, frequency count, single precision flag */
+    static final int HEADER_SIZE = 4 * 4;
+    /** Receiver count and index position */
+    static final int FOOTER_SIZE = 4 + 8;
+    private final DataOutputStream out;
+    private final int frequencyCount;
+    private final boolean singlePrecision;
+    private long position;
+    private long[] receiverIds = new long[1024];
+    private long[] blockOffsets = new long[1024];
+    private int receiverCount = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file Output file, overwritten if it exists
+     * @param frequencyCount Number of frequency bands of attenuation spectra
+     * @param singlePrecision Store attenuation using 32 bits floating point values instead of 64 bits
+     * @throws IOException If the file cannot be created
+     */
+    public AttenuationMatrixWriter(File file, int frequencyCount, boolean singlePrecision) throws IOException {
+        this.frequencyCount = frequencyCount;
+        this.singlePrecision = singlePrecision;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(frequencyCount);
+        out.writeInt(singlePrecision ? 1 : 0);
+        position = HEADER_SIZE;
+    }
+
+    public int getFrequencyCount() {
+        return frequencyCount;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    /**
+     * @return Number of receivers written so far
+     */
+    public synchronized int getReceiverCount() {
+        return receiverCount;
+    }
+
+    /**
+     * Write the attenuation of all the sources of a receiver
+     * @param receiverId Receiver identifier
+     * @param sourceIds Source identifiers
+     * @param attenuation Attenuation spectrum (dB) of each source
+     * @throws IOException If the file cannot be written
+     */
+    public synchronized void writeReceiver(long receiverId, final long[] sourceIds, double[][] attenuation)
+            throws IOException {
+        if(closed) {
+            throw new IOException("Attenuation matrix writer is closed");
+        }
+        if(sourceIds.length != attenuation.length) {
+            throw new IllegalArgumentException("Sources and attenuation arrays must have the same length");
+        }
+        Integer[] order = new Integer[sourceIds.length];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(sourceIds[o1], sourceIds[o2]);
+            }
+        });
+        if(receiverCount == receiverIds.length) {
+            receiverIds = Arrays.copyOf(receiverIds, receiverCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, receiverCount * 2);
+        }
+        receiverIds[receiverCount] = receiverId;
+        blockOffsets[receiverCount] = position;
+        receiverCount++;
+        out.writeLong(receiverId);
+        out.writeInt(sourceIds.length);
+        for(int i : order) {
+            double[] spectrum = attenuation[i];
+            if(spectrum.length != frequencyCount) {
+                throw new IllegalArgumentException(String.format("Attenuation of source %d have %d frequency bands" +
+                        " instead of %d", sourceIds[i], spectrum.length, frequencyCount));
+            }
+            out.writeLong(sourceIds[i]);
+            for(double value : spectrum) {
+                if(singlePrecision) {
+                    out.writeFloat((float) value);
+                } else {
+                    out.writeDouble(value);
+                }
+            }
+        }
+        position += getBlockSize(sourceIds.length, frequencyCount, singlePrecision);
+    }
+
+    /**
+     * @return Size in bytes of a receiver block
+     */
+    static long getBlockSize(int sourceCount, int frequencyCount, boolean singlePrecision) {
+        return 8 + 4 + sourceCount * (8 + (long) frequencyCount * (singlePrecision ? 4 : 8));
+    }
+
+    /**
+     * Write the receiver index and close the file
+     * @throws IOException If the file cannot be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Integer[] order = new Integer[receiverCount];
+            for(int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Long.compare(receiverIds[o1], receiverIds[o2]);
+                }
+            });
+            long indexPosition = position;
+            for(int i : order) {
+                out.writeLong(receiverIds[i]);
+                out.writeLong(blockOffsets[i]);
+            }
+            out.writeInt(receiverCount);
+            out.writeLong(indexPosition);
+        } finally {
+            out.close();
+        }
+    }
+}
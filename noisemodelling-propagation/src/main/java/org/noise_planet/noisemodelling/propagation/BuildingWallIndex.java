@@ -0,0 +1,147 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable spatial index of the building walls of a triangulated mesh.
+ * Walls are the triangle sides that separate a triangle from a triangle of another building. Each wall is
+ * tagged with the region of the triangle it faces, a region being a set of connected triangles sharing the same
+ * building identifier. Searching walls around a point does not need to navigate through the mesh.
+ * @author Nicolas Fortin
+ */
+public class BuildingWallIndex {
+    private final List<FastObstructionTest.Wall> walls;
+    // Region of the triangle on the visible side of each wall
+    private final int[] wallRegion;
+    // Region of each triangle
+    private final int[] triangleRegion;
+    private final STRtree wallTree;
+
+    /**
+     * @param triVertices   vertices index of triangles (3 values per triangle)
+     * @param triNeighbors  neighbor triangle index of triangles (3 values per triangle), -1 if there is no neighbor
+     * @param triAttributes building identifier [1-n] of each triangle, 0 if the triangle is not in a building
+     * @param vertices      x, y, z of all points in mesh (3 values per vertex)
+     * @param minimalWallLength Walls shorter than this length are not indexed
+     */
+    public BuildingWallIndex(int[] triVertices, int[] triNeighbors, int[] triAttributes, double[] vertices,
+                             double minimalWallLength) {
+        triangleRegion = computeRegions(triNeighbors, triAttributes);
+        walls = new ArrayList<>();
+        List<Integer> regions = new ArrayList<>();
+        wallTree = new STRtree();
+        for(int triId = 0; triId < triAttributes.length; triId++) {
+            for(int side = 0; side < 3; side++) {
+                int neighbor = triNeighbors[triId * 3 + side];
+                if(neighbor == -1 || triAttributes[neighbor] < 1 || triAttributes[neighbor] == triAttributes[triId]) {
+                    continue;
+                }
+                // Side vertices, same order than Triangle.getSegment
+                int offsetA = triVertices[triId * 3 + (side + 1) % 3] * 3;
+                int offsetB = triVertices[triId * 3 + (side + 2) % 3] * 3;
+                Coordinate a = new Coordinate(vertices[offsetA], vertices[offsetA + 1], vertices[offsetA + 2]);
+                Coordinate b = new Coordinate(vertices[offsetB], vertices[offsetB + 1], vertices[offsetB + 2]);
+                FastObstructionTest.Wall wall = new FastObstructionTest.Wall(a, b, triAttributes[neighbor]);
+                if(wall.getLength() > minimalWallLength) {
+                    wallTree.insert(new Envelope(a, b), walls.size());
+                    walls.add(wall);
+                    regions.add(triangleRegion[triId]);
+                }
+            }
+        }
+        wallRegion = new int[regions.size()];
+        for(int i = 0; i < wallRegion.length; i++) {
+            wallRegion[i] = regions.get(i);
+        }
+        // Build now, so the tree is read only for all threads
+        wallTree.build();
+    }
+
+    /**
+     * Label connected triangles having the same building identifier
+     * @return Region identifier of each triangle
+     */
+    private static int[] computeRegions(int[] triNeighbors, int[] triAttributes) {
+        int[] regions = new int[triAttributes.length];
+        Arrays.fill(regions, -1);
+        int[] stack = new int[triAttributes.length];
+        int regionCount = 0;
+        for(int seed = 0; seed < triAttributes.length; seed++) {
+            if(regions[seed] != -1) {
+                continue;
+            }
+            int stackSize = 0;
+            stack[stackSize++] = seed;
+            regions[seed] = regionCount;
+            while(stackSize > 0) {
+                int triId = stack[--stackSize];
+                for(int side = 0; side < 3; side++) {
+                    int neighbor = triNeighbors[triId * 3 + side];
+                    if(neighbor != -1 && regions[neighbor] == -1 && triAttributes[neighbor] == triAttributes[triId]) {
+                        regions[neighbor] = regionCount;
+                        stack[stackSize++] = neighbor;
+                    }
+                }
+            }
+            regionCount++;
+        }
+        return regions;
+    }
+
+    /**
+     * @return Number of indexed walls
+     */
+    public int getWallCount() {
+        return walls.size();
+    }
+
+    /**
+     * @param wallId Wall identifier
+     * @return Wall instance
+     */
+    public FastObstructionTest.Wall getWall(int wallId) {
+        return walls.get(wallId);
+    }
+
+    /**
+     * @param triId Triangle identifier
+     * @return Region of connected triangles having the same building identifier
+     */
+    public int getTriangleRegion(int triId) {
+        return triangleRegion[triId];
+    }
+
+    /**
+     * Walls within the distance that face the region of the triangle. The region is not bounded by the distance,
+     * so a wall may be returned even if its path from the origin passes farther than the distance.
+     * @param maxDist Maximum distance from origin to walls
+     * @param p       Origin of search
+     * @param triId   Triangle that contains the origin
+     * @return Walls within maxDist of p
+     */
+    public List<FastObstructionTest.Wall> getWallsInRange(double maxDist, Coordinate p, int triId) {
+        List<FastObstructionTest.Wall> result = new ArrayList<>();
+        if(triId < 0) {
+            return result;
+        }
+        int region = triangleRegion[triId];
+        Envelope searchEnv = new Envelope(p);
+        searchEnv.expandBy(maxDist);
+        for(Object wallIdObj : wallTree.query(searchEnv)) {
+            int wallId = (Integer) wallIdObj;
+            if(wallRegion[wallId] == region) {
+                FastObstructionTest.Wall wall = walls.get(wallId);
+                if(wall.closestPoint(p).distance(p) <= maxDist) {
+                    result.add(wall);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,370 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Thread safe compressed bitmap of long values, used to keep track of the already processed receivers primary keys.
+ * Values are split into chunks of 65536 consecutive values. A chunk stores its values in a sorted array of 16 bits
+ * integers while it is sparse and in a bitmap of 8KB when it is dense, so consecutive primary keys cost about 1 bit
+ * instead of about 50 bytes in a {@link java.util.HashSet}.
+ * The iterator is weakly consistent, it never throws {@link java.util.ConcurrentModificationException}.
+ * @author Nicolas Fortin
+ */
+public class CompressedLongSet extends AbstractSet<Long> implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    // Above this number of values an array chunk is bigger than a bitmap chunk
+    private static final int MAXIMUM_ARRAY_SIZE = 4096;
+    private static final int INITIAL_ARRAY_SIZE = 4;
+    // Sorted keys (high bits of the values) and their chunks
+    private long[] keys = new long[0];
+    private Chunk[] chunks = new Chunk[0];
+    private long size = 0;
+
+    @Override
+    public boolean add(Long value) {
+        return add(value.longValue());
+    }
+
+    /**
+     * @param value Value to add
+     * @return True if the value was not in the set
+     */
+    public synchronized boolean add(long value) {
+        long key = value >> CHUNK_BITS;
+        int index = Arrays.binarySearch(keys, key);
+        if(index < 0) {
+            index = -index - 1;
+            keys = insert(keys, index, key);
+            Chunk[] newChunks = new Chunk[chunks.length + 1];
+            System.arraycopy(chunks, 0, newChunks, 0, index);
+            System.arraycopy(chunks, index, newChunks, index + 1, chunks.length - index);
+            newChunks[index] = new ArrayChunk();
+            chunks = newChunks;
+        }
+        Chunk chunk = chunks[index];
+        if(!chunk.add((int) (value & CHUNK_MASK))) {
+            return false;
+        }
+        if(chunk instanceof ArrayChunk && chunk.size() > MAXIMUM_ARRAY_SIZE) {
+            chunks[index] = ((ArrayChunk) chunk).toBitmap();
+        }
+        size++;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof Long && contains(((Long) o).longValue());
+    }
+
+    /**
+     * @param value Value to look for
+     * @return True if the value is in the set
+     */
+    public synchronized boolean contains(long value) {
+        int index = Arrays.binarySearch(keys, value >> CHUNK_BITS);
+        return index >= 0 && chunks[index].contains((int) (value & CHUNK_MASK));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Long && remove(((Long) o).longValue());
+    }
+
+    /**
+     * @param value Value to remove
+     * @return True if the value was in the set
+     */
+    public synchronized boolean remove(long value) {
+        int index = Arrays.binarySearch(keys, value >> CHUNK_BITS);
+        if(index < 0) {
+            return false;
+        }
+        Chunk chunk = chunks[index];
+        if(!chunk.remove((int) (value & CHUNK_MASK))) {
+            return false;
+        }
+        size--;
+        if(chunk.size() == 0) {
+            long[] newKeys = new long[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, newKeys.length - index);
+            keys = newKeys;
+            Chunk[] newChunks = new Chunk[chunks.length - 1];
+            System.arraycopy(chunks, 0, newChunks, 0, index);
+            System.arraycopy(chunks, index + 1, newChunks, index, newChunks.length - index);
+            chunks = newChunks;
+        } else if(chunk instanceof BitmapChunk && chunk.size() <= MAXIMUM_ARRAY_SIZE) {
+            chunks[index] = ((BitmapChunk) chunk).toArray();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    /**
+     * @return Number of values, may be greater than {@link Integer#MAX_VALUE}
+     */
+    public synchronized long longSize() {
+        return size;
+    }
+
+    @Override
+    public synchronized void clear() {
+        keys = new long[0];
+        chunks = new Chunk[0];
+        size = 0;
+    }
+
+    /**
+     * @return Approximate memory used by the values (bytes)
+     */
+    public synchronized long getMemoryUsage() {
+        long memory = keys.length * 8L;
+        for(Chunk chunk : chunks) {
+            memory += chunk.getMemoryUsage();
+        }
+        return memory;
+    }
+
+    /**
+     * @param value Lower bound
+     * @return The smallest value of the set greater or equal than the provided value, null if there is none
+     */
+    public synchronized Long ceiling(long value) {
+        long key = value >> CHUNK_BITS;
+        int index = Arrays.binarySearch(keys, key);
+        int low = (int) (value & CHUNK_MASK);
+        if(index < 0) {
+            index = -index - 1;
+            low = 0;
+        }
+        for(; index < keys.length; index++) {
+            int found = chunks[index].ceiling(low);
+            if(found >= 0) {
+                return (keys[index] << CHUNK_BITS) | found;
+            }
+            low = 0;
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<Long> iterator() {
+        return new ValueIterator(this);
+    }
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+    private static long[] insert(long[] array, int index, long value) {
+        long[] newArray = new long[array.length + 1];
+        System.arraycopy(array, 0, newArray, 0, index);
+        newArray[index] = value;
+        System.arraycopy(array, index, newArray, index + 1, array.length - index);
+        return newArray;
+    }
+
+    /**
+     * Values sharing the same high bits
+     */
+    private interface Chunk extends Serializable {
+        boolean add(int value);
+        boolean contains(int value);
+        boolean remove(int value);
+        int size();
+        /**
+         * @return Smallest value greater or equal than the provided value, -1 if there is none
+         */
+        int ceiling(int value);
+        long getMemoryUsage();
+    }
+
+    /**
+     * Sparse chunk, sorted values
+     */
+    private static final class ArrayChunk implements Chunk {
+        private static final long serialVersionUID = 1L;
+        private char[] values = new char[INITIAL_ARRAY_SIZE];
+        private int size = 0;
+
+        @Override
+        public boolean add(int value) {
+            int index = Arrays.binarySearch(values, 0, size, (char) value);
+            if(index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if(size == values.length) {
+                values = Arrays.copyOf(values, Math.min(values.length * 2, MAXIMUM_ARRAY_SIZE + 1));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = (char) value;
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean contains(int value) {
+            return Arrays.binarySearch(values, 0, size, (char) value) >= 0;
+        }
+
+        @Override
+        public boolean remove(int value) {
+            int index = Arrays.binarySearch(values, 0, size, (char) value);
+            if(index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int ceiling(int value) {
+            int index = Arrays.binarySearch(values, 0, size, (char) value);
+            if(index < 0) {
+                index = -index - 1;
+            }
+            return index < size ? values[index] : -1;
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return values.length * 2L;
+        }
+
+        BitmapChunk toBitmap() {
+            BitmapChunk bitmap = new BitmapChunk();
+            for(int i = 0; i < size; i++) {
+                bitmap.add(values[i]);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Dense chunk, one bit by value
+     */
+    private static final class BitmapChunk implements Chunk {
+        private static final long serialVersionUID = 1L;
+        private final long[] words = new long[(CHUNK_MASK + 1) / 64];
+        private int size = 0;
+
+        @Override
+        public boolean add(int value) {
+            long mask = 1L << value;
+            int word = value >>> 6;
+            if((words[word] & mask) != 0) {
+                return false;
+            }
+            words[word] |= mask;
+            size++;
+            return true;
+        }
+
+        @Override
+        public boolean contains(int value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public boolean remove(int value) {
+            long mask = 1L << value;
+            int word = value >>> 6;
+            if((words[word] & mask) == 0) {
+                return false;
+            }
+            words[word] &= ~mask;
+            size--;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int ceiling(int value) {
+            int word = value >>> 6;
+            long bits = words[word] & (-1L << value);
+            while (bits == 0) {
+                word++;
+                if(word == words.length) {
+                    return -1;
+                }
+                bits = words[word];
+            }
+            return word * 64 + Long.numberOfTrailingZeros(bits);
+        }
+
+        @Override
+        public long getMemoryUsage() {
+            return words.length * 8L;
+        }
+
+        ArrayChunk toArray() {
+            ArrayChunk array = new ArrayChunk();
+            for(int value = ceiling(0); value >= 0; value = value < CHUNK_MASK ? ceiling(value + 1) : -1) {
+                array.add(value);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Look for the next value in the set at each step
+     */
+    private static final class ValueIterator implements Iterator<Long> {
+        private final CompressedLongSet set;
+        private Long next;
+        private Long last = null;
+
+        ValueIterator(CompressedLongSet set) {
+            this.set = set;
+            this.next = set.ceiling(Long.MIN_VALUE);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Long next() {
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = last == Long.MAX_VALUE ? null : set.ceiling(last + 1);
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+            set.remove(last.longValue());
+            last = null;
+        }
+    }
+}
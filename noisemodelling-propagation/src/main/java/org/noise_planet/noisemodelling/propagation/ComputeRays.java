@@ -50,13 +50,15 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -67,11 +69,29 @@ public class ComputeRays {
     // Reject side diffraction if hull length > than direct length
     // because 20 * LOG10(4) = 12 dB, so small contribution in comparison with diffraction on horizontal edge
     // in order to reduce computational cost
-    private final static double MAX_RATIO_HULL_DIRECT_PATH = 4;
+    public final static double MAX_RATIO_HULL_DIRECT_PATH = 4;
+    // When the receiver chunk size is automatic, receivers are split in order to have this count of chunks per thread
+    // so idle threads can steal remaining chunks of the busy ones
+    private final static int AUTOMATIC_CHUNKS_PER_THREAD = 16;
+    public final static int DEFAULT_SOURCE_WALL_CACHE_SIZE = 50000;
+    public final static double DEFAULT_SOURCE_WALL_CACHE_RESOLUTION = 10;
+    public final static int DEFAULT_GROUND_PROFILE_CACHE_SIZE = 50000;
+    public final static double DEFAULT_GROUND_PROFILE_CACHE_RESOLUTION = 0.001;
     private int threadCount;
+    private int receiverChunkSize = 0;
+    private int sourceWallCacheSize = DEFAULT_SOURCE_WALL_CACHE_SIZE;
+    private double sourceWallCacheResolution = DEFAULT_SOURCE_WALL_CACHE_RESOLUTION;
     private PropagationProcessData data;
+    // Walls around squares of source points, shared by all receivers of the cell
+    private ConcurrentLRUCache<SourceWallKey, List<FastObstructionTest.Wall>> sourceWallCache;
+    private int groundProfileCacheSize = DEFAULT_GROUND_PROFILE_CACHE_SIZE;
+    private double groundProfileCacheResolution = DEFAULT_GROUND_PROFILE_CACHE_RESOLUTION;
+    // Ground altitudes and mean ground plane of segments, shared by all receivers of the cell
+    private ConcurrentLRUCache<GroundProfileKey, double[]> groundProfileCache;
 
     private STRtree rTreeOfGeoSoil;
+    // Rasterized soil areas, null if the ground factor is computed with the polygons
+    private GroundFactorGrid groundFactorGrid;
     private final static Logger LOGGER = LoggerFactory.getLogger(ComputeRays.class);
 
     public static double[] sumArrayWithPonderation(double[] array1, double[] array2, double p) {
@@ -149,6 +169,199 @@ public class ComputeRays {
         this.threadCount = threadCount;
     }
 
+    /**
+     * @return Maximum number of receivers processed by a single task, 0 if computed from receivers and thread count
+     */
+    public int getReceiverChunkSize() {
+        return receiverChunkSize;
+    }
+
+    /**
+     * Receivers are split into ranges processed by a work-stealing pool. Small chunks balance the work of threads
+     * when the computation time of receivers is heterogeneous (dense area), at the cost of more
+     * {@link IComputeRaysOut#subProcess(int, int)} instances.
+     * @param receiverChunkSize Maximum number of receivers processed by a single task, 0 for automatic size
+     */
+    public void setReceiverChunkSize(int receiverChunkSize) {
+        if(receiverChunkSize < 0) {
+            throw new IllegalArgumentException("Receiver chunk size must be positive");
+        }
+        this.receiverChunkSize = receiverChunkSize;
+    }
+
+    /**
+     * @param receiverCount Number of receivers to process
+     * @return Chunk size used to split the receivers range
+     */
+    int computeReceiverChunkSize(int receiverCount) {
+        if(receiverChunkSize > 0) {
+            return receiverChunkSize;
+        } else {
+            return Math.max(1, (int)Math.ceil(receiverCount / (double)(Math.max(1, threadCount) * AUTOMATIC_CHUNKS_PER_THREAD)));
+        }
+    }
+
+    /**
+     * @return Maximum number of source squares whose surrounding walls are kept in memory, 0 if disabled
+     */
+    public int getSourceWallCacheSize() {
+        return sourceWallCacheSize;
+    }
+
+    /**
+     * The walls around a source point are the same for all receivers of the cell, they are cached in order to not
+     * search them again for each receiver. Must be set before {@link #initStructures()}.
+     * @param sourceWallCacheSize Maximum number of source squares whose surrounding walls are kept in memory,
+     *                            0 to disable the cache
+     */
+    public void setSourceWallCacheSize(int sourceWallCacheSize) {
+        if(sourceWallCacheSize < 0) {
+            throw new IllegalArgumentException("Source wall cache size must be positive");
+        }
+        this.sourceWallCacheSize = sourceWallCacheSize;
+    }
+
+    /**
+     * @return Side length (m) of the squares of source points sharing the same cached walls
+     */
+    public double getSourceWallCacheResolution() {
+        return sourceWallCacheResolution;
+    }
+
+    /**
+     * Line sources are split differently for each receiver, so the walls are cached for squares of this side length
+     * and then filtered with the exact distance to the source point.
+     * @param sourceWallCacheResolution Side length (m) of the squares of source points sharing the same cached walls
+     */
+    public void setSourceWallCacheResolution(double sourceWallCacheResolution) {
+        if(!(sourceWallCacheResolution > 0)) {
+            throw new IllegalArgumentException("Source wall cache resolution must be greater than 0");
+        }
+        this.sourceWallCacheResolution = sourceWallCacheResolution;
+    }
+
+    /**
+     * @return Cache of walls around source squares, null if disabled or if the structures are not initialised
+     */
+    public ConcurrentLRUCache<SourceWallKey, List<FastObstructionTest.Wall>> getSourceWallCache() {
+        return sourceWallCache;
+    }
+
+    /**
+     * @return Maximum number of segments whose mean ground plane is kept in memory, 0 if disabled
+     */
+    public int getGroundProfileCacheSize() {
+        return groundProfileCacheSize;
+    }
+
+    /**
+     * The ground profile and mean ground plane of a segment are computed again by the diffraction and reflection
+     * paths that share sub-segments, they are cached in order to not extract the profile again.
+     * Must be set before {@link #initStructures()}.
+     * @param groundProfileCacheSize Maximum number of segments whose mean ground plane is kept in memory,
+     *                               0 to disable the cache
+     */
+    public void setGroundProfileCacheSize(int groundProfileCacheSize) {
+        if(groundProfileCacheSize < 0) {
+            throw new IllegalArgumentException("Ground profile cache size must be positive");
+        }
+        this.groundProfileCacheSize = groundProfileCacheSize;
+    }
+
+    /**
+     * @return Distance (m) under which the segment ends are considered equal by the ground profile cache
+     */
+    public double getGroundProfileCacheResolution() {
+        return groundProfileCacheResolution;
+    }
+
+    /**
+     * Segment ends are rounded to this resolution in order to find the cached ground profile. A larger resolution
+     * reuses the profile of nearly identical segments, with an altitude error bounded by the resolution times the
+     * ground slope.
+     * @param groundProfileCacheResolution Distance (m) under which the segment ends are considered equal
+     */
+    public void setGroundProfileCacheResolution(double groundProfileCacheResolution) {
+        if(!(groundProfileCacheResolution > 0)) {
+            throw new IllegalArgumentException("Ground profile cache resolution must be greater than 0");
+        }
+        this.groundProfileCacheResolution = groundProfileCacheResolution;
+    }
+
+    /**
+     * @return Cache of segments mean ground plane, null if disabled or if the structures are not initialised
+     */
+    public ConcurrentLRUCache<GroundProfileKey, double[]> getGroundProfileCache() {
+        return groundProfileCache;
+    }
+
+    /**
+     * Extract the ground profile of the segment and compute the mean ground plane in the vertical plane of the
+     * segment, with the source at the origin
+     * @param srcCoord Source point
+     * @param receiverCoord Receiver point
+     * @param inters Propagation path between srcCoord and receiverCoord (or null if must be computed here)
+     * @return Ground altitude of the source, ground altitude of the receiver, A and B coefficients of the mean plane
+     */
+    private double[] getMeanGroundPlane(Coordinate srcCoord, Coordinate receiverCoord,
+                                        List<TriIdWithIntersection> inters) {
+        GroundProfileKey key = null;
+        if(groundProfileCache != null) {
+            key = new GroundProfileKey(srcCoord, receiverCoord, groundProfileCacheResolution);
+            double[] meanPlane = groundProfileCache.get(key);
+            if(meanPlane != null) {
+                return meanPlane;
+            }
+        }
+        if(inters == null) {
+            inters = new ArrayList<>();
+            data.freeFieldFinder.computePropagationPath(srcCoord, receiverCoord, false, inters, true);
+        }
+        List<Coordinate> rSground = data.freeFieldFinder.getGroundProfile(inters);
+        double altR = rSground.get(rSground.size() - 1).z;    // altitude Receiver
+        double altS = rSground.get(0).z; // altitude Source
+        rSground = JTSUtility.getNewCoordinateSystem(rSground);
+        double[] ab = JTSUtility.getMeanPlaneCoefficients(rSground.toArray(new Coordinate[rSground.size()]));
+        double[] meanPlane = new double[] {altS, altR, ab[0], ab[1]};
+        if(key != null) {
+            groundProfileCache.put(key, meanPlane);
+        }
+        return meanPlane;
+    }
+
+    /**
+     * @param srcCoord Source point
+     * @return Walls within maximum reflection distance of the source point
+     */
+    private List<FastObstructionTest.Wall> getSourceWalls(Coordinate srcCoord) {
+        BuildingWallIndex wallIndex = data.freeFieldFinder.getWallIndex();
+        if(sourceWallCache == null || wallIndex == null) {
+            return data.freeFieldFinder.getWallsInRange(data.maxRefDist, srcCoord);
+        }
+        int triId = data.freeFieldFinder.getTriangleIdByCoordinate(srcCoord);
+        if(triId < 0) {
+            return new ArrayList<>();
+        }
+        SourceWallKey key = new SourceWallKey((long) Math.floor(srcCoord.x / sourceWallCacheResolution),
+                (long) Math.floor(srcCoord.y / sourceWallCacheResolution), wallIndex.getTriangleRegion(triId));
+        List<FastObstructionTest.Wall> walls = sourceWallCache.get(key);
+        if(walls == null) {
+            // Walls in range of any point of the square
+            Coordinate center = new Coordinate((key.column + 0.5) * sourceWallCacheResolution,
+                    (key.row + 0.5) * sourceWallCacheResolution);
+            walls = Collections.unmodifiableList(wallIndex.getWallsInRange(data.maxRefDist +
+                    sourceWallCacheResolution * Math.sqrt(0.5), center, triId));
+            sourceWallCache.put(key, walls);
+        }
+        List<FastObstructionTest.Wall> wallsInRange = new ArrayList<>(walls.size());
+        for(FastObstructionTest.Wall wall : walls) {
+            if(wall.distance(srcCoord) <= data.maxRefDist) {
+                wallsInRange.add(wall);
+            }
+        }
+        return wallsInRange;
+    }
+
     /**
      * Update ground Z coordinates of sound sources absolute to sea levels
      */
@@ -307,15 +520,30 @@ public class ComputeRays {
 
     public List<PropagationPath> computeReflexion(Coordinate receiverCoord,
                                             Coordinate srcCoord, boolean favorable, List<FastObstructionTest.Wall> nearBuildingsWalls) {
+        return computeReflexion(receiverCoord, srcCoord, favorable,
+                new MirrorReceiverTree(receiverCoord, nearBuildingsWalls, data.reflexionOrder), null);
+    }
+
+    /**
+     * @param receiverCoord Receiver position
+     * @param srcCoord Source position
+     * @param favorable Favorable propagation conditions
+     * @param mirrorReceiverTree Image source tree of the receiver, shared by all sources of the receiver
+     * @param activeWalls Walls of the tree to use for this source, null for all walls
+     * @return Reflection propagation paths
+     */
+    public List<PropagationPath> computeReflexion(Coordinate receiverCoord, Coordinate srcCoord, boolean favorable,
+                                                  MirrorReceiverTree mirrorReceiverTree, BitSet activeWalls) {
         // Compute receiver mirror
         LineSegment srcReceiver = new LineSegment(srcCoord, receiverCoord);
         LineIntersector linters = new RobustLineIntersector();
+        List<FastObstructionTest.Wall> nearBuildingsWalls = mirrorReceiverTree.getWalls();
 
         List<PropagationPath> reflexionPropagationPaths = new ArrayList<>();
 
 
-        MirrorReceiverIterator.It mirroredReceivers = new MirrorReceiverIterator.It(receiverCoord, nearBuildingsWalls,
-                srcReceiver, data.maxRefDist, data.reflexionOrder, data.maxSrcDist);
+        Iterable<MirrorReceiverResult> mirroredReceivers = mirrorReceiverTree.iterate(srcReceiver, data.maxRefDist,
+                data.maxSrcDist, activeWalls);
 
         for (MirrorReceiverResult receiverReflection : mirroredReceivers) {
 
@@ -496,42 +724,40 @@ public class ComputeRays {
 
 
         //will give a flag here for soil effect
-        final List<GeoWithSoilType> soilTypeList = data.getSoilList();
-        LineString RSZone = factory.createLineString(new Coordinate[]{receiverCoord, srcCoord});
-        List<EnvelopeWithIndex<Integer>> resultZ0 = rTreeOfGeoSoil.query(RSZone.getEnvelopeInternal());
-        for (EnvelopeWithIndex<Integer> envel : resultZ0) {
-            RectangleLineIntersector rectangleLineIntersector = new RectangleLineIntersector(envel);
-            if(rectangleLineIntersector.intersects(receiverCoord, srcCoord)) {
-                try {
-                    //get the geo intersected
-                    Geometry geoInter = RSZone.intersection(soilTypeList.get(envel.getId()).getGeo());
-                    //add the intersected distance with ground effect
-                    totRSDistance += getIntersectedDistance(geoInter) * soilTypeList.get(envel.getId()).getType();
-                } catch (TopologyException | IllegalArgumentException ex) {
-                    // Ignore
+        if(groundFactorGrid != null) {
+            gPath = groundFactorGrid.getMeanG(receiverCoord, srcCoord);
+        } else {
+            final List<GeoWithSoilType> soilTypeList = data.getSoilList();
+            LineString RSZone = factory.createLineString(new Coordinate[]{receiverCoord, srcCoord});
+            List<EnvelopeWithIndex<Integer>> resultZ0 = rTreeOfGeoSoil.query(RSZone.getEnvelopeInternal());
+            for (EnvelopeWithIndex<Integer> envel : resultZ0) {
+                RectangleLineIntersector rectangleLineIntersector = new RectangleLineIntersector(envel);
+                if(rectangleLineIntersector.intersects(receiverCoord, srcCoord)) {
+                    try {
+                        //get the geo intersected
+                        Geometry geoInter = RSZone.intersection(soilTypeList.get(envel.getId()).getGeo());
+                        //add the intersected distance with ground effect
+                        totRSDistance += getIntersectedDistance(geoInter) * soilTypeList.get(envel.getId()).getType();
+                    } catch (TopologyException | IllegalArgumentException ex) {
+                        // Ignore
+                    }
                 }
             }
+            // Compute GPath using 2D Length
+            gPath = totRSDistance / RSZone.getLength();
         }
-        // Compute GPath using 2D Length
-        gPath = totRSDistance / RSZone.getLength();
-
-        if(inters == null) {
-            inters = new ArrayList<>();
-            data.freeFieldFinder.computePropagationPath(srcCoord, receiverCoord, false, inters, true);
-        }
-        List<Coordinate> rSground = data.freeFieldFinder.getGroundProfile(inters);
-        altR = rSground.get(inters.size() - 1).z;    // altitude Receiver
-        altS = rSground.get(0).z; // altitude Source
-        double angle = new LineSegment(rSground.get(0), rSground.get(rSground.size() - 1)).angle();
-        rSground = JTSUtility.getNewCoordinateSystem(rSground);
 
         // Compute mean ground plan
-        double[] ab = JTSUtility.getMeanPlaneCoefficients(rSground.toArray(new Coordinate[rSground.size()]));
+        double[] meanPlane = getMeanGroundPlane(srcCoord, receiverCoord, inters);
+        altS = meanPlane[0];
+        altR = meanPlane[1];
+        double[] ab = new double[] {meanPlane[2], meanPlane[3]};
+        double angle = new LineSegment(srcCoord, receiverCoord).angle();
         Coordinate pInit = new Coordinate();
-        Coordinate rotatedReceiver = new Coordinate(rSground.get(rSground.size() - 1));
-        rotatedReceiver.setOrdinate(1, receiverCoord.z);
-        Coordinate rotatedSource = new Coordinate(rSground.get(0));
-        rotatedSource.setOrdinate(1, srcCoord.z);
+        // Receiver and source in the vertical plane of the segment, as in JTSUtility.getNewCoordinateSystem
+        Coordinate rotatedReceiver = new Coordinate((receiverCoord.x - srcCoord.x) * Math.cos(angle) +
+                (receiverCoord.y - srcCoord.y) * Math.sin(angle), receiverCoord.z);
+        Coordinate rotatedSource = new Coordinate(0, srcCoord.z);
         projReceiver = JTSUtility.makeProjectedPoint(ab[0], ab[1], rotatedReceiver);
         projSource = JTSUtility.makeProjectedPoint(ab[0], ab[1], rotatedSource);
         pInit = JTSUtility.makeProjectedPoint(ab[0], ab[1], new Coordinate(0,0,0));
@@ -651,11 +877,32 @@ public class ComputeRays {
         return polyCut;
     }
 
+    /**
+     * The hull of a side path contains the source, the receiver and each vertex x of the path, so its perimeter is
+     * greater than |source x| + |x receiver| + |source receiver|. The vertices of the accepted paths are then in the
+     * ellipse of foci source and receiver and of major axis (MAX_RATIO_HULL_DIRECT_PATH - 1) * |source receiver|.
+     * @param directDistance Distance between the source and the receiver
+     * @return Maximal distance between the source-receiver segment and a side diffraction path (semi-minor axis)
+     */
+    public static double getSidePathMaximumOffset(double directDistance) {
+        double majorAxis = MAX_RATIO_HULL_DIRECT_PATH - 1;
+        return directDistance / 2 * Math.sqrt(majorAxis * majorAxis - 1);
+    }
+
+    /**
+     * @param directDistance Distance between the source and the receiver
+     * @return Maximal distance between the receiver (or the source) and a side diffraction path (semi-major axis plus
+     * the focal distance)
+     */
+    public static double getSidePathMaximumDistance(double directDistance) {
+        return MAX_RATIO_HULL_DIRECT_PATH / 2 * directDistance;
+    }
+
     /**
      * Compute Side Hull
-     * Create a line between p1 and p2. Find the first intersection of this line with a building then create a ConvexHull
-     * with the points of buildings in intersection. While there is an intersection add more points to the convex hull.
-     * The side diffraction path is found when there is no more intersection.
+     * Create a line between p1 and p2. Find the first intersection of this line with a building then insert the points
+     * of the building in intersection into a convex hull. While there is an intersection on the new edges of the hull,
+     * add more points to the convex hull. The side diffraction path is found when there is no more intersection.
      * @param left If true return path between p1 and p2; else p2 to p1
      * @param p1 First point
      * @param p2 Second point
@@ -666,21 +913,16 @@ public class ComputeRays {
             return new ArrayList<>();
         }
 
-        // Intersection test cache
-        Set<LineSegment> freeFieldSegments = new HashSet<>();
-        GeometryFactory geometryFactory = new GeometryFactory();
+        IncrementalConvexHull convexHull = new IncrementalConvexHull(p1, p2);
 
+        // Points of the buildings in intersection, to insert into the hull
         List<Coordinate> input = new ArrayList<>();
 
-        Coordinate[] coordinates = new Coordinate[0];
         int indexp1 = 0;
         int indexp2 = 0;
 
         boolean convexHullIntersects = true;
 
-        input.add(p1);
-        input.add(p2);
-
         Set<Integer> buildingInHull = new HashSet<>();
 
         Plane cutPlane = ComputeZeroRadPlane(p1, p2);
@@ -692,72 +934,58 @@ public class ComputeRays {
 
         int k;
         while (convexHullIntersects) {
-            ConvexHull convexHull = new ConvexHull(input.toArray(new Coordinate[0]), geometryFactory);
-            Geometry convexhull = convexHull.getConvexHull();
+            for(Coordinate point : input) {
+                convexHull.add(point);
+            }
+            input.clear();
 
-            if (convexhull.getLength() / p1.distance(p2) > MAX_RATIO_HULL_DIRECT_PATH) {
+            if (convexHull.getLength() / p1.distance(p2) > MAX_RATIO_HULL_DIRECT_PATH) {
                 return new ArrayList<>();
             }
 
             convexHullIntersects = false;
-            coordinates = convexhull.getCoordinates();
 
-            input.clear();
-            input.addAll(Arrays.asList(coordinates));
-
-            indexp1 = -1;
-            for (int i = 0; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p1)) {
-                    indexp1 = i;
-                    break;
-                }
+            if(convexHull.size() < 3) {
+                // The hull is the segment p1 p2: no building in intersection, or the inserted points are all
+                // collinear with p1 p2. The JTS hull was then a LineString, no side path was returned either
+                return new ArrayList<>();
             }
+            indexp1 = convexHull.indexOf(p1);
             if (indexp1 == -1) {
                 // P1 does not belong to convex vertices, cannot compute diffraction
                 // TODO handle concave path
                 return new ArrayList<>();
             }
-            // Transform array to set p1 at index=0
-            Coordinate[] coordinatesShifted = new Coordinate[coordinates.length];
-            // Copy from P1 to end in beginning of new array
-            int len = (coordinates.length - 1) - indexp1;
-            System.arraycopy(coordinates, indexp1, coordinatesShifted, 0, len);
-            // Copy from 0 to P1 in the end of array
-            System.arraycopy(coordinates, 0, coordinatesShifted, len, coordinates.length - len - 1);
-            coordinatesShifted[coordinatesShifted.length - 1] = coordinatesShifted[0];
-            coordinates = coordinatesShifted;
-            indexp1 = 0;
-            indexp2 = -1;
-            for (int i = 1; i < coordinates.length - 1; i++) {
-                if (coordinates[i].equals(p2)) {
-                    indexp2 = i;
-                    break;
-                }
-            }
-            if (indexp2 == -1) {
+            int hullIndexp2 = convexHull.indexOf(p2);
+            if (hullIndexp2 == -1) {
                 // P2 does not belong to convex vertices, cannot compute diffraction
                 // TODO handle concave path
                 return new ArrayList<>();
             }
-            for (k = 0; k < coordinates.length - 1; k++) {
-                LineSegment freeFieldTestSegment = new LineSegment(coordinates[k], coordinates[k + 1]);
+            // Index of P2 when the vertices start at P1
+            indexp2 = (hullIndexp2 - indexp1 + convexHull.size()) % convexHull.size();
+            for (k = 0; k < convexHull.size(); k++) {
+                int edge = indexp1 + k;
                 // Ignore intersection if iterating over other side (not parts of what is returned)
                 if (left && k < indexp2 || !left && k >= indexp2) {
-                    if (!freeFieldSegments.contains(freeFieldTestSegment)) {
+                    // Only the edges created by the last insertions are tested
+                    if (!convexHull.isFreeEdge(edge)) {
+                        Coordinate edgeStart = convexHull.get(edge);
+                        Coordinate edgeEnd = convexHull.get(edge + 1);
                         // Check if we still are in the propagation domain
-                        if(!data.freeFieldFinder.getMeshEnvelope().contains(coordinates[k]) ||
-                                !data.freeFieldFinder.getMeshEnvelope().contains(coordinates[k+1])) {
+                        if(!data.freeFieldFinder.getMeshEnvelope().contains(edgeStart) ||
+                                !data.freeFieldFinder.getMeshEnvelope().contains(edgeEnd)) {
                             // This side goes over propagation path
                             return new ArrayList<>();
                         }
                         intersectionRayVisitor = new IntersectionRayVisitor(data.freeFieldFinder.getPolygonWithHeight(),
-                                coordinates[k], coordinates[k + 1], data.freeFieldFinder, input, buildingInHull, cutPlane);
-                        data.freeFieldFinder.getBuildingsOnPath(coordinates[k], coordinates[k + 1], intersectionRayVisitor);
+                                edgeStart, edgeEnd, data.freeFieldFinder, input, buildingInHull, cutPlane);
+                        data.freeFieldFinder.getBuildingsOnPath(edgeStart, edgeEnd, intersectionRayVisitor);
                         if(!intersectionRayVisitor.doContinue()) {
                             convexHullIntersects = true;
                         }
                         if (!convexHullIntersects) {
-                            freeFieldSegments.add(freeFieldTestSegment);
+                            convexHull.setFreeEdge(edge);
                         } else {
                             break;
                         }
@@ -765,6 +993,9 @@ public class ComputeRays {
                 }
             }
         }
+        // Transform hull to set p1 at index=0
+        Coordinate[] coordinates = convexHull.getCoordinates(indexp1);
+        indexp1 = 0;
         // Check for invalid coordinates
         for(Coordinate p : coordinates) {
             if(p.z < 0) {
@@ -810,6 +1041,12 @@ public class ComputeRays {
                 }
             }
         }
+        RasterDem demRaster = data.freeFieldFinder.getDemRaster();
+        if(freefield && demRaster != null && demRaster.intersects(srcCoord, receiverCoord)) {
+            // The topography is not in the mesh
+            freefield = false;
+            topographyHideReceiver = true;
+        }
 
         // double fav_probability = favrose[(int) (Math.round(calcRotationAngleInDegrees(srcCoord, receiverCoord) / 30))];
 
@@ -892,14 +1129,15 @@ public class ComputeRays {
      * @param sourceLi Coefficient of power per meter for this point source
      * @param receiverCoord coordinate of receiver
      * @param rcvId receiver identifier
-     * @param nearBuildingsWalls Walls to use in reflection
+     * @param mirrorReceiverTree Image source tree of the receiver, null if there is no reflection
+     * @param activeWalls Walls of the image source tree to use in reflection
      * @param debugInfo
      * @param dataOut
      * @return Minimal power level (dB) or maximum attenuation (dB)
      */
     private double[] receiverSourcePropa(Coordinate srcCoord, int srcId, double sourceLi,
-                                     Coordinate receiverCoord, int rcvId,
-                                     List<FastObstructionTest.Wall> nearBuildingsWalls, List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut) {
+                                     Coordinate receiverCoord, int rcvId, MirrorReceiverTree mirrorReceiverTree,
+                                     BitSet activeWalls, List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut) {
 
         List<PropagationPath> propagationPaths;
         // Build mirrored receiver list from wall list
@@ -911,8 +1149,9 @@ public class ComputeRays {
             propagationPaths = directPath(srcCoord, receiverCoord, data.isComputeVerticalDiffraction(), true);
 
             // Process specular reflection
-            if (data.reflexionOrder > 0) {
-                List<PropagationPath> propagationPaths_all = computeReflexion(receiverCoord, srcCoord, false, nearBuildingsWalls);
+            if (mirrorReceiverTree != null) {
+                List<PropagationPath> propagationPaths_all = computeReflexion(receiverCoord, srcCoord, false,
+                        mirrorReceiverTree, activeWalls);
                 propagationPaths.addAll(propagationPaths_all);
             }
 
@@ -965,10 +1204,13 @@ public class ComputeRays {
     public void computeRaysAtPosition(Coordinate receiverCoord, int idReceiver, List<PropagationDebugInfo> debugInfo, IComputeRaysOut dataOut, ProgressVisitor progressVisitor) {
         // List of walls within maxReceiverSource distance
         HashSet<Integer> processedLineSources = new HashSet<Integer>(); //Already processed Raw source (line and/or points)
-        Set<FastObstructionTest.Wall> wallsReceiver = new HashSet<>();
+        // Mirrored receivers are shared by all sources
+        MirrorReceiverTree mirrorReceiverTree = null;
+        BitSet receiverWallIds = null;
         if (data.reflexionOrder > 0) {
-            wallsReceiver.addAll(data.freeFieldFinder.getLimitsInRange(
-                    data.maxRefDist, receiverCoord, false));
+            mirrorReceiverTree = new MirrorReceiverTree(receiverCoord, data.reflexionOrder);
+            receiverWallIds = mirrorReceiverTree.addWalls(data.freeFieldFinder.getWallsInRange(data.maxRefDist,
+                    receiverCoord));
         }
         double searchSourceDistance = data.maxSrcDist;
         Envelope receiverSourceRegion = new Envelope(receiverCoord.x
@@ -1016,14 +1258,19 @@ public class ComputeRays {
         for (SourcePointInfo src : sourceList) {
             // For each Pt Source - Pt Receiver
             Coordinate srcCoord = src.position;
+            if(!data.isAffectedPair(srcCoord, receiverCoord)) {
+                // Rays of this pair are not modified by the changed area
+                totalPowerRemaining = Math.max(0, totalPowerRemaining - src.globalWj);
+                continue;
+            }
 
-            Set<FastObstructionTest.Wall> wallsSource = new HashSet<>(wallsReceiver);
-            if (data.reflexionOrder > 0) {
-                wallsSource.addAll(data.freeFieldFinder.getLimitsInRange(
-                        data.maxRefDist, srcCoord, false));
+            BitSet activeWalls = null;
+            if (mirrorReceiverTree != null) {
+                activeWalls = (BitSet) receiverWallIds.clone();
+                activeWalls.or(mirrorReceiverTree.addWalls(getSourceWalls(srcCoord)));
             }
             double[] power = receiverSourcePropa(srcCoord, src.sourcePrimaryKey, src.li, receiverCoord, idReceiver,
-                    new ArrayList<>(wallsSource), debugInfo, dataOut);
+                    mirrorReceiverTree, activeWalls, debugInfo, dataOut);
             double global = ComputeRays.sumArray(power.length, ComputeRays.dbaToW(power));
             totalPowerRemaining -= src.globalWj;
             if(power.length > 0) {
@@ -1055,6 +1302,32 @@ public class ComputeRays {
                         new EnvelopeWithIndex<Integer>(geoWithSoilType.getGeo().getEnvelopeInternal(), i));
             }
         }
+        groundFactorGrid = null;
+        if(data.groundFactorGridResolution > 0 && soilTypeList != null && !soilTypeList.isEmpty()) {
+            Envelope soilEnvelope = new Envelope();
+            for(GeoWithSoilType geoWithSoilType : soilTypeList) {
+                soilEnvelope.expandToInclude(geoWithSoilType.getGeo().getEnvelopeInternal());
+            }
+            if(data.freeFieldFinder != null) {
+                soilEnvelope = soilEnvelope.intersection(data.freeFieldFinder.getMeshEnvelope());
+            }
+            if(!soilEnvelope.isNull()) {
+                groundFactorGrid = GroundFactorGrid.rasterize(soilTypeList, soilEnvelope,
+                        data.groundFactorGridResolution);
+            }
+        }
+        // Buffers of the changed area are shared by the threads
+        data.prepareChangedArea();
+        if(sourceWallCacheSize > 0 && data.reflexionOrder > 0) {
+            sourceWallCache = new ConcurrentLRUCache<>(sourceWallCacheSize);
+        } else {
+            sourceWallCache = null;
+        }
+        if(groundProfileCacheSize > 0) {
+            groundProfileCache = new ConcurrentLRUCache<>(groundProfileCacheSize);
+        } else {
+            groundProfileCache = null;
+        }
     }
 
     public void runDebug(IComputeRaysOut computeRaysOut, List<PropagationDebugInfo> debugInfo) {
@@ -1068,33 +1341,35 @@ public class ComputeRays {
         // maxSrcDist meters
         ProgressVisitor propaProcessProgression = data.cellProg;
 
-        int splitCount = threadCount;
-        ThreadPool threadManager = new ThreadPool(
-                splitCount,
-                splitCount + 1, Long.MAX_VALUE,
-                TimeUnit.SECONDS);
-        int maximumReceiverBatch = (int) Math.ceil(data.receivers.size() / (double) splitCount);
-        int endReceiverRange = 0;
-        while (endReceiverRange < data.receivers.size()) {
-            if(propaProcessProgression != null && propaProcessProgression.isCanceled()) {
-                break;
+        int receiverCount = data.receivers.size();
+        int chunkSize = computeReceiverChunkSize(receiverCount);
+        if(threadCount > 1) {
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            try {
+                pool.invoke(new ReceiverRangeTask(0, receiverCount, chunkSize, this, debugInfo,
+                        propaProcessProgression, computeRaysOut));
+            } finally {
+                pool.shutdown();
             }
-            int newEndReceiver = Math.min(endReceiverRange + maximumReceiverBatch, data.receivers.size());
-            RangeReceiversComputation batchThread = new RangeReceiversComputation(endReceiverRange,
-                    newEndReceiver, this, debugInfo, propaProcessProgression,
-                    computeRaysOut.subProcess(endReceiverRange ,newEndReceiver));
-            if(threadCount != 1) {
-                threadManager.executeBlocking(batchThread);
-            } else {
-                batchThread.run();
+        } else {
+            int endReceiverRange = 0;
+            while (endReceiverRange < receiverCount) {
+                if(propaProcessProgression != null && propaProcessProgression.isCanceled()) {
+                    break;
+                }
+                int newEndReceiver = Math.min(endReceiverRange + chunkSize, receiverCount);
+                new RangeReceiversComputation(endReceiverRange, newEndReceiver, this, debugInfo,
+                        propaProcessProgression, computeRaysOut.subProcess(endReceiverRange, newEndReceiver)).run();
+                endReceiverRange = newEndReceiver;
             }
-            endReceiverRange = newEndReceiver;
         }
-        threadManager.shutdown();
-        try {
-            threadManager.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException ex) {
-            LOGGER.error(ex.getLocalizedMessage(), ex);
+        if(sourceWallCache != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Source wall cache %d hits %d misses", sourceWallCache.getHitCount(),
+                    sourceWallCache.getMissCount()));
+        }
+        if(groundProfileCache != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(String.format("Ground profile cache %d hits %d misses", groundProfileCache.getHitCount(),
+                    groundProfileCache.getMissCount()));
         }
     }
 
@@ -1116,6 +1391,50 @@ public class ComputeRays {
 
     }
 
+    /**
+     * Fork-join task that split the receivers range in two halves until the range is not greater than the chunk size.
+     * Threads of the pool steal the pending halves of busy threads.
+     */
+    private static final class ReceiverRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int startReceiver; // Included
+        private final int endReceiver; // Excluded
+        private final int chunkSize;
+        private final ComputeRays propagationProcess;
+        private final List<PropagationDebugInfo> debugInfo;
+        private final ProgressVisitor progressVisitor;
+        private final IComputeRaysOut dataOut;
+
+        public ReceiverRangeTask(int startReceiver, int endReceiver, int chunkSize, ComputeRays propagationProcess,
+                                 List<PropagationDebugInfo> debugInfo, ProgressVisitor progressVisitor,
+                                 IComputeRaysOut dataOut) {
+            this.startReceiver = startReceiver;
+            this.endReceiver = endReceiver;
+            this.chunkSize = chunkSize;
+            this.propagationProcess = propagationProcess;
+            this.debugInfo = debugInfo;
+            this.progressVisitor = progressVisitor;
+            this.dataOut = dataOut;
+        }
+
+        @Override
+        protected void compute() {
+            if(progressVisitor != null && progressVisitor.isCanceled()) {
+                return;
+            }
+            if(endReceiver - startReceiver <= chunkSize) {
+                new RangeReceiversComputation(startReceiver, endReceiver, propagationProcess, debugInfo,
+                        progressVisitor, dataOut.subProcess(startReceiver, endReceiver)).run();
+            } else {
+                int middle = startReceiver + (endReceiver - startReceiver) / 2;
+                invokeAll(new ReceiverRangeTask(startReceiver, middle, chunkSize, propagationProcess, debugInfo,
+                                progressVisitor, dataOut),
+                        new ReceiverRangeTask(middle, endReceiver, chunkSize, propagationProcess, debugInfo,
+                                progressVisitor, dataOut));
+            }
+        }
+    }
+
     private static final class RangeReceiversComputation implements Runnable {
         private final int startReceiver; // Included
         private final int endReceiver; // Excluded
@@ -1205,6 +1524,60 @@ public class ComputeRays {
         }
     }
 
+    /**
+     * Segment ends rounded to the ground profile cache resolution
+     */
+    public static final class GroundProfileKey {
+        private final long[] ends;
+
+        GroundProfileKey(Coordinate p0, Coordinate p1, double resolution) {
+            ends = new long[] {Math.round(p0.x / resolution), Math.round(p0.y / resolution),
+                    Math.round(p1.x / resolution), Math.round(p1.y / resolution)};
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof GroundProfileKey && Arrays.equals(ends, ((GroundProfileKey) o).ends);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ends);
+        }
+    }
+
+    /**
+     * Square of source points in a region of the mesh, identifies the walls of the source wall cache
+     */
+    public static final class SourceWallKey {
+        private final long column;
+        private final long row;
+        private final int region;
+
+        SourceWallKey(long column, long row, int region) {
+            this.column = column;
+            this.row = row;
+            this.region = region;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof SourceWallKey)) {
+                return false;
+            }
+            SourceWallKey other = (SourceWallKey) o;
+            return column == other.column && row == other.row && region == other.region;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new long[] {column, row, region});
+        }
+    }
+
     private static final class SourcePointInfo implements Comparable<SourcePointInfo> {
         private double[] wj;
         private double li; //
@@ -1288,6 +1661,17 @@ public class ComputeRays {
             }
         }
 
+        @Override
+        public boolean isBelowPath(double minX, double minY, double maxX, double maxY, double maxZ) {
+            // The cut plane is linear, the roofs are below it if the highest corners of the box are below it
+            return isBelowCutPlane(minX, minY, maxZ) && isBelowCutPlane(minX, maxY, maxZ) &&
+                    isBelowCutPlane(maxX, minY, maxZ) && isBelowCutPlane(maxX, maxY, maxZ);
+        }
+
+        private boolean isBelowCutPlane(double x, double y, double z) {
+            return cutPlane.getOffset(new org.apache.commons.math3.geometry.euclidean.threed.Vector3D(x, y, z)) < 0;
+        }
+
         public boolean doContinue() {
             return !foundIntersection;
         }
@@ -55,9 +55,22 @@ import java.util.concurrent.atomic.AtomicLong;
 public class ComputeRaysOut implements IComputeRaysOut {
     public ConcurrentLinkedDeque<verticeSL> receiversAttenuationLevels = new ConcurrentLinkedDeque<>();
     public List<PropagationPath> propagationPaths = Collections.synchronizedList(new ArrayList<PropagationPath>());
+    public ConcurrentLinkedDeque<ScenariosSL> receiversScenariosLevels = new ConcurrentLinkedDeque<>();
 
     public PropagationProcessPathData genericMeteoData;
     public PropagationProcessData inputData;
+    private List<PropagationProcessPathData> meteoScenarios = Collections.emptyList();
+    // Scenario indices, the scenarios sharing the ground and diffraction terms follow their group leader
+    private int[] scenariosEvaluationOrder = new int[0];
+    // True if the scenario has to be evaluated completely, false if only the absorption changes
+    private boolean[] scenarioGroupLeader = new boolean[0];
+    // Attenuation evaluator and spectrum buffers of each computation thread, reused for all source-receiver pairs
+    private final ThreadLocal<AttenuationScratch> attenuationScratch = new ThreadLocal<AttenuationScratch>() {
+        @Override
+        protected AttenuationScratch initialValue() {
+            return new AttenuationScratch();
+        }
+    };
 
     public ComputeRaysOut(boolean keepRays, PropagationProcessPathData pathData, PropagationProcessData inputData) {
         this.keepRays = keepRays;
@@ -107,6 +120,49 @@ public class ComputeRaysOut implements IComputeRaysOut {
 
     }
 
+    /**
+     * Evaluate one attenuation spectrum by scenario for each source-receiver pair, in addition to
+     * {@link #genericMeteoData}. Results are stored in {@link #receiversScenariosLevels}.
+     * Rays are shared by all scenarios, the scenarios having the same celerity and ground options only
+     * differ by the atmospheric absorption and the wind rose so the ground and diffraction terms are computed once.
+     * @param meteoScenarios Meteorological scenarios
+     */
+    public void setMeteoScenarios(List<PropagationProcessPathData> meteoScenarios) {
+        int scenarioCount = meteoScenarios.size();
+        int[] evaluationOrder = new int[scenarioCount];
+        boolean[] groupLeader = new boolean[scenarioCount];
+        boolean[] ordered = new boolean[scenarioCount];
+        int orderIndex = 0;
+        for(int leader = 0; leader < scenarioCount; leader++) {
+            if(ordered[leader]) {
+                continue;
+            }
+            PropagationProcessPathData leaderData = meteoScenarios.get(leader);
+            groupLeader[leader] = true;
+            ordered[leader] = true;
+            evaluationOrder[orderIndex++] = leader;
+            for(int other = leader + 1; other < scenarioCount; other++) {
+                PropagationProcessPathData otherData = meteoScenarios.get(other);
+                if(!ordered[other] && Double.compare(leaderData.getCelerity(), otherData.getCelerity()) == 0 &&
+                        leaderData.isgDisc() == otherData.isgDisc() &&
+                        leaderData.isPrime2520() == otherData.isPrime2520()) {
+                    ordered[other] = true;
+                    evaluationOrder[orderIndex++] = other;
+                }
+            }
+        }
+        this.scenariosEvaluationOrder = evaluationOrder;
+        this.scenarioGroupLeader = groupLeader;
+        this.meteoScenarios = new ArrayList<>(meteoScenarios);
+    }
+
+    /**
+     * @return Meteorological scenarios evaluated for each source-receiver pair
+     */
+    public List<PropagationProcessPathData> getMeteoScenarios() {
+        return meteoScenarios;
+    }
+
     public PropagationProcessData getInputData() {
         return inputData;
     }
@@ -128,6 +184,10 @@ public class ComputeRaysOut implements IComputeRaysOut {
                 }
             }
             receiversAttenuationLevels.add(new ComputeRaysOut.verticeSL(receiverId, sourceId, aGlobalMeteo));
+            if(!meteoScenarios.isEmpty()) {
+                receiversScenariosLevels.add(new ScenariosSL(receiverId, sourceId,
+                        computeScenariosAttenuation(sourceLi, propagationPath)));
+            }
             return aGlobalMeteo;
         } else {
             return new double[0];
@@ -137,38 +197,25 @@ public class ComputeRaysOut implements IComputeRaysOut {
     public double[] computeAttenuation(PropagationProcessPathData pathData, long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
         if(pathData != null) {
             // Compute receiver/source attenuation
-            EvaluateAttenuationCnossos evaluateAttenuationCnossos = new EvaluateAttenuationCnossos();
+            AttenuationScratch scratch = attenuationScratch.get();
+            scratch.ensureFrequencyCount(pathData.getFrequencyConstants().getFrequencyCount());
+            EvaluateAttenuationCnossos evaluateAttenuationCnossos = scratch.evaluator;
+            double[] aGlobalMeteoHom = scratch.aGlobalMeteoHom;
+            double[] aGlobalMeteoFav = scratch.aGlobalMeteoFav;
             double[] aGlobalMeteo = null;
             for (PropagationPath propath : propagationPath) {
                 List<PointPath> ptList = propath.getPointList();
                 int roseindex = getRoseIndex(ptList.get(0).coordinate, ptList.get(ptList.size() - 1).coordinate);
 
-                // Compute homogeneous conditions attenuation
-                propath.setFavorable(false);
-                evaluateAttenuationCnossos.evaluate(propath, pathData);
-                double[] aGlobalMeteoHom = evaluateAttenuationCnossos.getaGlobal();
-
-                // Compute favorable conditions attenuation
-                propath.setFavorable(true);
-                evaluateAttenuationCnossos.evaluate(propath, pathData);
-                double[] aGlobalMeteoFav = evaluateAttenuationCnossos.getaGlobal();
+                // Compute homogeneous and favorable conditions attenuation
+                evaluateAttenuationCnossos.evaluateBoth(propath, pathData, aGlobalMeteoHom, aGlobalMeteoFav);
 
                 // Compute attenuation under the wind conditions using the ray direction
-                double[] aGlobalMeteoRay = ComputeRays.sumArrayWithPonderation(aGlobalMeteoFav, aGlobalMeteoHom, pathData.getWindRose()[roseindex]);
-
-                if (aGlobalMeteo != null) {
-                    aGlobalMeteo = ComputeRays.sumDbArray(aGlobalMeteoRay, aGlobalMeteo);
-                } else {
-                    aGlobalMeteo = aGlobalMeteoRay;
-                }
+                aGlobalMeteo = addMeteoAttenuation(aGlobalMeteo, pathData.getWindRose()[roseindex],
+                        aGlobalMeteoHom, aGlobalMeteoFav);
             }
             if (aGlobalMeteo != null) {
-                // For line source, take account of li coefficient
-                if(sourceLi > 1.0) {
-                    for (int i = 0; i < aGlobalMeteo.length; i++) {
-                        aGlobalMeteo[i] = ComputeRays.wToDba(ComputeRays.dbaToW(aGlobalMeteo[i]) * sourceLi);
-                    }
-                }
+                applyLineSourceLength(aGlobalMeteo, sourceLi);
                 return aGlobalMeteo;
             } else {
                 return new double[0];
@@ -178,6 +225,88 @@ public class ComputeRaysOut implements IComputeRaysOut {
         }
     }
 
+    /**
+     * Weight the homogeneous and favorable attenuation then sum energetically with the attenuation of the previous rays
+     * @param aGlobalMeteo Attenuation of the previous rays or null for the first ray
+     * @param p Occurrence of favorable conditions in the direction of the ray
+     * @param aGlobalMeteoHom Attenuation of the ray in homogeneous conditions
+     * @param aGlobalMeteoFav Attenuation of the ray in favorable conditions
+     * @return Updated attenuation, a new array if aGlobalMeteo is null
+     */
+    private static double[] addMeteoAttenuation(double[] aGlobalMeteo, double p, double[] aGlobalMeteoHom,
+                                                double[] aGlobalMeteoFav) {
+        int nbfreq = aGlobalMeteoHom.length;
+        if (aGlobalMeteo == null) {
+            aGlobalMeteo = new double[nbfreq];
+            for (int i = 0; i < nbfreq; i++) {
+                aGlobalMeteo[i] = ComputeRays.wToDba(p * ComputeRays.dbaToW(aGlobalMeteoFav[i]) + (1 - p) * ComputeRays.dbaToW(aGlobalMeteoHom[i]));
+            }
+        } else {
+            // Energetic sum with the previous rays
+            for (int i = 0; i < nbfreq; i++) {
+                double aGlobalMeteoRay = ComputeRays.wToDba(p * ComputeRays.dbaToW(aGlobalMeteoFav[i]) + (1 - p) * ComputeRays.dbaToW(aGlobalMeteoHom[i]));
+                aGlobalMeteo[i] = ComputeRays.wToDba(ComputeRays.dbaToW(aGlobalMeteoRay) + ComputeRays.dbaToW(aGlobalMeteo[i]));
+            }
+        }
+        return aGlobalMeteo;
+    }
+
+    /**
+     * For line source, take account of li coefficient
+     */
+    private static void applyLineSourceLength(double[] aGlobalMeteo, double sourceLi) {
+        if(sourceLi > 1.0) {
+            for (int i = 0; i < aGlobalMeteo.length; i++) {
+                aGlobalMeteo[i] = ComputeRays.wToDba(ComputeRays.dbaToW(aGlobalMeteo[i]) * sourceLi);
+            }
+        }
+    }
+
+    /**
+     * Compute the attenuation of each scenario set with {@link #setMeteoScenarios(List)}
+     * @param sourceLi Line source length coefficient
+     * @param propagationPath Propagation paths between the source and the receiver
+     * @return Attenuation by scenario then by frequency band, empty arrays if there is no path
+     */
+    public double[][] computeScenariosAttenuation(double sourceLi, List<PropagationPath> propagationPath) {
+        List<PropagationProcessPathData> scenarios = meteoScenarios;
+        int[] evaluationOrder = scenariosEvaluationOrder;
+        boolean[] groupLeader = scenarioGroupLeader;
+        double[][] levels = new double[scenarios.size()][];
+        if(scenarios.isEmpty()) {
+            return levels;
+        }
+        AttenuationScratch scratch = attenuationScratch.get();
+        scratch.ensureFrequencyCount(scenarios.get(0).getFrequencyConstants().getFrequencyCount());
+        EvaluateAttenuationCnossos evaluateAttenuationCnossos = scratch.evaluator;
+        double[] aGlobalMeteoHom = scratch.aGlobalMeteoHom;
+        double[] aGlobalMeteoFav = scratch.aGlobalMeteoFav;
+        for (PropagationPath propath : propagationPath) {
+            List<PointPath> ptList = propath.getPointList();
+            int roseindex = getRoseIndex(ptList.get(0).coordinate, ptList.get(ptList.size() - 1).coordinate);
+            for(int scenarioIndex : evaluationOrder) {
+                PropagationProcessPathData pathData = scenarios.get(scenarioIndex);
+                if(groupLeader[scenarioIndex]) {
+                    evaluateAttenuationCnossos.evaluateBoth(propath, pathData, aGlobalMeteoHom, aGlobalMeteoFav);
+                } else {
+                    // Same rays and ground terms than the leader evaluated just before
+                    evaluateAttenuationCnossos.evaluateBothWithAbsorption(pathData.getFrequencyConstants().alphaAtmo,
+                            aGlobalMeteoHom, aGlobalMeteoFav);
+                }
+                levels[scenarioIndex] = addMeteoAttenuation(levels[scenarioIndex],
+                        pathData.getWindRose()[roseindex], aGlobalMeteoHom, aGlobalMeteoFav);
+            }
+        }
+        for(int scenarioIndex = 0; scenarioIndex < levels.length; scenarioIndex++) {
+            if(levels[scenarioIndex] == null) {
+                levels[scenarioIndex] = new double[0];
+            } else {
+                applyLineSourceLength(levels[scenarioIndex], sourceLi);
+            }
+        }
+        return levels;
+    }
+
     @Override
     public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
         return new ThreadRaysOut(this);
@@ -243,9 +372,42 @@ public class ComputeRaysOut implements IComputeRaysOut {
         }
     }
 
+    /**
+     * Attenuation level of each meteorological scenario for a source/receiver
+     */
+    public static class ScenariosSL {
+        public final long sourceId;
+        public final long receiverId;
+        /** Attenuation by scenario then by frequency band */
+        public final double[][] value;
+
+        public ScenariosSL(long receiverId, long sourceId, double[][] value) {
+            this.sourceId = sourceId;
+            this.receiverId = receiverId;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Evaluator and spectrum buffers used by one thread
+     */
+    private static final class AttenuationScratch {
+        private final EvaluateAttenuationCnossos evaluator = new EvaluateAttenuationCnossos();
+        private double[] aGlobalMeteoHom = new double[0];
+        private double[] aGlobalMeteoFav = new double[0];
+
+        private void ensureFrequencyCount(int nbfreq) {
+            if(aGlobalMeteoHom.length != nbfreq) {
+                aGlobalMeteoHom = new double[nbfreq];
+                aGlobalMeteoFav = new double[nbfreq];
+            }
+        }
+    }
+
     public static class ThreadRaysOut implements IComputeRaysOut {
         private ComputeRaysOut multiThreadParent;
         protected List<ComputeRaysOut.verticeSL> receiverAttenuationLevels = new ArrayList<>();
+        protected List<ScenariosSL> receiverScenariosLevels = new ArrayList<>();
 
         public ThreadRaysOut(ComputeRaysOut multiThreadParent) {
             this.multiThreadParent = multiThreadParent;
@@ -272,6 +434,10 @@ public class ComputeRaysOut implements IComputeRaysOut {
             }
             if (aGlobalMeteo != null) {
                 receiverAttenuationLevels.add(new ComputeRaysOut.verticeSL(receiverId, sourceId, aGlobalMeteo));
+                if(!multiThreadParent.meteoScenarios.isEmpty() && aGlobalMeteo.length > 0) {
+                    receiverScenariosLevels.add(new ScenariosSL(receiverId, sourceId,
+                            multiThreadParent.computeScenariosAttenuation(sourceLi, propagationPath)));
+                }
                 return aGlobalMeteo;
             } else {
                 return new double[0];
@@ -317,7 +483,31 @@ public class ComputeRaysOut implements IComputeRaysOut {
                     pushResult(receiverPK, sourcePK, entry.getValue());
                 }
             }
+            if(!receiverScenariosLevels.isEmpty()) {
+                // Merge levels of each scenario for lines sources
+                Map<Long, double[][]> scenariosPerSourceLines = new HashMap<>();
+                for (ScenariosSL lvl : receiverScenariosLevels) {
+                    double[][] merged = scenariosPerSourceLines.get(lvl.sourceId);
+                    if (merged == null) {
+                        scenariosPerSourceLines.put(lvl.sourceId, lvl.value);
+                    } else {
+                        for(int scenarioIndex = 0; scenarioIndex < merged.length; scenarioIndex++) {
+                            merged[scenarioIndex] = ComputeRays.sumDbArray(merged[scenarioIndex],
+                                    lvl.value[scenarioIndex]);
+                        }
+                    }
+                }
+                for (Map.Entry<Long, double[][]> entry : scenariosPerSourceLines.entrySet()) {
+                    long sourcePK = entry.getKey();
+                    if(multiThreadParent.inputData != null && sourcePK < multiThreadParent.inputData.sourcesPk.size()) {
+                        sourcePK = multiThreadParent.inputData.sourcesPk.get((int) sourcePK);
+                    }
+                    multiThreadParent.receiversScenariosLevels.add(new ScenariosSL(receiverPK, sourcePK,
+                            entry.getValue()));
+                }
+            }
             receiverAttenuationLevels.clear();
+            receiverScenariosLevels.clear();
         }
 
         @Override
@@ -0,0 +1,144 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe cache with a maximum number of entries. The least recently used entries are evicted first.
+ * Keys are spread over independent segments in order to limit the lock contention between threads.
+ * @author Nicolas Fortin
+ */
+public class ConcurrentLRUCache<K, V> {
+    private static final int DEFAULT_SEGMENT_COUNT = 16;
+    private final Segment<K, V>[] segments;
+    private final int maximumSize;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maximumSize Maximum number of entries kept in the cache
+     */
+    public ConcurrentLRUCache(int maximumSize) {
+        this(maximumSize, DEFAULT_SEGMENT_COUNT);
+    }
+
+    /**
+     * @param maximumSize Maximum number of entries kept in the cache
+     * @param segmentCount Number of independent locks
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLRUCache(int maximumSize, int segmentCount) {
+        if(maximumSize < 1 || segmentCount < 1) {
+            throw new IllegalArgumentException("Cache size and segment count must be greater than 0");
+        }
+        this.maximumSize = maximumSize;
+        segmentCount = Math.min(segmentCount, maximumSize);
+        segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        for(int i = 0; i < segmentCount; i++) {
+            // Share the remaining entries of the division on the first segments
+            int segmentSize = maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0);
+            segments[i] = new Segment<>(segmentSize);
+        }
+    }
+
+    private Segment<K, V> getSegment(Object key) {
+        int hash = key.hashCode();
+        // Spread high bits, as HashMap does
+        hash ^= (hash >>> 16);
+        return segments[(hash & Integer.MAX_VALUE) % segments.length];
+    }
+
+    /**
+     * @param key Entry key
+     * @return Cached value or null if the key is not in the cache
+     */
+    public V get(K key) {
+        Segment<K, V> segment = getSegment(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if(value == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Insert or replace an entry, evicting the least recently used entry of the segment if it is full
+     * @param key Entry key
+     * @param value Entry value, not null
+     */
+    public void put(K key, V value) {
+        if(value == null) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * @return Number of entries in the cache
+     */
+    public int size() {
+        int size = 0;
+        for(Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Remove all entries, metrics are kept
+     */
+    public void clear() {
+        for(Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Maximum number of entries kept in the cache
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * @return Number of {@link #get(Object)} calls that returned a value
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of {@link #get(Object)} calls that did not find the key
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+        private final int maximumSize;
+
+        Segment(int maximumSize) {
+            super(16, 0.75f, true);
+            this.maximumSize = maximumSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maximumSize;
+        }
+    }
+}
@@ -47,6 +47,23 @@ public class EvaluateAttenuationCnossos {
     private double[] freq_lambda;
     private double[] aGlobal;
     boolean gToSigma = false; // Todo publish parameter issue #13
+    // Scratch buffers, allocated once by evaluator instance
+    private double[] aRef = new double[0];
+    private double[] aDivAtm = new double[0];
+    private double aDiv;
+    private double absorptionDistance;
+    // Terms of the last evaluateBoth call
+    private double[] aBoundaryHomogeneous = new double[0];
+    private double[] aBoundaryFavorable = new double[0];
+    private double divergenceHomogeneous;
+    private double divergenceFavorable;
+    private double absorptionDistanceHomogeneous;
+    private double absorptionDistanceFavorable;
+    private double[] aGroundSO = new double[0];
+    private double[] aGroundOR = new double[0];
+    private double[] deltaDifSR = new double[0];
+    private double[] deltaDifSpR = new double[0];
+    private double[] deltaDifSRp = new double[0];
 
     public static double dbaToW(double dBA) {
         return Math.pow(10., dBA / 10.);
@@ -68,11 +85,10 @@ public class EvaluateAttenuationCnossos {
         this.gToSigma = gToSigma;
     }
 
-    private double[] getDeltaDif(SegmentPath srpath, PropagationProcessPathData data) {
-        double[] DeltaDif = new double[data.freq_lvl.size()];
+    private void getDeltaDif(SegmentPath srpath, double[] DeltaDif) {
         double cprime;
 
-        for (int idfreq = 0; idfreq < data.freq_lvl.size(); idfreq++) {
+        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
 
             double Ch = 1;// Math.min(h0 * (data.celerity / freq_lambda[idfreq]) / 250, 1);
 
@@ -97,8 +113,6 @@ public class EvaluateAttenuationCnossos {
             DeltaDif[idfreq] = Math.max(0,deltaDif);
 
         }
-        return  DeltaDif;
-
     }
 
 
@@ -128,17 +142,30 @@ public class EvaluateAttenuationCnossos {
      * @return
      */
     public static double[] getAGroundCore(PropagationPath path, SegmentPath segmentPath, PropagationProcessPathData data) {
+        FrequencyConstants constants = data.getFrequencyConstants();
+        double[] aGround = new double[constants.getFrequencyCount()];
+        getAGroundCore(path, segmentPath, data, constants, aGround);
+        return aGround;
+    }
 
-        double[] aGround = new double[data.freq_lvl.size()];
+    /**
+     * Same as {@link #getAGroundCore(PropagationPath, SegmentPath, PropagationProcessPathData)} without allocation
+     * @param constants Frequency constants of data
+     * @param aGround Output array, length is the number of frequency bands
+     */
+    static void getAGroundCore(PropagationPath path, SegmentPath segmentPath, PropagationProcessPathData data,
+                               FrequencyConstants constants, double[] aGround) {
         double aGroundmin;
         double AGround;
+        double gw26 = Math.pow(segmentPath.gw, 2.6);
+        double gw13 = Math.pow(segmentPath.gw, 1.3);
 
-        for (int idfreq = 0; idfreq < data.freq_lvl.size(); idfreq++) {
+        for (int idfreq = 0; idfreq < aGround.length; idfreq++) {
             //NF S 31-133 page 41 c
-            double k = 2 * Math.PI *  data.freq_lvl.get(idfreq) / data.getCelerity();
+            double k = constants.waveNumber[idfreq];
             //NF S 31-113 page 41 w
-            double w = 0.0185 * Math.pow(data.freq_lvl.get(idfreq), 2.5) * Math.pow(segmentPath.gw, 2.6) /
-                    (Math.pow(data.freq_lvl.get(idfreq), 1.5) * Math.pow(segmentPath.gw, 2.6) + 1.3 * Math.pow(10, 3) * Math.pow(data.freq_lvl.get(idfreq), 0.75) * Math.pow(segmentPath.gw, 1.3) + 1.16 * Math.pow(10, 6));
+            double w = 0.0185 * constants.freqPow25[idfreq] * gw26 /
+                    (constants.freqPow15[idfreq] * gw26 + 1.3 * Math.pow(10, 3) * constants.freqPow075[idfreq] * gw13 + 1.16 * Math.pow(10, 6));
             //NF S 31-113 page 41 Cf
             double cf = segmentPath.dp * (1 + 3 * w * segmentPath.dp * Math.pow(Math.E, -Math.sqrt(w * segmentPath.dp))) / (1 + w * segmentPath.dp);
             //NF S 31-113 page 41 A sol
@@ -175,7 +202,6 @@ public class EvaluateAttenuationCnossos {
             aGround[idfreq] =  Math.max(AGround, aGroundmin);
 
         }
-        return aGround;
     }
 
     /**
@@ -194,9 +220,9 @@ public class EvaluateAttenuationCnossos {
     }
 
 
-    private double[] getARef(PropagationPath path, PropagationProcessPathData data) {
-        double[] aRef = new double[data.freq_lvl.size()];
+    private void getARef(PropagationPath path, double[] aRef) {
         for (int idf = 0; idf < nbfreq; idf++) {
+            aRef[idf] = 0;
             for (int idRef = 0; idRef < path.refPoints.size(); idRef++) {
                 List<Double> alpha = path.getPointList().get(path.refPoints.get(idRef)).alphaWall;
                 /*if (gToSigma || alphaUniqueValue > 1){
@@ -205,12 +231,11 @@ public class EvaluateAttenuationCnossos {
                 aRef[idf] += - 10 * Math.log10(1 - alpha.get(idf));
             }
         }
-        return aRef ;
     }
 
 
-    private double[] getAGround(SegmentPath segmentPath,PropagationPath path, PropagationProcessPathData data) {
-        double[] aGround = new double[data.freq_lvl.size()];
+    private void getAGround(SegmentPath segmentPath,PropagationPath path, PropagationProcessPathData data,
+                            FrequencyConstants constants, double[] aGround) {
         double aGroundmin;
 
         // Here there is a debate if use this condition or not
@@ -226,25 +251,21 @@ public class EvaluateAttenuationCnossos {
             }
             java.util.Arrays.fill(aGround, aGroundmin);
         } else {
-            aGround = getAGroundCore(path, segmentPath, data);
+            getAGroundCore(path, segmentPath, data, constants, aGround);
         }
-        return aGround;
     }
 
     /**
      *
      * @param path
      * @param data
-     * @return
+     * @param aBoundary Output array
      */
-    private double[] getABoundary(PropagationPath path, PropagationProcessPathData data) {
+    private void getABoundary(PropagationPath path, PropagationProcessPathData data, FrequencyConstants constants,
+                              double[] aBoundary) {
 
         List<SegmentPath> srPath = path.getSRList();
 
-        double[] aGround;
-        double[] aBoundary ;
-        double[] aDif = new double[data.freq_lvl.size()];
-
         // Set Gm and Gw for AGround SR - Table 2.5.b
         if (path.isFavorable()) {
             srPath.get(0).setGw(srPath.get(0).gPath);
@@ -254,31 +275,22 @@ public class EvaluateAttenuationCnossos {
             srPath.get(0).setGm(srPath.get(0).gPathPrime);
         }
 
-        aGround = getAGround(srPath.get(0), path,data);
-        aBoundary = aGround;
+        // aBoundary is aGround(S, R) when there is no diffraction
+        getAGround(srPath.get(0), path,data, constants, aBoundary);
         if (path.difVPoints.size() > 0) {
-            List<SegmentPath> segmentPath = path.getSegmentList();
-            double[] DeltaDifSR;
-            DeltaDifSR = getDeltaDif(srPath.get(0), data);
+            getDeltaDif(srPath.get(0), deltaDifSR);
 
             // Eq 2.5.30 - Eq. 2.5.31 - Eq. 2.5.32
             for (int idf = 0; idf < nbfreq; idf++) {
-                aDif[idf]=DeltaDifSR[idf];
-                aBoundary[idf] = aDif[idf] + aGround[idf];
+                aBoundary[idf] = deltaDifSR[idf] + aBoundary[idf];
             }
         }
         if (path.difHPoints.size() > 0) {
             List<SegmentPath> segmentPath = path.getSegmentList();
 
-            double[] DeltaDifSR;
-            double[] DeltaDifSpR;
-            double[] DeltaDifSRp;
-            double[] aGroundSO;
-            double[] aGroundOR;
-
-            DeltaDifSR = getDeltaDif(srPath.get(0), data);
-            DeltaDifSpR = getDeltaDif(srPath.get(srPath.size()-2), data);
-            DeltaDifSRp = getDeltaDif(srPath.get(srPath.size()-1), data);
+            getDeltaDif(srPath.get(0), deltaDifSR);
+            getDeltaDif(srPath.get(srPath.size()-2), deltaDifSpR);
+            getDeltaDif(srPath.get(srPath.size()-1), deltaDifSRp);
 
             // Set Gm and Gw for AGround SO - Table 2.5.b
             if (path.isFavorable()) {
@@ -290,7 +302,7 @@ public class EvaluateAttenuationCnossos {
             }
 
             // TODO Should be Z o,s' but can't find how to compute this
-            aGroundSO = getAGround(segmentPath.get(0), path,data);
+            getAGround(segmentPath.get(0), path,data, constants, aGroundSO);
 
             // Set Gm and Gw for AGround OR - Table 2.5.b
             if (path.isFavorable()) {
@@ -300,51 +312,138 @@ public class EvaluateAttenuationCnossos {
                 segmentPath.get(segmentPath.size()-1).setGw(segmentPath.get(segmentPath.size()-1).gPath);
                 segmentPath.get(segmentPath.size()-1).setGm(segmentPath.get(segmentPath.size()-1).gPath);
             }
-            aGroundOR = getAGround(segmentPath.get(segmentPath.size()-1), path,data);
+            getAGround(segmentPath.get(segmentPath.size()-1), path,data, constants, aGroundOR);
 
 
             // Eq 2.5.30 - Eq. 2.5.31 - Eq. 2.5.32
             for (int idf = 0; idf < nbfreq; idf++) {
                 // see 5.3 Equivalent heights from AFNOR document
                 if (segmentPath.get(0).zs <= 0.0000001 || segmentPath.get(segmentPath.size()-1).zr <= 0.0000001) {
-                    aDif[idf]=Math.min(25,DeltaDifSR[idf])+aGroundSO[idf] + aGroundOR[idf];
+                    aBoundary[idf]=Math.min(25,deltaDifSR[idf])+aGroundSO[idf] + aGroundOR[idf];
                     }
                 else{
-                    aDif[idf]=Math.min(25,DeltaDifSR[idf])+getDeltaGround(aGroundSO[idf], DeltaDifSpR[idf], DeltaDifSR[idf]) + getDeltaGround(aGroundOR[idf], DeltaDifSRp[idf], DeltaDifSR[idf]);
+                    aBoundary[idf]=Math.min(25,deltaDifSR[idf])+getDeltaGround(aGroundSO[idf], deltaDifSpR[idf], deltaDifSR[idf]) + getDeltaGround(aGroundOR[idf], deltaDifSRp[idf], deltaDifSR[idf]);
                 }
 
                 }
+        }
+    }
 
-            aBoundary =  aDif;
+    public double[] evaluate(PropagationPath path, PropagationProcessPathData data) {
+        aGlobal = new double[data.getFrequencyConstants().getFrequencyCount()];
+        evaluate(path, data, aGlobal);
+        return aGlobal;
+    }
+
+    /**
+     * Evaluate the attenuation of the path without allocating memory (buffers of this instance are reused).
+     * One instance must be used by thread.
+     * @param path Propagation path
+     * @param data Propagation parameters
+     * @param aGlobalOut Output attenuation by frequency band, length must be the number of frequency bands
+     */
+    public void evaluate(PropagationPath path, PropagationProcessPathData data, double[] aGlobalOut) {
+        FrequencyConstants constants = initEvaluation(path, data, aGlobalOut);
+
+        // boundary (ground + diffration), aGlobalOut is used as aBoundary buffer
+        getABoundary(path, data, constants, aGlobalOut);
+
+        sumAttenuation(aGlobalOut);
+    }
+
+    /**
+     * Evaluate the attenuation of the path in homogeneous and favorable conditions.
+     * Buffers and the reflection term are shared by the two conditions. Divergence and atmospheric absorption are
+     * shared too, unless the path has diffractions on horizontal edges (the path length then depends on the ray
+     * curvature). The path is left in favorable condition.
+     * @param path Propagation path
+     * @param data Propagation parameters
+     * @param aHomogeneousOut Output attenuation in homogeneous conditions by frequency band
+     * @param aFavorableOut Output attenuation in favorable conditions by frequency band
+     */
+    public void evaluateBoth(PropagationPath path, PropagationProcessPathData data, double[] aHomogeneousOut,
+                             double[] aFavorableOut) {
+        if(aFavorableOut.length != aHomogeneousOut.length) {
+            throw new IllegalArgumentException("Output arrays must have the same length");
+        }
+        path.setFavorable(false);
+        FrequencyConstants constants = initEvaluation(path, data, aHomogeneousOut);
+        if(aBoundaryHomogeneous.length != nbfreq) {
+            aBoundaryHomogeneous = new double[nbfreq];
+            aBoundaryFavorable = new double[nbfreq];
+        }
+        divergenceHomogeneous = aDiv;
+        absorptionDistanceHomogeneous = absorptionDistance;
+        getABoundary(path, data, constants, aBoundaryHomogeneous);
+        System.arraycopy(aBoundaryHomogeneous, 0, aHomogeneousOut, 0, nbfreq);
+        sumAttenuation(aHomogeneousOut);
+
+        // Geometry of the favorable path (curved rays)
+        path.setFavorable(true);
+        path.initPropagationPath();
+        if(!path.difHPoints.isEmpty()) {
+            computeDivergenceAndAbsorption(path, constants.alphaAtmo);
         }
+        divergenceFavorable = aDiv;
+        absorptionDistanceFavorable = absorptionDistance;
+        getABoundary(path, data, constants, aBoundaryFavorable);
+        System.arraycopy(aBoundaryFavorable, 0, aFavorableOut, 0, nbfreq);
+        sumAttenuation(aFavorableOut);
+    }
 
-        return aBoundary;
+    /**
+     * Evaluate again the path of the last {@link #evaluateBoth(PropagationPath, PropagationProcessPathData, double[], double[])}
+     * call with another atmospheric absorption. Ground and diffraction terms are reused, so the other parameters
+     * (celerity, {@link PropagationProcessPathData#isgDisc()}, {@link PropagationProcessPathData#isPrime2520()})
+     * must be the same.
+     * @param alphaAtmo Atmospheric absorption by frequency band (dB/km)
+     * @param aHomogeneousOut Output attenuation in homogeneous conditions by frequency band
+     * @param aFavorableOut Output attenuation in favorable conditions by frequency band
+     */
+    public void evaluateBothWithAbsorption(double[] alphaAtmo, double[] aHomogeneousOut, double[] aFavorableOut) {
+        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+            aHomogeneousOut[idfreq] = -(divergenceHomogeneous + getAAtm(absorptionDistanceHomogeneous,
+                    alphaAtmo[idfreq]) + aBoundaryHomogeneous[idfreq] + aRef[idfreq]);
+            aFavorableOut[idfreq] = -(divergenceFavorable + getAAtm(absorptionDistanceFavorable,
+                    alphaAtmo[idfreq]) + aBoundaryFavorable[idfreq] + aRef[idfreq]);
+        }
     }
 
-    public double[] evaluate(PropagationPath path, PropagationProcessPathData data) {
-        // init
-        aGlobal = new double[data.freq_lvl.size()];
-        double[] aBoundary ;
-        double[] aRef ;
-        nbfreq = PropagationProcessPathData.freq_lvl.size();
-
-        // Init wave length for each frequency
-        freq_lambda = new double[nbfreq];
-        for (int idf = 0; idf < nbfreq; idf++) {
-            if (PropagationProcessPathData.freq_lvl.get(idf) > 0) {
-                freq_lambda[idf] = data.getCelerity() / PropagationProcessPathData.freq_lvl.get(idf);
-            } else {
-                freq_lambda[idf] = 1;
-            }
+    /**
+     * Prepare buffers and compute the terms that do not depend on the ground and diffraction
+     */
+    private FrequencyConstants initEvaluation(PropagationPath path, PropagationProcessPathData data,
+                                              double[] aGlobalOut) {
+        FrequencyConstants constants = data.getFrequencyConstants();
+        nbfreq = constants.getFrequencyCount();
+        if(aGlobalOut.length != nbfreq) {
+            throw new IllegalArgumentException(String.format("Output array length %d is not the frequency count %d",
+                    aGlobalOut.length, nbfreq));
         }
+        if(aRef.length != nbfreq) {
+            aRef = new double[nbfreq];
+            aDivAtm = new double[nbfreq];
+            aGroundSO = new double[nbfreq];
+            aGroundOR = new double[nbfreq];
+            deltaDifSR = new double[nbfreq];
+            deltaDifSpR = new double[nbfreq];
+            deltaDifSRp = new double[nbfreq];
+        }
+
+        // Wave length for each frequency
+        freq_lambda = constants.lambda;
 
         // init evolved path
         path.initPropagationPath();
 
-        // init atmosphere
-        double[] alpha_atmo = data.getAlpha_atmo();
+        computeDivergenceAndAbsorption(path, constants.alphaAtmo);
 
-        double aDiv;
+        // reflections
+        getARef(path, aRef);
+        return constants;
+    }
+
+    private void computeDivergenceAndAbsorption(PropagationPath path, double[] alpha_atmo) {
         // divergence
         if (path.refPoints.size() > 0) {
             aDiv = getADiv(path.getSRList().get(0).dPath);
@@ -352,25 +451,69 @@ public class EvaluateAttenuationCnossos {
             aDiv = getADiv(path.getSRList().get(0).d);
         }
 
+        // atm
+        if (path.difVPoints.size() > 0 || path.refPoints.size() > 0) {
+            absorptionDistance = path.getSRList().get(0).dPath;
+        }else{
+            absorptionDistance = path.getSRList().get(0).d;
+        }
+        for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
+            aDivAtm[idfreq] = aDiv + getAAtm(absorptionDistance, alpha_atmo[idfreq]);
+        }
+    }
 
-        // boundary (ground + diffration)
-        aBoundary = getABoundary(path,data);
-
-        // reflections
-        aRef = getARef(path,data);
-
+    /**
+     * @param aGlobal Boundary attenuation as input, global attenuation as output
+     */
+    private void sumAttenuation(double[] aGlobal) {
         for (int idfreq = 0; idfreq < nbfreq; idfreq++) {
-            // atm
-            double aAtm;
-            if (path.difVPoints.size() > 0 || path.refPoints.size() > 0) {
-                aAtm = getAAtm(path.getSRList().get(0).dPath, alpha_atmo[idfreq]);
-            }else{
-                aAtm = getAAtm(path.getSRList().get(0).d, alpha_atmo[idfreq]);
-            }
+            aGlobal[idfreq] = -(aDivAtm[idfreq] + aGlobal[idfreq] + aRef[idfreq]);
+        }
+    }
 
-            aGlobal[idfreq] = -(aDiv + aAtm + aBoundary[idfreq] + aRef[idfreq]);
+    /**
+     * Values that depend only on the frequency bands and on the atmospheric parameters.
+     * Computed once by {@link PropagationProcessPathData} instead of once by propagation path.
+     */
+    public static final class FrequencyConstants {
+        /** Wave length by frequency band (m) */
+        final double[] lambda;
+        /** Wave number by frequency band */
+        final double[] waveNumber;
+        final double[] freqPow25;
+        final double[] freqPow15;
+        final double[] freqPow075;
+        /** Atmospheric absorption by frequency band (dB/km) */
+        final double[] alphaAtmo;
+
+        public FrequencyConstants(PropagationProcessPathData data) {
+            List<Integer> freqLvl = PropagationProcessPathData.freq_lvl;
+            int nbfreq = freqLvl.size();
+            lambda = new double[nbfreq];
+            waveNumber = new double[nbfreq];
+            freqPow25 = new double[nbfreq];
+            freqPow15 = new double[nbfreq];
+            freqPow075 = new double[nbfreq];
+            for (int idf = 0; idf < nbfreq; idf++) {
+                int freq = freqLvl.get(idf);
+                if (freq > 0) {
+                    lambda[idf] = data.getCelerity() / freq;
+                } else {
+                    lambda[idf] = 1;
+                }
+                waveNumber[idf] = 2 * Math.PI * freq / data.getCelerity();
+                freqPow25[idf] = Math.pow(freq, 2.5);
+                freqPow15[idf] = Math.pow(freq, 1.5);
+                freqPow075[idf] = Math.pow(freq, 0.75);
+            }
+            alphaAtmo = data.getAlpha_atmo();
+        }
 
+        /**
+         * @return Number of frequency bands
+         */
+        public int getFrequencyCount() {
+            return lambda.length;
         }
-        return aGlobal;
     }
 }
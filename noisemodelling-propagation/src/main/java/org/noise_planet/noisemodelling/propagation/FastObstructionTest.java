@@ -64,16 +64,36 @@ public class FastObstructionTest {
     private static final double MINIMAL_REFLECTION_WALL_LENGTH = 1.0;
     // Split ray to test up to 200m length (in order to reduce returns results)
     private static final double STRTREE_TRAVERSAL_SPLIT = 300;
-    private STRtree polygonIndex;
-    private List<Triangle> triVertices;
-    private List<Coordinate> vertices;
-    private List<Triangle> triNeighbors; // Neighbors
+    // Maximum number of crossed triangles when locating a point, before using the triangle index
+    private static final int MAXIMUM_WALK_STEPS = 256;
+    // Buildings envelopes with their roof height
+    private HeightBoundedIndex polygonIndex;
+    // Triangles envelopes with their highest vertex or building roof, used to accept free field rays
+    private HeightBoundedIndex obstacleIndex;
+    // Packed mesh, 3 vertex index per triangle
+    private int[] triVertices;
+    // 3 neighbor triangle index per triangle (-1 if there is no neighbor on this side), null if not computed
+    private int[] triNeighbors;
+    // Building identifier of each triangle [1-n] or 0 if not in a building
+    private int[] triAttributes;
+    // x, y, z of each vertex
+    private double[] vertices;
     private List<Integer> buildingsPK = new ArrayList<>();
     private List<MeshBuilder.PolygonWithHeight> polygonWithHeight = new ArrayList<MeshBuilder.PolygonWithHeight>();//list polygon with height
     private Envelope meshEnvelope;
 
     private STRtree triIndex = null;
-    private List<Float> verticesOpenAngle = null;
+    private BuildingWallIndex wallIndex = null;
+    // Ground heights used instead of the triangles heights, null if the topography is in the mesh
+    private RasterDem demRaster = null;
+    // Last triangle found by the point location of each thread
+    private final ThreadLocal<int[]> lastLocatedTriangle = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[] {-1};
+        }
+    };
+    private float[] verticesOpenAngle = null;
     private List<Coordinate> verticesOpenAngleTranslated = null; /*Open angle*/
     private boolean hasBuildingWithHeight;
     private Logger logger = LoggerFactory.getLogger(FastObstructionTest.class);
@@ -90,6 +110,20 @@ public class FastObstructionTest {
      */
     public FastObstructionTest(List<MeshBuilder.PolygonWithHeight> buildings,
                                List<Triangle> triangles, List<Triangle> triNeighbors, List<Coordinate> points) {
+        this(buildings, packTriangles(triangles), packNeighbors(triNeighbors), packAttributes(triangles),
+                packVertices(points));
+    }
+
+    /**
+     * @param buildings     list of buildings with their height
+     * @param triVertices   vertices index of triangles (3 values per triangle)
+     * @param triNeighbors  neighbor triangle index of triangles (3 values per triangle, in the order of
+     *                      {@link Triangle#get(int)}), -1 if there is no neighbor. Can be null if not computed.
+     * @param triAttributes building identifier [1-n] of each triangle, 0 if the triangle is not in a building
+     * @param vertices      x, y, z of all points in mesh (3 values per vertex)
+     */
+    public FastObstructionTest(List<MeshBuilder.PolygonWithHeight> buildings,
+                               int[] triVertices, int[] triNeighbors, int[] triAttributes, double[] vertices) {
 
         List<MeshBuilder.PolygonWithHeight> polygonWithHeightArray = new ArrayList<MeshBuilder.PolygonWithHeight>(buildings.size());
         hasBuildingWithHeight = false;
@@ -98,32 +132,208 @@ public class FastObstructionTest {
             hasBuildingWithHeight = hasBuildingWithHeight || poly.hasHeight();
         }
         this.polygonWithHeight = polygonWithHeightArray;
-        this.polygonIndex = new STRtree(Math.max(20, polygonWithHeightArray.size()));
-        // Index buildings
-        for(int i = 0; i < polygonWithHeightArray.size(); i++) {
-            MeshBuilder.PolygonWithHeight p = polygonWithHeightArray.get(i);
-            polygonIndex.insert(p.geo.getEnvelopeInternal(), i + 1);
-        }
-        this.triVertices = triangles;
+        this.triVertices = triVertices;
         this.triNeighbors = triNeighbors;
-        this.vertices = points;
+        this.triAttributes = triAttributes;
+        this.vertices = vertices;
         meshEnvelope = new Envelope();
-        for(Coordinate p : points) {
-            meshEnvelope.expandToInclude(p);
+        for(int idVertex = 0; idVertex < vertices.length; idVertex += 3) {
+            meshEnvelope.expandToInclude(vertices[idVertex], vertices[idVertex + 1]);
         }
 
         // /////////////////////////////////
         // Feed Query Structure to find triangle, by coordinate
 
         triIndex = new STRtree();
-        for (int triId = 0; triId < this.triVertices.size(); triId++) {
-            Triangle tri = triVertices.get(triId);
-            Envelope env = new Envelope(vertices.get(tri.getA()), vertices.get(tri.getB()));
-            env.expandToInclude(vertices.get(tri.getC()));
+        int triangleCount = getTriangleCount();
+        for (int triId = 0; triId < triangleCount; triId++) {
+            Envelope env = new Envelope();
+            for(int corner = 0; corner < 3; corner++) {
+                int vertexOffset = triVertices[triId * 3 + corner] * 3;
+                env.expandToInclude(vertices[vertexOffset], vertices[vertexOffset + 1]);
+            }
             triIndex.insert(env, triId);
         }
+        if(triNeighbors != null) {
+            wallIndex = new BuildingWallIndex(triVertices, triNeighbors, triAttributes, vertices,
+                    MINIMAL_REFLECTION_WALL_LENGTH);
+        }
         //give a average height to each building
         setAverageBuildingHeight(this.polygonWithHeight);
+        buildHeightIndexes();
+    }
+
+    /**
+     * Index buildings and triangles with their maximal height
+     */
+    private void buildHeightIndexes() {
+        int buildingCount = polygonWithHeight.size();
+        double[] bounds = new double[buildingCount * 4];
+        double[] maxZ = new double[buildingCount];
+        int[] ids = new int[buildingCount];
+        for(int i = 0; i < buildingCount; i++) {
+            MeshBuilder.PolygonWithHeight p = polygonWithHeight.get(i);
+            Envelope env = p.geo.getEnvelopeInternal();
+            bounds[i * 4] = env.getMinX();
+            bounds[i * 4 + 1] = env.getMinY();
+            bounds[i * 4 + 2] = env.getMaxX();
+            bounds[i * 4 + 3] = env.getMaxY();
+            maxZ[i] = p.hasHeight() ? p.getHeight() : Double.POSITIVE_INFINITY;
+            ids[i] = i + 1;
+        }
+        polygonIndex = new HeightBoundedIndex(bounds, maxZ, ids);
+        int triangleCount = getTriangleCount();
+        bounds = new double[triangleCount * 4];
+        maxZ = new double[triangleCount];
+        ids = new int[triangleCount];
+        for (int triId = 0; triId < triangleCount; triId++) {
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            double triangleMaxZ = Double.NEGATIVE_INFINITY;
+            for(int corner = 0; corner < 3; corner++) {
+                int vertexOffset = triVertices[triId * 3 + corner] * 3;
+                minX = Math.min(minX, vertices[vertexOffset]);
+                minY = Math.min(minY, vertices[vertexOffset + 1]);
+                maxX = Math.max(maxX, vertices[vertexOffset]);
+                maxY = Math.max(maxY, vertices[vertexOffset + 1]);
+                double z = vertices[vertexOffset + 2];
+                // Vertices without Z are at the ground level 0
+                triangleMaxZ = Math.max(triangleMaxZ, Double.isNaN(z) ? 0 : z);
+            }
+            int buildingId = triAttributes[triId];
+            if(buildingId >= 1) {
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingId - 1);
+                triangleMaxZ = Math.max(triangleMaxZ, building.hasHeight() ? building.getHeight() :
+                        Double.POSITIVE_INFINITY);
+            }
+            bounds[triId * 4] = minX;
+            bounds[triId * 4 + 1] = minY;
+            bounds[triId * 4 + 2] = maxX;
+            bounds[triId * 4 + 3] = maxY;
+            maxZ[triId] = triangleMaxZ;
+            ids[triId] = triId;
+        }
+        obstacleIndex = new HeightBoundedIndex(bounds, maxZ, ids);
+    }
+
+    private static int[] packTriangles(List<Triangle> triangles) {
+        int[] packed = new int[triangles.size() * 3];
+        int i = 0;
+        for(Triangle triangle : triangles) {
+            packed[i++] = triangle.getA();
+            packed[i++] = triangle.getB();
+            packed[i++] = triangle.getC();
+        }
+        return packed;
+    }
+
+    private static int[] packNeighbors(List<Triangle> triNeighbors) {
+        return triNeighbors == null ? null : packTriangles(triNeighbors);
+    }
+
+    private static int[] packAttributes(List<Triangle> triangles) {
+        int[] packed = new int[triangles.size()];
+        int i = 0;
+        for(Triangle triangle : triangles) {
+            packed[i++] = triangle.getAttribute();
+        }
+        return packed;
+    }
+
+    private static double[] packVertices(List<Coordinate> points) {
+        double[] packed = new double[points.size() * 3];
+        int i = 0;
+        for(Coordinate point : points) {
+            packed[i++] = point.x;
+            packed[i++] = point.y;
+            packed[i++] = point.z;
+        }
+        return packed;
+    }
+
+    /**
+     * @return Number of triangles in the mesh
+     */
+    public int getTriangleCount() {
+        return triAttributes.length;
+    }
+
+    /**
+     * @return Number of vertices in the mesh
+     */
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    /**
+     * @param vertexId Vertex index
+     * @return New coordinate instance of the vertex
+     */
+    public Coordinate getVertex(int vertexId) {
+        int offset = vertexId * 3;
+        return new Coordinate(vertices[offset], vertices[offset + 1], vertices[offset + 2]);
+    }
+
+    /**
+     * Copy the vertex into an existing coordinate instance
+     * @param vertexId Vertex index
+     * @param vertex [out] Vertex coordinate
+     */
+    private void getVertex(int vertexId, Coordinate vertex) {
+        int offset = vertexId * 3;
+        vertex.x = vertices[offset];
+        vertex.y = vertices[offset + 1];
+        vertex.z = vertices[offset + 2];
+    }
+
+    /**
+     * @param vertexId Vertex index
+     * @return X coordinate of the vertex
+     */
+    public double getVertexX(int vertexId) {
+        return vertices[vertexId * 3];
+    }
+
+    /**
+     * @param vertexId Vertex index
+     * @return Y coordinate of the vertex
+     */
+    public double getVertexY(int vertexId) {
+        return vertices[vertexId * 3 + 1];
+    }
+
+    /**
+     * @param vertexId Vertex index
+     * @return Z coordinate of the vertex
+     */
+    public double getVertexZ(int vertexId) {
+        return vertices[vertexId * 3 + 2];
+    }
+
+    /**
+     * @param triId Triangle index
+     * @param corner Corner of the triangle [0-2]
+     * @return Vertex index
+     */
+    private int getTriangleVertex(int triId, int corner) {
+        return triVertices[triId * 3 + corner];
+    }
+
+    /**
+     * @param triId Triangle index
+     * @param side Side of the triangle [0-2], same order than {@link Triangle#get(int)}
+     * @return Neighbor triangle index, -1 if there is no neighbor
+     */
+    private int getTriangleNeighbor(int triId, int side) {
+        return triNeighbors[triId * 3 + side];
+    }
+
+    /**
+     * @param triId Triangle index
+     * @return Building identifier [1-n] or 0 if the triangle is not in a building
+     */
+    public int getTriangleAttribute(int triId) {
+        return triAttributes[triId];
     }
 
     /**
@@ -133,15 +343,50 @@ public class FastObstructionTest {
      * @param visitor Iterate over found buildings
      * @return Building identifier (1-n) intersected by the line
      */
-    public void getBuildingsOnPath(Coordinate p1, Coordinate p2, IntersectionRayVisitor visitor) {
-        Envelope pathEnv = new Envelope(p1, p2);
+    public void getBuildingsOnPath(Coordinate p1, Coordinate p2, final IntersectionRayVisitor visitor) {
         try {
-            polygonIndex.query(pathEnv, visitor);
+            polygonIndex.query(p1, p2, new HeightBoundedIndex.ItemVisitor() {
+                @Override
+                public boolean skipNode(double minX, double minY, double maxX, double maxY, double maxZ) {
+                    return visitor.isBelowPath(minX, minY, maxX, maxY, maxZ);
+                }
+
+                @Override
+                public boolean visitItem(int itemId) {
+                    visitor.visitItem(itemId);
+                    return true;
+                }
+            });
         } catch (IllegalStateException ex) {
             //Ignore
         }
     }
 
+    /**
+     * @param p1 First point
+     * @param p2 Second point
+     * @return True if the segment is above all buildings and topography. False if it may be obstructed.
+     */
+    public boolean isAboveObstacles(Coordinate p1, Coordinate p2) {
+        return obstacleIndex.isAbove(p1, p2) && (demRaster == null || !demRaster.intersects(p1, p2));
+    }
+
+    /**
+     * @return Ground heights used instead of the triangles heights, null if the topography is in the mesh
+     */
+    public RasterDem getDemRaster() {
+        return demRaster;
+    }
+
+    /**
+     * Use a regular grid for the ground heights and the topography obstruction. The mesh must not contain the
+     * topographic points, only the buildings.
+     * @param demRaster Ground heights, null to use the triangles heights
+     */
+    public void setDemRaster(RasterDem demRaster) {
+        this.demRaster = demRaster;
+    }
+
 
     public Envelope getMeshEnvelope() {
         return meshEnvelope;
@@ -160,7 +405,12 @@ public class FastObstructionTest {
      * @return Triangle list
      */
     public List<Triangle> getTriangles() {
-        return Collections.unmodifiableList(triVertices);
+        List<Triangle> triangles = new ArrayList<>(getTriangleCount());
+        for(int triId = 0; triId < getTriangleCount(); triId++) {
+            triangles.add(new Triangle(getTriangleVertex(triId, 0), getTriangleVertex(triId, 1),
+                    getTriangleVertex(triId, 2), triAttributes[triId]));
+        }
+        return Collections.unmodifiableList(triangles);
     }
 
 
@@ -168,7 +418,11 @@ public class FastObstructionTest {
      * @return vertices list, only for debug and unit test purpose
      */
     public List<Coordinate> getVertices() {
-        return Collections.unmodifiableList(vertices);
+        List<Coordinate> points = new ArrayList<>(getVertexCount());
+        for(int vertexId = 0; vertexId < getVertexCount(); vertexId++) {
+            points.add(getVertex(vertexId));
+        }
+        return Collections.unmodifiableList(points);
     }
 
 
@@ -178,31 +432,37 @@ public class FastObstructionTest {
      *
      * @param triIndex        Triangle index
      * @param propagationLine Propagation line
+     * @param triVerticesScratch Three coordinates instances reused to read the triangle vertices
+     * @param sideScratch     Segment instance reused for the triangle sides
      * @return Next triangle to the specified direction, -1 if there is no
      * triangle neighbor.
      */
     private TriIdWithIntersection getNextTri(final int triIndex,
                                              final LineSegment propagationLine,
-                                             HashSet<Integer> navigationHistory) {
-        final Triangle tri = this.triVertices.get(triIndex);
-        final Triangle triNeighbors = this.triNeighbors.get(triIndex);
+                                             HashSet<Integer> navigationHistory,
+                                             Coordinate[] triVerticesScratch, LineSegment sideScratch) {
+        final int triAttribute = this.triAttributes[triIndex];
         int nearestIntersectionSide = -1;
         int idneigh;
 
         double nearestIntersectionPtDist = Double.MAX_VALUE;
         // Find intersection pt
-        final Coordinate aTri = this.vertices.get(tri.getA());
-        final Coordinate bTri = this.vertices.get(tri.getB());
-        final Coordinate cTri = this.vertices.get(tri.getC());
+        final Coordinate aTri = triVerticesScratch[0];
+        final Coordinate bTri = triVerticesScratch[1];
+        final Coordinate cTri = triVerticesScratch[2];
+        getVertex(getTriangleVertex(triIndex, 0), aTri);
+        getVertex(getTriangleVertex(triIndex, 1), bTri);
+        getVertex(getTriangleVertex(triIndex, 2), cTri);
         double distline_line;
         Coordinate intersection = new Coordinate();
         //if there is no intersection, by default we set the - max value to Topography intersection to avoid the problem
         double zTopoIntersection = -Double.MAX_VALUE;
         double zPropagationRayIntersection;
         // Intersection First Side
-        idneigh = triNeighbors.get(2);
+        idneigh = getTriangleNeighbor(triIndex, 2);
         if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(aTri, bTri));
+            sideScratch.setCoordinates(aTri, bTri);
+            Coordinate[] closestPoints = propagationLine.closestPoints(sideScratch);
             Coordinate intersectionTest = null;
             if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
                 intersectionTest = closestPoints[0];
@@ -220,9 +480,10 @@ public class FastObstructionTest {
             }
         }
         // Intersection Second Side
-        idneigh = triNeighbors.get(0);
+        idneigh = getTriangleNeighbor(triIndex, 0);
         if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(bTri, cTri));
+            sideScratch.setCoordinates(bTri, cTri);
+            Coordinate[] closestPoints = propagationLine.closestPoints(sideScratch);
             Coordinate intersectionTest = null;
             if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
                 intersectionTest = closestPoints[0];
@@ -240,9 +501,10 @@ public class FastObstructionTest {
             }
         }
         // Intersection Third Side
-        idneigh = triNeighbors.get(1);
+        idneigh = getTriangleNeighbor(triIndex, 1);
         if (idneigh != -1 && !navigationHistory.contains(idneigh)) {
-            Coordinate[] closestPoints = propagationLine.closestPoints(new LineSegment(cTri, aTri));
+            sideScratch.setCoordinates(cTri, aTri);
+            Coordinate[] closestPoints = propagationLine.closestPoints(sideScratch);
             Coordinate intersectionTest = null;
             if(closestPoints.length == 2 && closestPoints[0].distance(closestPoints[1]) < epsilon) {
                 intersectionTest = closestPoints[0];
@@ -262,15 +524,16 @@ public class FastObstructionTest {
             //get this point Z using propagation line
             zPropagationRayIntersection = calculateLinearInterpolation(propagationLine.p0, propagationLine.p1, intersection);
             // Manage blocking buildings
-            int neightBuildingId = this.triVertices.get(triNeighbors.get(nearestIntersectionSide)).getAttribute();
+            final int nextTriIndex = getTriangleNeighbor(triIndex, nearestIntersectionSide);
+            int neightBuildingId = this.triAttributes[nextTriIndex];
             int rayBuildingId = 0;
             // Current tri is in building
-            if(tri.getAttribute() != 0) {
-                rayBuildingId = tri.getAttribute();
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(tri.getAttribute() - 1);
+            if(triAttribute != 0) {
+                rayBuildingId = triAttribute;
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(triAttribute - 1);
                 // Stop propagation if ray collide with the building
                 if(!building.hasHeight() || Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection < building.getHeight()) {
-                    return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
+                    return new TriIdWithIntersection(nextTriIndex,
                             new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
                             true,false, rayBuildingId);
                 }
@@ -281,21 +544,21 @@ public class FastObstructionTest {
                 MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(neightBuildingId - 1);
                 // Stop propagation if ray collide with the building
                 if(!building.hasHeight() || Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection < building.getHeight()) {
-                    return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
+                    return new TriIdWithIntersection(nextTriIndex,
                             new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
                             true,false, rayBuildingId);
                 }
             }
             //If the Z calculated by propagation Line >= Z calculated by intersected line, we will find next triangle
             if (Double.isNaN(zPropagationRayIntersection) || zPropagationRayIntersection + epsilon >= zTopoIntersection) {
-                return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
+                return new TriIdWithIntersection(nextTriIndex,
                         new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
                         false, false, rayBuildingId);
             }
             //Else, the Z of Topographic intersection > Z calculated by propagation Line, the Topographic intersection will block the propagation line
             else {
                 //Propagation line blocked by the topography
-                return new TriIdWithIntersection(triNeighbors.get(nearestIntersectionSide),
+                return new TriIdWithIntersection(nextTriIndex,
                         new Coordinate(intersection.x, intersection.y, zPropagationRayIntersection),
                         false,true, rayBuildingId);
             }
@@ -353,10 +616,101 @@ public class FastObstructionTest {
 
     }
 
+    /**
+     * Same test than {@link #dotInTri(Coordinate, Coordinate, Coordinate, Coordinate)} using the packed vertices
+     * @param triId Triangle index
+     * @param x Point X
+     * @param y Point Y
+     * @return True if dot is in triangle
+     */
+    private boolean dotInTri(int triId, double x, double y) {
+        int offsetA = getTriangleVertex(triId, 0) * 3;
+        int offsetB = getTriangleVertex(triId, 1) * 3;
+        int offsetC = getTriangleVertex(triId, 2) * 3;
+        double ax = vertices[offsetA];
+        double ay = vertices[offsetA + 1];
+        double v0x = vertices[offsetC] - ax, v0y = vertices[offsetC + 1] - ay;
+        double v1x = vertices[offsetB] - ax, v1y = vertices[offsetB + 1] - ay;
+        double v2x = x - ax, v2y = y - ay;
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
+        double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+        double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
+        double v = (dot00 * dot12 - dot01 * dot02) * invDenom;
+        return (u > (0. - epsilon)) && (v > (0. - epsilon)) && (u + v < (1. + epsilon));
+    }
+
     Coordinate[] getTriangle(int triIndex) {
-        final Triangle tri = this.triVertices.get(triIndex);
-        return new Coordinate[]{this.vertices.get(tri.getA()),
-                this.vertices.get(tri.getB()), this.vertices.get(tri.getC())};
+        return new Coordinate[]{getVertex(getTriangleVertex(triIndex, 0)),
+                getVertex(getTriangleVertex(triIndex, 1)), getVertex(getTriangleVertex(triIndex, 2))};
+    }
+
+    /**
+     * Barycentric test of a point against a triangle of the mesh
+     * @param triId Triangle index
+     * @param x Point X
+     * @param y Point Y
+     * @return Distance from the triangle in barycentric unit, 0 if the point is in the triangle.
+     * Negative value if the point is strictly inside the triangle (farther than epsilon from the sides)
+     */
+    private double barycentricError(int triId, double x, double y) {
+        int offsetA = getTriangleVertex(triId, 0) * 3;
+        int offsetB = getTriangleVertex(triId, 1) * 3;
+        int offsetC = getTriangleVertex(triId, 2) * 3;
+        double ax = vertices[offsetA];
+        double ay = vertices[offsetA + 1];
+        // Same vectors than dotInTri
+        double v0x = vertices[offsetC] - ax, v0y = vertices[offsetC + 1] - ay;
+        double v1x = vertices[offsetB] - ax, v1y = vertices[offsetB + 1] - ay;
+        double v2x = x - ax, v2y = y - ay;
+        double dot00 = v0x * v0x + v0y * v0y;
+        double dot01 = v0x * v1x + v0y * v1y;
+        double dot02 = v0x * v2x + v0y * v2y;
+        double dot11 = v1x * v1x + v1y * v1y;
+        double dot12 = v1x * v2x + v1y * v2y;
+        double invDenom = 1 / (dot00 * dot11 - dot01 * dot01);
+        double u = (dot11 * dot02 - dot01 * dot12) * invDenom;
+        double v = (dot00 * dot12 - dot01 * dot02) * invDenom;
+        if(u > epsilon && v > epsilon && u + v < 1 - epsilon) {
+            return -1;
+        }
+        return Math.max(0, -u) + Math.max(0, -v) + Math.max(0, (u + v) - 1);
+    }
+
+    /**
+     * Walk from the start triangle toward the point, crossing the side that separate the triangle from the point.
+     * @param startTri First triangle of the walk
+     * @param x Point X
+     * @param y Point Y
+     * @return Triangle that strictly contains the point, -1 if not found in {@link #MAXIMUM_WALK_STEPS} steps
+     */
+    private int walkToTriangle(int startTri, double x, double y) {
+        int curTri = startTri;
+        for(int step = 0; step < MAXIMUM_WALK_STEPS && curTri >= 0; step++) {
+            int nextTri = -1;
+            for(int side = 0; side < 3; side++) {
+                int offsetOpposite = getTriangleVertex(curTri, side) * 3;
+                int offsetA = getTriangleVertex(curTri, (side + 1) % 3) * 3;
+                int offsetB = getTriangleVertex(curTri, (side + 2) % 3) * 3;
+                double ax = vertices[offsetA], ay = vertices[offsetA + 1];
+                double abx = vertices[offsetB] - ax, aby = vertices[offsetB + 1] - ay;
+                double sideOpposite = abx * (vertices[offsetOpposite + 1] - ay) - aby * (vertices[offsetOpposite] - ax);
+                double sidePoint = abx * (y - ay) - aby * (x - ax);
+                if(sideOpposite * sidePoint < 0) {
+                    // The point is on the other side of this triangle side
+                    nextTri = getTriangleNeighbor(curTri, side);
+                    break;
+                }
+            }
+            if(nextTri == -1) {
+                return barycentricError(curTri, x, y) < 0 ? curTri : -1;
+            }
+            curTri = nextTri;
+        }
+        return -1;
     }
 
     /**
@@ -367,6 +721,20 @@ public class FastObstructionTest {
      */
 
     public int getTriangleIdByCoordinate(Coordinate pt) {
+        int[] hint = null;
+        if(triNeighbors != null) {
+            // Receivers and sources are spatially coherent, start from the last found triangle of this thread
+            hint = lastLocatedTriangle.get();
+            int startTri = hint[0] >= 0 && hint[0] < getTriangleCount() ? hint[0] : 0;
+            if(getTriangleCount() > 0) {
+                int walkTri = walkToTriangle(startTri, pt.x, pt.y);
+                if (walkTri >= 0) {
+                    hint[0] = walkTri;
+                    return walkTri;
+                }
+            }
+        }
+        // The point is on a triangle side, on a vertex or outside of the mesh
         Envelope ptEnv = new Envelope(pt);
         ptEnv.expandBy(1);
         List res = triIndex.query(new Envelope(ptEnv));
@@ -374,14 +742,15 @@ public class FastObstructionTest {
         int minDistanceTriangle = -1;
         for(Object objInd : res) {
             int triId = (Integer) objInd;
-            Coordinate[] tri = getTriangle(triId);
-            AtomicReference<Double> err = new AtomicReference<>(0.);
-            dotInTri(pt, tri[0], tri[1], tri[2], err);
-            if (err.get() < minDistance) {
-                minDistance = err.get();
+            double err = Math.max(0, barycentricError(triId, pt.x, pt.y));
+            if (err < minDistance) {
+                minDistance = err;
                 minDistanceTriangle = triId;
             }
         }
+        if(hint != null && minDistanceTriangle >= 0) {
+            hint[0] = minDistanceTriangle;
+        }
         return minDistanceTriangle;
     }
 
@@ -455,59 +824,49 @@ public class FastObstructionTest {
      * @return List of corners within parameters range
      */
     public List<Coordinate> getWideAnglePoints(double minAngle, double maxAngle) {
-        List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(
-                vertices.size());
+        int vertexCount = getVertexCount();
+        List<Coordinate> wideAnglePts = new ArrayList<Coordinate>(vertexCount);
         if (verticesOpenAngle == null) {
-            verticesOpenAngle = new ArrayList<Float>(vertices.size()); // Reserve
-            // size
-            verticesOpenAngleTranslated = new ArrayList<Coordinate>(
-                    vertices.size());
+            float[] openAngles = new float[vertexCount];
+            verticesOpenAngleTranslated = new ArrayList<Coordinate>(vertexCount);
             // Vertex open angle. For each vertex
             // [ccwmin,ccwmax,ccwmin,ccwmax,..]
-            ArrayList<ArrayList<Double>> verticesOpenAnglesTuples = new ArrayList<ArrayList<Double>>(
-                    vertices.size());
-            for (int idvert = 0; idvert < vertices.size(); idvert++) {
-                verticesOpenAngle.add(0.f);
+            ArrayList<ArrayList<Double>> verticesOpenAnglesTuples = new ArrayList<ArrayList<Double>>(vertexCount);
+            for (int idvert = 0; idvert < vertexCount; idvert++) {
                 verticesOpenAnglesTuples.add(new ArrayList<Double>());
             }
 
 
-            for (Triangle tri : this.triVertices) {
-                if (tri.getAttribute() < 1) {
+            for (int triId = 0; triId < getTriangleCount(); triId++) {
+                if (triAttributes[triId] < 1) {
                     // Compute angle at each corner, then add to vertices angle
                     // array
-                    Coordinate triA = vertices.get(tri.getA());
-                    Coordinate triB = vertices.get(tri.getB());
-                    Coordinate triC = vertices.get(tri.getC());
+                    int idA = getTriangleVertex(triId, 0);
+                    int idB = getTriangleVertex(triId, 1);
+                    int idC = getTriangleVertex(triId, 2);
+                    Coordinate triA = getVertex(idA);
+                    Coordinate triB = getVertex(idB);
+                    Coordinate triC = getVertex(idC);
                     // Add A vertex min/max angle
-                    updateMinMax(tri.getA(), triA, triB, triC,
+                    updateMinMax(idA, triA, triB, triC,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getA(),
-                            (float) (verticesOpenAngle.get(tri.getA()) + Angle
-                                    .angleBetween(triB, triA, triC))
-                    );
+                    openAngles[idA] = (float) (openAngles[idA] + Angle.angleBetween(triB, triA, triC));
                     // Add B vertex angle
-                    updateMinMax(tri.getB(), triB, triC, triA,
+                    updateMinMax(idB, triB, triC, triA,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getB(),
-                            (float) (verticesOpenAngle.get(tri.getB()) + Angle
-                                    .angleBetween(triA, triB, triC))
-                    );
+                    openAngles[idB] = (float) (openAngles[idB] + Angle.angleBetween(triA, triB, triC));
                     // Add C vertex angle
-                    updateMinMax(tri.getC(), triC, triA, triB,
+                    updateMinMax(idC, triC, triA, triB,
                             verticesOpenAnglesTuples);
-                    verticesOpenAngle.set(tri.getC(),
-                            (float) (verticesOpenAngle.get(tri.getC()) + Angle
-                                    .angleBetween(triB, triC, triA))
-                    );
+                    openAngles[idC] = (float) (openAngles[idC] + Angle.angleBetween(triB, triC, triA));
                 }
             }
 
-            for (int idvert = 0; idvert < vertices.size(); idvert++) {
+            for (int idvert = 0; idvert < vertexCount; idvert++) {
                 // Compute median angle of open angle point
                 ArrayList<Double> curvert = verticesOpenAnglesTuples
                         .get(idvert);
-                Coordinate curVert = vertices.get(idvert);
+                Coordinate curVert = getVertex(idvert);
                 if (curvert.size() == 2) {
                     double ccw1 = curvert.get(0);
                     double ccw2 = curvert.get(1);
@@ -522,14 +881,13 @@ public class FastObstructionTest {
                     verticesOpenAngleTranslated.add(curVert);
                 }
             }
-
+            verticesOpenAngle = openAngles;
         }
-        int idvert = 0;
-        for (Float angleVertex : verticesOpenAngle) {
+        for (int idvert = 0; idvert < verticesOpenAngle.length; idvert++) {
+            float angleVertex = verticesOpenAngle[idvert];
             if (angleVertex >= minAngle && angleVertex <= maxAngle) {
                 wideAnglePts.add(verticesOpenAngleTranslated.get(idvert));
             }
-            idvert++;
         }
         return wideAnglePts;
     }
@@ -579,6 +937,31 @@ public class FastObstructionTest {
         return verticesBuilding;
     }
 
+    /**
+     * Building walls within the distance that face the region of connected triangles of the point, using the
+     * prebuilt wall index instead of navigating through the triangles.
+     * The result contains the walls of {@link #getLimitsInRange(double, Coordinate, boolean)} without going through
+     * walls, and may contain more walls: the navigation only crosses triangle sides within the distance, whereas the
+     * region of a wall may be connected to the point only by triangles farther than the distance.
+     *
+     * @param maxDist Maximum distance from origin to walls
+     * @param p1      Origin of search
+     * @return List of walls
+     */
+    public List<Wall> getWallsInRange(double maxDist, Coordinate p1) {
+        if(wallIndex == null) {
+            return getLimitsInRange(maxDist, p1, false);
+        }
+        return wallIndex.getWallsInRange(maxDist, p1, getTriangleIdByCoordinate(p1));
+    }
+
+    /**
+     * @return Index of building walls, null if the triangle neighbors are not available
+     */
+    public BuildingWallIndex getWallIndex() {
+        return wallIndex;
+    }
+
     /**
      * Compute the list of segments corresponding to holes and domain limitation
      *
@@ -591,7 +974,7 @@ public class FastObstructionTest {
         LinkedList<Wall> walls = new LinkedList<>();
         int curTri = getTriangleIdByCoordinate(p1);
         int p1Building = 0;
-        p1Building = triVertices.get(curTri).getAttribute();
+        p1Building = triAttributes[curTri];
         int nextTri = -1;
         short firstSide = 0;
         HashSet<Integer> navigationHistory = new HashSet<Integer>(); // List all
@@ -610,35 +993,33 @@ public class FastObstructionTest {
                 navigationHistory.add(curTri);
             }
             // for each side of the triangle
-            Triangle neighbors = this.triNeighbors.get(curTri);
             nextTri = -1;
             for (short sideId = firstSide; sideId < 3; sideId++) {
-                Triangle tri = this.triVertices.get(curTri);
-                IntSegment segVerticesIndex = tri
-                        .getSegment(sideId);
+                // Side vertices, same order than Triangle.getSegment
+                int segA = getTriangleVertex(curTri, (sideId + 1) % 3);
+                int segB = getTriangleVertex(curTri, (sideId + 2) % 3);
+                int neighbor = getTriangleNeighbor(curTri, sideId);
                 int wallBuildingId = 0;
-                if(neighbors.get(sideId) != -1) {
-                    wallBuildingId = triVertices.get(neighbors.get(sideId)).getAttribute();
+                if(neighbor != -1) {
+                    wallBuildingId = triAttributes[neighbor];
                 }
-                Wall wall = new Wall(
-                        this.vertices.get(segVerticesIndex.getA()),
-                        this.vertices.get(segVerticesIndex.getB()),wallBuildingId);
+                Wall wall = new Wall(getVertex(segA), getVertex(segB), wallBuildingId);
                 Coordinate closestPoint = wall.closestPoint(p1);
                 if (closestPoint.distance(p1) <= maxDist) {
                     // Propagate search in this direction if this is not the domain limitation
-                    if (neighbors.get(sideId) != -1) {
+                    if (neighbor != -1) {
                         // If the triangle side is a wal
                         if (wall.getBuildingId() >= 1 && wall.getLength() > MINIMAL_REFLECTION_WALL_LENGTH) {
                             walls.add(wall);
                         }
-                        if((goThroughWalls || wall.getBuildingId() == 0 || wall.getBuildingId() == p1Building) && !navigationHistory.contains(neighbors.get(sideId))) {
+                        if((goThroughWalls || wall.getBuildingId() == 0 || wall.getBuildingId() == p1Building) && !navigationHistory.contains(neighbor)) {
                             // Store currentTriangle Id. This is where to go
                             // back when there is no more navigable neighbors at
                             // the next triangle
                             navigationNodes.add(curTri);
                             navigationSide.add(sideId);
                             firstSide = 0;
-                            nextTri = neighbors.get(sideId);
+                            nextTri = neighbor;
                             break; // Next triangle
                         }
                     }
@@ -668,17 +1049,22 @@ public class FastObstructionTest {
     }
 
     /**
-     * Interpolate Z value in the triangle that contain p1
+     * Interpolate Z value in the raster DEM if any, or in the triangle that contain p1
      * @param p1 Extraction point
      * @return Interpolated Z value, NaN if out of bounds
      */
     public double getHeightAtPosition(Coordinate p1) {
+        if(demRaster != null) {
+            double z = demRaster.getHeight(p1);
+            if(!Double.isNaN(z)) {
+                return z;
+            }
+        }
         int curTri = getTriangleIdByCoordinate(p1);
         if(curTri >= 0) {
-            Triangle triangle = triVertices.get(curTri);
+            Coordinate[] triangle = getTriangle(curTri);
             org.locationtech.jts.geom.Triangle tri =
-                    new org.locationtech.jts.geom.Triangle(vertices.get(triangle.getA()),
-                            vertices.get(triangle.getB()),vertices.get(triangle.getC()));
+                    new org.locationtech.jts.geom.Triangle(triangle[0], triangle[1], triangle[2]);
 
             return tri.interpolateZ(p1);
         } else {
@@ -751,26 +1137,26 @@ public class FastObstructionTest {
         }
         Coordinate[] triP1 = getTriangle(curTriP1);
         Coordinate[] triP2 = getTriangle(curTriP2);
-        Triangle buildingP1 = this.triVertices.get(curTriP1);
-        Triangle buildingP2 = this.triVertices.get(curTriP2);
+        int buildingP1 = this.triAttributes[curTriP1];
+        int buildingP2 = this.triAttributes[curTriP2];
         if(stopOnIntersection) {
-            if (buildingP1.getAttribute() >= 1) {
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP1.getAttribute() - 1);
+            if (buildingP1 >= 1) {
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP1 - 1);
                 if (!building.hasHeight() || Double.isNaN(p1.z) || building.getHeight() >= p1.z) {
                     //receiver is in the building so this propagation line is invisible
                     return false;
                 }
             }
-            if (buildingP2.getAttribute() >= 1) {
-                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP2.getAttribute() - 1);
+            if (buildingP2 >= 1) {
+                MeshBuilder.PolygonWithHeight building = polygonWithHeight.get(buildingP2 - 1);
                 if (!building.hasHeight() || Double.isNaN(p2.z) || building.getHeight() >= p2.z) {
                     //receiver is in the building so this propagation line is invisible
                     return false;
                 }
             }
         }
-        double zTopoP1 = getTopoZByGiven3Points(triP1[0], triP1[1], triP1[2], p1);
-        double zTopoP2 = getTopoZByGiven3Points(triP2[0], triP2[1], triP2[2], p2);
+        double zTopoP1 = getGroundZ(triP1, p1);
+        double zTopoP2 = getGroundZ(triP2, p2);
         if(includePoints) {
             path.add(new TriIdWithIntersection(curTriP1, new Coordinate(p1.x, p1.y, zTopoP1)));
         }
@@ -779,24 +1165,34 @@ public class FastObstructionTest {
             //Z value of origin or destination is lower than topography. FreeField is always false in this case
             if(includePoints) {
                 path.add(new TriIdWithIntersection(curTriP2, new Coordinate(p2.x, p2.y, zTopoP2), false, false,
-                        buildingP2.getAttribute()));
+                        buildingP2));
             }
             return false;
         }
+        if(stopOnIntersection && demRaster != null && demRaster.intersects(p1, p2)) {
+            // The mesh does not contain the topography
+            return false;
+        }
+        if(stopOnIntersection && path == null && obstacleIndex.isAbove(p1, p2)) {
+            // The segment is higher than all the buildings and the topography it crosses
+            return true;
+        }
 
         HashSet<Integer> navigationHistory = new HashSet<Integer>();
+        Coordinate[] triVerticesScratch = new Coordinate[] {new Coordinate(), new Coordinate(), new Coordinate()};
+        LineSegment sideScratch = new LineSegment();
         int navigationTri = curTriP1;
         while (navigationTri != -1) {
             navigationHistory.add(navigationTri);
-            Coordinate[] tri = getTriangle(navigationTri);
-            if (dotInTri(p2, tri[0], tri[1], tri[2])) {
+            if (dotInTri(navigationTri, p2.x, p2.y)) {
                 if(includePoints) {
                     path.add(new TriIdWithIntersection(curTriP2, new Coordinate(p2.x, p2.y, zTopoP2), false, false,
-                            buildingP2.getAttribute()));
+                            buildingP2));
                 }
                 return true;
             }
-            TriIdWithIntersection propaTri = this.getNextTri(navigationTri, propaLine, navigationHistory);
+            TriIdWithIntersection propaTri = this.getNextTri(navigationTri, propaLine, navigationHistory,
+                    triVerticesScratch, sideScratch);
             if (path != null && propaTri.getTriID() >= 0) {
                 path.add(propaTri);
             }
@@ -828,11 +1224,22 @@ public class FastObstructionTest {
      * @return Ground position of provided line path.
      */
     public List<Coordinate> getGroundProfile(List<TriIdWithIntersection> allInterPoints) {
+        if(demRaster != null && allInterPoints.size() >= 2) {
+            List<Coordinate> groundProfile = demRaster.getProfile(allInterPoints.get(0).getCoorIntersection(),
+                    allInterPoints.get(allInterPoints.size() - 1).getCoorIntersection());
+            // Out of the raster, use the mesh ground
+            for(int i = 0; i < groundProfile.size(); i++) {
+                Coordinate pt = groundProfile.get(i);
+                if(Double.isNaN(pt.z)) {
+                    pt.z = getHeightAtPosition(pt);
+                }
+            }
+            return groundProfile;
+        }
         List<Coordinate> groundProfile = new ArrayList<>(allInterPoints.size());
         for(TriIdWithIntersection tri : allInterPoints) {
-            Triangle triangle = triVertices.get(tri.getTriID());
-            double zTri = getTopoZByGiven3Points(vertices.get(triangle.getA()), vertices.get(triangle.getB()),
-                    vertices.get(triangle.getC()), tri.getCoorIntersection());
+            Coordinate[] triangle = getTriangle(tri.getTriID());
+            double zTri = getTopoZByGiven3Points(triangle[0], triangle[1], triangle[2], tri.getCoorIntersection());
             groundProfile.add(new Coordinate(tri.getCoorIntersection().x, tri.getCoorIntersection().y, zTri));
         }
         return groundProfile;
@@ -1362,6 +1769,19 @@ public class FastObstructionTest {
         return Vertex.interpolateZ(point, p1, p2, p3);
     }
 
+    /**
+     * @return Ground height of the raster DEM if any, or of the triangle containing the point
+     */
+    private double getGroundZ(Coordinate[] triangle, Coordinate point) {
+        if(demRaster != null) {
+            double z = demRaster.getHeight(point);
+            if(!Double.isNaN(z)) {
+                return z;
+            }
+        }
+        return getTopoZByGiven3Points(triangle[0], triangle[1], triangle[2], point);
+    }
+
     public static final class Wall extends LineSegment {
         private int buildingId = 0;
 
@@ -1388,22 +1808,20 @@ public class FastObstructionTest {
         sb.append("CREATE TABLE TRI_NEIGHBOURS(id serial, the_geom LINESTRING);\n");
         GeometryFactory gf = new GeometryFactory();
         WKTWriter wktWriter = new WKTWriter(3);
-        int idTriangle = 0;
-        for( Triangle t : triVertices) {
-            Coordinate[] line = new Coordinate[] {vertices.get(t.getA()), vertices.get(t.getB()), vertices.get(t.getC()), vertices.get(t.getA())};
+        for(int idTriangle = 0; idTriangle < getTriangleCount(); idTriangle++) {
+            Coordinate[] t = getTriangle(idTriangle);
+            Coordinate[] line = new Coordinate[] {t[0], t[1], t[2], t[0]};
             sb.append(String.format("INSERT INTO TRIANGLES(THE_GEOM) VALUES ('%s');\n", gf.createPolygon(line)));
-            Coordinate from = new org.locationtech.jts.geom.Triangle(vertices.get(t.getA()), vertices.get(t.getB()), vertices.get(t.getC())).centroid();
+            Coordinate from = new org.locationtech.jts.geom.Triangle(t[0], t[1], t[2]).centroid();
             // Dump neighbours links
-            Triangle neigh = triNeighbors.get(idTriangle);
             for(int n = 0; n < 3; n++) {
-                int vIndex = neigh.get(n);
+                int vIndex = getTriangleNeighbor(idTriangle, n);
                 if(vIndex >= 0) {
-                    Triangle tn = triVertices.get(vIndex);
-                    Coordinate to = new org.locationtech.jts.geom.Triangle(vertices.get(tn.getA()), vertices.get(tn.getB()), vertices.get(tn.getC())).centroid();
+                    Coordinate[] tn = getTriangle(vIndex);
+                    Coordinate to = new org.locationtech.jts.geom.Triangle(tn[0], tn[1], tn[2]).centroid();
                     sb.append(String.format("INSERT INTO TRI_NEIGHBOURS(THE_GEOM) VALUES ('%s');\n", gf.createLineString(new Coordinate[]{from, to})));
                 }
             }
-            idTriangle++;
         }
         return sb.toString();
     }
@@ -1426,6 +1844,13 @@ public class FastObstructionTest {
 
         public abstract void addBuilding(int buildingId);
 
+        /**
+         * @return True if buildings within this envelope and lower than maxZ cannot be added
+         */
+        public boolean isBelowPath(double minX, double minY, double maxX, double maxY, double maxZ) {
+            return false;
+        }
+
         @Override
         public void visitItem(Object item) {
             int buildingId = (Integer) item;
@@ -0,0 +1,228 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Ground factor (G) of soil areas rasterized on a regular grid, in order to compute the mean ground factor of a
+ * segment by walking through the crossed cells instead of intersecting the segment with the soil polygons.
+ * A cell has the ground factor of the soil area that covers its center, 0 if there is no soil area.
+ * Queries are thread safe.
+ * @author Nicolas Fortin
+ */
+public class GroundFactorGrid {
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columnCount;
+    private final int rowCount;
+    private final float[] values;
+
+    /**
+     * Create a grid with a ground factor of 0
+     * @param envelope Extent of the grid
+     * @param cellSize Side length of cells (m)
+     */
+    public GroundFactorGrid(Envelope envelope, double cellSize) {
+        if(!(cellSize > 0) || envelope.isNull()) {
+            throw new IllegalArgumentException("The cell size must be positive and the envelope must not be empty");
+        }
+        this.minX = envelope.getMinX();
+        this.minY = envelope.getMinY();
+        this.cellSize = cellSize;
+        this.columnCount = Math.max(1, (int) Math.ceil(envelope.getWidth() / cellSize));
+        this.rowCount = Math.max(1, (int) Math.ceil(envelope.getHeight() / cellSize));
+        long cellCount = (long) columnCount * rowCount;
+        if(cellCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many cells, the cell size must be increased");
+        }
+        values = new float[(int) cellCount];
+    }
+
+    /**
+     * Rasterize soil areas
+     * @param soilList Soil areas with their ground factor
+     * @param envelope Extent of the grid, soil areas outside of it are ignored
+     * @param cellSize Side length of cells (m)
+     * @return Ground factor grid
+     */
+    public static GroundFactorGrid rasterize(List<GeoWithSoilType> soilList, Envelope envelope, double cellSize) {
+        GroundFactorGrid grid = new GroundFactorGrid(envelope, cellSize);
+        for(GeoWithSoilType soil : soilList) {
+            grid.addSoil(soil.getGeo(), soil.getType());
+        }
+        return grid;
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Set the ground factor of the cells whose center is inside the polygons of the geometry. Holes are filled
+     * using the even-odd rule, by a scan line over the rows of the grid.
+     * @param geometry Polygon, MultiPolygon or collection of polygons
+     * @param g Ground factor
+     */
+    public void addSoil(Geometry geometry, double g) {
+        List<Coordinate[]> rings = new ArrayList<>();
+        addRings(geometry, rings);
+        if(rings.isEmpty()) {
+            return;
+        }
+        Envelope envelope = geometry.getEnvelopeInternal();
+        int startRow = Math.max(0, (int) Math.floor((envelope.getMinY() - minY) / cellSize));
+        int endRow = Math.min(rowCount - 1, (int) Math.floor((envelope.getMaxY() - minY) / cellSize));
+        double[] crossings = new double[16];
+        for(int row = startRow; row <= endRow; row++) {
+            double y = minY + (row + 0.5) * cellSize;
+            int crossingCount = 0;
+            for(Coordinate[] ring : rings) {
+                for(int i = 0; i < ring.length - 1; i++) {
+                    Coordinate a = ring[i];
+                    Coordinate b = ring[i + 1];
+                    // Half open interval, so a vertex on the scan line is counted once
+                    if((a.y <= y && y < b.y) || (b.y <= y && y < a.y)) {
+                        if(crossingCount == crossings.length) {
+                            crossings = Arrays.copyOf(crossings, crossings.length * 2);
+                        }
+                        crossings[crossingCount++] = a.x + (y - a.y) * (b.x - a.x) / (b.y - a.y);
+                    }
+                }
+            }
+            Arrays.sort(crossings, 0, crossingCount);
+            for(int i = 0; i + 1 < crossingCount; i += 2) {
+                // Cells whose center is in [x0, x1[
+                int startColumn = Math.max(0, (int) Math.ceil((crossings[i] - minX) / cellSize - 0.5));
+                int endColumn = Math.min(columnCount, (int) Math.ceil((crossings[i + 1] - minX) / cellSize - 0.5));
+                if(startColumn < endColumn) {
+                    Arrays.fill(values, row * columnCount + startColumn, row * columnCount + endColumn, (float) g);
+                }
+            }
+        }
+    }
+
+    private static void addRings(Geometry geometry, List<Coordinate[]> rings) {
+        if(geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            rings.add(polygon.getExteriorRing().getCoordinates());
+            for(int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                LineString hole = polygon.getInteriorRingN(i);
+                rings.add(hole.getCoordinates());
+            }
+        } else {
+            for(int i = 0; i < geometry.getNumGeometries(); i++) {
+                Geometry part = geometry.getGeometryN(i);
+                if(part != geometry) {
+                    addRings(part, rings);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Ground factor of the cell, 0 outside of the grid
+     */
+    public double getG(double x, double y) {
+        int column = (int) Math.floor((x - minX) / cellSize);
+        int row = (int) Math.floor((y - minY) / cellSize);
+        if(column < 0 || column >= columnCount || row < 0 || row >= rowCount) {
+            return 0;
+        }
+        return values[row * columnCount + column];
+    }
+
+    /**
+     * Mean ground factor along the 2D segment, weighted by the length of the segment in each crossed cell.
+     * The part of the segment outside of the grid has a ground factor of 0.
+     * @param p0 First point of the segment
+     * @param p1 Second point of the segment
+     * @return Mean ground factor [0-1]
+     */
+    public double getMeanG(Coordinate p0, Coordinate p1) {
+        double dx = p1.x - p0.x;
+        double dy = p1.y - p0.y;
+        if(dx == 0 && dy == 0) {
+            return getG(p0.x, p0.y);
+        }
+        // Clip the segment parameters with the grid extent
+        double[] clip = new double[] {0, 1};
+        if(!clipSide(-dx, p0.x - minX, clip) || !clipSide(dx, minX + columnCount * cellSize - p0.x, clip) ||
+                !clipSide(-dy, p0.y - minY, clip) || !clipSide(dy, minY + rowCount * cellSize - p0.y, clip)) {
+            return 0;
+        }
+        double tEnd = clip[1];
+        double t = clip[0];
+        // Grid coordinates of the first point in the grid
+        double gx = (p0.x + t * dx - minX) / cellSize;
+        double gy = (p0.y + t * dy - minY) / cellSize;
+        int column = Math.max(0, Math.min(columnCount - 1, (int) Math.floor(gx)));
+        int row = Math.max(0, Math.min(rowCount - 1, (int) Math.floor(gy)));
+        int stepColumn = dx > 0 ? 1 : -1;
+        int stepRow = dy > 0 ? 1 : -1;
+        // Segment parameter increment to cross a cell, and parameter of the next column and row crossings
+        double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dx);
+        double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : cellSize / Math.abs(dy);
+        double nextX = dx == 0 ? Double.POSITIVE_INFINITY : t + (dx > 0 ? column + 1 - gx : gx - column) * deltaX;
+        double nextY = dy == 0 ? Double.POSITIVE_INFINITY : t + (dy > 0 ? row + 1 - gy : gy - row) * deltaY;
+        double sum = 0;
+        while (t < tEnd) {
+            double tNext = Math.min(tEnd, Math.min(nextX, nextY));
+            // The parameter is the fraction of the segment length
+            sum += values[row * columnCount + column] * (tNext - t);
+            t = tNext;
+            if(nextX <= nextY) {
+                column += stepColumn;
+                nextX += deltaX;
+            } else {
+                row += stepRow;
+                nextY += deltaY;
+            }
+            if(column < 0 || column >= columnCount || row < 0 || row >= rowCount) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment parameters with one side of the grid
+     */
+    private static boolean clipSide(double p, double q, double[] clip) {
+        if(p == 0) {
+            return q >= 0;
+        }
+        double t = q / p;
+        if(p < 0) {
+            clip[0] = Math.max(clip[0], t);
+        } else {
+            clip[1] = Math.min(clip[1], t);
+        }
+        return clip[0] <= clip[1];
+    }
+}
@@ -0,0 +1,269 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+
+/**
+ * Bounding volume hierarchy of 2D boxes where each node keeps the maximal height of its items.
+ * A 3D segment that is higher than a node over the part of the segment crossing the node box is above all items of
+ * this node, so segments over buildings or topography are accepted without visiting the items.
+ * The tree is built once by splitting items on the median of the longest axis and is stored in packed arrays.
+ * Queries are thread safe.
+ * @author Nicolas Fortin
+ */
+public class HeightBoundedIndex {
+    private static final int DEFAULT_LEAF_SIZE = 8;
+    // Ranges are split in halves so the depth is lower than the number of bits of the item count
+    private static final int MAXIMUM_DEPTH = 32;
+    // minX, minY, maxX, maxY of each node
+    private final double[] nodeBounds;
+    private final double[] nodeMaxZ;
+    // Index of the second child node, the first child is the next node. -1 for leaves
+    private final int[] nodeRight;
+    // Range of items of each node in itemIds
+    private final int[] nodeItemStart;
+    private final int[] nodeItemEnd;
+    private final int[] itemIds;
+    private int nodeCount = 0;
+
+    /**
+     * @param itemBounds minX, minY, maxX, maxY of each item
+     * @param itemMaxZ Maximal height of each item
+     * @param itemIds Identifier of each item given to the visitor
+     */
+    public HeightBoundedIndex(double[] itemBounds, double[] itemMaxZ, int[] itemIds) {
+        this(itemBounds, itemMaxZ, itemIds, DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param itemBounds minX, minY, maxX, maxY of each item
+     * @param itemMaxZ Maximal height of each item
+     * @param itemIds Identifier of each item given to the visitor
+     * @param leafSize Maximal number of items in a leaf node
+     */
+    public HeightBoundedIndex(double[] itemBounds, double[] itemMaxZ, int[] itemIds, int leafSize) {
+        int itemCount = itemMaxZ.length;
+        if(itemBounds.length != itemCount * 4 || itemIds.length != itemCount) {
+            throw new IllegalArgumentException("Items bounds, heights and identifiers must have the same count");
+        }
+        leafSize = Math.max(1, leafSize);
+        int maximumNodeCount = countNodes(itemCount, leafSize);
+        nodeBounds = new double[maximumNodeCount * 4];
+        nodeMaxZ = new double[maximumNodeCount];
+        nodeRight = new int[maximumNodeCount];
+        nodeItemStart = new int[maximumNodeCount];
+        nodeItemEnd = new int[maximumNodeCount];
+        int[] order = new int[itemCount];
+        double[] centers = new double[itemCount * 2];
+        for(int i = 0; i < itemCount; i++) {
+            order[i] = i;
+            centers[i * 2] = (itemBounds[i * 4] + itemBounds[i * 4 + 2]) / 2;
+            centers[i * 2 + 1] = (itemBounds[i * 4 + 1] + itemBounds[i * 4 + 3]) / 2;
+        }
+        build(0, itemCount, order, centers, itemBounds, itemMaxZ, leafSize);
+        this.itemIds = new int[itemCount];
+        for(int i = 0; i < itemCount; i++) {
+            this.itemIds[i] = itemIds[order[i]];
+        }
+    }
+
+    /**
+     * @return Number of nodes of the tree, ranges are split in two halves until they fit in a leaf
+     */
+    private static int countNodes(int itemCount, int leafSize) {
+        if(itemCount <= leafSize) {
+            return 1;
+        }
+        return 1 + countNodes(itemCount / 2, leafSize) + countNodes(itemCount - itemCount / 2, leafSize);
+    }
+
+    private int build(int start, int end, int[] order, double[] centers, double[] itemBounds, double[] itemMaxZ,
+                      int leafSize) {
+        int node = nodeCount++;
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        double maxZ = Double.NEGATIVE_INFINITY;
+        for(int i = start; i < end; i++) {
+            int item = order[i];
+            minX = Math.min(minX, itemBounds[item * 4]);
+            minY = Math.min(minY, itemBounds[item * 4 + 1]);
+            maxX = Math.max(maxX, itemBounds[item * 4 + 2]);
+            maxY = Math.max(maxY, itemBounds[item * 4 + 3]);
+            maxZ = Math.max(maxZ, itemMaxZ[item]);
+        }
+        nodeBounds[node * 4] = minX;
+        nodeBounds[node * 4 + 1] = minY;
+        nodeBounds[node * 4 + 2] = maxX;
+        nodeBounds[node * 4 + 3] = maxY;
+        nodeMaxZ[node] = maxZ;
+        nodeItemStart[node] = start;
+        nodeItemEnd[node] = end;
+        if(end - start <= leafSize) {
+            nodeRight[node] = -1;
+        } else {
+            int axis = maxX - minX >= maxY - minY ? 0 : 1;
+            int middle = start + (end - start) / 2;
+            select(order, centers, axis, start, end - 1, middle);
+            build(start, middle, order, centers, itemBounds, itemMaxZ, leafSize);
+            nodeRight[node] = build(middle, end, order, centers, itemBounds, itemMaxZ, leafSize);
+        }
+        return node;
+    }
+
+    /**
+     * Partial sort, the item at position k is the one of the sorted order and smaller items are before it
+     */
+    private static void select(int[] order, double[] centers, int axis, int left, int right, int k) {
+        while (right > left) {
+            double pivot = centers[order[(left + right) >>> 1] * 2 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (centers[order[i] * 2 + axis] < pivot) {
+                    i++;
+                }
+                while (centers[order[j] * 2 + axis] > pivot) {
+                    j--;
+                }
+                if(i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if(k <= j) {
+                right = j;
+            } else if(k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return Number of indexed items
+     */
+    public int getItemCount() {
+        return itemIds.length;
+    }
+
+    /**
+     * Clip the 2D segment with the node box
+     * @param clip [out] parameters t0, t1 in [0, 1] of the part of the segment in the box
+     * @return False if the segment does not cross the box
+     */
+    private boolean clip(int node, Coordinate p1, Coordinate p2, double[] clip) {
+        clip[0] = 0;
+        clip[1] = 1;
+        double dx = p2.x - p1.x;
+        double dy = p2.y - p1.y;
+        return clipSide(-dx, p1.x - nodeBounds[node * 4], clip) &&
+                clipSide(dx, nodeBounds[node * 4 + 2] - p1.x, clip) &&
+                clipSide(-dy, p1.y - nodeBounds[node * 4 + 1], clip) &&
+                clipSide(dy, nodeBounds[node * 4 + 3] - p1.y, clip);
+    }
+
+    /**
+     * Liang-Barsky clipping of the segment parameters with one side of the box
+     */
+    private static boolean clipSide(double p, double q, double[] clip) {
+        if(p == 0) {
+            return q >= 0;
+        }
+        double t = q / p;
+        if(p < 0) {
+            clip[0] = Math.max(clip[0], t);
+        } else {
+            clip[1] = Math.min(clip[1], t);
+        }
+        return clip[0] <= clip[1];
+    }
+
+    /**
+     * @param p1 First point of the segment
+     * @param p2 Second point of the segment
+     * @return True if the segment is higher than the maximal height of all items its 2D projection crosses.
+     * False if the segment may cross an item or if a point does not have a Z value.
+     */
+    public boolean isAbove(Coordinate p1, Coordinate p2) {
+        if(Double.isNaN(p1.z) || Double.isNaN(p2.z)) {
+            return false;
+        }
+        if(itemIds.length == 0) {
+            return true;
+        }
+        double[] clip = new double[2];
+        int[] stack = new int[2 * MAXIMUM_DEPTH];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if(!clip(node, p1, p2, clip)) {
+                continue;
+            }
+            // The segment is linear, its lowest point in the box is at one end of the clipped part
+            double minZ = Math.min(p1.z + clip[0] * (p2.z - p1.z), p1.z + clip[1] * (p2.z - p1.z));
+            if(minZ > nodeMaxZ[node]) {
+                continue;
+            }
+            if(nodeRight[node] == -1) {
+                // An item of this leaf may be higher than the segment
+                return false;
+            }
+            stack[stackSize++] = nodeRight[node];
+            stack[stackSize++] = node + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Visit the items of the nodes crossed by the 2D segment
+     * @param p1 First point of the segment
+     * @param p2 Second point of the segment
+     * @param visitor Items visitor, may skip nodes using their height
+     */
+    public void query(Coordinate p1, Coordinate p2, ItemVisitor visitor) {
+        if(itemIds.length == 0) {
+            return;
+        }
+        double[] clip = new double[2];
+        int[] stack = new int[2 * MAXIMUM_DEPTH];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            if(!clip(node, p1, p2, clip) || visitor.skipNode(nodeBounds[node * 4], nodeBounds[node * 4 + 1],
+                    nodeBounds[node * 4 + 2], nodeBounds[node * 4 + 3], nodeMaxZ[node])) {
+                continue;
+            }
+            if(nodeRight[node] == -1) {
+                for(int i = nodeItemStart[node]; i < nodeItemEnd[node]; i++) {
+                    if(!visitor.visitItem(itemIds[i])) {
+                        return;
+                    }
+                }
+            } else {
+                stack[stackSize++] = nodeRight[node];
+                stack[stackSize++] = node + 1;
+            }
+        }
+    }
+
+    /**
+     * Receive the items found by {@link #query(Coordinate, Coordinate, ItemVisitor)}
+     */
+    public interface ItemVisitor {
+        /**
+         * @return True if the items of the node with this bounding box and this maximal height must be skipped
+         */
+        boolean skipNode(double minX, double minY, double maxX, double maxY, double maxZ);
+
+        /**
+         * @param itemId Item identifier
+         * @return False to stop the query
+         */
+        boolean visitItem(int itemId);
+    }
+}
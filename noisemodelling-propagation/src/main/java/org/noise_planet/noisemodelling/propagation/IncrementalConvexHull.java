@@ -0,0 +1,167 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.algorithm.Orientation;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 2D convex hull where points are inserted one by one. Vertices are kept in clockwise order, like the polygon
+ * returned by {@link org.locationtech.jts.algorithm.ConvexHull}, and collinear points are not kept as vertices.
+ * Each edge has a flag that is kept while the edge stays on the hull, so only the edges created by the
+ * insertions have to be tested again.
+ * The coordinates instances are kept, with their Z value.
+ * @author Nicolas Fortin
+ */
+public class IncrementalConvexHull {
+    private List<Coordinate> vertices = new ArrayList<>();
+    // Flag of the edge from the vertex of the same index to the next vertex
+    private List<Boolean> freeEdges = new ArrayList<>();
+
+    /**
+     * @param p1 First point
+     * @param p2 Second point, must be different from the first point
+     */
+    public IncrementalConvexHull(Coordinate p1, Coordinate p2) {
+        if(p1.equals2D(p2)) {
+            throw new IllegalArgumentException("The hull must be initialised with two different points");
+        }
+        vertices.add(p1);
+        vertices.add(p2);
+        freeEdges.add(false);
+        freeEdges.add(false);
+    }
+
+    /**
+     * @return Number of vertices, it is also the number of edges
+     */
+    public int size() {
+        return vertices.size();
+    }
+
+    /**
+     * @param index Vertex index, modulo the number of vertices
+     * @return Vertex
+     */
+    public Coordinate get(int index) {
+        return vertices.get(index % vertices.size());
+    }
+
+    /**
+     * @param coordinate Coordinate to find
+     * @return Index of the vertex with the same 2D coordinate, -1 if not found
+     */
+    public int indexOf(Coordinate coordinate) {
+        for(int i = 0; i < vertices.size(); i++) {
+            if(vertices.get(i).equals2D(coordinate)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index Index of the first vertex of the edge
+     * @return Flag of the edge, false if the edge has been created by the last insertions
+     */
+    public boolean isFreeEdge(int index) {
+        return freeEdges.get(index % vertices.size());
+    }
+
+    /**
+     * @param index Index of the first vertex of the edge
+     */
+    public void setFreeEdge(int index) {
+        freeEdges.set(index % vertices.size(), true);
+    }
+
+    /**
+     * @return Perimeter of the hull
+     */
+    public double getLength() {
+        double length = 0;
+        for(int i = 0; i < vertices.size(); i++) {
+            length += vertices.get(i).distance(get(i + 1));
+        }
+        return length;
+    }
+
+    /**
+     * @param start Index of the first vertex
+     * @return Closed ring of the hull vertices in clockwise order, starting at the provided index
+     */
+    public Coordinate[] getCoordinates(int start) {
+        int n = vertices.size();
+        Coordinate[] coordinates = new Coordinate[n + 1];
+        for(int i = 0; i <= n; i++) {
+            coordinates[i] = vertices.get((start + i) % n);
+        }
+        return coordinates;
+    }
+
+    /**
+     * An edge is visible from the point if the point is on its outer side, or on its line but outside of the edge
+     */
+    private boolean isVisible(int edge, Coordinate p) {
+        Coordinate a = vertices.get(edge);
+        Coordinate b = get(edge + 1);
+        int orientation = Orientation.index(a, b, p);
+        if(orientation == Orientation.COUNTERCLOCKWISE) {
+            return true;
+        } else if(orientation == Orientation.COLLINEAR) {
+            return (p.x - a.x) * (b.x - a.x) + (p.y - a.y) * (b.y - a.y) < 0 ||
+                    (p.x - b.x) * (a.x - b.x) + (p.y - b.y) * (a.y - b.y) < 0;
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Insert a point in the hull. The edges visible from the point are replaced by two edges joining the point.
+     * @param p Point
+     * @return False if the point is inside the hull or on its boundary, the hull is not modified
+     */
+    public boolean add(Coordinate p) {
+        int n = vertices.size();
+        boolean[] visible = new boolean[n];
+        int visibleCount = 0;
+        for(int i = 0; i < n; i++) {
+            visible[i] = isVisible(i, p);
+            if(visible[i]) {
+                visibleCount++;
+            }
+        }
+        if(visibleCount == 0) {
+            return false;
+        }
+        if(visibleCount == n) {
+            // Only when the hull is a segment and the point is on its line, keep the two farthest points
+            int kept = vertices.get(0).distance(p) > vertices.get(1).distance(p) ? 0 : 1;
+            vertices.set(1 - kept, p);
+            freeEdges.set(0, false);
+            freeEdges.set(1, false);
+            return true;
+        }
+        // Visible edges are contiguous, find the first one
+        int first = 0;
+        while (!visible[first] || visible[(first + n - 1) % n]) {
+            first++;
+        }
+        // Keep the vertices from the end of the visible chain to its beginning, then add the point
+        int last = first + visibleCount;
+        List<Coordinate> newVertices = new ArrayList<>(n - visibleCount + 2);
+        List<Boolean> newFreeEdges = new ArrayList<>(n - visibleCount + 2);
+        for(int i = last; i < first + n; i++) {
+            newVertices.add(vertices.get(i % n));
+            newFreeEdges.add(freeEdges.get(i % n));
+        }
+        newVertices.add(vertices.get(first));
+        newFreeEdges.add(false);
+        newVertices.add(p);
+        newFreeEdges.add(false);
+        vertices = newVertices;
+        freeEdges = newFreeEdges;
+        return true;
+    }
+}
@@ -521,6 +521,34 @@ public class MeshBuilder {
         }
     }
 
+    /**
+     * @return Topographic points added with {@link #addTopographicPoint(Coordinate)}
+     */
+    Set<Coordinate> getTopographicPoints() {
+        return Collections.unmodifiableSet(topoPoints);
+    }
+
+    /**
+     * @return Topographic lines added with {@link #addTopographicLine(LineString)}
+     */
+    Set<LineString> getTopographicLines() {
+        return Collections.unmodifiableSet(topoLines);
+    }
+
+    /**
+     * @return Maximum triangle area constraint in square meter, 0 if not constrained
+     */
+    public double getMaximumArea() {
+        return maximumArea;
+    }
+
+    /**
+     * @return True if triangles neighbors are computed
+     */
+    public boolean isComputeNeighbors() {
+        return computeNeighbors;
+    }
+
     public void clearBuildings() {
         polygonWithHeight.clear();
     }
@@ -0,0 +1,309 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * On disk cache of triangulated meshes. A mesh is identified by a hash of the triangulation inputs
+ * (cell envelope, buildings, topographic points and lines), so a cell is triangulated again only
+ * if its buildings or its digital elevation model have changed.
+ * @author Nicolas Fortin
+ */
+public class MeshCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MeshCache.class);
+    private static final int MAGIC = 0x4E4D4D43; // NMMC
+    private static final int VERSION = 1;
+    private static final String FILE_EXTENSION = ".mesh";
+    private final File cacheDirectory;
+
+    /**
+     * @param cacheDirectory Folder that contains the cached meshes, created if it does not exist
+     */
+    public MeshCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Compute the identifier of the mesh. Must be called before {@link MeshBuilder#finishPolygonFeeding(Envelope)}
+     * as buildings are merged by the triangulation.
+     * @param meshEnvelope Envelope given to {@link MeshBuilder#finishPolygonFeeding(Envelope)}
+     * @param mesh Mesh builder fed with buildings and topography
+     * @return Hexadecimal hash of the triangulation inputs
+     */
+    public static String computeKey(Envelope meshEnvelope, MeshBuilder mesh) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Double.SIZE / Byte.SIZE * 4);
+        buffer.putDouble(meshEnvelope.getMinX()).putDouble(meshEnvelope.getMaxX())
+                .putDouble(meshEnvelope.getMinY()).putDouble(meshEnvelope.getMaxY());
+        digest.update(buffer.array());
+        updateDigest(digest, mesh.getMaximumArea());
+        digest.update((byte)(mesh.isComputeNeighbors() ? 1 : 0));
+        WKBWriter wkbWriter = new WKBWriter(3);
+        // The buildings may be fetched in any order
+        List<String> polygons = new ArrayList<>(mesh.getPolygonWithHeight().size());
+        for(MeshBuilder.PolygonWithHeight poly : mesh.getPolygonWithHeight()) {
+            ByteBuffer polyBuffer = ByteBuffer.allocate(Double.SIZE / Byte.SIZE * (poly.getAlpha().size() + 2));
+            polyBuffer.putDouble(poly.getHeight());
+            for(Double alpha : poly.getAlpha()) {
+                polyBuffer.putDouble(alpha);
+            }
+            polyBuffer.putDouble(poly.getPrimaryKey());
+            polygons.add(WKBWriter.toHex(wkbWriter.write(poly.getGeometry())) + WKBWriter.toHex(polyBuffer.array()));
+        }
+        Collections.sort(polygons);
+        for(String polygon : polygons) {
+            digest.update(polygon.getBytes(StandardCharsets.US_ASCII));
+        }
+        // Sets have no defined order
+        List<Coordinate> topoPoints = new ArrayList<>(mesh.getTopographicPoints());
+        Collections.sort(topoPoints, new CoordinateComparator());
+        for(Coordinate topoPoint : topoPoints) {
+            updateDigest(digest, topoPoint.x);
+            updateDigest(digest, topoPoint.y);
+            updateDigest(digest, topoPoint.z);
+        }
+        List<String> topoLines = new ArrayList<>(mesh.getTopographicLines().size());
+        for(LineString topoLine : mesh.getTopographicLines()) {
+            topoLines.add(WKBWriter.toHex(wkbWriter.write(topoLine)));
+        }
+        Collections.sort(topoLines);
+        for(String topoLine : topoLines) {
+            digest.update(topoLine.getBytes(StandardCharsets.US_ASCII));
+        }
+        StringBuilder key = new StringBuilder();
+        for(byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    private static void updateDigest(MessageDigest digest, double value) {
+        long bits = Double.doubleToLongBits(value);
+        for(int i = 0; i < 8; i++) {
+            digest.update((byte)(bits >>> (i * 8)));
+        }
+    }
+
+    private File getMeshFile(String key) {
+        return new File(cacheDirectory, key + FILE_EXTENSION);
+    }
+
+    /**
+     * @param key Mesh identifier computed by {@link #computeKey(Envelope, MeshBuilder)}
+     * @return Cached mesh or null if not in the cache or unreadable
+     */
+    public CachedMesh load(String key) {
+        File meshFile = getMeshFile(key);
+        if(!meshFile.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(meshFile)))) {
+            return readMesh(in);
+        } catch (IOException | ParseException | RuntimeException ex) {
+            LOGGER.warn(String.format("Cannot read cached mesh %s", meshFile.getAbsolutePath()), ex);
+            return null;
+        }
+    }
+
+    private static CachedMesh readMesh(DataInputStream in) throws IOException, ParseException {
+        if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a mesh cache file or unsupported version");
+        }
+        int vertexCount = in.readInt();
+        List<Coordinate> vertices = new ArrayList<>(vertexCount);
+        for(int i = 0; i < vertexCount; i++) {
+            vertices.add(new Coordinate(in.readDouble(), in.readDouble(), in.readDouble()));
+        }
+        int triangleCount = in.readInt();
+        List<Triangle> triangles = new ArrayList<>(triangleCount);
+        for(int i = 0; i < triangleCount; i++) {
+            triangles.add(new Triangle(in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        int neighborCount = in.readInt();
+        List<Triangle> neighbors = null;
+        if(neighborCount >= 0) {
+            neighbors = new ArrayList<>(neighborCount);
+            for (int i = 0; i < neighborCount; i++) {
+                neighbors.add(new Triangle(in.readInt(), in.readInt(), in.readInt()));
+            }
+        }
+        int polygonCount = in.readInt();
+        List<MeshBuilder.PolygonWithHeight> polygons = new ArrayList<>(polygonCount);
+        WKBReader wkbReader = new WKBReader(new GeometryFactory());
+        for(int i = 0; i < polygonCount; i++) {
+            byte[] wkb = new byte[in.readInt()];
+            in.readFully(wkb);
+            Geometry geometry = wkbReader.read(wkb);
+            double height = in.readDouble();
+            int alphaCount = in.readInt();
+            List<Double> alpha = new ArrayList<>(alphaCount);
+            for(int idAlpha = 0; idAlpha < alphaCount; idAlpha++) {
+                alpha.add(in.readDouble());
+            }
+            MeshBuilder.PolygonWithHeight poly = new MeshBuilder.PolygonWithHeight(geometry, height, alpha);
+            poly.setPrimaryKey(in.readInt());
+            polygons.add(poly);
+        }
+        return new CachedMesh(triangles, neighbors, vertices, polygons);
+    }
+
+    /**
+     * Store the triangulated mesh
+     * @param key Mesh identifier computed by {@link #computeKey(Envelope, MeshBuilder)}
+     * @param mesh Triangulated mesh
+     */
+    public void store(String key, MeshBuilder mesh) {
+        if(!cacheDirectory.exists() && !cacheDirectory.mkdirs()) {
+            LOGGER.warn(String.format("Cannot create mesh cache directory %s", cacheDirectory.getAbsolutePath()));
+            return;
+        }
+        File meshFile = getMeshFile(key);
+        // Write in a temporary file first, a concurrent reader must never read a partial mesh
+        File tempFile = new File(cacheDirectory, key + "_" + Thread.currentThread().getId() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                writeMesh(out, mesh);
+            }
+            if(!tempFile.renameTo(meshFile) && !meshFile.exists()) {
+                throw new IOException("Cannot rename " + tempFile.getAbsolutePath());
+            }
+        } catch (IOException ex) {
+            LOGGER.warn(String.format("Cannot write cached mesh %s", meshFile.getAbsolutePath()), ex);
+        } finally {
+            if(tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static void writeMesh(DataOutputStream out, MeshBuilder mesh) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        List<Coordinate> vertices = mesh.getVertices();
+        out.writeInt(vertices.size());
+        for(Coordinate vertex : vertices) {
+            out.writeDouble(vertex.x);
+            out.writeDouble(vertex.y);
+            out.writeDouble(vertex.z);
+        }
+        List<Triangle> triangles = mesh.getTriangles();
+        out.writeInt(triangles.size());
+        for(Triangle triangle : triangles) {
+            out.writeInt(triangle.getA());
+            out.writeInt(triangle.getB());
+            out.writeInt(triangle.getC());
+            out.writeInt(triangle.getAttribute());
+        }
+        List<Triangle> neighbors = mesh.getTriNeighbors();
+        if(neighbors == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(neighbors.size());
+            for (Triangle neighbor : neighbors) {
+                out.writeInt(neighbor.getA());
+                out.writeInt(neighbor.getB());
+                out.writeInt(neighbor.getC());
+            }
+        }
+        List<MeshBuilder.PolygonWithHeight> polygons = mesh.getPolygonWithHeight();
+        out.writeInt(polygons.size());
+        WKBWriter wkbWriter = new WKBWriter(3);
+        for(MeshBuilder.PolygonWithHeight poly : polygons) {
+            byte[] wkb = wkbWriter.write(poly.getGeometry());
+            out.writeInt(wkb.length);
+            out.write(wkb);
+            out.writeDouble(poly.getHeight());
+            List<Double> alpha = poly.getAlpha();
+            out.writeInt(alpha.size());
+            for(Double value : alpha) {
+                out.writeDouble(value);
+            }
+            out.writeInt(poly.getPrimaryKey());
+        }
+    }
+
+    /**
+     * Triangulated mesh read from the cache
+     */
+    /**
+     * Order of the coordinates in the key, the z value is compared too so the key does not depend on the set order
+     */
+    private static final class CoordinateComparator implements Comparator<Coordinate> {
+        @Override
+        public int compare(Coordinate a, Coordinate b) {
+            int cmp = Double.compare(a.x, b.x);
+            if(cmp == 0) {
+                cmp = Double.compare(a.y, b.y);
+            }
+            if(cmp == 0) {
+                cmp = Double.compare(a.z, b.z);
+            }
+            return cmp;
+        }
+    }
+
+    public static final class CachedMesh {
+        private final List<Triangle> triangles;
+        private final List<Triangle> triNeighbors;
+        private final List<Coordinate> vertices;
+        private final List<MeshBuilder.PolygonWithHeight> polygonWithHeight;
+
+        public CachedMesh(List<Triangle> triangles, List<Triangle> triNeighbors, List<Coordinate> vertices,
+                          List<MeshBuilder.PolygonWithHeight> polygonWithHeight) {
+            this.triangles = triangles;
+            this.triNeighbors = triNeighbors;
+            this.vertices = vertices;
+            this.polygonWithHeight = polygonWithHeight;
+        }
+
+        public List<Triangle> getTriangles() {
+            return triangles;
+        }
+
+        public List<Triangle> getTriNeighbors() {
+            return triNeighbors;
+        }
+
+        public List<Coordinate> getVertices() {
+            return vertices;
+        }
+
+        public List<MeshBuilder.PolygonWithHeight> getPolygonWithHeight() {
+            return polygonWithHeight;
+        }
+    }
+}
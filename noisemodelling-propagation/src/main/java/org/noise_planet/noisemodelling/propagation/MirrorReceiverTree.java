@@ -0,0 +1,321 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineSegment;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Image source tree of a receiver. Each node is the mirror of its parent image through a wall.
+ * A node is only expanded with the walls that can be reached through the wall of the node from the parent image,
+ * so the combinations of walls that cannot give a valid reflection path are never enumerated.
+ * Mirrored receivers do not depend on the source position, the tree is expanded on demand and kept for all the
+ * sources of the receiver. Walls can be appended between two iterations. A node is only expanded with the walls active
+ * for the current source, so the walls of the other sources do not create nodes until a source uses them: the node
+ * count is bounded by the tree of the union of the walls actually iterated. This class is not thread safe.
+ * @author Nicolas Fortin
+ */
+public class MirrorReceiverTree {
+    private static final double EPSILON = 1e-9;
+    private final Coordinate receiverCoord;
+    private final int maxDepth;
+    private final List<FastObstructionTest.Wall> walls = new ArrayList<>();
+    private final Map<FastObstructionTest.Wall, Integer> wallIds = new HashMap<>();
+    private final Node root;
+    private int nodeCount = 0;
+
+    /**
+     * @param receiverCoord Receiver position
+     * @param maxDepth Maximum reflection order
+     */
+    public MirrorReceiverTree(Coordinate receiverCoord, int maxDepth) {
+        this.receiverCoord = receiverCoord;
+        this.maxDepth = maxDepth;
+        this.root = new Node(null, 0);
+    }
+
+    /**
+     * @param receiverCoord Receiver position
+     * @param walls Walls to use in reflection
+     * @param maxDepth Maximum reflection order
+     */
+    public MirrorReceiverTree(Coordinate receiverCoord, List<FastObstructionTest.Wall> walls, int maxDepth) {
+        this(receiverCoord, maxDepth);
+        addWalls(walls);
+    }
+
+    /**
+     * @return Walls of the tree, {@link MirrorReceiverResult#getWallId()} is the index in this list
+     */
+    public List<FastObstructionTest.Wall> getWalls() {
+        return walls;
+    }
+
+    /**
+     * @return Number of mirrored receivers created so far
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Append walls, walls already in the tree keep their identifier
+     * @param newWalls Walls to add
+     * @return Identifiers of the provided walls
+     */
+    public BitSet addWalls(Collection<FastObstructionTest.Wall> newWalls) {
+        BitSet ids = new BitSet(walls.size() + newWalls.size());
+        for(FastObstructionTest.Wall wall : newWalls) {
+            Integer wallId = wallIds.get(wall);
+            if(wallId == null) {
+                wallId = walls.size();
+                walls.add(wall);
+                wallIds.put(wall, wallId);
+            }
+            ids.set(wallId);
+        }
+        return ids;
+    }
+
+    /**
+     * Iterates over mirrored receivers, parents are returned before their children.
+     * @param srcReceiver Source to receiver segment
+     * @param distanceLimitation Maximum distance between a wall and the source-receiver segment
+     * @param propagationLimitation Maximum distance between the source and a mirrored receiver
+     * @param activeWalls Walls that can be used, null for all walls of the tree
+     * @return Mirrored receivers
+     */
+    public Iterable<MirrorReceiverResult> iterate(final LineSegment srcReceiver, final double distanceLimitation,
+                                                  final double propagationLimitation, final BitSet activeWalls) {
+        return new Iterable<MirrorReceiverResult>() {
+            @Override
+            public Iterator<MirrorReceiverResult> iterator() {
+                return new TreeIterator(srcReceiver, distanceLimitation, propagationLimitation, activeWalls);
+            }
+        };
+    }
+
+    /**
+     * Create the children of the node for the active walls not expanded yet
+     * @param activeWalls Walls that can be used, null for all walls of the tree
+     */
+    private void expand(Node node, BitSet activeWalls) {
+        Coordinate receiverIm = node.image == null ? receiverCoord : node.image.getReceiverPos();
+        FastObstructionTest.Wall parentWall = node.image == null ? null : walls.get(node.image.getWallId());
+        Coordinate beamApex = receiverIm;
+        int wallId = nextWall(node, activeWalls, 0);
+        for(; wallId >= 0; wallId = nextWall(node, activeWalls, wallId + 1)) {
+            FastObstructionTest.Wall wall = walls.get(wallId);
+            //Counter ClockWise test. Walls vertices are CCW oriented.
+            //If the triangle formed by two point of the wall + the receiver is CCW then the wall is oriented toward the point.
+            boolean visible;
+            if(parentWall == null) {
+                visible = MirrorReceiverIterator.wallPointTest(wall, receiverCoord);
+            } else {
+                visible = wallId != node.image.getWallId()
+                        && MirrorReceiverIterator.wallWallTest(parentWall, wall)
+                        && MirrorReceiverIterator.wallPointTest(wall, receiverCoord)
+                        && isInBeam(beamApex, parentWall, wall);
+            }
+            if(visible) {
+                Coordinate intersectionPt = wall.project(receiverIm);
+                Coordinate mirrored = new Coordinate(2 * intersectionPt.x - receiverIm.x,
+                        2 * intersectionPt.y - receiverIm.y, receiverIm.z);
+                node.children.add(new Node(new MirrorReceiverResult(mirrored, node.image, wallId,
+                        wall.getBuildingId()), node.depth + 1));
+                nodeCount++;
+            }
+        }
+        if(activeWalls == null) {
+            node.expandedWalls.set(0, walls.size());
+        } else {
+            node.expandedWalls.or(activeWalls);
+        }
+    }
+
+    /**
+     * @return Identifier of the next active wall not expanded in the node, -1 if there is none
+     */
+    private int nextWall(Node node, BitSet activeWalls, int fromWallId) {
+        int wallId = fromWallId;
+        while(wallId >= 0 && wallId < walls.size()) {
+            if(activeWalls != null) {
+                wallId = activeWalls.nextSetBit(wallId);
+                if(wallId < 0 || wallId >= walls.size()) {
+                    return -1;
+                }
+            }
+            if(!node.expandedWalls.get(wallId)) {
+                return wallId;
+            }
+            wallId = node.expandedWalls.nextClearBit(wallId);
+        }
+        return -1;
+    }
+
+    private static double orientation(Coordinate a, Coordinate b, Coordinate p) {
+        return (b.x - a.x) * (p.y - a.y) - (b.y - a.y) * (p.x - a.x);
+    }
+
+    private static double cross(double ux, double uy, double vx, double vy) {
+        return ux * vy - uy * vx;
+    }
+
+    /**
+     * @return True if the point is on the other side of the wall than the apex, and between the two rays that go from
+     * the apex through the wall vertices
+     */
+    private static boolean isPointInBeam(Coordinate apex, LineSegment wall, Coordinate p, double apexSide) {
+        if(orientation(wall.p0, wall.p1, p) * apexSide > EPSILON) {
+            return false;
+        }
+        double c0 = cross(wall.p0.x - apex.x, wall.p0.y - apex.y, p.x - apex.x, p.y - apex.y);
+        double c1 = cross(wall.p1.x - apex.x, wall.p1.y - apex.y, p.x - apex.x, p.y - apex.y);
+        return c0 * c1 <= EPSILON;
+    }
+
+    /**
+     * @return True if the segment [a b] intersects the half line that start from origin with the provided direction
+     */
+    private static boolean rayIntersectsSegment(Coordinate origin, double dx, double dy, Coordinate a, Coordinate b) {
+        double ex = b.x - a.x;
+        double ey = b.y - a.y;
+        double denom = cross(dx, dy, ex, ey);
+        if(Math.abs(denom) < EPSILON) {
+            // Parallel, the end points of the segment are tested by the caller
+            return false;
+        }
+        double ox = a.x - origin.x;
+        double oy = a.y - origin.y;
+        double t = cross(ox, oy, ex, ey) / denom;
+        double s = cross(ox, oy, dx, dy) / denom;
+        return t >= -EPSILON && s >= -EPSILON && s <= 1 + EPSILON;
+    }
+
+    /**
+     * Beam test, a reflection point on the child wall can only reach the parent image through the parent wall
+     * if the child wall crosses the area seen from the parent image through the parent wall.
+     * @param apex Parent image
+     * @param parentWall Parent wall
+     * @param wall Child wall
+     * @return False if the child wall is not visible from the apex through the parent wall
+     */
+    static boolean isInBeam(Coordinate apex, LineSegment parentWall, LineSegment wall) {
+        double apexSide = Math.signum(orientation(parentWall.p0, parentWall.p1, apex));
+        if(apexSide == 0) {
+            // Degenerated beam, keep the wall
+            return true;
+        }
+        if(isPointInBeam(apex, parentWall, wall.p0, apexSide) || isPointInBeam(apex, parentWall, wall.p1, apexSide)) {
+            return true;
+        }
+        // Both end points are outside, the wall must cross the beam borders
+        return rayIntersectsSegment(parentWall.p0, parentWall.p0.x - apex.x, parentWall.p0.y - apex.y, wall.p0, wall.p1)
+                || rayIntersectsSegment(parentWall.p1, parentWall.p1.x - apex.x, parentWall.p1.y - apex.y, wall.p0, wall.p1)
+                || parentWall.intersection(wall) != null;
+    }
+
+    private static final class Node {
+        private final MirrorReceiverResult image;
+        private final int depth;
+        private final List<Node> children = new ArrayList<>();
+        private final BitSet expandedWalls = new BitSet();
+
+        Node(MirrorReceiverResult image, int depth) {
+            this.image = image;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Depth first traversal, the sub-tree of a rejected mirrored receiver is not visited.
+     */
+    private final class TreeIterator implements Iterator<MirrorReceiverResult> {
+        private final LineSegment srcReceiver;
+        private final double distanceLimitation;
+        private final double propagationLimitation;
+        private final BitSet activeWalls;
+        private final Deque<Node> nodeStack = new ArrayDeque<>();
+        private final Deque<Integer> childStack = new ArrayDeque<>();
+        private Node current = null;
+
+        TreeIterator(LineSegment srcReceiver, double distanceLimitation, double propagationLimitation,
+                     BitSet activeWalls) {
+            this.srcReceiver = srcReceiver;
+            this.distanceLimitation = distanceLimitation;
+            this.propagationLimitation = propagationLimitation;
+            this.activeWalls = activeWalls;
+            if(maxDepth > 0) {
+                push(root);
+            }
+            fetchNext();
+        }
+
+        private void push(Node node) {
+            if(nextWall(node, activeWalls, 0) >= 0) {
+                expand(node, activeWalls);
+            }
+            nodeStack.push(node);
+            childStack.push(0);
+        }
+
+        private boolean accept(Node node) {
+            int wallId = node.image.getWallId();
+            if(activeWalls != null && !activeWalls.get(wallId)) {
+                return false;
+            }
+            return walls.get(wallId).distance(srcReceiver) < distanceLimitation
+                    && srcReceiver.p0.distance(node.image.getReceiverPos()) < propagationLimitation;
+        }
+
+        private void fetchNext() {
+            current = null;
+            while(!nodeStack.isEmpty()) {
+                Node parent = nodeStack.peek();
+                int childIndex = childStack.pop();
+                if(childIndex >= parent.children.size()) {
+                    nodeStack.pop();
+                    continue;
+                }
+                childStack.push(childIndex + 1);
+                Node child = parent.children.get(childIndex);
+                if(accept(child)) {
+                    if(child.depth < maxDepth) {
+                        push(child);
+                    }
+                    current = child;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current != null;
+        }
+
+        @Override
+        public MirrorReceiverResult next() {
+            if(current == null) {
+                throw new NoSuchElementException();
+            }
+            MirrorReceiverResult retValue = current.image;
+            fetchNext();
+            return retValue;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Not supported");
+        }
+    }
+}
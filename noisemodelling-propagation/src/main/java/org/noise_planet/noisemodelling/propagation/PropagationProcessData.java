@@ -39,6 +39,9 @@ import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
 import org.h2gis.api.ProgressVisitor;
 import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
+import org.locationtech.jts.geom.prep.PreparedGeometryFactory;
+import org.locationtech.jts.operation.buffer.BufferParameters;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -59,6 +62,7 @@ public class PropagationProcessData {
     public static final double DEFAULT_MAXIMUM_REF_DIST = 50;
     public static final double DEFAULT_RECEIVER_DIST = 1.0;
     public static final double DEFAULT_GS = 0.0;
+    public static final double DEFAULT_CHANGED_AREA_INFLUENCE = 50;
 
     public List<Long> receiversPk = new ArrayList<>();
     public List<Long> sourcesPk = new ArrayList<>();
@@ -86,15 +90,27 @@ public class PropagationProcessData {
     public double minRecDist = DEFAULT_RECEIVER_DIST;
     /** Source factor absorption */
     public double gS = DEFAULT_GS;
+    /** Cell size (m) of the rasterized soil areas used for the mean ground factor of rays, 0 to use the polygons */
+    public double groundFactorGridResolution = 0;
 
     /** maximum dB Error, stop calculation if the sum of further sources contributions are smaller than this value */
     public double maximumError = Double.NEGATIVE_INFINITY;
+    /** Only the source-receiver pairs with rays that may be modified by this area are computed, null for all pairs */
+    public Geometry changedArea = null;
+    /** Direct and diffracted rays passing within this distance of {@link #changedArea} may be modified */
+    public double changedAreaInfluence = DEFAULT_CHANGED_AREA_INFLUENCE;
+    /** {@link #changedArea} buffered by {@link #getChangedAreaSegmentDistance()} */
+    private PreparedGeometry changedAreaSegmentZone = null;
     /** cellId only used in output data */
     public int cellId;
     /** Progression information */
     public ProgressVisitor cellProg;
     /** list Geometry of soil and the type of this soil */
     protected List<GeoWithSoilType> soilList = new ArrayList<>();
+    /** Optional emission spectrum (W) of each period (day, evening, night, hours..) for each source */
+    protected List<double[][]> sourcesPeriodsPower = new ArrayList<>();
+    /** Maximal emission spectrum (W) of all periods for each source */
+    protected List<double[]> sourcesMaximalPower = new ArrayList<>();
 
 
 
@@ -103,14 +119,29 @@ public class PropagationProcessData {
     }
 
     public void addSource(Geometry geom) {
-        sourceGeometries.add(geom);
-        sourcesIndex.appendGeometry(geom, sourceGeometries.size() - 1);
+        checkNoEmissionPeriods();
+        appendSource(geom);
     }
 
     public void addSource(Long pk, Geometry geom) {
-        addSource(geom);
+        checkNoEmissionPeriods();
+        appendSource(geom);
         sourcesPk.add(pk);
     }
+
+    /**
+     * Sources added without emission periods cannot be mixed with sources that have periods
+     */
+    private void checkNoEmissionPeriods() {
+        if(!sourcesPeriodsPower.isEmpty()) {
+            throw new IllegalArgumentException("All sources must have emission periods");
+        }
+    }
+
+    private void appendSource(Geometry geom) {
+        sourceGeometries.add(geom);
+        sourcesIndex.appendGeometry(geom, sourceGeometries.size() - 1);
+    }
     /**
      * Add geometry with additional attributes
      * @param pk Unique source identifier
@@ -121,6 +152,55 @@ public class PropagationProcessData {
         addSource(pk, geom);
     }
 
+    /**
+     * Add source with an emission spectrum for each period. All sources must have the same periods.
+     * @param pk Unique source identifier
+     * @param geom Source geometry
+     * @param periodsPower Emission spectrum (W) of each period [period][frequency band]
+     */
+    public void addSource(Long pk, Geometry geom, double[][] periodsPower) {
+        if(sourcesPeriodsPower.size() != sourceGeometries.size()) {
+            throw new IllegalArgumentException("All sources must have emission periods");
+        }
+        if(!sourcesPeriodsPower.isEmpty() && sourcesPeriodsPower.get(0).length != periodsPower.length) {
+            throw new IllegalArgumentException(String.format("Source have %d periods instead of %d",
+                    periodsPower.length, sourcesPeriodsPower.get(0).length));
+        }
+        double[] maximalPower = new double[periodsPower.length > 0 ? periodsPower[0].length : 0];
+        for(double[] periodPower : periodsPower) {
+            for(int idFreq = 0; idFreq < maximalPower.length; idFreq++) {
+                maximalPower[idFreq] = Math.max(maximalPower[idFreq], periodPower[idFreq]);
+            }
+        }
+        sourcesPeriodsPower.add(periodsPower);
+        sourcesMaximalPower.add(maximalPower);
+        appendSource(geom);
+        if(pk != null) {
+            sourcesPk.add(pk);
+        }
+    }
+
+    /**
+     * @return Number of emission periods of the sources, 0 if sources do not have periods
+     */
+    public int getPeriodCount() {
+        return sourcesPeriodsPower.isEmpty() ? 0 : sourcesPeriodsPower.get(0).length;
+    }
+
+    /**
+     * Emission spectrum of each period of the sound source. If sources do not have periods, the maximal power is
+     * the single period.
+     * @param sourceId Source identifier (index in {@link PropagationProcessData#sourceGeometries})
+     * @return Power spectrum (W) [period][frequency band] or empty array
+     */
+    public double[][] getSourcePeriodsPower(int sourceId) {
+        if(sourceId < sourcesPeriodsPower.size()) {
+            return sourcesPeriodsPower.get(sourceId);
+        }
+        double[] maximalPower = getMaximalSourcePower(sourceId);
+        return maximalPower.length > 0 ? new double[][]{maximalPower} : new double[0][];
+    }
+
     public void setSources(List<Geometry> sourceGeometries) {
         int i = 0;
         for(Geometry source : sourceGeometries) {
@@ -135,6 +215,9 @@ public class PropagationProcessData {
      * @return maximal power spectrum or empty array
      */
     public double[] getMaximalSourcePower(int sourceId) {
+        if(sourceId < sourcesMaximalPower.size()) {
+            return sourcesMaximalPower.get(sourceId);
+        }
         return new double[0];
     }
 
@@ -193,6 +276,74 @@ public class PropagationProcessData {
         return computeVerticalDiffraction;
     }
 
+    /**
+     * Buffer a geometry with a polygon that contains all the points within the distance. Vertices of the default
+     * buffer are on the arcs, so the arcs are enlarged to keep the chords outside of the circle.
+     * @param geometry Geometry
+     * @param distance Buffer distance
+     * @return Prepared buffer for fast intersection tests
+     */
+    public static PreparedGeometry prepareBuffer(Geometry geometry, double distance) {
+        double chordFactor = Math.cos(Math.PI / (4 * BufferParameters.DEFAULT_QUADRANT_SEGMENTS));
+        return PreparedGeometryFactory.prepare(geometry.buffer(distance / chordFactor));
+    }
+
+    /**
+     * Buffer the {@link #changedArea} used by {@link #isAffectedPair(Coordinate, Coordinate)}. Must be called again
+     * if the changed area or the distances are modified after the first test.
+     */
+    public void prepareChangedArea() {
+        if(changedArea == null) {
+            changedAreaSegmentZone = null;
+        } else {
+            changedAreaSegmentZone = prepareBuffer(changedArea, getChangedAreaSegmentDistance());
+        }
+    }
+
+    /**
+     * @return Maximal distance between the source-receiver segment and the changed area for the direct, diffracted
+     * and reflected rays. Reflection walls are searched up to {@link #maxRefDist} of the segment, so a reflected ray
+     * stays within this distance of the segment even when the wall is far from the source and the receiver.
+     */
+    public double getChangedAreaSegmentDistance() {
+        return Math.max(changedAreaInfluence, reflexionOrder > 0 ? maxRefDist : 0);
+    }
+
+    /**
+     * Check if the rays between the source and the receiver may be modified by {@link #changedArea}. Rays are modified
+     * if the source-receiver segment passes within {@link #getChangedAreaSegmentDistance()} of the area (direct field,
+     * diffraction, ground and reflections) or, with horizontal diffraction, if the area may be inside the hull of the
+     * side paths ({@link ComputeRays#getSidePathMaximumOffset(double)}).
+     * The buffers of the area are built by {@link #prepareChangedArea()} on the first call.
+     * @param source Source position
+     * @param receiver Receiver position
+     * @return True if the pair must be computed
+     */
+    public boolean isAffectedPair(Coordinate source, Coordinate receiver) {
+        if(changedArea == null) {
+            return true;
+        }
+        if(changedAreaSegmentZone == null) {
+            prepareChangedArea();
+        }
+        if(changedAreaSegmentZone.getGeometry().getEnvelopeInternal().intersects(source, receiver) &&
+                changedAreaSegmentZone.intersects(changedArea.getFactory().createLineString(
+                        new Coordinate[]{source, receiver}))) {
+            return true;
+        }
+        if(computeHorizontalDiffraction) {
+            double sideOffset = ComputeRays.getSidePathMaximumOffset(source.distance(receiver));
+            if(sideOffset > getChangedAreaSegmentDistance()) {
+                Envelope sideEnvelope = new Envelope(source, receiver);
+                sideEnvelope.expandBy(sideOffset);
+                return sideEnvelope.intersects(changedArea.getEnvelopeInternal()) &&
+                        changedArea.isWithinDistance(changedArea.getFactory().createLineString(
+                                new Coordinate[]{source, receiver}), sideOffset);
+            }
+        }
+        return false;
+    }
+
 
 }
 
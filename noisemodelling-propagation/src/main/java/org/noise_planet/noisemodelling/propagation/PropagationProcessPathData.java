@@ -73,6 +73,8 @@ public class PropagationProcessPathData {
     private boolean prime2520 = false; // choose to use prime values to compute eq. 2.5.20
     /** probability occurrence favourable condition */
     private double[] windRose  = DEFAULT_WIND_ROSE;
+    /** Constants computed from the atmospheric parameters, reset when a parameter is updated */
+    private volatile EvaluateAttenuationCnossos.FrequencyConstants frequencyConstants = null;
 
     /**
      * Set relative humidity in percentage.
@@ -82,6 +84,7 @@ public class PropagationProcessPathData {
 
         this.humidity = humidity;
         this.alpha_atmo = getAtmoCoeffArray(freq_lvl_exact,  temperature,  pressure,  humidity);
+        frequencyConstants = null;
         return this;
     }
 
@@ -91,6 +94,7 @@ public class PropagationProcessPathData {
     public PropagationProcessPathData setPressure(double pressure) {
         this.pressure = pressure;
         this.alpha_atmo = getAtmoCoeffArray(freq_lvl_exact,  temperature,  pressure,  humidity);
+        frequencyConstants = null;
         return this;
     }
 
@@ -173,6 +177,7 @@ public class PropagationProcessPathData {
         this.temperature = temperature;
         this.celerity = computeCelerity(temperature + K_0);
         this.alpha_atmo = getAtmoCoeffArray(freq_lvl_exact,  temperature,  pressure,  humidity);
+        frequencyConstants = null;
         return this;
     }
 
@@ -304,6 +309,19 @@ public class PropagationProcessPathData {
         return alpha_atmo;
     }
 
+    /**
+     * @return Wave lengths, atmospheric absorption and other values by frequency band used by
+     * {@link EvaluateAttenuationCnossos}
+     */
+    public EvaluateAttenuationCnossos.FrequencyConstants getFrequencyConstants() {
+        EvaluateAttenuationCnossos.FrequencyConstants constants = frequencyConstants;
+        if(constants == null) {
+            constants = new EvaluateAttenuationCnossos.FrequencyConstants(this);
+            frequencyConstants = constants;
+        }
+        return constants;
+    }
+
 
 
 }
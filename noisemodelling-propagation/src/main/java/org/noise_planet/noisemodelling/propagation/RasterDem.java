@@ -0,0 +1,440 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Digital elevation model stored as a regular grid of heights, used instead of the topographic points of the
+ * triangulated mesh. Heights between the grid nodes are bilinear interpolations of the 4 surrounding nodes.
+ * Nodes are stored row by row from the lowest Y in a flat float array, or in a memory mapped temporary file when the
+ * grid is too large to be kept in the Java heap.
+ * The grid is filled by a single thread, then queries are thread safe.
+ * @author Nicolas Fortin
+ */
+public class RasterDem {
+    /** Grids with more nodes are stored in a memory mapped temporary file */
+    public static final long DEFAULT_MAXIMUM_HEAP_NODES = 1 << 24;
+    // Number of nodes of each mapped buffer, a mapped buffer cannot be larger than 2GB
+    private static final int SEGMENT_BITS = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final double EPSILON = 1e-7;
+    private final double minX;
+    private final double minY;
+    private final double cellSize;
+    private final int columnCount;
+    private final int rowCount;
+    private final FloatBuffer[] segments;
+
+    /**
+     * Create a grid without heights (NaN)
+     * @param minX X of the first node
+     * @param minY Y of the first node
+     * @param cellSize Distance between two nodes (m)
+     * @param columnCount Number of nodes along X
+     * @param rowCount Number of nodes along Y
+     */
+    public RasterDem(double minX, double minY, double cellSize, int columnCount, int rowCount) {
+        this(minX, minY, cellSize, columnCount, rowCount, DEFAULT_MAXIMUM_HEAP_NODES);
+    }
+
+    /**
+     * Create a grid without heights (NaN)
+     * @param minX X of the first node
+     * @param minY Y of the first node
+     * @param cellSize Distance between two nodes (m)
+     * @param columnCount Number of nodes along X
+     * @param rowCount Number of nodes along Y
+     * @param maximumHeapNodes Grids with more nodes are stored in a memory mapped temporary file
+     */
+    public RasterDem(double minX, double minY, double cellSize, int columnCount, int rowCount, long maximumHeapNodes) {
+        if(!(cellSize > 0) || columnCount < 1 || rowCount < 1) {
+            throw new IllegalArgumentException("The cell size and the grid dimensions must be positive");
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columnCount = columnCount;
+        this.rowCount = rowCount;
+        long nodeCount = (long) columnCount * rowCount;
+        if(nodeCount <= maximumHeapNodes && nodeCount <= Integer.MAX_VALUE) {
+            segments = new FloatBuffer[] {FloatBuffer.wrap(new float[(int) nodeCount])};
+        } else {
+            segments = mapTemporaryFile(nodeCount);
+        }
+        for(FloatBuffer segment : segments) {
+            for(int i = 0; i < segment.capacity(); i++) {
+                segment.put(i, Float.NaN);
+            }
+        }
+    }
+
+    private static FloatBuffer[] mapTemporaryFile(long nodeCount) {
+        FloatBuffer[] segments = new FloatBuffer[(int) ((nodeCount + SEGMENT_MASK) >> SEGMENT_BITS)];
+        try {
+            File file = File.createTempFile("dem", ".raw");
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                for(int idSegment = 0; idSegment < segments.length; idSegment++) {
+                    long start = (long) idSegment << SEGMENT_BITS;
+                    long size = Math.min(nodeCount - start, 1L << SEGMENT_BITS);
+                    segments[idSegment] = channel.map(FileChannel.MapMode.READ_WRITE, start * Float.BYTES,
+                            size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+                }
+            } finally {
+                // The mapped buffers stay valid after the deletion on Unix systems
+                if(!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return segments;
+    }
+
+    /**
+     * Create a grid from points located on the grid nodes, as the points of a digital elevation model table.
+     * Points are moved to the nearest node.
+     * @param points Points with height
+     * @param cellSize Distance between two points of the grid (m)
+     * @return Grid that contains all the points
+     */
+    public static RasterDem fromPoints(Collection<Coordinate> points, double cellSize) {
+        Envelope envelope = new Envelope();
+        for(Coordinate point : points) {
+            envelope.expandToInclude(point);
+        }
+        if(envelope.isNull()) {
+            throw new IllegalArgumentException("No points to build the digital elevation model");
+        }
+        RasterDem dem = new RasterDem(envelope, cellSize);
+        for(Coordinate point : points) {
+            dem.setHeight(point);
+        }
+        return dem;
+    }
+
+    /**
+     * Create a grid without heights (NaN) that covers the envelope, the first node is the lower left corner
+     * @param envelope Envelope of the nodes
+     * @param cellSize Distance between two nodes (m)
+     */
+    public RasterDem(Envelope envelope, double cellSize) {
+        this(envelope.getMinX(), envelope.getMinY(), cellSize,
+                (int) Math.round(envelope.getWidth() / cellSize) + 1,
+                (int) Math.round(envelope.getHeight() / cellSize) + 1);
+    }
+
+    /**
+     * Read an ESRI ASCII grid file (.asc), the height of a cell is located at the center of the cell
+     * @param file ASCII grid file
+     * @return Grid of the file
+     * @throws IOException If the file cannot be read or is not an ASCII grid
+     */
+    public static RasterDem readAsciiGrid(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.US_ASCII))) {
+            int columnCount = -1;
+            int rowCount = -1;
+            double x = Double.NaN;
+            double y = Double.NaN;
+            boolean center = false;
+            double cellSize = Double.NaN;
+            double noData = Double.NaN;
+            String token = nextToken(reader);
+            // Header keys are followed by their value
+            while (token != null && Character.isLetter(token.charAt(0))) {
+                String key = token.toLowerCase(Locale.ROOT);
+                String value = nextToken(reader);
+                if(value == null) {
+                    throw new IOException("Missing value of the ASCII grid header " + token);
+                }
+                switch (key) {
+                    case "ncols":
+                        columnCount = Integer.parseInt(value);
+                        break;
+                    case "nrows":
+                        rowCount = Integer.parseInt(value);
+                        break;
+                    case "xllcorner":
+                        x = Double.parseDouble(value);
+                        break;
+                    case "yllcorner":
+                        y = Double.parseDouble(value);
+                        break;
+                    case "xllcenter":
+                        x = Double.parseDouble(value);
+                        center = true;
+                        break;
+                    case "yllcenter":
+                        y = Double.parseDouble(value);
+                        center = true;
+                        break;
+                    case "cellsize":
+                        cellSize = Double.parseDouble(value);
+                        break;
+                    case "nodata_value":
+                        noData = Double.parseDouble(value);
+                        break;
+                    default:
+                        throw new IOException("Unknown ASCII grid header " + token);
+                }
+                token = nextToken(reader);
+            }
+            if(columnCount < 1 || rowCount < 1 || Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(cellSize)) {
+                throw new IOException("Incomplete ASCII grid header");
+            }
+            if(!center) {
+                x += cellSize / 2;
+                y += cellSize / 2;
+            }
+            RasterDem dem = new RasterDem(x, y, cellSize, columnCount, rowCount);
+            // The first row of the file is the upper one
+            for(int row = rowCount - 1; row >= 0; row--) {
+                for(int column = 0; column < columnCount; column++) {
+                    if(token == null) {
+                        throw new IOException("Missing values in the ASCII grid");
+                    }
+                    float z = Float.parseFloat(token);
+                    if(Double.compare(z, noData) != 0) {
+                        dem.setHeight(column, row, z);
+                    }
+                    token = nextToken(reader);
+                }
+            }
+            return dem;
+        }
+    }
+
+    private static String nextToken(BufferedReader reader) throws IOException {
+        StringBuilder token = new StringBuilder();
+        int c = reader.read();
+        while (c != -1 && Character.isWhitespace(c)) {
+            c = reader.read();
+        }
+        while (c != -1 && !Character.isWhitespace(c)) {
+            token.append((char) c);
+            c = reader.read();
+        }
+        return token.length() == 0 ? null : token.toString();
+    }
+
+    public double getMinX() {
+        return minX;
+    }
+
+    public double getMinY() {
+        return minY;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Envelope of the grid nodes
+     */
+    public Envelope getEnvelope() {
+        return new Envelope(minX, minX + (columnCount - 1) * cellSize, minY, minY + (rowCount - 1) * cellSize);
+    }
+
+    /**
+     * @return True if the grid is stored in a memory mapped file
+     */
+    public boolean isMemoryMapped() {
+        return segments[0].isDirect();
+    }
+
+    private float get(int column, int row) {
+        long index = (long) row * columnCount + column;
+        return segments[(int) (index >> SEGMENT_BITS)].get((int) (index & SEGMENT_MASK));
+    }
+
+    /**
+     * @param column Node column
+     * @param row Node row, from the lowest Y
+     * @return Height of the node, NaN if not set
+     */
+    public double getNodeHeight(int column, int row) {
+        return get(column, row);
+    }
+
+    /**
+     * @param column Node column
+     * @param row Node row, from the lowest Y
+     * @param z Height of the node
+     */
+    public void setHeight(int column, int row, double z) {
+        if(column < 0 || column >= columnCount || row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Node (" + column + ", " + row + ") is outside of the grid");
+        }
+        long index = (long) row * columnCount + column;
+        segments[(int) (index >> SEGMENT_BITS)].put((int) (index & SEGMENT_MASK), (float) z);
+    }
+
+    /**
+     * Set the height of the nearest node
+     * @param point Point with height
+     * @return False if the point is outside of the grid
+     */
+    public boolean setHeight(Coordinate point) {
+        long column = Math.round((point.x - minX) / cellSize);
+        long row = Math.round((point.y - minY) / cellSize);
+        if(column < 0 || column >= columnCount || row < 0 || row >= rowCount || Double.isNaN(point.z)) {
+            return false;
+        }
+        setHeight((int) column, (int) row, point.z);
+        return true;
+    }
+
+    /**
+     * Bilinear interpolation of the 4 nodes around the point
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Interpolated height, NaN if out of bounds or if a node has no height
+     */
+    public double getHeight(double x, double y) {
+        double gx = (x - minX) / cellSize;
+        double gy = (y - minY) / cellSize;
+        if(!(gx >= -EPSILON && gx <= columnCount - 1 + EPSILON && gy >= -EPSILON && gy <= rowCount - 1 + EPSILON)) {
+            return Double.NaN;
+        }
+        if(columnCount == 1 || rowCount == 1) {
+            // Single line of nodes
+            return get(Math.min(columnCount - 1, (int) Math.round(gx)), Math.min(rowCount - 1, (int) Math.round(gy)));
+        }
+        int column = Math.max(0, Math.min(columnCount - 2, (int) Math.floor(gx)));
+        int row = Math.max(0, Math.min(rowCount - 2, (int) Math.floor(gy)));
+        double fx = Math.max(0, Math.min(1, gx - column));
+        double fy = Math.max(0, Math.min(1, gy - row));
+        double z00 = get(column, row);
+        double z10 = get(column + 1, row);
+        double z01 = get(column, row + 1);
+        double z11 = get(column + 1, row + 1);
+        return (z00 * (1 - fx) + z10 * fx) * (1 - fy) + (z01 * (1 - fx) + z11 * fx) * fy;
+    }
+
+    /**
+     * @param p Position
+     * @return Interpolated height, NaN if out of bounds or if a node has no height
+     * @see #getHeight(double, double)
+     */
+    public double getHeight(Coordinate p) {
+        return getHeight(p.x, p.y);
+    }
+
+    /**
+     * Ground profile between two points, with the ground height at both points and at each crossing of the segment
+     * with the grid lines. The ground is linear between two profile points, except inside a cell where the bilinear
+     * surface is curved along the segment.
+     * @param p1 First point
+     * @param p2 Last point
+     * @return Profile points, with NaN height where there is no ground height
+     */
+    public List<Coordinate> getProfile(Coordinate p1, Coordinate p2) {
+        final List<Coordinate> profile = new ArrayList<>();
+        walkProfile(p1, p2, new ProfileVisitor() {
+            @Override
+            public boolean visit(double t, double x, double y, double z) {
+                profile.add(new Coordinate(x, y, z));
+                return true;
+            }
+        });
+        return profile;
+    }
+
+    /**
+     * @param p1 First point of the segment
+     * @param p2 Second point of the segment
+     * @return True if the ground is above the 3D segment at one of the profile points. False if a point does not have
+     * a Z value.
+     */
+    public boolean intersects(final Coordinate p1, final Coordinate p2) {
+        if(Double.isNaN(p1.z) || Double.isNaN(p2.z)) {
+            return false;
+        }
+        final boolean[] intersects = new boolean[] {false};
+        walkProfile(p1, p2, new ProfileVisitor() {
+            @Override
+            public boolean visit(double t, double x, double y, double z) {
+                if(z > p1.z + t * (p2.z - p1.z) + EPSILON) {
+                    intersects[0] = true;
+                    return false;
+                }
+                return true;
+            }
+        });
+        return intersects[0];
+    }
+
+    /**
+     * Visit the profile points in the order of the segment, by merging the sorted crossings with columns and rows
+     */
+    private void walkProfile(Coordinate p1, Coordinate p2, ProfileVisitor visitor) {
+        double dx = p2.x - p1.x;
+        double dy = p2.y - p1.y;
+        double gx = (p1.x - minX) / cellSize;
+        double gy = (p1.y - minY) / cellSize;
+        // Parameter of the next crossing with a column and with a row, and the parameter step between two crossings
+        double stepX = dx == 0 ? Double.POSITIVE_INFINITY : Math.abs(cellSize / dx);
+        double stepY = dy == 0 ? Double.POSITIVE_INFINITY : Math.abs(cellSize / dy);
+        double nextX = dx == 0 ? Double.POSITIVE_INFINITY :
+                (dx > 0 ? Math.floor(gx) + 1 - gx : gx - Math.ceil(gx) + 1) * stepX;
+        double nextY = dy == 0 ? Double.POSITIVE_INFINITY :
+                (dy > 0 ? Math.floor(gy) + 1 - gy : gy - Math.ceil(gy) + 1) * stepY;
+        if(!visitor.visit(0, p1.x, p1.y, getHeight(p1.x, p1.y))) {
+            return;
+        }
+        while (true) {
+            double t = Math.min(nextX, nextY);
+            if(t >= 1 - EPSILON) {
+                break;
+            }
+            if(t > EPSILON) {
+                double x = p1.x + t * dx;
+                double y = p1.y + t * dy;
+                if(!visitor.visit(t, x, y, getHeight(x, y))) {
+                    return;
+                }
+            }
+            if(nextX <= t) {
+                nextX += stepX;
+            }
+            if(nextY <= t) {
+                nextY += stepY;
+            }
+        }
+        visitor.visit(1, p2.x, p2.y, getHeight(p2.x, p2.y));
+    }
+
+    private interface ProfileVisitor {
+        /**
+         * @param t Parameter of the point on the segment [0-1]
+         * @return False to stop the walk
+         */
+        boolean visit(double t, double x, double y, double z);
+    }
+}
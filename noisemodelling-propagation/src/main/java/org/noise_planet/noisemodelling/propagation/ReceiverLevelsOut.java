@@ -0,0 +1,137 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+/**
+ * Compute the sound level of each receiver without keeping the source-receiver attenuation.
+ * Attenuations are multiplied by the source emission spectra given by
+ * {@link PropagationProcessData#getSourcePeriodsPower(int)} (W) and summed energetically by the worker threads,
+ * so only one spectrum by receiver and by emission period is stored in {@link #receiversLevels}.
+ * The attenuation is computed once for all periods.
+ * Sources without emission spectrum are considered with an emission of 0 dB in all frequency bands.
+ * @author Nicolas Fortin
+ */
+public class ReceiverLevelsOut extends ComputeRaysOut {
+    public ConcurrentLinkedDeque<ReceiverLevel> receiversLevels = new ConcurrentLinkedDeque<>();
+    private ThreadReceiverLevelsOut directOut = null;
+
+    /**
+     * @param pathData Meteorological data
+     * @param inputData Sources emission and identifiers
+     */
+    public ReceiverLevelsOut(PropagationProcessPathData pathData, PropagationProcessData inputData) {
+        super(false, pathData, inputData);
+    }
+
+    @Override
+    public synchronized double[] addPropagationPaths(long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
+        if(directOut == null) {
+            directOut = new ThreadReceiverLevelsOut(this);
+        }
+        return directOut.addPropagationPaths(sourceId, sourceLi, receiverId, propagationPath);
+    }
+
+    @Override
+    public synchronized void finalizeReceiver(long receiverId) {
+        if(directOut != null) {
+            directOut.finalizeReceiver(receiverId);
+        }
+    }
+
+    @Override
+    public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+        return new ThreadReceiverLevelsOut(this);
+    }
+
+    /**
+     * @return Sound level of receivers
+     */
+    public List<ReceiverLevel> getReceiversLevels() {
+        return new ArrayList<>(receiversLevels);
+    }
+
+    /**
+     * Sound level of a receiver
+     */
+    public static class ReceiverLevel {
+        public final long receiverId;
+        /** Sound level of the first period by frequency band (dB) */
+        public final double[] value;
+        /** Sound level by period then by frequency band (dB) */
+        public final double[][] periodsValue;
+
+        public ReceiverLevel(long receiverId, double[][] periodsValue) {
+            this.receiverId = receiverId;
+            this.value = periodsValue[0];
+            this.periodsValue = periodsValue;
+        }
+    }
+
+    /**
+     * Sum the contribution of the sources of the receiver being computed by the thread
+     */
+    public static class ThreadReceiverLevelsOut implements IComputeRaysOut {
+        private final ReceiverLevelsOut multiThreadParent;
+        // Energetic sum (W) of the sources of the current receiver by period, null if no source has been added
+        private double[][] receiverPower = null;
+
+        public ThreadReceiverLevelsOut(ReceiverLevelsOut multiThreadParent) {
+            this.multiThreadParent = multiThreadParent;
+        }
+
+        @Override
+        public double[] addPropagationPaths(long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
+            multiThreadParent.rayCount.addAndGet(propagationPath.size());
+            double[] attenuation = multiThreadParent.computeAttenuation(multiThreadParent.genericMeteoData, sourceId,
+                    sourceLi, receiverId, propagationPath);
+            if(attenuation.length == 0) {
+                return attenuation;
+            }
+            double[][] wj = multiThreadParent.inputData != null ?
+                    multiThreadParent.inputData.getSourcePeriodsPower((int) sourceId) : new double[0][];
+            int periodCount = Math.max(1, wj.length);
+            if(receiverPower == null) {
+                receiverPower = new double[periodCount][attenuation.length];
+            } else if(receiverPower.length != periodCount) {
+                throw new IllegalArgumentException(String.format("Source %d have %d periods instead of %d",
+                        sourceId, periodCount, receiverPower.length));
+            }
+            // Maximal contribution of the source in all periods
+            double[] soundLevel = new double[attenuation.length];
+            for(int i = 0; i < attenuation.length; i++) {
+                double attenuationW = ComputeRays.dbaToW(attenuation[i]);
+                double maxPower = 0;
+                for(int period = 0; period < periodCount; period++) {
+                    double power = wj.length > 0 ? attenuationW * wj[period][i] : attenuationW;
+                    receiverPower[period][i] += power;
+                    maxPower = Math.max(maxPower, power);
+                }
+                soundLevel[i] = ComputeRays.wToDba(maxPower);
+            }
+            return soundLevel;
+        }
+
+        @Override
+        public void finalizeReceiver(long receiverId) {
+            if(receiverPower != null) {
+                long receiverPK = receiverId;
+                if(multiThreadParent.inputData != null && receiverId < multiThreadParent.inputData.receiversPk.size()) {
+                    receiverPK = multiThreadParent.inputData.receiversPk.get((int) receiverId);
+                }
+                double[][] levels = new double[receiverPower.length][];
+                for(int period = 0; period < levels.length; period++) {
+                    levels[period] = ComputeRays.wToDba(receiverPower[period]);
+                }
+                multiThreadParent.receiversLevels.add(new ReceiverLevel(receiverPK, levels));
+                receiverPower = null;
+            }
+        }
+
+        @Override
+        public IComputeRaysOut subProcess(int receiverStart, int receiverEnd) {
+            return multiThreadParent.subProcess(receiverStart, receiverEnd);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compute receiver levels for successive source emissions using the attenuation of an
+ * {@link AttenuationMatrixReader}. The attenuation is loaded once as a sparse matrix (compressed rows by receiver,
+ * linear values), the level of each time step is then a sparse matrix vector product for each frequency band.
+ * Values are kept in single precision when the matrix file is written in single precision.
+ * @author Nicolas Fortin
+ */
+public class TimeSeriesNoiseEngine implements Closeable {
+    private static final int MINIMUM_ROWS_BY_TASK = 256;
+    private final int frequencyCount;
+    private final long[] receiverIds;
+    private final long[] sourceIds;
+    private final Map<Long, Integer> sourceIndex;
+    // Compressed sparse rows, row r values are in [rowStart[r], rowStart[r + 1])
+    private final int[] rowStart;
+    private final int[] columns;
+    // Attenuation (W) of each non zero entry, frequencyCount values by entry.
+    // Only one of the arrays is set, depending on the precision of the matrix file
+    private final double[] values;
+    private final float[] floatValues;
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+    private ForkJoinPool pool = null;
+
+    /**
+     * @param reader Source-receiver attenuation
+     */
+    public TimeSeriesNoiseEngine(AttenuationMatrixReader reader) {
+        frequencyCount = reader.getFrequencyCount();
+        receiverIds = reader.getReceiverIds();
+        // Read only the source count of each receiver block in order to allocate the arrays
+        long entryCount = 0;
+        for(long receiverId : receiverIds) {
+            entryCount += reader.getSourceCount(receiverId);
+        }
+        long valueCount = entryCount * frequencyCount;
+        if(valueCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format("Too many attenuation values (%d) to be loaded in memory",
+                    valueCount));
+        }
+        rowStart = new int[receiverIds.length + 1];
+        columns = new int[(int) entryCount];
+        if(reader.isSinglePrecision()) {
+            values = null;
+            floatValues = new float[(int) valueCount];
+        } else {
+            values = new double[(int) valueCount];
+            floatValues = null;
+        }
+        // Number the sources while reading each receiver block once
+        sourceIndex = new HashMap<>();
+        RowReader rowReader = new RowReader();
+        for(int r = 0; r < receiverIds.length; r++) {
+            rowStart[r] = rowReader.entryIndex;
+            reader.visitReceiver(receiverIds[r], rowReader);
+        }
+        rowStart[receiverIds.length] = rowReader.entryIndex;
+        sourceIds = new long[sourceIndex.size()];
+        for(Map.Entry<Long, Integer> entry : sourceIndex.entrySet()) {
+            sourceIds[entry.getValue()] = entry.getKey();
+        }
+    }
+
+    public int getFrequencyCount() {
+        return frequencyCount;
+    }
+
+    /**
+     * @return Receiver identifiers, in the order of the receivers rows
+     */
+    public long[] getReceiverIds() {
+        return receiverIds;
+    }
+
+    /**
+     * @return Source identifiers, in the order of the sources columns
+     */
+    public long[] getSourceIds() {
+        return sourceIds;
+    }
+
+    /**
+     * @param sourceId Source identifier
+     * @return Source column or -1 if the source does not contribute to any receiver
+     */
+    public int getSourceIndex(long sourceId) {
+        Integer index = sourceIndex.get(sourceId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return Number of source-receiver pairs
+     */
+    public int getEntryCount() {
+        return columns.length;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount Number of threads used to compute a time step
+     */
+    public void setThreadCount(int threadCount) {
+        if(pool != null && threadCount != this.threadCount) {
+            pool.shutdown();
+            pool = null;
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Compute the sound power of all receivers for a time step
+     * @param sourcesPower Emission (W) of each source column by frequency band, null for a source that does not emit
+     * @param receiversPower Output sound power (W) of each receiver row by frequency band
+     */
+    public void computeTimeStep(double[][] sourcesPower, double[][] receiversPower) {
+        if(sourcesPower.length != sourceIds.length || receiversPower.length != receiverIds.length) {
+            throw new IllegalArgumentException("Arrays length must be the sources and receivers count");
+        }
+        if(threadCount > 1 && receiverIds.length > MINIMUM_ROWS_BY_TASK) {
+            if(pool == null) {
+                pool = new ForkJoinPool(threadCount);
+            }
+            pool.invoke(new RowRangeTask(this, 0, receiverIds.length, sourcesPower, receiversPower));
+        } else {
+            computeRows(0, receiverIds.length, sourcesPower, receiversPower);
+        }
+    }
+
+    private void computeRows(int startRow, int endRow, double[][] sourcesPower, double[][] receiversPower) {
+        for(int r = startRow; r < endRow; r++) {
+            double[] power = receiversPower[r];
+            Arrays.fill(power, 0);
+            for(int entry = rowStart[r]; entry < rowStart[r + 1]; entry++) {
+                double[] emission = sourcesPower[columns[entry]];
+                if(emission != null) {
+                    int offset = entry * frequencyCount;
+                    if(values != null) {
+                        for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                            power[idFreq] += values[offset + idFreq] * emission[idFreq];
+                        }
+                    } else {
+                        for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                            power[idFreq] += floatValues[offset + idFreq] * emission[idFreq];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if(pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Copy the attenuation of the visited receiver blocks into the sparse rows
+     */
+    private final class RowReader implements AttenuationMatrixReader.AttenuationVisitor {
+        private int entryIndex = 0;
+
+        @Override
+        public void visit(long sourceId, double[] sourceAttenuation) {
+            Integer column = sourceIndex.get(sourceId);
+            if(column == null) {
+                column = sourceIndex.size();
+                sourceIndex.put(sourceId, column);
+            }
+            columns[entryIndex] = column;
+            int offset = entryIndex * frequencyCount;
+            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                if(values != null) {
+                    values[offset + idFreq] = ComputeRays.dbaToW(sourceAttenuation[idFreq]);
+                } else {
+                    floatValues[offset + idFreq] = (float) ComputeRays.dbaToW(sourceAttenuation[idFreq]);
+                }
+            }
+            entryIndex++;
+        }
+    }
+
+    /**
+     * Split the receivers rows in two halves until the range is small enough
+     */
+    private static final class RowRangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final TimeSeriesNoiseEngine engine;
+        private final int startRow;
+        private final int endRow;
+        private final double[][] sourcesPower;
+        private final double[][] receiversPower;
+
+        RowRangeTask(TimeSeriesNoiseEngine engine, int startRow, int endRow, double[][] sourcesPower,
+                     double[][] receiversPower) {
+            this.engine = engine;
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.sourcesPower = sourcesPower;
+            this.receiversPower = receiversPower;
+        }
+
+        @Override
+        protected void compute() {
+            if(endRow - startRow <= MINIMUM_ROWS_BY_TASK) {
+                engine.computeRows(startRow, endRow, sourcesPower, receiversPower);
+            } else {
+                int middle = startRow + (endRow - startRow) / 2;
+                invokeAll(new RowRangeTask(engine, startRow, middle, sourcesPower, receiversPower),
+                        new RowRangeTask(engine, middle, endRow, sourcesPower, receiversPower));
+            }
+        }
+    }
+}
@@ -6,13 +6,16 @@ import org.h2gis.api.ProgressVisitor;
 import org.h2gis.utilities.SFSUtilities;
 import org.h2gis.utilities.SpatialResultSet;
 import org.h2gis.utilities.TableLocation;
+import org.noise_planet.noisemodelling.propagation.ComputeRays;
 import org.noise_planet.noisemodelling.propagation.ComputeRaysOut;
 import org.noise_planet.noisemodelling.propagation.GeoWithSoilType;
 import org.noise_planet.noisemodelling.propagation.MeshBuilder;
+import org.noise_planet.noisemodelling.propagation.MeshCache;
 import org.noise_planet.noisemodelling.propagation.PropagationPath;
 import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
 import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
 import org.noise_planet.noisemodelling.propagation.QueryGeometryStructure;
+import org.noise_planet.noisemodelling.propagation.RasterDem;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,8 +23,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Common attributes for propagation of sound sources.
@@ -40,6 +48,8 @@ public abstract class JdbcNoiseMap {
     protected String soilTableName = "";
     // Digital elevation model table. (Contains points or triangles)
     protected String demTable = "";
+    // Regular grid of ground heights used instead of the DEM points in the mesh, null to triangulate the DEM points
+    protected RasterDem demRaster = null;
     protected String sound_lvl_field = "DB_M";
     // True if Z of sound source and receivers are relative to the ground
     protected boolean receiverHasAbsoluteZCoordinates = false;
@@ -48,6 +58,8 @@ public abstract class JdbcNoiseMap {
     protected double maximumReflectionDistance = 100;
     // Soil areas are splited by the provided size in order to reduce the propagation time
     protected double groundSurfaceSplitSideLength = 200;
+    // Cell size of the rasterized soil areas, 0 to compute the ground factor of rays with the soil polygons
+    protected double groundFactorGridResolution = 0;
     protected int soundReflectionOrder = 2;
     public boolean verbose = true;
     protected boolean computeHorizontalDiffraction = true;
@@ -59,9 +71,22 @@ public abstract class JdbcNoiseMap {
     protected String heightField = "";
     protected GeometryFactory geometryFactory = new GeometryFactory();
     protected int parallelComputationCount = 0;
+    // Adaptive subdivision budgets, the uniform grid is used if both are 0
+    protected long cellReceiverBudget = 0;
+    protected long cellBuildingBudget = 0;
+    protected int maximumSubdivisionLevel = 8;
+    // Triangulated meshes of previous computations, null if the mesh is always computed
+    protected MeshCache meshCache = null;
+    // Delta mode, only these sources are computed. Null to compute all sources
+    protected Set<Long> sourcesPkFilter = null;
+    // Invalidation mode, only the pairs with rays that may be modified by this area are computed. Null for all pairs
+    protected Geometry changedArea = null;
+    protected double changedAreaInfluence = PropagationProcessData.DEFAULT_CHANGED_AREA_INFLUENCE;
     // Initialised attributes
     protected int gridDim = 0;
     protected Envelope mainEnvelope = new Envelope();
+    // Cells identifier and envelope computed by the adaptive subdivision, null if the uniform grid is used
+    protected Map<Integer, Envelope> adaptiveCells = null;
 
     public JdbcNoiseMap(String buildingsTableName, String sourcesTableName) {
         this.buildingsTableName = buildingsTableName;
@@ -108,7 +133,38 @@ public abstract class JdbcNoiseMap {
         this.groundSurfaceSplitSideLength = groundSurfaceSplitSideLength;
     }
 
+    /**
+     * @return Cell size (m) of the rasterized soil areas, 0 if the soil polygons are used
+     */
+    public double getGroundFactorGridResolution() {
+        return groundFactorGridResolution;
+    }
+
+    /**
+     * Rasterize the soil areas of each cell so the mean ground factor of a ray is computed by walking through the
+     * grid cells instead of intersecting the ray with the soil polygons. The ground factor is approximated at the
+     * scale of the resolution.
+     * @param groundFactorGridResolution Cell size (m) of the rasterized soil areas, 0 to use the soil polygons
+     */
+    public void setGroundFactorGridResolution(double groundFactorGridResolution) {
+        this.groundFactorGridResolution = groundFactorGridResolution;
+    }
+
     protected void fetchCellDem(Connection connection, Envelope fetchEnvelope, MeshBuilder mesh) throws SQLException {
+        if(demRaster == null) {
+            fetchCellDemPoints(connection, fetchEnvelope, mesh);
+        }
+    }
+
+    /**
+     * Add the points of the {@link #demTable} to the mesh, even if the {@link #demRaster} is used
+     * @param connection Active connection
+     * @param fetchEnvelope Envelope of the points
+     * @param mesh Mesh fed with the topographic points
+     * @throws SQLException If the table cannot be read
+     */
+    protected void fetchCellDemPoints(Connection connection, Envelope fetchEnvelope, MeshBuilder mesh)
+            throws SQLException {
         if(!demTable.isEmpty()) {
             List<String> geomFields = SFSUtilities.getGeometryFields(connection,
                     TableLocation.parse(demTable));
@@ -202,7 +258,8 @@ public abstract class JdbcNoiseMap {
         try (PreparedStatement st = connection.prepareStatement(
                 "SELECT " + TableLocation.quoteIdentifier(buildingGeomName) + additionalQuery + " FROM " +
                         buildingsTableName + " WHERE " +
-                        TableLocation.quoteIdentifier(buildingGeomName) + " && ?::geometry")) {
+                        TableLocation.quoteIdentifier(buildingGeomName) + " && ?::geometry" +
+                        (pkBuilding.isEmpty() ? "" : " ORDER BY " + pkBuilding))) {
             st.setObject(1, geometryFactory.toGeometry(fetchEnvelope));
             try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
                 int columnIndex = 0;
@@ -215,6 +272,17 @@ public abstract class JdbcNoiseMap {
                     if(building != null) {
                         Geometry intersectedGeometry = building.intersection(envGeo);
                         if(intersectedGeometry instanceof Polygon || intersectedGeometry instanceof MultiPolygon) {
+                            if(demRaster != null) {
+                                // The mesh does not contain the topography, set the ground height of the building
+                                for(Coordinate vertex : intersectedGeometry.getCoordinates()) {
+                                    double z = demRaster.getHeight(vertex);
+                                    if(!Double.isNaN(z) && (Double.isNaN(vertex.z) ||
+                                            Double.compare(0, vertex.z) == 0)) {
+                                        vertex.z = z;
+                                    }
+                                }
+                                intersectedGeometry.geometryChanged();
+                            }
                             MeshBuilder.PolygonWithHeight poly = mesh.addGeometry(intersectedGeometry,
                                     heightField.isEmpty() ? Double.MAX_VALUE : rs.getDouble(heightField),
                                     fetchAlpha ? rs.getDouble(alphaFieldName) : wallAbsorption);
@@ -260,6 +328,9 @@ public abstract class JdbcNoiseMap {
             st.setFetchDirection(ResultSet.FETCH_FORWARD);
             try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
                 while (rs.next()) {
+                    if(sourcesPkFilter != null && !sourcesPkFilter.contains(rs.getLong(pkIndex))) {
+                        continue;
+                    }
                     Geometry geo = rs.getGeometry();
                     if (geo != null) {
                         geo = domainConstraint.intersection(geo);
@@ -276,6 +347,40 @@ public abstract class JdbcNoiseMap {
         }
     }
 
+    /**
+     * @param connection Active connection
+     * @param fetchEnvelope Fetching envelope
+     * @return True if a source of {@link #sourcesPkFilter} intersects the envelope, always true if there is no filter
+     */
+    protected boolean hasFilteredSources(Connection connection, Envelope fetchEnvelope) throws SQLException {
+        if(sourcesPkFilter == null) {
+            return true;
+        }
+        if(sourcesPkFilter.isEmpty()) {
+            return false;
+        }
+        TableLocation sourceTableIdentifier = TableLocation.parse(sourcesTableName);
+        String sourceGeomName = SFSUtilities.getGeometryFields(connection, sourceTableIdentifier).get(0);
+        int pkIndex = JDBCUtilities.getIntegerPrimaryKey(connection, sourcesTableName);
+        if(pkIndex < 1) {
+            throw new IllegalArgumentException(String.format("Source table %s does not contain a primary key", sourceTableIdentifier));
+        }
+        String pkName = JDBCUtilities.getFieldName(connection.getMetaData(), sourcesTableName, pkIndex);
+        try (PreparedStatement st = connection.prepareStatement("SELECT " + TableLocation.quoteIdentifier(pkName) +
+                " FROM " + sourcesTableName + " WHERE " + TableLocation.quoteIdentifier(sourceGeomName) +
+                " && ?::geometry")) {
+            st.setObject(1, geometryFactory.toGeometry(fetchEnvelope));
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    if(sourcesPkFilter.contains(rs.getLong(1))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     protected double getCellWidth() {
         return mainEnvelope.getWidth() / gridDim;
     }
@@ -327,7 +432,242 @@ public abstract class JdbcNoiseMap {
             // 1 Step - Evaluation of the main bounding box (sources)
             setMainEnvelope(getComputationEnvelope(connection));
         }
+        if(isAdaptiveSubdivision()) {
+            adaptiveCells = computeAdaptiveCells(connection);
+        } else {
+            adaptiveCells = null;
+        }
+    }
+
+    /**
+     * @return Cache of triangulated meshes, null if disabled
+     */
+    public MeshCache getMeshCache() {
+        return meshCache;
+    }
+
+    /**
+     * Reuse the triangulation of cells where buildings and topography have not changed since a previous computation.
+     * @param meshCache Cache of triangulated meshes, null to disable
+     */
+    public void setMeshCache(MeshCache meshCache) {
+        this.meshCache = meshCache;
+    }
+
+    /**
+     * @return Primary keys of the only sources to compute, null if all sources are computed
+     */
+    public Set<Long> getSourcesPkFilter() {
+        return sourcesPkFilter;
+    }
+
+    /**
+     * Delta mode, compute only the contribution of the provided sources. Cells without any of these sources within
+     * the maximum propagation distance are not triangulated, and only the receivers within the maximum propagation
+     * distance of these sources are computed.
+     * @param sourcesPkFilter Primary keys of the sources to compute, null to compute all sources
+     */
+    public void setSourcesPkFilter(Set<Long> sourcesPkFilter) {
+        this.sourcesPkFilter = sourcesPkFilter;
+    }
+
+    /**
+     * @return Area of the changed buildings, null if all source-receiver pairs are computed
+     */
+    public Geometry getChangedArea() {
+        return changedArea;
+    }
+
+    /**
+     * Invalidation mode, compute only the source-receiver pairs with rays that may be modified by added, removed or
+     * modified buildings. Cells too far from the area are not triangulated.
+     * @param changedArea Footprints of the changed buildings before and after the change, null to compute all pairs
+     */
+    public void setChangedArea(Geometry changedArea) {
+        this.changedArea = changedArea;
+    }
+
+    public double getChangedAreaInfluence() {
+        return changedAreaInfluence;
+    }
+
+    /**
+     * @param changedAreaInfluence Direct and diffracted rays passing within this distance of the changed area may be
+     *                             modified
+     */
+    public void setChangedAreaInfluence(double changedAreaInfluence) {
+        this.changedAreaInfluence = changedAreaInfluence;
+    }
+
+    /**
+     * @return Maximal distance between the changed area and a receiver with modified rays
+     */
+    protected double getChangedAreaReceiverDistance() {
+        double distance = maximumPropagationDistance + Math.max(changedAreaInfluence,
+                soundReflectionOrder > 0 ? maximumReflectionDistance : 0);
+        if(computeHorizontalDiffraction) {
+            distance = Math.max(distance, ComputeRays.getSidePathMaximumDistance(maximumPropagationDistance));
+        }
+        return distance;
+    }
+
+    /**
+     * @return True if cells are computed using receivers and buildings budgets instead of an uniform grid
+     */
+    public boolean isAdaptiveSubdivision() {
+        return cellReceiverBudget > 0 || cellBuildingBudget > 0;
+    }
+
+    /**
+     * @return Maximum number of receivers in a cell, 0 if not limited
+     */
+    public long getCellReceiverBudget() {
+        return cellReceiverBudget;
+    }
+
+    /**
+     * Activate the adaptive subdivision of the computation area. A cell is split in four while it contains
+     * more receivers than this budget. Cells without receivers are skipped.
+     * @param cellReceiverBudget Maximum number of receivers in a cell, 0 if not limited
+     */
+    public void setCellReceiverBudget(long cellReceiverBudget) {
+        this.cellReceiverBudget = cellReceiverBudget;
+    }
+
+    /**
+     * @return Maximum number of buildings in the expanded envelope of a cell, 0 if not limited
+     */
+    public long getCellBuildingBudget() {
+        return cellBuildingBudget;
+    }
+
+    /**
+     * Activate the adaptive subdivision of the computation area. A cell is split in four while its envelope expanded by
+     * the maximum propagation distance contains more buildings than this budget. As the expanded envelope
+     * cannot be smaller than the propagation distance, cells smaller than this distance are not split by this budget.
+     * @param cellBuildingBudget Maximum number of buildings in the expanded envelope of a cell, 0 if not limited
+     */
+    public void setCellBuildingBudget(long cellBuildingBudget) {
+        this.cellBuildingBudget = cellBuildingBudget;
+    }
+
+    /**
+     * @return Maximum depth of the adaptive subdivision
+     */
+    public int getMaximumSubdivisionLevel() {
+        return maximumSubdivisionLevel;
+    }
+
+    /**
+     * @param maximumSubdivisionLevel Maximum depth of the adaptive subdivision (a cell at level n is 4^n smaller than
+     *                                the computation area)
+     */
+    public void setMaximumSubdivisionLevel(int maximumSubdivisionLevel) {
+        this.maximumSubdivisionLevel = maximumSubdivisionLevel;
+    }
+
+    /**
+     * Count receivers in the provided envelope
+     * @param connection Active connection
+     * @param cellEnvelope Cell envelope
+     * @return Number of receivers or -1 if receivers are not known before the cell computation
+     * @throws SQLException
+     */
+    protected long countCellReceivers(Connection connection, Envelope cellEnvelope) throws SQLException {
+        return -1;
+    }
+
+    /**
+     * Count rows of the table that intersects the envelope
+     * @param connection Active connection
+     * @param tableName Table name
+     * @param envelope Filter envelope
+     * @return Number of rows
+     * @throws SQLException
+     */
+    protected long countIntersectingRows(Connection connection, String tableName, Envelope envelope) throws SQLException {
+        String geomName = SFSUtilities.getGeometryFields(connection, TableLocation.parse(tableName)).get(0);
+        try (PreparedStatement st = connection.prepareStatement("SELECT COUNT(*) FROM " + tableName + " WHERE " +
+                TableLocation.quoteIdentifier(geomName) + " && ?::geometry")) {
+            st.setObject(1, geometryFactory.toGeometry(envelope));
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
 
+    /**
+     * Split the computation area recursively in four until each cell fits the receivers and buildings budgets
+     * @param connection Active connection
+     * @return Cells identifier and envelope
+     * @throws SQLException
+     */
+    protected Map<Integer, Envelope> computeAdaptiveCells(Connection connection) throws SQLException {
+        List<Envelope> cells = new ArrayList<>();
+        subdivideCell(connection, mainEnvelope, 0, cells);
+        Map<Integer, Envelope> cellsMap = new LinkedHashMap<>();
+        for(Envelope cell : cells) {
+            cellsMap.put(cellsMap.size(), cell);
+        }
+        if(verbose) {
+            logger.info(String.format("Adaptive subdivision produced %d cells", cellsMap.size()));
+        }
+        return cellsMap;
+    }
+
+    private void subdivideCell(Connection connection, Envelope cellEnvelope, int level, List<Envelope> cells)
+            throws SQLException {
+        long receiverCount = countCellReceivers(connection, cellEnvelope);
+        if(receiverCount == 0) {
+            // Nothing to compute in this cell
+            return;
+        }
+        boolean split = false;
+        if(level < maximumSubdivisionLevel) {
+            if(cellReceiverBudget > 0 && receiverCount > cellReceiverBudget) {
+                split = true;
+            } else if(cellBuildingBudget > 0 && cellEnvelope.maxExtent() > maximumPropagationDistance) {
+                Envelope expandedCellEnvelope = new Envelope(cellEnvelope);
+                expandedCellEnvelope.expandBy(maximumPropagationDistance);
+                split = countIntersectingRows(connection, buildingsTableName, expandedCellEnvelope) > cellBuildingBudget;
+            }
+        }
+        if(split) {
+            // Use parent bounds in order to not lose receivers on the border because of rounding errors
+            double[] xBounds = new double[] {cellEnvelope.getMinX(), cellEnvelope.centre().x, cellEnvelope.getMaxX()};
+            double[] yBounds = new double[] {cellEnvelope.getMinY(), cellEnvelope.centre().y, cellEnvelope.getMaxY()};
+            for(int i = 0; i < 2; i++) {
+                for(int j = 0; j < 2; j++) {
+                    subdivideCell(connection, new Envelope(xBounds[i], xBounds[i + 1], yBounds[j], yBounds[j + 1]),
+                            level + 1, cells);
+                }
+            }
+        } else {
+            cells.add(cellEnvelope);
+        }
+    }
+
+    /**
+     * @return Number of computation cells
+     */
+    public int getCellCount() {
+        return adaptiveCells != null ? adaptiveCells.size() : gridDim * gridDim;
+    }
+
+    /**
+     * @return Computation cells identifier and envelope. With the uniform grid the identifier is cellI * gridDim + cellJ
+     */
+    public Map<Integer, Envelope> getCellEnvelopes() {
+        if(adaptiveCells != null) {
+            return Collections.unmodifiableMap(adaptiveCells);
+        }
+        Map<Integer, Envelope> cells = new LinkedHashMap<>();
+        for(int i = 0; i < gridDim; i++) {
+            for(int j = 0; j < gridDim; j++) {
+                cells.put(i * gridDim + j, getCellEnv(mainEnvelope, i, j, getCellWidth(), getCellHeight()));
+            }
+        }
+        return cells;
     }
 
     /**
@@ -434,6 +774,65 @@ public abstract class JdbcNoiseMap {
         this.demTable = demTable;
     }
 
+    /**
+     * @return Regular grid of ground heights, null if the DEM points are triangulated
+     */
+    public RasterDem getDemRaster() {
+        return demRaster;
+    }
+
+    /**
+     * Use a regular grid for the ground heights instead of inserting the DEM points in the triangulated mesh of
+     * each cell. Dense DEM (as LiDAR) make the triangulation very slow and memory intensive.
+     * @param demRaster Regular grid of ground heights, null to triangulate the DEM points
+     */
+    public void setDemRaster(RasterDem demRaster) {
+        this.demRaster = demRaster;
+    }
+
+    /**
+     * Load the points of the {@link #demTable} into a regular grid and use it instead of the triangulated DEM points.
+     * The points must be located on the nodes of a grid with the provided spacing.
+     * @param connection Active connection
+     * @param cellSize Distance between two DEM points (m)
+     * @return Regular grid of ground heights
+     * @throws SQLException If the table cannot be read
+     */
+    public RasterDem loadDemRaster(Connection connection, double cellSize) throws SQLException {
+        List<String> geomFields = SFSUtilities.getGeometryFields(connection, TableLocation.parse(demTable));
+        if(geomFields.isEmpty()) {
+            throw new SQLException("Digital elevation model table \""+demTable+"\" must exist and contain a POINT field");
+        }
+        String topoGeomName = TableLocation.quoteIdentifier(geomFields.get(0));
+        Envelope envelope = new Envelope();
+        try (Statement st = connection.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MIN(ST_X(" + topoGeomName + ")), MIN(ST_Y(" + topoGeomName +
+                     ")), MAX(ST_X(" + topoGeomName + ")), MAX(ST_Y(" + topoGeomName + ")) FROM " + demTable)) {
+            if(rs.next() && rs.getObject(1) != null) {
+                envelope.init(rs.getDouble(1), rs.getDouble(3), rs.getDouble(2), rs.getDouble(4));
+            }
+        }
+        if(envelope.isNull()) {
+            throw new SQLException("Digital elevation model table \""+demTable+"\" is empty");
+        }
+        // Points are read twice in order to not keep them in memory
+        RasterDem raster = new RasterDem(envelope, cellSize);
+        try (Statement st = connection.createStatement()) {
+            st.setFetchSize(fetchSize);
+            try (SpatialResultSet rs = st.executeQuery("SELECT " + topoGeomName + " FROM " + demTable)
+                    .unwrap(SpatialResultSet.class)) {
+                while (rs.next()) {
+                    Geometry pt = rs.getGeometry();
+                    if(pt != null) {
+                        raster.setHeight(pt.getCoordinate());
+                    }
+                }
+            }
+        }
+        this.demRaster = raster;
+        return raster;
+    }
+
     /**
      * Field name of the {@link #sourcesTableName}HERTZ. Where HERTZ is a number [100-5000].
      * Without the hertz value.
@@ -7,12 +7,15 @@ import org.h2gis.utilities.SpatialResultSet;
 import org.h2gis.utilities.TableLocation;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.prep.PreparedGeometry;
 import org.noise_planet.noisemodelling.propagation.ComputeRays;
+import org.noise_planet.noisemodelling.propagation.CompressedLongSet;
 import org.noise_planet.noisemodelling.propagation.ComputeRaysOut;
 import org.noise_planet.noisemodelling.propagation.FastObstructionTest;
 import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
 import org.noise_planet.noisemodelling.propagation.LayerDelaunayError;
 import org.noise_planet.noisemodelling.propagation.MeshBuilder;
+import org.noise_planet.noisemodelling.propagation.MeshCache;
 import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
 import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
 import org.noise_planet.noisemodelling.propagation.PropagationResultPtRecord;
@@ -72,42 +75,85 @@ public class PointNoiseMap extends JdbcNoiseMap {
      * @param cellI Cell I [0-{@link #getGridDim()}]
      * @param cellJ Cell J [0-{@link #getGridDim()}]
      * @param progression Progression info
+     * @param skipReceivers Already processed receivers, receivers of this cell are added to it.
+     *                      Must be thread safe if cells are prepared concurrently, see {@link CompressedLongSet}.
      * @return Data input for cell evaluation
      * @throws SQLException
      */
     public PropagationProcessData prepareCell(Connection connection,int cellI, int cellJ,
                                               ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
+        return prepareCell(connection, cellI * gridDim + cellJ, getCellEnv(mainEnvelope, cellI,
+                cellJ, getCellWidth(), getCellHeight()), progression, skipReceivers);
+    }
+
+    /**
+     * Initialisation of data structures needed for sound propagation.
+     * @param connection JDBC Connection
+     * @param cellId Cell identifier, key of {@link #getCellEnvelopes()}
+     * @param cellEnvelope Cell envelope, value of {@link #getCellEnvelopes()}
+     * @param progression Progression info
+     * @param skipReceivers Already processed receivers, receivers of this cell are added to it.
+     *                      Must be thread safe if cells are prepared concurrently, see {@link CompressedLongSet}.
+     * @return Data input for cell evaluation
+     * @throws SQLException
+     */
+    public PropagationProcessData prepareCell(Connection connection, int cellId, Envelope cellEnvelope,
+                                              ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
         MeshBuilder mesh = new MeshBuilder();
-        int ij = cellI * gridDim + cellJ;
         if(verbose) {
-            logger.info("Begin processing of cell " + ij + " / " + gridDim * gridDim);
+            logger.info("Begin processing of cell " + cellId + " / " + getCellCount());
         }
-        Envelope cellEnvelope = getCellEnv(mainEnvelope, cellI,
-                cellJ, getCellWidth(), getCellHeight());
-
 
         Envelope expandedCellEnvelop = new Envelope(cellEnvelope);
         expandedCellEnvelop.expandBy(maximumPropagationDistance);
 
-        // //////////////////////////////////////////////////////
-        // feed freeFieldFinder for fast intersection query
-        // optimization
-        // Fetch buildings in extendedEnvelope
-        fetchCellBuildings(connection, expandedCellEnvelop, mesh);
-        //if we have topographic points data
-        fetchCellDem(connection, expandedCellEnvelop, mesh);
-
-        // Data fetching for collision test is done.
-        Envelope meshEnvelope = new Envelope(expandedCellEnvelop);
-        // Expand again envelope for sound sources or buildings sides that are close to the edge
-        meshEnvelope.expandBy(10);
-        try {
-            mesh.finishPolygonFeeding(expandedCellEnvelop);
-        } catch (LayerDelaunayError ex) {
-            throw new SQLException(ex.getLocalizedMessage(), ex);
+        // In delta mode, a cell without any changed source or too far from the changed buildings is left empty
+        Envelope changedAreaEnvelope = null;
+        if(changedArea != null) {
+            changedAreaEnvelope = new Envelope(changedArea.getEnvelopeInternal());
+            changedAreaEnvelope.expandBy(getChangedAreaReceiverDistance() - maximumPropagationDistance);
+        }
+        boolean computeCell = (changedAreaEnvelope == null || changedAreaEnvelope.intersects(expandedCellEnvelop)) &&
+                hasFilteredSources(connection, expandedCellEnvelop);
+
+        // A skipped cell is not triangulated, its data has no receiver and no free field finder
+        FastObstructionTest freeFieldFinder = null;
+        if(computeCell) {
+            // //////////////////////////////////////////////////////
+            // feed freeFieldFinder for fast intersection query
+            // optimization
+            // Fetch buildings in extendedEnvelope
+            fetchCellBuildings(connection, expandedCellEnvelop, mesh);
+            //if we have topographic points data
+            fetchCellDem(connection, expandedCellEnvelop, mesh);
+
+            // Data fetching for collision test is done.
+            Envelope meshEnvelope = new Envelope(expandedCellEnvelop);
+            // Expand again envelope for sound sources or buildings sides that are close to the edge
+            meshEnvelope.expandBy(10);
+            MeshCache.CachedMesh cachedMesh = null;
+            String meshKey = null;
+            if(meshCache != null) {
+                meshKey = MeshCache.computeKey(expandedCellEnvelop, mesh);
+                cachedMesh = meshCache.load(meshKey);
+            }
+            if(cachedMesh != null) {
+                freeFieldFinder = new FastObstructionTest(cachedMesh.getPolygonWithHeight(),
+                        cachedMesh.getTriangles(), cachedMesh.getTriNeighbors(), cachedMesh.getVertices());
+            } else {
+                try {
+                    mesh.finishPolygonFeeding(expandedCellEnvelop);
+                } catch (LayerDelaunayError ex) {
+                    throw new SQLException(ex.getLocalizedMessage(), ex);
+                }
+                if(meshCache != null) {
+                    meshCache.store(meshKey, mesh);
+                }
+                freeFieldFinder = new FastObstructionTest(mesh.getPolygonWithHeight(),
+                        mesh.getTriangles(), mesh.getTriNeighbors(), mesh.getVertices());
+            }
+            freeFieldFinder.setDemRaster(demRaster);
         }
-        FastObstructionTest freeFieldFinder = new FastObstructionTest(mesh.getPolygonWithHeight(),
-                mesh.getTriangles(), mesh.getTriNeighbors(), mesh.getVertices());
 
 
         PropagationProcessData propagationProcessData;
@@ -120,14 +166,23 @@ public class PointNoiseMap extends JdbcNoiseMap {
         propagationProcessData.maximumError = getMaximumError();
         propagationProcessData.maxRefDist = maximumReflectionDistance;
         propagationProcessData.maxSrcDist = maximumPropagationDistance;
+        propagationProcessData.groundFactorGridResolution = groundFactorGridResolution;
+        propagationProcessData.changedArea = changedArea;
+        propagationProcessData.changedAreaInfluence = changedAreaInfluence;
         propagationProcessData.setComputeVerticalDiffraction(computeVerticalDiffraction);
         propagationProcessData.setComputeHorizontalDiffraction(computeHorizontalDiffraction);
 
+        propagationProcessData.cellId = cellId;
+        if(!computeCell) {
+            if(progression != null) {
+                propagationProcessData.cellProg = progression.subProcess(0);
+            }
+            return propagationProcessData;
+        }
+
         // Fetch all source located in expandedCellEnvelop
         fetchCellSource(connection, expandedCellEnvelop, propagationProcessData);
 
-        propagationProcessData.cellId = ij;
-
         // Fetch soil areas
         fetchCellSoilAreas(connection, expandedCellEnvelop, propagationProcessData.getSoilList());
 
@@ -142,6 +197,9 @@ public class PointNoiseMap extends JdbcNoiseMap {
         } else {
             throw new SQLException(String.format("Table %s missing primary key for receiver identification", receiverTableName));
         }
+        // Rays of receivers outside of this zone cannot be modified by the changed buildings
+        PreparedGeometry changedAreaReceiverZone = changedArea == null ? null :
+                PropagationProcessData.prepareBuffer(changedArea, getChangedAreaReceiverDistance());
         try (PreparedStatement st = connection.prepareStatement(
                 "SELECT " + TableLocation.quoteIdentifier(receiverGeomName) + pkSelect + " FROM " +
                         receiverTableName + " WHERE " +
@@ -150,13 +208,19 @@ public class PointNoiseMap extends JdbcNoiseMap {
             try (SpatialResultSet rs = st.executeQuery().unwrap(SpatialResultSet.class)) {
                 while (rs.next()) {
                     long receiverPk = rs.getLong(2);
-                    if(skipReceivers.contains(receiverPk)) {
+                    if(!skipReceivers.add(receiverPk)) {
+                        // Already processed by another cell
                         continue;
-                    } else {
-                        skipReceivers.add(receiverPk);
                     }
                     Geometry pt = rs.getGeometry();
                     if(pt != null && !pt.isEmpty()) {
+                        if(sourcesPkFilter != null && !isNearSources(propagationProcessData, pt)) {
+                            // No changed source within the propagation distance
+                            continue;
+                        }
+                        if(changedAreaReceiverZone != null && !changedAreaReceiverZone.intersects(pt)) {
+                            continue;
+                        }
                         propagationProcessData.addReceiver(receiverPk, pt.getCoordinate(), rs);
                     }
                 }
@@ -168,6 +232,27 @@ public class PointNoiseMap extends JdbcNoiseMap {
         return propagationProcessData;
     }
 
+    /**
+     * @return True if a source of the cell is within the maximum propagation distance of the receiver
+     */
+    private boolean isNearSources(PropagationProcessData propagationProcessData, Geometry receiver) {
+        Envelope searchEnvelope = receiver.getEnvelopeInternal();
+        searchEnvelope.expandBy(maximumPropagationDistance);
+        Iterator<Integer> sources = propagationProcessData.sourcesIndex.query(searchEnvelope);
+        while (sources.hasNext()) {
+            if(propagationProcessData.sourceGeometries.get(sources.next()).distance(receiver) <
+                    maximumPropagationDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected long countCellReceivers(Connection connection, Envelope cellEnvelope) throws SQLException {
+        return countIntersectingRows(connection, receiverTableName, cellEnvelope);
+    }
+
     @Override
     protected Envelope getComputationEnvelope(Connection connection) throws SQLException {
         return SFSUtilities.getTableEnvelope(connection, TableLocation.parse(receiverTableName), "");
@@ -186,6 +271,44 @@ public class PointNoiseMap extends JdbcNoiseMap {
                                         ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
         PropagationProcessData threadData = prepareCell(connection, cellI, cellJ, progression, skipReceivers);
 
+        return evaluateCell(threadData);
+    }
+
+    /**
+     * Launch sound propagation
+     * @param connection JDBC Connection
+     * @param cellId Cell identifier, key of {@link #getCellEnvelopes()}
+     * @param cellEnvelope Cell envelope, value of {@link #getCellEnvelopes()}
+     * @param progression Progression info
+     * @param skipReceivers Already processed receivers
+     * @return Cell output data
+     * @throws SQLException
+     */
+    public IComputeRaysOut evaluateCell(Connection connection, int cellId, Envelope cellEnvelope,
+                                        ProgressVisitor progression, Set<Long> skipReceivers) throws SQLException {
+        PropagationProcessData threadData = prepareCell(connection, cellId, cellEnvelope, progression, skipReceivers);
+
+        return evaluateCell(threadData);
+    }
+
+    /**
+     * Launch sound propagation on a cell already prepared by
+     * {@link #prepareCell(Connection, int, int, ProgressVisitor, Set)}. This step does not use the database connection.
+     * @param threadData Cell input data
+     * @return Cell output data
+     */
+    public IComputeRaysOut evaluateCell(PropagationProcessData threadData) {
+        return evaluateCell(threadData, threadCount);
+    }
+
+    /**
+     * Launch sound propagation on a cell already prepared by
+     * {@link #prepareCell(Connection, int, int, ProgressVisitor, Set)}. This step does not use the database connection.
+     * @param threadData Cell input data
+     * @param threadCount Number of threads used by the propagation of this cell, 0 for default
+     * @return Cell output data
+     */
+    public IComputeRaysOut evaluateCell(PropagationProcessData threadData, int threadCount) {
         IComputeRaysOut computeRaysOut;
         if(computeRaysOutFactory == null) {
             computeRaysOut = new ComputeRaysOut(false, propagationProcessPathData, threadData);
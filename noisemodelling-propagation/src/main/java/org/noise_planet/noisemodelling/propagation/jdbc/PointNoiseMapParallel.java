@@ -0,0 +1,186 @@
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import org.h2gis.api.ProgressVisitor;
+import org.h2gis.utilities.SFSUtilities;
+import org.locationtech.jts.geom.Envelope;
+import org.noise_planet.noisemodelling.propagation.CompressedLongSet;
+import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluate several cells of a {@link PointNoiseMap} at the same time. Each worker use its own connection
+ * from the data source, and prepare its own cell (mesh, sources, receivers).
+ * The thread budget is shared between the concurrent cells: each cell propagation use
+ * threadBudget / cellConcurrency threads.
+ * @author Nicolas Fortin
+ */
+public class PointNoiseMapParallel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PointNoiseMapParallel.class);
+    private final PointNoiseMap pointNoiseMap;
+    private final DataSource dataSource;
+    private int threadBudget = Runtime.getRuntime().availableProcessors();
+    private int cellConcurrency = 0;
+
+    public PointNoiseMapParallel(PointNoiseMap pointNoiseMap, DataSource dataSource) {
+        this.pointNoiseMap = pointNoiseMap;
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @return Total number of threads used by all cells
+     */
+    public int getThreadBudget() {
+        return threadBudget;
+    }
+
+    /**
+     * @param threadBudget Total number of threads used by all cells
+     */
+    public void setThreadBudget(int threadBudget) {
+        if(threadBudget < 1) {
+            throw new IllegalArgumentException("Thread budget must be at least 1");
+        }
+        this.threadBudget = threadBudget;
+    }
+
+    /**
+     * @return Number of cells evaluated at the same time, 0 for automatic
+     */
+    public int getCellConcurrency() {
+        return cellConcurrency;
+    }
+
+    /**
+     * @param cellConcurrency Number of cells evaluated at the same time (opened connections), 0 for automatic.
+     *                        Each cell hold its mesh in memory.
+     */
+    public void setCellConcurrency(int cellConcurrency) {
+        if(cellConcurrency < 0) {
+            throw new IllegalArgumentException("Cell concurrency must be positive");
+        }
+        this.cellConcurrency = cellConcurrency;
+    }
+
+    /**
+     * @param cellCount Number of cells to evaluate
+     * @return Number of cells evaluated at the same time
+     */
+    int computeCellConcurrency(int cellCount) {
+        int concurrency = cellConcurrency;
+        if(concurrency == 0) {
+            // Small cells do not saturate threads, evaluate up to one cell per 4 threads
+            concurrency = Math.max(1, threadBudget / 4);
+        }
+        return Math.max(1, Math.min(Math.min(concurrency, threadBudget), cellCount));
+    }
+
+    /**
+     * Prepare and evaluate all cells of the noise map.
+     * @param progression Progression info
+     * @param skipReceivers Already processed receivers, must be thread safe. Null to create a new one.
+     * @param visitor Receive the evaluated cells. Calls are serialized but cells are not visited in order.
+     * @throws SQLException Exception thrown while preparing a cell or visiting a result
+     */
+    public void run(ProgressVisitor progression, Set<Long> skipReceivers,
+                    PointNoiseMapPipeline.CellResultVisitor visitor) throws SQLException {
+        if(skipReceivers == null) {
+            skipReceivers = new CompressedLongSet();
+        }
+        List<Map.Entry<Integer, Envelope>> cells = new ArrayList<>(pointNoiseMap.getCellEnvelopes().entrySet());
+        int cellCount = cells.size();
+        int workerCount = computeCellConcurrency(cellCount);
+        int cellThreadCount = Math.max(1, threadBudget / workerCount);
+        AtomicInteger nextCell = new AtomicInteger(0);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>(workerCount);
+        for(int idWorker = 0; idWorker < workerCount; idWorker++) {
+            Thread worker = new Thread(new CellWorker(this, cells, progression, skipReceivers, visitor, nextCell,
+                    cellThreadCount, stop, error), "NoiseMap cell worker " + idWorker);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException ex) {
+            stop.set(true);
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for cell evaluation", ex);
+        }
+        Throwable ex = error.get();
+        if (ex instanceof SQLException) {
+            throw (SQLException) ex;
+        } else if (ex instanceof Error) {
+            throw (Error) ex;
+        } else if (ex != null) {
+            throw new SQLException(ex.getLocalizedMessage(), ex);
+        }
+    }
+
+    private static final class CellWorker implements Runnable {
+        private final PointNoiseMapParallel parent;
+        private final List<Map.Entry<Integer, Envelope>> cells;
+        private final ProgressVisitor progression;
+        private final Set<Long> skipReceivers;
+        private final PointNoiseMapPipeline.CellResultVisitor visitor;
+        private final AtomicInteger nextCell;
+        private final int threadCount;
+        private final AtomicBoolean stop;
+        private final AtomicReference<Throwable> error;
+
+        CellWorker(PointNoiseMapParallel parent, List<Map.Entry<Integer, Envelope>> cells, ProgressVisitor progression, Set<Long> skipReceivers,
+                   PointNoiseMapPipeline.CellResultVisitor visitor, AtomicInteger nextCell, int threadCount,
+                   AtomicBoolean stop, AtomicReference<Throwable> error) {
+            this.parent = parent;
+            this.cells = cells;
+            this.progression = progression;
+            this.skipReceivers = skipReceivers;
+            this.visitor = visitor;
+            this.nextCell = nextCell;
+            this.threadCount = threadCount;
+            this.stop = stop;
+            this.error = error;
+        }
+
+        @Override
+        public void run() {
+            PointNoiseMap pointNoiseMap = parent.pointNoiseMap;
+            try (Connection connection = SFSUtilities.wrapConnection(parent.dataSource.getConnection())) {
+                int cellIndex;
+                while (!stop.get() && (cellIndex = nextCell.getAndIncrement()) < cells.size()) {
+                    if (progression != null && progression.isCanceled()) {
+                        break;
+                    }
+                    Map.Entry<Integer, Envelope> cell = cells.get(cellIndex);
+                    PropagationProcessData data = pointNoiseMap.prepareCell(connection, cell.getKey(), cell.getValue(),
+                            progression, skipReceivers);
+                    IComputeRaysOut out = pointNoiseMap.evaluateCell(data, threadCount);
+                    synchronized (visitor) {
+                        visitor.visitCellResult(cell.getKey(), out);
+                    }
+                }
+            } catch (Throwable ex) {
+                // Errors such as OutOfMemoryError must also stop the other workers and be thrown by run
+                LOGGER.error(ex.getLocalizedMessage(), ex);
+                error.compareAndSet(null, ex);
+                stop.set(true);
+            }
+        }
+    }
+}
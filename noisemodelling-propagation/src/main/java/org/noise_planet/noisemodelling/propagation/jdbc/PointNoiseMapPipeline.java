@@ -0,0 +1,189 @@
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import org.h2gis.api.ProgressVisitor;
+import org.locationtech.jts.geom.Envelope;
+import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Evaluate all cells of a {@link PointNoiseMap}. While the propagation of a cell is running, the following cells are
+ * fetched from the database and meshed by a background thread. The number of prepared cells waiting for the
+ * propagation is bounded in order to limit the memory usage.
+ * The database connection is used only by the background thread while {@link #run} is active.
+ * @author Nicolas Fortin
+ */
+public class PointNoiseMapPipeline {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PointNoiseMapPipeline.class);
+    private static final long QUEUE_POLL_TIMEOUT_MS = 100;
+    private final PointNoiseMap pointNoiseMap;
+    private int prefetchCellCount = 1;
+
+    public PointNoiseMapPipeline(PointNoiseMap pointNoiseMap) {
+        this.pointNoiseMap = pointNoiseMap;
+    }
+
+    /**
+     * @return Maximum number of prepared cells waiting for the propagation
+     */
+    public int getPrefetchCellCount() {
+        return prefetchCellCount;
+    }
+
+    /**
+     * @param prefetchCellCount Maximum number of prepared cells waiting for the propagation. Each prepared cell hold
+     *                          its mesh, sources and receivers in memory.
+     */
+    public void setPrefetchCellCount(int prefetchCellCount) {
+        if(prefetchCellCount < 1) {
+            throw new IllegalArgumentException("At least one cell must be prefetched");
+        }
+        this.prefetchCellCount = prefetchCellCount;
+    }
+
+    /**
+     * Prepare and evaluate all cells of the noise map. Cells are visited in the order of
+     * {@link PointNoiseMap#getCellEnvelopes()}.
+     * @param connection Active connection, used only by the cell preparation thread
+     * @param progression Progression info
+     * @param skipReceivers Already processed receivers
+     * @param visitor Called in the current thread for each evaluated cell
+     * @throws SQLException Exception thrown while preparing a cell or visiting a result
+     */
+    public void run(Connection connection, ProgressVisitor progression, Set<Long> skipReceivers,
+                    CellResultVisitor visitor) throws SQLException {
+        BlockingQueue<PreparedCell> preparedCells = new ArrayBlockingQueue<>(prefetchCellCount);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        AtomicReference<Throwable> prepareError = new AtomicReference<>();
+        Thread prepareThread = new Thread(new CellPreparation(pointNoiseMap, connection, progression, skipReceivers,
+                preparedCells, stop, prepareError), "NoiseMap cell preparation");
+        prepareThread.setDaemon(true);
+        prepareThread.start();
+        try {
+            while (true) {
+                PreparedCell cell = preparedCells.take();
+                if (cell == PreparedCell.END) {
+                    break;
+                }
+                IComputeRaysOut out = pointNoiseMap.evaluateCell(cell.data);
+                visitor.visitCellResult(cell.cellId, out);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for cell preparation", ex);
+        } finally {
+            stop.set(true);
+            preparedCells.clear();
+            try {
+                prepareThread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Throwable error = prepareError.get();
+        if (error instanceof SQLException) {
+            throw (SQLException) error;
+        } else if (error instanceof Error) {
+            throw (Error) error;
+        } else if (error != null) {
+            throw new SQLException(error.getLocalizedMessage(), error);
+        }
+    }
+
+    /**
+     * Receive the result of the cells
+     */
+    public interface CellResultVisitor {
+        /**
+         * @param cellId Cell identifier, key of {@link PointNoiseMap#getCellEnvelopes()}
+         * @param result Propagation result of the cell
+         * @throws SQLException Stop the computation
+         */
+        void visitCellResult(int cellId, IComputeRaysOut result) throws SQLException;
+    }
+
+    private static final class PreparedCell {
+        static final PreparedCell END = new PreparedCell(-1, null);
+        final int cellId;
+        final PropagationProcessData data;
+
+        PreparedCell(int cellId, PropagationProcessData data) {
+            this.cellId = cellId;
+            this.data = data;
+        }
+    }
+
+    private static final class CellPreparation implements Runnable {
+        private final PointNoiseMap pointNoiseMap;
+        private final Connection connection;
+        private final ProgressVisitor progression;
+        private final Set<Long> skipReceivers;
+        private final BlockingQueue<PreparedCell> preparedCells;
+        private final AtomicBoolean stop;
+        private final AtomicReference<Throwable> prepareError;
+
+        CellPreparation(PointNoiseMap pointNoiseMap, Connection connection, ProgressVisitor progression,
+                        Set<Long> skipReceivers, BlockingQueue<PreparedCell> preparedCells, AtomicBoolean stop,
+                        AtomicReference<Throwable> prepareError) {
+            this.pointNoiseMap = pointNoiseMap;
+            this.connection = connection;
+            this.progression = progression;
+            this.skipReceivers = skipReceivers;
+            this.preparedCells = preparedCells;
+            this.stop = stop;
+            this.prepareError = prepareError;
+        }
+
+        /**
+         * Wait for a free place in the queue
+         * @return False if the pipeline has been stopped
+         */
+        private boolean push(PreparedCell cell) throws InterruptedException {
+            while (!preparedCells.offer(cell, QUEUE_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (stop.get()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Map.Entry<Integer, Envelope> cell : pointNoiseMap.getCellEnvelopes().entrySet()) {
+                    if (stop.get() || (progression != null && progression.isCanceled())) {
+                        return;
+                    }
+                    PropagationProcessData data = pointNoiseMap.prepareCell(connection, cell.getKey(),
+                            cell.getValue(), progression, skipReceivers);
+                    if (!push(new PreparedCell(cell.getKey(), data))) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable ex) {
+                // Errors such as OutOfMemoryError must not be lost, the remaining cells would be silently skipped
+                LOGGER.error(ex.getLocalizedMessage(), ex);
+                prepareError.set(ex);
+            } finally {
+                try {
+                    push(PreparedCell.END);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import org.h2gis.api.ProgressVisitor;
+import org.h2gis.utilities.TableLocation;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.noise_planet.noisemodelling.propagation.ComputeRays;
+import org.noise_planet.noisemodelling.propagation.CompressedLongSet;
+import org.noise_planet.noisemodelling.propagation.IComputeRaysOut;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessData;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
+import org.noise_planet.noisemodelling.propagation.ReceiverLevelsOut;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Update stored receiver levels when only some sources or some buildings change, without computing the other
+ * source-receiver pairs again.
+ * The contribution of the changed sources ({@link PointNoiseMap#setSourcesPkFilter(Set)}) or of the pairs near the
+ * changed buildings ({@link PointNoiseMap#setChangedArea(Geometry)}) is computed before the change then after the
+ * change, and the stored levels are patched by an energetic subtraction of the old contribution and an energetic
+ * addition of the new contribution.
+ * The result is the level of a full computation only if {@link JdbcNoiseMap#setMaximumError(double)} is disabled, as
+ * the pruning of sources depends on the other sources.
+ * The levels table have the columns IDRECEIVER, HZ63, HZ125.. (dB).
+ * @author Nicolas Fortin
+ */
+public class ReceiverLevelsPatch {
+    private static final int BATCH_MAX_SIZE = 100;
+    private final String levelsTableName;
+    private String receiverIdField = "IDRECEIVER";
+    private String frequencyFieldPrefix = "HZ";
+
+    /**
+     * @param levelsTableName Receiver levels to update
+     */
+    public ReceiverLevelsPatch(String levelsTableName) {
+        this.levelsTableName = levelsTableName;
+    }
+
+    public String getReceiverIdField() {
+        return receiverIdField;
+    }
+
+    public void setReceiverIdField(String receiverIdField) {
+        this.receiverIdField = receiverIdField;
+    }
+
+    public String getFrequencyFieldPrefix() {
+        return frequencyFieldPrefix;
+    }
+
+    /**
+     * @param frequencyFieldPrefix Prefix of the frequency band fields, followed by the frequency
+     */
+    public void setFrequencyFieldPrefix(String frequencyFieldPrefix) {
+        this.frequencyFieldPrefix = frequencyFieldPrefix;
+    }
+
+    /**
+     * Compute the contribution of the source-receiver pairs selected by the filters of the noise map. The noise map
+     * must be initialized and its {@link PointNoiseMap.IComputeRaysOutFactory} must create {@link ReceiverLevelsOut}
+     * instances.
+     * @param connection Active connection
+     * @param pointNoiseMap Initialized noise map
+     * @param progression Progression info
+     * @return Sound level of the first period (dB) by receiver primary key, only for receivers of computed pairs
+     * @throws SQLException If a table cannot be read
+     */
+    public static Map<Long, double[]> computeContribution(Connection connection, PointNoiseMap pointNoiseMap,
+                                                          ProgressVisitor progression) throws SQLException {
+        Map<Long, double[]> levels = new HashMap<>();
+        Set<Long> receivers = new CompressedLongSet();
+        Map<Integer, Envelope> cells = pointNoiseMap.getCellEnvelopes();
+        ProgressVisitor cellProgress = progression.subProcess(cells.size());
+        for (Map.Entry<Integer, Envelope> cell : cells.entrySet()) {
+            PropagationProcessData threadData = pointNoiseMap.prepareCell(connection, cell.getKey(),
+                    cell.getValue(), cellProgress, receivers);
+            if (!threadData.receivers.isEmpty()) {
+                IComputeRaysOut out = pointNoiseMap.evaluateCell(threadData);
+                if (!(out instanceof ReceiverLevelsOut)) {
+                    throw new IllegalStateException("The noise map must compute " +
+                            ReceiverLevelsOut.class.getSimpleName());
+                }
+                for (ReceiverLevelsOut.ReceiverLevel level : ((ReceiverLevelsOut) out).getReceiversLevels()) {
+                    levels.put(level.receiverId, level.value);
+                }
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * Compute the contribution of some sources on all receivers.
+     * @param connection Active connection
+     * @param pointNoiseMap Initialized noise map, its sources filter is restored on return
+     * @param sourcesPk Primary keys of the sources
+     * @param progression Progression info
+     * @return Sound level of the first period (dB) by receiver primary key, only for receivers reached by the sources
+     * @throws SQLException If a table cannot be read
+     * @see #computeContribution(Connection, PointNoiseMap, ProgressVisitor)
+     */
+    public static Map<Long, double[]> computeSourcesContribution(Connection connection, PointNoiseMap pointNoiseMap,
+                                                                 Set<Long> sourcesPk, ProgressVisitor progression)
+            throws SQLException {
+        Set<Long> previousFilter = pointNoiseMap.getSourcesPkFilter();
+        pointNoiseMap.setSourcesPkFilter(sourcesPk);
+        try {
+            return computeContribution(connection, pointNoiseMap, progression);
+        } finally {
+            pointNoiseMap.setSourcesPkFilter(previousFilter);
+        }
+    }
+
+    /**
+     * @param level Stored sound level (dB), empty or null if the receiver has no level
+     * @param removed Old contribution of the changed sources (dB), empty or null if none
+     * @param added New contribution of the changed sources (dB), empty or null if none
+     * @return Patched sound level (dB)
+     */
+    public static double[] patchLevel(double[] level, double[] removed, double[] added) {
+        int frequencyCount = Math.max(level == null ? 0 : level.length, Math.max(removed == null ? 0 :
+                removed.length, added == null ? 0 : added.length));
+        double[] power = new double[frequencyCount];
+        for (int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+            if (level != null && level.length > 0) {
+                power[idFreq] += ComputeRays.dbaToW(level[idFreq]);
+            }
+            if (removed != null && removed.length > 0) {
+                // Rounding errors must not lead to a negative power
+                power[idFreq] = Math.max(0, power[idFreq] - ComputeRays.dbaToW(removed[idFreq]));
+            }
+            if (added != null && added.length > 0) {
+                power[idFreq] += ComputeRays.dbaToW(added[idFreq]);
+            }
+        }
+        return ComputeRays.wToDba(power);
+    }
+
+    /**
+     * Patch the levels table, receivers without row are inserted. A frequency band without any remaining sound power
+     * is stored as NULL, and a NULL level is read as no sound power.
+     * @param connection Active connection
+     * @param removed Old contribution of the changed sources (dB) by receiver primary key
+     * @param added New contribution of the changed sources (dB) by receiver primary key
+     * @return Number of updated or inserted rows
+     * @throws SQLException If the table cannot be read or written
+     */
+    public int patch(Connection connection, Map<Long, double[]> removed, Map<Long, double[]> added)
+            throws SQLException {
+        int frequencyCount = PropagationProcessPathData.freq_lvl.size();
+        StringBuilder frequencyFields = new StringBuilder();
+        StringBuilder assignments = new StringBuilder();
+        StringBuilder parameters = new StringBuilder();
+        for (int freq : PropagationProcessPathData.freq_lvl) {
+            String field = TableLocation.quoteIdentifier(frequencyFieldPrefix + freq);
+            frequencyFields.append(", ").append(field);
+            assignments.append(assignments.length() == 0 ? "" : ", ").append(field).append(" = ?");
+            parameters.append(", ?");
+        }
+        StringBuilder selectParameters = new StringBuilder("?");
+        for (int i = 1; i < BATCH_MAX_SIZE; i++) {
+            selectParameters.append(", ?");
+        }
+        String levelsTable = TableLocation.parse(levelsTableName).toString();
+        String receiverField = TableLocation.quoteIdentifier(receiverIdField);
+        Set<Long> receiverSet = new HashSet<>(removed.keySet());
+        receiverSet.addAll(added.keySet());
+        List<Long> receivers = new ArrayList<>(receiverSet);
+        int rowCount = 0;
+        try (PreparedStatement select = connection.prepareStatement("SELECT " + receiverField +
+                frequencyFields + " FROM " + levelsTable + " WHERE " + receiverField + " IN (" +
+                selectParameters + ")");
+             PreparedStatement update = connection.prepareStatement("UPDATE " + levelsTable + " SET " +
+                     assignments + " WHERE " + receiverField + " = ?");
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO " + levelsTable + "(" +
+                     receiverField + frequencyFields + ") VALUES (?" + parameters + ")")) {
+            for (int batchStart = 0; batchStart < receivers.size(); batchStart += BATCH_MAX_SIZE) {
+                int batchEnd = Math.min(receivers.size(), batchStart + BATCH_MAX_SIZE);
+                // Fetch the stored levels of the batch, unused parameters repeat the last receiver
+                Map<Long, double[]> storedLevels = new HashMap<>();
+                for (int i = 0; i < BATCH_MAX_SIZE; i++) {
+                    select.setLong(1 + i, receivers.get(Math.min(batchStart + i, batchEnd - 1)));
+                }
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        double[] level = new double[frequencyCount];
+                        for (int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                            level[idFreq] = rs.getDouble(2 + idFreq);
+                            if (rs.wasNull()) {
+                                level[idFreq] = Double.NEGATIVE_INFINITY;
+                            }
+                        }
+                        storedLevels.put(rs.getLong(1), level);
+                    }
+                }
+                int updateCount = 0;
+                int insertCount = 0;
+                for (long receiverId : receivers.subList(batchStart, batchEnd)) {
+                    double[] level = storedLevels.get(receiverId);
+                    double[] patchedLevel = patchLevel(level, removed.get(receiverId), added.get(receiverId));
+                    if (level != null) {
+                        for (int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                            setLevel(update, 1 + idFreq, patchedLevel[idFreq]);
+                        }
+                        update.setLong(1 + frequencyCount, receiverId);
+                        update.addBatch();
+                        updateCount++;
+                    } else {
+                        insert.setLong(1, receiverId);
+                        for (int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                            setLevel(insert, 2 + idFreq, patchedLevel[idFreq]);
+                        }
+                        insert.addBatch();
+                        insertCount++;
+                    }
+                }
+                if (updateCount > 0) {
+                    rowCount += sumUpdateCounts(update.executeBatch());
+                }
+                if (insertCount > 0) {
+                    rowCount += sumUpdateCounts(insert.executeBatch());
+                }
+            }
+        }
+        return rowCount;
+    }
+
+    /**
+     * Set a level parameter, infinite levels of silent bands are stored as NULL
+     */
+    static void setLevel(PreparedStatement statement, int parameterIndex, double level) throws SQLException {
+        if (Double.isInfinite(level) || Double.isNaN(level)) {
+            statement.setNull(parameterIndex, Types.DOUBLE);
+        } else {
+            statement.setDouble(parameterIndex, level);
+        }
+    }
+
+    private static int sumUpdateCounts(int[] updateCounts) {
+        int rowCount = 0;
+        for (int updateCount : updateCounts) {
+            // The driver may not know the number of rows of each statement
+            rowCount += updateCount == Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, updateCount);
+        }
+        return rowCount;
+    }
+}
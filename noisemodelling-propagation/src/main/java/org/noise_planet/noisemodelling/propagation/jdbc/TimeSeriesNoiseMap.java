@@ -0,0 +1,171 @@
+package org.noise_planet.noisemodelling.propagation.jdbc;
+
+import org.h2gis.utilities.TableLocation;
+import org.noise_planet.noisemodelling.propagation.ComputeRays;
+import org.noise_planet.noisemodelling.propagation.PropagationProcessPathData;
+import org.noise_planet.noisemodelling.propagation.TimeSeriesNoiseEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+
+/**
+ * Compute the receivers levels of each time step of a source emission table using precomputed attenuation.
+ * The emission table is read once, ordered by time, with the columns time, source identifier and one sound level
+ * (dB) by frequency band (HZ63, HZ125..). Levels are inserted in batch in the output table
+ * (TIME, IDRECEIVER, HZ63, HZ125..).
+ * @author Nicolas Fortin
+ */
+public class TimeSeriesNoiseMap {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimeSeriesNoiseMap.class);
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private final String emissionTableName;
+    private final String outputTableName;
+    private String timeField = "TIME";
+    private String sourceIdField = "IDSOURCE";
+    private String frequencyFieldPrefix = "HZ";
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * @param emissionTableName Source emission by time step
+     * @param outputTableName Receiver levels by time step, created by {@link #run(Connection, TimeSeriesNoiseEngine)}
+     */
+    public TimeSeriesNoiseMap(String emissionTableName, String outputTableName) {
+        this.emissionTableName = emissionTableName;
+        this.outputTableName = outputTableName;
+    }
+
+    public String getTimeField() {
+        return timeField;
+    }
+
+    public void setTimeField(String timeField) {
+        this.timeField = timeField;
+    }
+
+    public String getSourceIdField() {
+        return sourceIdField;
+    }
+
+    public void setSourceIdField(String sourceIdField) {
+        this.sourceIdField = sourceIdField;
+    }
+
+    public String getFrequencyFieldPrefix() {
+        return frequencyFieldPrefix;
+    }
+
+    /**
+     * @param frequencyFieldPrefix Prefix of the emission and output frequency band fields, followed by the frequency
+     */
+    public void setFrequencyFieldPrefix(String frequencyFieldPrefix) {
+        this.frequencyFieldPrefix = frequencyFieldPrefix;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize Number of rows fetched and inserted by database round trip
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Create the output table and insert the receivers levels of all time steps
+     * @param connection Database connection
+     * @param engine Source-receiver attenuation
+     * @return Number of time steps
+     * @throws SQLException If a table cannot be read or written
+     */
+    public int run(Connection connection, TimeSeriesNoiseEngine engine) throws SQLException {
+        int frequencyCount = engine.getFrequencyCount();
+        if(frequencyCount != PropagationProcessPathData.freq_lvl.size()) {
+            throw new IllegalArgumentException(String.format("Attenuation have %d frequency bands instead of %d",
+                    frequencyCount, PropagationProcessPathData.freq_lvl.size()));
+        }
+        StringBuilder frequencyFields = new StringBuilder();
+        StringBuilder frequencyColumns = new StringBuilder();
+        StringBuilder parameters = new StringBuilder();
+        for(int freq : PropagationProcessPathData.freq_lvl) {
+            String field = TableLocation.quoteIdentifier(frequencyFieldPrefix + freq);
+            frequencyFields.append(", ").append(field);
+            frequencyColumns.append(", ").append(field).append(" double precision");
+            parameters.append(", ?");
+        }
+        String outputTable = TableLocation.parse(outputTableName).toString();
+        try(Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE " + outputTable + "(TIME bigint, IDRECEIVER bigint" + frequencyColumns + ")");
+        }
+        long[] receiverIds = engine.getReceiverIds();
+        double[][] sourcesPower = new double[engine.getSourceIds().length][];
+        double[][] receiversPower = new double[receiverIds.length][frequencyCount];
+        int timeStepCount = 0;
+        try(Statement st = connection.createStatement();
+            PreparedStatement insert = connection.prepareStatement("INSERT INTO " + outputTable +
+                    "(TIME, IDRECEIVER" + frequencyFields + ") VALUES (?, ?" + parameters + ")")) {
+            st.setFetchSize(batchSize);
+            try(ResultSet rs = st.executeQuery("SELECT " + TableLocation.quoteIdentifier(timeField) + ", " +
+                    TableLocation.quoteIdentifier(sourceIdField) + frequencyFields + " FROM " +
+                    TableLocation.parse(emissionTableName) + " ORDER BY " +
+                    TableLocation.quoteIdentifier(timeField))) {
+                boolean hasRow = rs.next();
+                while (hasRow) {
+                    long time = rs.getLong(1);
+                    // Read all sources emission of this time step
+                    do {
+                        int sourceIndex = engine.getSourceIndex(rs.getLong(2));
+                        if(sourceIndex >= 0) {
+                            double[] power = new double[frequencyCount];
+                            for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                                power[idFreq] = ComputeRays.dbaToW(rs.getDouble(3 + idFreq));
+                            }
+                            sourcesPower[sourceIndex] = power;
+                        }
+                        hasRow = rs.next();
+                    } while (hasRow && rs.getLong(1) == time);
+                    engine.computeTimeStep(sourcesPower, receiversPower);
+                    insertTimeStep(insert, time, receiverIds, receiversPower);
+                    Arrays.fill(sourcesPower, null);
+                    timeStepCount++;
+                }
+            }
+        }
+        LOGGER.info(String.format("%d time steps computed for %d receivers", timeStepCount, receiverIds.length));
+        return timeStepCount;
+    }
+
+    private void insertTimeStep(PreparedStatement insert, long time, long[] receiverIds, double[][] receiversPower)
+            throws SQLException {
+        int batchRows = 0;
+        for(int r = 0; r < receiverIds.length; r++) {
+            double[] power = receiversPower[r];
+            if(ComputeRays.sumArray(power.length, power) <= 0) {
+                // No emitting source for this receiver
+                continue;
+            }
+            insert.setLong(1, time);
+            insert.setLong(2, receiverIds[r]);
+            for(int idFreq = 0; idFreq < power.length; idFreq++) {
+                // Silent bands of an emitting source are stored as NULL instead of -Infinity
+                ReceiverLevelsPatch.setLevel(insert, 3 + idFreq, ComputeRays.wToDba(power[idFreq]));
+            }
+            insert.addBatch();
+            batchRows++;
+            if(batchRows >= batchSize) {
+                insert.executeBatch();
+                batchRows = 0;
+            }
+        }
+        if(batchRows > 0) {
+            insert.executeBatch();
+        }
+    }
+}
@@ -229,6 +229,20 @@ public class TriangleNoiseMap extends JdbcNoiseMap {
         return SFSUtilities.getTableEnvelope(connection, TableLocation.parse(sourcesTableName), "");
     }
 
+    /**
+     * @param connection Active connection
+     * @param cellEnvelope Cell envelope
+     * @return Triangulated DEM points of the cell
+     */
+    private FastObstructionTest createDemFreeFieldFinder(Connection connection, Envelope cellEnvelope)
+            throws SQLException, LayerDelaunayError {
+        MeshBuilder demMesh = new MeshBuilder();
+        fetchCellDemPoints(connection, cellEnvelope, demMesh);
+        demMesh.finishPolygonFeeding(cellEnvelope);
+        return new FastObstructionTest(demMesh.getPolygonWithHeight(),
+                demMesh.getTriangles(), demMesh.getTriNeighbors(), demMesh.getVertices());
+    }
+
     public void generateReceivers(Connection connection, int cellI, int cellJ, String receiverTableName, String trianglesTableName, AtomicInteger receiverPK) throws SQLException, LayerDelaunayError {
         // Compute the first pass delaunay mesh
         // The first pass doesn't take account of additional
@@ -245,13 +259,9 @@ public class TriangleNoiseMap extends JdbcNoiseMap {
         List<Geometry> sourceDelaunayGeometries = data.sourceGeometries;
         fetchCellBuildings(connection, cellEnvelope, cellMesh);
 
-        MeshBuilder demMesh = new MeshBuilder();
         FastObstructionTest freeFieldFinder = null;
-        if(!demTable.isEmpty()) {
-            fetchCellDem(connection, cellEnvelope, demMesh);
-            demMesh.finishPolygonFeeding(cellEnvelope);
-            freeFieldFinder = new FastObstructionTest(demMesh.getPolygonWithHeight(),
-                    demMesh.getTriangles(), demMesh.getTriNeighbors(), demMesh.getVertices());
+        if(!demTable.isEmpty() && demRaster == null) {
+            freeFieldFinder = createDemFreeFieldFinder(connection, cellEnvelope);
         }
         try {
             computeDelaunay(cellMesh, mainEnvelope, cellI,
@@ -273,8 +283,20 @@ public class TriangleNoiseMap extends JdbcNoiseMap {
         for(Coordinate vertex : cellMesh.getVertices()) {
             Coordinate translatedVertex = new Coordinate(vertex);
             double z = receiverHeight;
-            if(freeFieldFinder != null) {
-                z = freeFieldFinder.getHeightAtPosition(translatedVertex) + receiverHeight;
+            double groundZ = Double.NaN;
+            if(demRaster != null) {
+                groundZ = demRaster.getHeight(translatedVertex);
+            }
+            if(Double.isNaN(groundZ) && !demTable.isEmpty()) {
+                // Out of the raster or over its holes, fall back to the triangulated DEM points like
+                // FastObstructionTest#getHeightAtPosition falls back to the mesh
+                if(freeFieldFinder == null) {
+                    freeFieldFinder = createDemFreeFieldFinder(connection, cellEnvelope);
+                }
+                groundZ = freeFieldFinder.getHeightAtPosition(translatedVertex);
+            }
+            if(demRaster != null || freeFieldFinder != null) {
+                z = groundZ + receiverHeight;
             }
             translatedVertex.setOrdinate(2, z);
             vertices.add(translatedVertex);
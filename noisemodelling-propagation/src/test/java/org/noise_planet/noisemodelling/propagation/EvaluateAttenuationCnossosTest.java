@@ -1590,6 +1590,33 @@ public class EvaluateAttenuationCnossosTest {
         assertEquals(44.07, ComputeRays.wToDba(ComputeRays.sumArray(roadLvl.length, ComputeRays.dbaToW(propDataOut.getVerticesSoundLevel().get(0).value))), 0.1);
     }
 
+    /**
+     * Sources with and without emission periods cannot be mixed
+     */
+    @Test
+    public void testMixedPeriodsSources() {
+        GeometryFactory factory = new GeometryFactory();
+        double[] emission = ComputeRays.dbaToW(new double[]{70, 70, 70, 70, 70, 70, 70, 70});
+        PropagationProcessData rayData = new PropagationProcessData(null);
+        rayData.addSource(1L, factory.createPoint(new Coordinate(10, 10, 1)), new double[][]{emission});
+        try {
+            rayData.addSource(2L, factory.createPoint(new Coordinate(70, -20, 1)));
+            fail("A source without periods must be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        rayData = new PropagationProcessData(null);
+        rayData.addSource(1L, factory.createPoint(new Coordinate(10, 10, 1)));
+        try {
+            rayData.addSource(2L, factory.createPoint(new Coordinate(70, -20, 1)), new double[][]{emission});
+            fail("A source with periods must be rejected");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        assertEquals(1, rayData.sourceGeometries.size());
+        assertEquals(0, rayData.getPeriodCount());
+    }
+
     @Test
     public void testRoseIndex() {
         double angle_section = (2 * Math.PI) / PropagationProcessPathData.DEFAULT_WIND_ROSE.length;
@@ -1865,4 +1892,101 @@ public class EvaluateAttenuationCnossosTest {
         }
 
     }
+
+    /**
+     * The evaluation with provided buffers must give the same result than the allocating evaluation
+     */
+    @Test
+    public void TestEvaluateInBuffer() throws LayerDelaunayError, IOException {
+        GeometryFactory factory = new GeometryFactory();
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(factory.createPolygon(new Coordinate[]{new Coordinate(40, 0, 0), new Coordinate(50, 0, 0),
+                new Coordinate(50, 30, 0), new Coordinate(40, 30, 0), new Coordinate(40, 0, 0)}), 10);
+        mesh.finishPolygonFeeding(new Envelope(new Coordinate(-100, -100, 0), new Coordinate(200, 200, 0)));
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        rayData.addSource(factory.createPoint(new Coordinate(10, 10, 1)));
+        rayData.addReceiver(new Coordinate(100, 15, 4));
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        rayData.setGs(0.5);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.initStructures();
+        List<PropagationPath> paths = computeRays.directPath(new Coordinate(10, 10, 1), new Coordinate(100, 15, 4), true, true);
+        assertFalse(paths.isEmpty());
+        PropagationProcessPathData pathData = new PropagationProcessPathData();
+        EvaluateAttenuationCnossos evaluateAttenuationCnossos = new EvaluateAttenuationCnossos();
+        double[] buffer = new double[PropagationProcessPathData.freq_lvl.size()];
+        for(PropagationPath path : paths) {
+            for(boolean favorable : new boolean[]{false, true}) {
+                path.setFavorable(favorable);
+                double[] expected = evaluateAttenuationCnossos.evaluate(path, pathData);
+                evaluateAttenuationCnossos.evaluate(path, pathData, buffer);
+                assertArrayEquals(expected, buffer, 0);
+            }
+            // Both conditions in a single evaluation
+            path.setFavorable(false);
+            double[] expectedHom = evaluateAttenuationCnossos.evaluate(path, pathData);
+            path.setFavorable(true);
+            double[] expectedFav = evaluateAttenuationCnossos.evaluate(path, pathData);
+            double[] bufferFav = new double[buffer.length];
+            evaluateAttenuationCnossos.evaluateBoth(path, pathData, buffer, bufferFav);
+            assertArrayEquals(expectedHom, buffer, 0);
+            assertArrayEquals(expectedFav, bufferFav, 0);
+        }
+        // Constants are updated with the atmospheric parameters
+        EvaluateAttenuationCnossos.FrequencyConstants constants = pathData.getFrequencyConstants();
+        assertSame(constants, pathData.getFrequencyConstants());
+        pathData.setTemperature(25);
+        assertNotSame(constants, pathData.getFrequencyConstants());
+    }
+
+    /**
+     * Each meteorological scenario must give the same attenuation than a computation with this scenario only
+     */
+    @Test
+    public void TestMeteoScenarios() throws LayerDelaunayError, IOException {
+        GeometryFactory factory = new GeometryFactory();
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(factory.createPolygon(new Coordinate[]{new Coordinate(40, 0, 0), new Coordinate(50, 0, 0),
+                new Coordinate(50, 30, 0), new Coordinate(40, 30, 0), new Coordinate(40, 0, 0)}), 10);
+        mesh.finishPolygonFeeding(new Envelope(new Coordinate(-100, -100, 0), new Coordinate(200, 200, 0)));
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        rayData.addSource(factory.createPoint(new Coordinate(10, 10, 1)));
+        rayData.addReceiver(new Coordinate(100, 15, 4));
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        rayData.setGs(0.5);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.initStructures();
+        List<PropagationPath> paths = computeRays.directPath(new Coordinate(10, 10, 1), new Coordinate(100, 15, 4), true, true);
+        assertFalse(paths.isEmpty());
+        List<PropagationProcessPathData> scenarios = new ArrayList<>();
+        scenarios.add(new PropagationProcessPathData());
+        // Another temperature, the celerity is not the same
+        scenarios.add(new PropagationProcessPathData().setTemperature(25));
+        // Only the absorption changes
+        scenarios.add(new PropagationProcessPathData().setHumidity(30));
+        PropagationProcessPathData windy = new PropagationProcessPathData().setPressure(100000);
+        double[] windRose = new double[PropagationProcessPathData.DEFAULT_WIND_ROSE.length];
+        Arrays.fill(windRose, 0.8);
+        windy.setWindRose(windRose);
+        scenarios.add(windy);
+        ComputeRaysOut out = new ComputeRaysOut(false, new PropagationProcessPathData());
+        out.setMeteoScenarios(scenarios);
+        double[][] levels = out.computeScenariosAttenuation(2.0, paths);
+        assertEquals(scenarios.size(), levels.length);
+        for(int i = 0; i < scenarios.size(); i++) {
+            double[] expected = out.computeAttenuation(scenarios.get(i), 0, 2.0, 0, paths);
+            assertArrayEquals(expected, levels[i], 0);
+        }
+        assertFalse(Arrays.equals(levels[0], levels[2]));
+        // Results are stored by source-receiver pair
+        out.addPropagationPaths(0, 2.0, 0, paths);
+        assertEquals(1, out.receiversScenariosLevels.size());
+        assertArrayEquals(levels[3], out.receiversScenariosLevels.getFirst().value[3], 0);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class ReceiverLevelsOutTest {
+
+    /**
+     * Receiver level aggregation must give the energetic sum of the source-receiver levels
+     */
+    @Test
+    public void testReceiverLevelsOut() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader();
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(factory.createPolygon(new Coordinate[]{new Coordinate(40, 0, 0), new Coordinate(50, 0, 0),
+                new Coordinate(50, 30, 0), new Coordinate(40, 30, 0), new Coordinate(40, 0, 0)}), 10);
+        mesh.finishPolygonFeeding(new Envelope(new Coordinate(-300, -300, 0), new Coordinate(300, 300, 0)));
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+
+        double[] roadLvl = new double[]{25.65, 38.15, 54.35, 60.35, 74.65, 66.75, 59.25, 53.95};
+        for(int i = 0; i < roadLvl.length; i++) {
+            roadLvl[i] = ComputeRays.dbaToW(roadLvl[i]);
+        }
+        DirectPropagationProcessData rayData = new DirectPropagationProcessData(manager);
+        rayData.addReceiver(new Coordinate(100, 15, 4));
+        rayData.addReceiver(new Coordinate(20, 60, 4));
+        rayData.addSource(factory.createPoint(new Coordinate(10, 10, 1)), roadLvl);
+        rayData.addSource(factory.createPoint(new Coordinate(70, -20, 1)), ComputeRays.dbaToW(new double[]{
+                70, 70, 70, 70, 70, 70, 70, 70}));
+        rayData.addSource(wktReader.read("LINESTRING (-50 -40 0.5, 150 -40 0.5)"), roadLvl);
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        rayData.setGs(0.5);
+        rayData.reflexionOrder = 1;
+
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+        RayOut propDataOut = new RayOut(false, attData, rayData);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.run(propDataOut);
+        Map<Long, double[]> expected = new HashMap<>();
+        for(ComputeRaysOut.verticeSL v : propDataOut.getVerticesSoundLevel()) {
+            double[] lvl = expected.get(v.receiverId);
+            expected.put(v.receiverId, lvl == null ? v.value : ComputeRays.sumDbArray(lvl, v.value));
+        }
+
+        ReceiverLevelsOut receiverLevelsOut = new ReceiverLevelsOut(attData, rayData);
+        computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(2);
+        computeRays.run(receiverLevelsOut);
+        List<ReceiverLevelsOut.ReceiverLevel> levels = receiverLevelsOut.getReceiversLevels();
+        assertEquals(2, levels.size());
+        for(ReceiverLevelsOut.ReceiverLevel level : levels) {
+            assertArrayEquals(expected.get(level.receiverId), level.value, 1e-6);
+        }
+    }
+
+    /**
+     * Levels of each emission period must be the same than a computation with only this period
+     */
+    @Test
+    public void testReceiverPeriodsLevels() throws LayerDelaunayError {
+        GeometryFactory factory = new GeometryFactory();
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(factory.createPolygon(new Coordinate[]{new Coordinate(40, 0, 0), new Coordinate(50, 0, 0),
+                new Coordinate(50, 30, 0), new Coordinate(40, 30, 0), new Coordinate(40, 0, 0)}), 10);
+        mesh.finishPolygonFeeding(new Envelope(new Coordinate(-300, -300, 0), new Coordinate(300, 300, 0)));
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        double[] dayLvl = ComputeRays.dbaToW(new double[]{25.65, 38.15, 54.35, 60.35, 74.65, 66.75, 59.25, 53.95});
+        double[] nightLvl = ComputeRays.dbaToW(new double[]{70, 70, 70, 70, 70, 70, 70, 70});
+        Coordinate[] sources = new Coordinate[]{new Coordinate(10, 10, 1), new Coordinate(70, -20, 1)};
+        Coordinate[] receivers = new Coordinate[]{new Coordinate(100, 15, 4), new Coordinate(20, 60, 4)};
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+        // Reference levels for each period
+        List<Map<Long, double[]>> expected = new ArrayList<>();
+        for(double[] periodLvl : new double[][]{dayLvl, nightLvl}) {
+            PropagationProcessData rayData = new PropagationProcessData(manager);
+            for(int i = 0; i < sources.length; i++) {
+                rayData.addSource((long) i, factory.createPoint(sources[i]), new double[][]{periodLvl});
+            }
+            rayData.addReceiver(receivers);
+            ReceiverLevelsOut out = new ReceiverLevelsOut(attData, rayData);
+            new ComputeRays(rayData).run(out);
+            Map<Long, double[]> levels = new HashMap<>();
+            for(ReceiverLevelsOut.ReceiverLevel level : out.getReceiversLevels()) {
+                assertEquals(1, level.periodsValue.length);
+                levels.put(level.receiverId, level.value);
+            }
+            expected.add(levels);
+        }
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        for(int i = 0; i < sources.length; i++) {
+            rayData.addSource((long) i, factory.createPoint(sources[i]), new double[][]{dayLvl, nightLvl});
+        }
+        rayData.addReceiver(receivers);
+        assertEquals(2, rayData.getPeriodCount());
+        double[] maximalPower = rayData.getMaximalSourcePower(0);
+        for(int i = 0; i < maximalPower.length; i++) {
+            assertEquals(Math.max(dayLvl[i], nightLvl[i]), maximalPower[i], 0);
+        }
+        ReceiverLevelsOut out = new ReceiverLevelsOut(attData, rayData);
+        new ComputeRays(rayData).run(out);
+        assertEquals(receivers.length, out.receiversLevels.size());
+        for(ReceiverLevelsOut.ReceiverLevel level : out.getReceiversLevels()) {
+            assertEquals(2, level.periodsValue.length);
+            for(int period = 0; period < 2; period++) {
+                assertArrayEquals(expected.get(period).get(level.receiverId), level.periodsValue[period], 1e-9);
+            }
+        }
+    }
+
+    private static final class RayOut extends ComputeRaysOut {
+        private DirectPropagationProcessData processData;
+
+        public RayOut(boolean keepRays, PropagationProcessPathData pathData, DirectPropagationProcessData processData) {
+            super(keepRays, pathData);
+            this.processData = processData;
+        }
+
+        @Override
+        public double[] computeAttenuation(PropagationProcessPathData pathData, long sourceId, double sourceLi, long receiverId, List<PropagationPath> propagationPath) {
+            double[] attenuation = super.computeAttenuation(pathData, sourceId, sourceLi, receiverId, propagationPath);
+            return ComputeRays.wToDba(ComputeRays.multArray(processData.wjSources.get((int)sourceId), ComputeRays.dbaToW(attenuation)));
+        }
+    }
+
+    private static final class DirectPropagationProcessData extends PropagationProcessData {
+        private List<double[]> wjSources = new ArrayList<>();
+
+        public DirectPropagationProcessData(FastObstructionTest freeFieldFinder) {
+            super(freeFieldFinder);
+        }
+
+        public void addSource(Geometry geom, double[] spectrum) {
+            super.addSource(geom);
+            wjSources.add(spectrum);
+        }
+
+        @Override
+        public double[] getMaximalSourcePower(int sourceId) {
+            return wjSources.get(sourceId);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestAttenuationMatrix {
+
+    private static PropagationProcessData createScene(double[] emission) throws Exception {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((40 0, 50 0, 50 30, 40 30, 40 0))"), 10);
+        mesh.finishPolygonFeeding(new Envelope(new Coordinate(-300, -300, 0), new Coordinate(300, 300, 0)));
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        rayData.addSource(10L, factory.createPoint(new Coordinate(10, 10, 1)), new double[][]{emission});
+        rayData.addSource(20L, factory.createPoint(new Coordinate(70, -20, 1)), new double[][]{emission});
+        rayData.addSource(30L, wktReader.read("LINESTRING (-50 -40 0.5, 150 -40 0.5)"), new double[][]{emission});
+        rayData.addReceiver(100L, new Coordinate(100, 15, 4));
+        rayData.addReceiver(200L, new Coordinate(20, 60, 4));
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        rayData.setGs(0.5);
+        return rayData;
+    }
+
+    private static void writeMatrix(File file, PropagationProcessData rayData, boolean singlePrecision)
+            throws Exception {
+        try(AttenuationMatrixWriter writer = new AttenuationMatrixWriter(file,
+                PropagationProcessPathData.freq_lvl.size(), singlePrecision)) {
+            ComputeRays computeRays = new ComputeRays(rayData);
+            computeRays.setThreadCount(2);
+            computeRays.run(new AttenuationMatrixOut(new PropagationProcessPathData(), rayData, writer));
+            assertEquals(2, writer.getReceiverCount());
+        }
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        double[] emission = new double[]{90, 91, 92, 93, 94, 95, 96, 97};
+        PropagationProcessData rayData = createScene(ComputeRays.dbaToW(emission));
+        // Reference attenuation stored in memory
+        ComputeRaysOut propDataOut = new ComputeRaysOut(false, new PropagationProcessPathData(), rayData);
+        new ComputeRays(rayData).run(propDataOut);
+        Map<String, double[]> expected = new HashMap<>();
+        for(ComputeRaysOut.verticeSL v : propDataOut.getVerticesSoundLevel()) {
+            expected.put(v.receiverId + "_" + v.sourceId, v.value);
+        }
+        assertEquals(6, expected.size());
+
+        File directory = new File("target/test-resources/attenuation_matrix");
+        assertTrue(directory.exists() || directory.mkdirs());
+        for(boolean singlePrecision : new boolean[]{false, true}) {
+            File file = new File(directory, singlePrecision ? "matrix_float.bin" : "matrix_double.bin");
+            writeMatrix(file, rayData, singlePrecision);
+            double delta = singlePrecision ? 1e-4 : 0;
+            try(AttenuationMatrixReader reader = new AttenuationMatrixReader(file)) {
+                assertEquals(singlePrecision, reader.isSinglePrecision());
+                assertArrayEquals(new long[]{100, 200}, reader.getReceiverIds());
+                int pairCount = 0;
+                for(long receiverId : reader.getReceiverIds()) {
+                    List<ComputeRaysOut.verticeSL> attenuation = reader.getAttenuation(receiverId);
+                    long previousSource = Long.MIN_VALUE;
+                    for(ComputeRaysOut.verticeSL v : attenuation) {
+                        // Sorted by source
+                        assertTrue(v.sourceId > previousSource);
+                        previousSource = v.sourceId;
+                        double[] expectedValue = expected.get(v.receiverId + "_" + v.sourceId);
+                        assertNotNull(expectedValue);
+                        assertArrayEquals(expectedValue, v.value, delta);
+                        pairCount++;
+                    }
+                }
+                assertEquals(expected.size(), pairCount);
+                assertTrue(reader.getAttenuation(300).isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void testComputeLevels() throws Exception {
+        double[] emission = new double[]{90, 91, 92, 93, 94, 95, 96, 97};
+        double[] newEmission = new double[]{80, 82, 84, 86, 88, 90, 92, 94};
+        File directory = new File("target/test-resources/attenuation_matrix");
+        assertTrue(directory.exists() || directory.mkdirs());
+        File file = new File(directory, "matrix_levels.bin");
+        writeMatrix(file, createScene(ComputeRays.dbaToW(emission)), false);
+        // Reference levels using the new emission
+        PropagationProcessData rayData = createScene(ComputeRays.dbaToW(newEmission));
+        ReceiverLevelsOut receiverLevelsOut = new ReceiverLevelsOut(new PropagationProcessPathData(), rayData);
+        new ComputeRays(rayData).run(receiverLevelsOut);
+
+        Map<Long, double[]> sourcesLevel = new HashMap<>();
+        sourcesLevel.put(10L, newEmission);
+        sourcesLevel.put(20L, newEmission);
+        sourcesLevel.put(30L, newEmission);
+        try(AttenuationMatrixReader reader = new AttenuationMatrixReader(file)) {
+            Map<Long, double[]> levels = reader.computeReceiversLevels(sourcesLevel);
+            assertEquals(2, levels.size());
+            for(ReceiverLevelsOut.ReceiverLevel level : receiverLevelsOut.getReceiversLevels()) {
+                assertArrayEquals(level.value, levels.get(level.receiverId), 1e-6);
+            }
+            // Without any emitting source
+            assertEquals(0, reader.computeReceiverLevel(100, new HashMap<Long, double[]>()).length);
+        }
+    }
+
+    @Test
+    public void testTimeSeriesEngine() throws Exception {
+        double[] emission = new double[]{90, 91, 92, 93, 94, 95, 96, 97};
+        File directory = new File("target/test-resources/attenuation_matrix");
+        assertTrue(directory.exists() || directory.mkdirs());
+        for(boolean singlePrecision : new boolean[] {false, true}) {
+            File file = new File(directory, "matrix_time_series.bin");
+            writeMatrix(file, createScene(ComputeRays.dbaToW(emission)), singlePrecision);
+            try(AttenuationMatrixReader reader = new AttenuationMatrixReader(file);
+                TimeSeriesNoiseEngine engine = new TimeSeriesNoiseEngine(reader)) {
+                assertEquals(6, engine.getEntryCount());
+                assertEquals(-1, engine.getSourceIndex(40));
+                double[][] sourcesPower = new double[engine.getSourceIds().length][];
+                double[][] receiversPower = new double[engine.getReceiverIds().length][engine.getFrequencyCount()];
+                for(int timeStep = 0; timeStep < 3; timeStep++) {
+                    // The source 20 is not emitting on the first time step
+                    Map<Long, double[]> sourcesLevel = new HashMap<>();
+                    for(long sourceId : engine.getSourceIds()) {
+                        double[] level = new double[emission.length];
+                        for(int i = 0; i < level.length; i++) {
+                            level[i] = emission[i] - sourceId / 10.0 * timeStep;
+                        }
+                        boolean emitting = timeStep > 0 || sourceId != 20;
+                        if(emitting) {
+                            sourcesLevel.put(sourceId, level);
+                        }
+                        sourcesPower[engine.getSourceIndex(sourceId)] = emitting ? ComputeRays.dbaToW(level) : null;
+                    }
+                    engine.computeTimeStep(sourcesPower, receiversPower);
+                    Map<Long, double[]> expected = reader.computeReceiversLevels(sourcesLevel);
+                    for(int r = 0; r < engine.getReceiverIds().length; r++) {
+                        assertArrayEquals(expected.get(engine.getReceiverIds()[r]),
+                                ComputeRays.wToDba(receiversPower[r]), singlePrecision ? 1e-4 : 1e-9);
+                    }
+                }
+            }
+        }
+    }
+}
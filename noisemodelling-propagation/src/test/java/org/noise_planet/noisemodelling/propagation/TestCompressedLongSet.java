@@ -0,0 +1,85 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class TestCompressedLongSet {
+
+    @Test
+    public void testSameAsTreeSet() {
+        CompressedLongSet set = new CompressedLongSet();
+        TreeSet<Long> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for(int i = 0; i < 20000; i++) {
+            // Dense and sparse chunks, negative values
+            long value = i % 2 == 0 ? random.nextInt(10000) : random.nextLong() >> random.nextInt(64);
+            assertEquals(expected.add(value), set.add(value));
+        }
+        for(int i = 0; i < 5000; i++) {
+            long value = random.nextInt(10000);
+            assertEquals(expected.remove(value), set.remove(value));
+        }
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected, set);
+        Iterator<Long> it = set.iterator();
+        for(Long value : expected) {
+            assertTrue(it.hasNext());
+            assertEquals(value, it.next());
+        }
+        assertFalse(it.hasNext());
+        assertFalse(set.contains(10001L));
+        assertNull(set.ceiling(Long.MAX_VALUE - 1));
+    }
+
+    @Test
+    public void testDenseMemory() {
+        CompressedLongSet set = new CompressedLongSet();
+        for(long i = 0; i < 1000000; i++) {
+            assertTrue(set.add(i));
+        }
+        assertFalse(set.add(5L));
+        assertEquals(1000000, set.size());
+        // One bit by value
+        assertTrue(set.getMemoryUsage() < 200000);
+        for(long i = 0; i < 1000000; i += 2) {
+            assertTrue(set.remove(i));
+        }
+        assertEquals(500000, set.size());
+        assertTrue(set.contains(999999L));
+        assertFalse(set.contains(999998L));
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        CompressedLongSet set = new CompressedLongSet();
+        for(long i = -100; i < 10000; i += 3) {
+            set.add(i);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(set);
+        }
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            CompressedLongSet restored = (CompressedLongSet) in.readObject();
+            assertEquals(set, restored);
+            assertTrue(restored.add(10001L));
+        }
+    }
+}
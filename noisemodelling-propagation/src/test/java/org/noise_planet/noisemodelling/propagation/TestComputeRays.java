@@ -30,12 +30,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.noise_planet.noisemodelling.propagation.KMLDocument.exportScene;
 
@@ -388,6 +392,218 @@ public class TestComputeRays {
 
     }
 
+    /**
+     * Receivers are split into small chunks processed by a work-stealing pool,
+     * results must be the same as the single thread computation.
+     */
+    @Test
+    public void testMultiThreadReceiverChunks() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        //Scene dimension
+        Envelope cellEnvelope = new Envelope(new Coordinate(-50., -50., 0.), new Coordinate(250, 250, 0.));
+        //Create obstruction test object
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((80 60, 120 60, 120 80, 80 80, 80 60))"), 10);
+        mesh.addGeometry(wktReader.read("POLYGON ((40 120, 60 120, 60 170, 40 170, 40 120))"), 15);
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        for(int x = 0; x < 200; x += 25) {
+            for(int y = 100; y < 200; y += 25) {
+                rayData.addReceiver(new Coordinate(x, y, 4));
+            }
+        }
+        rayData.addSource(factory.createPoint(new Coordinate(100, 20, 0.05)));
+        rayData.addSource(factory.createPoint(new Coordinate(20, 40, 0.05)));
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+
+        ComputeRaysOut expectedOut = new ComputeRaysOut(false, attData);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.run(expectedOut);
+
+        ComputeRaysOut gotOut = new ComputeRaysOut(false, attData);
+        computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(4);
+        computeRays.setReceiverChunkSize(1);
+        computeRays.run(gotOut);
+
+        assertEquals(rayData.receivers.size() * rayData.sourceGeometries.size(), expectedOut.receiversAttenuationLevels.size());
+        assertEquals(expectedOut.receiversAttenuationLevels.size(), gotOut.receiversAttenuationLevels.size());
+        Map<String, double[]> expectedLevels = new HashMap<>();
+        for(ComputeRaysOut.verticeSL v : expectedOut.receiversAttenuationLevels) {
+            expectedLevels.put(v.receiverId + "_" + v.sourceId, v.value);
+        }
+        for(ComputeRaysOut.verticeSL v : gotOut.receiversAttenuationLevels) {
+            double[] expected = expectedLevels.get(v.receiverId + "_" + v.sourceId);
+            assertNotNull(expected);
+            assertArrayEquals(expected, v.value, 1e-6);
+        }
+    }
+
+    @Test
+    public void testSourceWallCache() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        //Scene dimension
+        Envelope cellEnvelope = new Envelope(new Coordinate(-50., -50., 0.), new Coordinate(250, 250, 0.));
+        //Create obstruction test object
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((80 60, 120 60, 120 80, 80 80, 80 60))"), 10);
+        mesh.addGeometry(wktReader.read("POLYGON ((40 120, 60 120, 60 170, 40 170, 40 120))"), 15);
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        for(int x = 0; x < 200; x += 25) {
+            for(int y = 100; y < 200; y += 25) {
+                rayData.addReceiver(new Coordinate(x, y, 4));
+            }
+        }
+        rayData.addSource(factory.createPoint(new Coordinate(100, 40, 0.05)));
+        rayData.addSource(factory.createPoint(new Coordinate(20, 140, 0.05)));
+        rayData.reflexionOrder = 1;
+        rayData.maxRefDist = 80;
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+
+        ComputeRaysOut expectedOut = new ComputeRaysOut(false, attData);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.setSourceWallCacheSize(0);
+        computeRays.run(expectedOut);
+        assertNull(computeRays.getSourceWallCache());
+
+        ComputeRaysOut gotOut = new ComputeRaysOut(false, attData);
+        computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.run(gotOut);
+        ConcurrentLRUCache<ComputeRays.SourceWallKey, List<FastObstructionTest.Wall>> cache =
+                computeRays.getSourceWallCache();
+        // Walls are searched only once per source point
+        assertEquals(2, cache.getMissCount());
+        assertEquals(rayData.receivers.size() * 2 - 2, cache.getHitCount());
+
+        assertEquals(expectedOut.receiversAttenuationLevels.size(), gotOut.receiversAttenuationLevels.size());
+        Map<String, double[]> expectedLevels = new HashMap<>();
+        for(ComputeRaysOut.verticeSL v : expectedOut.receiversAttenuationLevels) {
+            expectedLevels.put(v.receiverId + "_" + v.sourceId, v.value);
+        }
+        for(ComputeRaysOut.verticeSL v : gotOut.receiversAttenuationLevels) {
+            assertArrayEquals(expectedLevels.get(v.receiverId + "_" + v.sourceId), v.value, 1e-6);
+        }
+    }
+
+    @Test
+    public void testSourceWallCacheLineSource() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        //Scene dimension
+        Envelope cellEnvelope = new Envelope(new Coordinate(-50., -50., 0.), new Coordinate(250, 250, 0.));
+        //Create obstruction test object
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((80 60, 120 60, 120 80, 80 80, 80 60))"), 10);
+        mesh.addGeometry(wktReader.read("POLYGON ((40 120, 60 120, 60 170, 40 170, 40 120))"), 15);
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        for(int x = 0; x < 200; x += 25) {
+            for(int y = 100; y < 200; y += 25) {
+                rayData.addReceiver(new Coordinate(x, y, 4));
+            }
+        }
+        // Road source, split for each receiver
+        rayData.addSource(wktReader.read("LINESTRING (0 40 0.05, 200 40 0.05)"));
+        rayData.reflexionOrder = 1;
+        rayData.maxRefDist = 80;
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+
+        ComputeRaysOut expectedOut = new ComputeRaysOut(false, attData);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.setSourceWallCacheSize(0);
+        computeRays.run(expectedOut);
+
+        ComputeRaysOut gotOut = new ComputeRaysOut(false, attData);
+        computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.run(gotOut);
+        ConcurrentLRUCache<ComputeRays.SourceWallKey, List<FastObstructionTest.Wall>> cache =
+                computeRays.getSourceWallCache();
+        // Source points of the receivers are not at the same location but share the squares of the cache
+        assertTrue(cache.getHitCount() > 0);
+        assertTrue(cache.getMissCount() <= 200 / ComputeRays.DEFAULT_SOURCE_WALL_CACHE_RESOLUTION + 1);
+
+        assertEquals(expectedOut.receiversAttenuationLevels.size(), gotOut.receiversAttenuationLevels.size());
+        List<ComputeRaysOut.verticeSL> expectedLevels = expectedOut.getVerticesSoundLevel();
+        List<ComputeRaysOut.verticeSL> gotLevels = gotOut.getVerticesSoundLevel();
+        for(int i = 0; i < expectedLevels.size(); i++) {
+            assertArrayEquals(expectedLevels.get(i).value, gotLevels.get(i).value, 1e-6);
+        }
+    }
+
+    @Test
+    public void testGroundProfileCache() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        //Scene dimension
+        Envelope cellEnvelope = new Envelope(new Coordinate(-50., -50., 0.), new Coordinate(250, 250, 0.));
+        //Create obstruction test object
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((80 60, 120 60, 120 80, 80 80, 80 60))"), 10);
+        mesh.addGeometry(wktReader.read("POLYGON ((40 120, 60 120, 60 170, 40 170, 40 120))"), 15);
+        mesh.addTopographicPoint(new Coordinate(150, 150, 5));
+        mesh.addTopographicPoint(new Coordinate(0, 200, 3));
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+
+        PropagationProcessData rayData = new PropagationProcessData(manager);
+        for(int x = 0; x < 200; x += 25) {
+            for(int y = 100; y < 200; y += 25) {
+                rayData.addReceiver(new Coordinate(x, y, 4));
+            }
+        }
+        rayData.addSource(factory.createPoint(new Coordinate(100, 40, 0.05)));
+        rayData.addSource(factory.createPoint(new Coordinate(20, 140, 0.05)));
+        rayData.reflexionOrder = 1;
+        rayData.maxRefDist = 80;
+        rayData.setComputeHorizontalDiffraction(true);
+        rayData.setComputeVerticalDiffraction(true);
+        PropagationProcessPathData attData = new PropagationProcessPathData();
+
+        ComputeRaysOut expectedOut = new ComputeRaysOut(false, attData);
+        ComputeRays computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.setGroundProfileCacheSize(0);
+        computeRays.run(expectedOut);
+        assertNull(computeRays.getGroundProfileCache());
+
+        ComputeRaysOut gotOut = new ComputeRaysOut(false, attData);
+        computeRays = new ComputeRays(rayData);
+        computeRays.setThreadCount(1);
+        computeRays.run(gotOut);
+        ConcurrentLRUCache<ComputeRays.GroundProfileKey, double[]> cache = computeRays.getGroundProfileCache();
+        // Diffraction paths share segments
+        assertTrue(cache.getHitCount() > 0);
+
+        assertEquals(expectedOut.receiversAttenuationLevels.size(), gotOut.receiversAttenuationLevels.size());
+        Map<String, double[]> expectedLevels = new HashMap<>();
+        for(ComputeRaysOut.verticeSL v : expectedOut.receiversAttenuationLevels) {
+            expectedLevels.put(v.receiverId + "_" + v.sourceId, v.value);
+        }
+        for(ComputeRaysOut.verticeSL v : gotOut.receiversAttenuationLevels) {
+            assertArrayEquals(expectedLevels.get(v.receiverId + "_" + v.sourceId), v.value, 1e-6);
+        }
+    }
+
     @Test
     public void testVerticalSideDiffractionRaysOutOfDomain() throws LayerDelaunayError, ParseException  {
 
@@ -2266,4 +2482,77 @@ public class TestComputeRays {
         assertTrue(ray.isEmpty());
 
     }
+
+    /**
+     * Test vertical edge diffraction ray computation with the source, the receiver and the building on the same line.
+     * The hull is reduced to the source-receiver segment, so there is no side path on either side.
+     * @throws LayerDelaunayError
+     * @throws ParseException
+     */
+    @Test
+    public void TestVerticalEdgeDiffractionCollinear() throws LayerDelaunayError, ParseException {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        //Scene dimension
+        Envelope cellEnvelope = new Envelope(new Coordinate(-50, -50, 0.), new Coordinate(80, 60, 0.));
+        //Create obstruction test object
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON((10 5, 20 5, 20 10, 10 10, 10 5))"), 4);
+        mesh.finishPolygonFeeding(cellEnvelope);
+        //Retrieve Delaunay triangulation of scene
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(), mesh.getTriNeighbors(), mesh.getVertices());
+
+        PropagationProcessData processData = new PropagationProcessData(manager);
+        ComputeRays computeRays = new ComputeRays(processData);
+        Coordinate p1 = new Coordinate(-20, 7.5, 1.6);
+        Coordinate p2 = new Coordinate(0, 7.5, 1.6);
+
+        assertTrue(computeRays.computeSideHull(true, p1, p2).isEmpty());
+        assertTrue(computeRays.computeSideHull(false, p1, p2).isEmpty());
+        assertTrue(computeRays.computeSideHull(true, p2, p1).isEmpty());
+        assertTrue(computeRays.computeSideHull(false, p2, p1).isEmpty());
+    }
+
+    /**
+     * The buffers of the changed area must keep all the pairs within the influence distance, even near the corners
+     */
+    @Test
+    public void testAffectedPair() throws ParseException {
+        PropagationProcessData data = new PropagationProcessData(null);
+        data.changedArea = new WKTReader().read("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0))");
+        data.changedAreaInfluence = 5;
+        data.reflexionOrder = 0;
+        data.setComputeHorizontalDiffraction(false);
+        double diagonal = Math.sqrt(0.5);
+        // Segment passing near the corner (10 10) at 4.99 m then 5.1 m
+        double offset = 10 + 4.99 * diagonal;
+        assertTrue(data.isAffectedPair(new Coordinate(offset - 50, offset + 50), new Coordinate(offset + 50,
+                offset - 50)));
+        offset = 10 + 5.1 * diagonal;
+        assertFalse(data.isAffectedPair(new Coordinate(offset - 50, offset + 50), new Coordinate(offset + 50,
+                offset - 50)));
+        // Reflection walls of the receiver may be in the changed area
+        data.reflexionOrder = 1;
+        data.maxRefDist = 20;
+        data.prepareChangedArea();
+        Coordinate receiver = new Coordinate(10 + 19.9 * diagonal, 10 + 19.9 * diagonal);
+        assertTrue(data.isAffectedPair(new Coordinate(100, 100), receiver));
+        receiver = new Coordinate(10 + 20.1 * diagonal, 10 + 20.1 * diagonal);
+        assertFalse(data.isAffectedPair(new Coordinate(100, 100), receiver));
+        // A reflection wall far from the source and the receiver but near the segment, with the default distances of
+        // the noise map
+        data.changedAreaInfluence = PropagationProcessData.DEFAULT_CHANGED_AREA_INFLUENCE;
+        data.maxRefDist = 100;
+        data.prepareChangedArea();
+        assertTrue(data.isAffectedPair(new Coordinate(-200, 90), new Coordinate(200, 90)));
+        assertFalse(data.isAffectedPair(new Coordinate(-200, 111), new Coordinate(200, 111)));
+        // Side diffraction paths may go around a building in the changed area
+        data.setComputeHorizontalDiffraction(true);
+        double sideOffset = ComputeRays.getSidePathMaximumOffset(400);
+        assertTrue(sideOffset > 100);
+        assertTrue(data.isAffectedPair(new Coordinate(-200, 10 + sideOffset - 1), new Coordinate(200,
+                10 + sideOffset - 1)));
+        assertFalse(data.isAffectedPair(new Coordinate(-200, 10 + sideOffset + 1), new Coordinate(200,
+                10 + sideOffset + 1)));
+    }
 }
\ No newline at end of file
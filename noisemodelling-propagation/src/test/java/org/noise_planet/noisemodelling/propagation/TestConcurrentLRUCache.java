@@ -0,0 +1,39 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class TestConcurrentLRUCache {
+
+    @Test
+    public void testEviction() {
+        ConcurrentLRUCache<Integer, String> cache = new ConcurrentLRUCache<>(2, 1);
+        cache.put(1, "a");
+        cache.put(2, "b");
+        // Access 1 so 2 is the least recently used entry
+        assertEquals("a", cache.get(1));
+        cache.put(3, "c");
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testSegments() {
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(100);
+        for(int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+        assertEquals(100, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+}
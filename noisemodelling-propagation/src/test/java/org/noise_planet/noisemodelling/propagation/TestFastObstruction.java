@@ -230,10 +230,148 @@ public class TestFastObstruction extends TestCase {
 
 	}
 
+	/**
+	 * Point location by walking through triangle neighbors must give the same triangle than the index query
+	 * @throws LayerDelaunayError
+	 */
+	public void testWalkPointLocation() throws LayerDelaunayError, ParseException {
+		WKTReader wktReader = new WKTReader();
+		MeshBuilder mesh = new MeshBuilder();
+		mesh.addGeometry(wktReader.read("POLYGON ((15 5, 30 5, 30 30, 15 30, 15 5))"), 5);
+		mesh.addGeometry(wktReader.read("POLYGON ((35 35, 40 35, 40 42, 35 42, 35 35))"), 8);
+		mesh.finishPolygonFeeding(new Envelope(new Coordinate(0., 0.,0.),
+				new Coordinate(45., 45.,0.)));
+		FastObstructionTest walkManager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+				mesh.getTriNeighbors(), mesh.getVertices());
+		FastObstructionTest indexManager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+				null, mesh.getVertices());
+		for(double x = -0.5; x < 46; x += 0.75) {
+			for(double y = -0.5; y < 46; y += 0.75) {
+				Coordinate pt = new Coordinate(x, y);
+				assertEquals(pt.toString(), indexManager.getTriangleIdByCoordinate(pt),
+						walkManager.getTriangleIdByCoordinate(pt));
+			}
+		}
+	}
+
+	/**
+	 * Free field test accepted by the building and topography heights must give the same result than the walk
+	 * through the triangles
+	 */
+	public void testHeightBoundedFreeField() throws LayerDelaunayError, ParseException {
+		WKTReader wktReader = new WKTReader();
+		MeshBuilder mesh = new MeshBuilder();
+		mesh.addGeometry(wktReader.read("POLYGON ((15 5, 30 5, 30 30, 15 30, 15 5))"), 5);
+		mesh.addGeometry(wktReader.read("POLYGON ((35 35, 40 35, 40 42, 35 42, 35 35))"), 8);
+		mesh.addGeometry(wktReader.read("POLYGON ((5 35, 10 35, 10 40, 5 40, 5 35))"), 20);
+		mesh.addTopographicPoint(new Coordinate(10, 20, 6));
+		mesh.addTopographicPoint(new Coordinate(40, 10, 2));
+		mesh.finishPolygonFeeding(new Envelope(new Coordinate(0., 0.,0.),
+				new Coordinate(45., 45.,0.)));
+		FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+				mesh.getTriNeighbors(), mesh.getVertices());
+		java.util.Random random = new java.util.Random(42);
+		int aboveCount = 0;
+		for(int i = 0; i < 2000; i++) {
+			Coordinate p1 = new Coordinate(random.nextDouble() * 44 + 0.5, random.nextDouble() * 44 + 0.5,
+					random.nextDouble() * 25);
+			Coordinate p2 = new Coordinate(random.nextDouble() * 44 + 0.5, random.nextDouble() * 44 + 0.5,
+					random.nextDouble() * 25);
+			boolean walkFreeField = manager.computePropagationPath(p1, p2, true,
+					new ArrayList<TriIdWithIntersection>(), false);
+			if(manager.isAboveObstacles(p1, p2)) {
+				aboveCount++;
+				assertTrue(p1 + " " + p2, walkFreeField);
+			}
+			assertEquals(p1 + " " + p2, walkFreeField, manager.isFreeField(p1, p2));
+			// Buildings found by the index are the ones crossed by the segment
+			final List<Integer> found = new ArrayList<>();
+			manager.getBuildingsOnPath(p1, p2, new FastObstructionTest.IntersectionRayVisitor(
+					manager.getPolygonWithHeight(), p1, p2) {
+				@Override
+				public void addBuilding(int buildingId) {
+					found.add(buildingId);
+				}
+			});
+			LineString segment = new GeometryFactory().createLineString(new Coordinate[]{p1, p2});
+			List<Integer> expected = new ArrayList<>();
+			for(int buildingId = 1; buildingId <= manager.getBuildingCount(); buildingId++) {
+				if(manager.getBuilding(buildingId).intersects(segment)) {
+					expected.add(buildingId);
+				}
+			}
+			java.util.Collections.sort(found);
+			assertEquals(expected, found);
+		}
+		assertTrue(aboveCount > 0);
+	}
+
 	@Test
 	public void testIntersectionRayEnvelope() {
 		Envelope env = new Envelope(new Coordinate(2, 3), new Coordinate(6, 6));
 		RectangleLineIntersector rect = new RectangleLineIntersector(env);
 		assertFalse(rect.intersects(new Coordinate(5, 1), new Coordinate(8, 5)));
 	}
+
+	public void testPackedConstructor() throws Exception {
+		WKTReader wktReader = new WKTReader();
+		MeshBuilder mesh = new MeshBuilder();
+		mesh.addGeometry(wktReader.read("POLYGON ((10 10, 30 10, 30 30, 10 30, 10 10))"), 10);
+		mesh.addGeometry(wktReader.read("POLYGON ((50 40, 70 40, 70 60, 50 60, 50 40))"), 5);
+		mesh.addTopographicPoint(new Coordinate(0, 80, 4));
+		mesh.addTopographicPoint(new Coordinate(90, 0, 2));
+		mesh.finishPolygonFeeding(new Envelope(-20, 120, -20, 120));
+		List<Triangle> triangles = mesh.getTriangles();
+		List<Triangle> neighbors = mesh.getTriNeighbors();
+		List<Coordinate> vertices = mesh.getVertices();
+		int[] triVertices = new int[triangles.size() * 3];
+		int[] triNeighbors = new int[triangles.size() * 3];
+		int[] triAttributes = new int[triangles.size()];
+		for (int i = 0; i < triangles.size(); i++) {
+			for (int corner = 0; corner < 3; corner++) {
+				triVertices[i * 3 + corner] = triangles.get(i).get(corner);
+				triNeighbors[i * 3 + corner] = neighbors.get(i).get(corner);
+			}
+			triAttributes[i] = triangles.get(i).getAttribute();
+		}
+		double[] packedVertices = new double[vertices.size() * 3];
+		for (int i = 0; i < vertices.size(); i++) {
+			packedVertices[i * 3] = vertices.get(i).x;
+			packedVertices[i * 3 + 1] = vertices.get(i).y;
+			packedVertices[i * 3 + 2] = vertices.get(i).z;
+		}
+		FastObstructionTest expected = new FastObstructionTest(mesh.getPolygonWithHeight(), triangles, neighbors,
+				vertices);
+		FastObstructionTest packed = new FastObstructionTest(mesh.getPolygonWithHeight(), triVertices,
+				triNeighbors, triAttributes, packedVertices);
+		assertEquals(expected.getTriangleCount(), packed.getTriangleCount());
+		assertEquals(expected.getVertexCount(), packed.getVertexCount());
+		for (int i = 0; i < packed.getVertexCount(); i++) {
+			assertEquals(vertices.get(i).x, packed.getVertexX(i), 0);
+			assertEquals(vertices.get(i).y, packed.getVertexY(i), 0);
+			assertEquals(vertices.get(i).z, packed.getVertexZ(i), 0);
+		}
+		Coordinate[] points = new Coordinate[] {new Coordinate(0, 0, 1), new Coordinate(40, 20, 2),
+				new Coordinate(80, 70, 12), new Coordinate(5, 50, 6), new Coordinate(100, 30, 1)};
+		for (Coordinate p1 : points) {
+			assertEquals(expected.getHeightAtPosition(p1), packed.getHeightAtPosition(p1), 0);
+			for (Coordinate p2 : points) {
+				if (p1 == p2) {
+					continue;
+				}
+				assertEquals(expected.isFreeField(p1, p2), packed.isFreeField(p1, p2));
+				List<TriIdWithIntersection> expectedPath = new ArrayList<TriIdWithIntersection>();
+				List<TriIdWithIntersection> packedPath = new ArrayList<TriIdWithIntersection>();
+				expected.computePropagationPath(p1, p2, false, expectedPath, true);
+				packed.computePropagationPath(p1, p2, false, packedPath, true);
+				assertEquals(expectedPath.size(), packedPath.size());
+				for (int i = 0; i < expectedPath.size(); i++) {
+					assertEquals(expectedPath.get(i).getTriID(), packedPath.get(i).getTriID());
+					assertEquals(0, expectedPath.get(i).getCoorIntersection().distance3D(
+							packedPath.get(i).getCoorIntersection()), 0);
+					assertEquals(expectedPath.get(i).getBuildingId(), packedPath.get(i).getBuildingId());
+				}
+			}
+		}
+	}
 }
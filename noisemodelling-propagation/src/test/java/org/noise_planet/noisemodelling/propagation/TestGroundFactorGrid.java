@@ -0,0 +1,69 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.io.WKTReader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class TestGroundFactorGrid {
+
+    @Test
+    public void testMeanG() throws Exception {
+        WKTReader wktReader = new WKTReader();
+        GroundFactorGrid grid = new GroundFactorGrid(new Envelope(0, 100, 0, 100), 1);
+        // Square of 40 m with a hole of 20 m
+        grid.addSoil(wktReader.read("POLYGON ((20 20, 60 20, 60 60, 20 60, 20 20), " +
+                "(30 30, 50 30, 50 50, 30 50, 30 30))"), 1);
+        assertEquals(1, grid.getG(25, 25), 0);
+        assertEquals(0, grid.getG(40, 40), 0);
+        assertEquals(0, grid.getG(10, 40), 0);
+        // 10 m inside the soil, 20 m in the hole, 10 m inside the soil, 10 m outside
+        assertEquals(0.4, grid.getMeanG(new Coordinate(20, 40.5), new Coordinate(70, 40.5)), 0.2 / 50);
+        // Diagonal
+        assertEquals(1.0 / 3, grid.getMeanG(new Coordinate(25, 25), new Coordinate(55, 55)), 2.0 / 30);
+        // Reversed segment
+        assertEquals(grid.getMeanG(new Coordinate(70, 40.5), new Coordinate(20, 40.5)),
+                grid.getMeanG(new Coordinate(20, 40.5), new Coordinate(70, 40.5)), 1e-9);
+        // Half of the segment is out of the grid
+        assertEquals(0, grid.getMeanG(new Coordinate(-100, 50), new Coordinate(0, 50)), 0);
+        assertEquals(1.0 / 6, grid.getMeanG(new Coordinate(25, -30), new Coordinate(25, 30)), 0.2 / 60);
+        assertEquals(1, grid.getMeanG(new Coordinate(25, 25), new Coordinate(25, 25)), 0);
+    }
+
+    @Test
+    public void testSameAsPolygons() throws Exception {
+        WKTReader wktReader = new WKTReader();
+        GeometryFactory factory = new GeometryFactory();
+        List<GeoWithSoilType> soilList = new ArrayList<>();
+        soilList.add(new GeoWithSoilType(wktReader.read("POLYGON ((0 0, 120 10, 90 150, 10 100, 0 0))"), 0.7));
+        soilList.add(new GeoWithSoilType(wktReader.read("MULTIPOLYGON (((150 0, 200 0, 200 200, 150 200, 150 0))," +
+                "((130 160, 145 160, 145 190, 130 190, 130 160)))"), 1));
+        GroundFactorGrid grid = GroundFactorGrid.rasterize(soilList, new Envelope(0, 200, 0, 200), 0.5);
+        Random random = new Random(42);
+        for(int i = 0; i < 200; i++) {
+            Coordinate p0 = new Coordinate(random.nextDouble() * 240 - 20, random.nextDouble() * 240 - 20);
+            Coordinate p1 = new Coordinate(random.nextDouble() * 240 - 20, random.nextDouble() * 240 - 20);
+            LineString segment = factory.createLineString(new Coordinate[] {p0, p1});
+            double expected = 0;
+            for(GeoWithSoilType soil : soilList) {
+                Geometry intersection = segment.intersection(soil.getGeo());
+                expected += intersection.getLength() * soil.getType();
+            }
+            expected /= segment.getLength();
+            // Error of one cell at each crossed border
+            assertEquals(expected, grid.getMeanG(p0, p1), 10 * 0.5 / segment.getLength());
+        }
+    }
+}
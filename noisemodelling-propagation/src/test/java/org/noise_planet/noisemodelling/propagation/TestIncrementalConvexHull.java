@@ -0,0 +1,84 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.algorithm.ConvexHull;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class TestIncrementalConvexHull {
+
+    @Test
+    public void testSameAsJTS() {
+        GeometryFactory factory = new GeometryFactory();
+        Random random = new Random(42);
+        for(int test = 0; test < 50; test++) {
+            List<Coordinate> points = new ArrayList<>();
+            // Integer coordinates in order to have collinear and duplicate points
+            for(int i = 0; i < 40; i++) {
+                points.add(new Coordinate(random.nextInt(20), random.nextInt(20), random.nextInt(5)));
+            }
+            Coordinate p1 = new Coordinate(-1, 10);
+            Coordinate p2 = new Coordinate(21, 11);
+            IncrementalConvexHull hull = new IncrementalConvexHull(p1, p2);
+            for(Coordinate p : points) {
+                hull.add(p);
+            }
+            points.add(p1);
+            points.add(p2);
+            Coordinate[] expected = new ConvexHull(points.toArray(new Coordinate[0]), factory)
+                    .getConvexHull().getCoordinates();
+            int start = hull.indexOf(expected[0]);
+            assertTrue(start >= 0);
+            assertArrayEquals(expected, hull.getCoordinates(start));
+            assertEquals(factory.createLineString(expected).getLength(), hull.getLength(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testFreeEdges() {
+        Coordinate p1 = new Coordinate(0, 0);
+        Coordinate p2 = new Coordinate(10, 0);
+        IncrementalConvexHull hull = new IncrementalConvexHull(p1, p2);
+        // Collinear points
+        assertFalse(hull.add(new Coordinate(5, 0)));
+        assertTrue(hull.add(new Coordinate(12, 0)));
+        assertEquals(-1, hull.indexOf(p2));
+        hull = new IncrementalConvexHull(p1, p2);
+        assertTrue(hull.add(new Coordinate(5, 5)));
+        assertTrue(hull.add(new Coordinate(5, -5)));
+        assertEquals(4, hull.size());
+        for(int i = 0; i < hull.size(); i++) {
+            assertFalse(hull.isFreeEdge(i));
+            hull.setFreeEdge(i);
+        }
+        assertFalse(hull.add(new Coordinate(5, 1)));
+        // Replace the edge from (5 5) to (10 0)
+        assertTrue(hull.add(new Coordinate(9, 4)));
+        assertEquals(5, hull.size());
+        int index = hull.indexOf(new Coordinate(9, 4));
+        assertFalse(hull.isFreeEdge(index));
+        assertFalse(hull.isFreeEdge(index + hull.size() - 1));
+        int freeCount = 0;
+        for(int i = 0; i < hull.size(); i++) {
+            if(hull.isFreeEdge(i)) {
+                freeCount++;
+            }
+        }
+        assertEquals(3, freeCount);
+        // Clockwise order
+        assertEquals(new Coordinate(10, 0), hull.get(index + 1));
+        assertEquals(new Coordinate(5, 5), hull.get(index + hull.size() - 1));
+    }
+}
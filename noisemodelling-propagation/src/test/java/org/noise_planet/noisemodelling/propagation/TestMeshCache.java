@@ -0,0 +1,91 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.WKTReader;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class TestMeshCache {
+
+    private static MeshBuilder createMesh(double buildingHeight) throws Exception {
+        WKTReader wktReader = new WKTReader(new GeometryFactory());
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((10 10, 30 10, 30 30, 10 30, 10 10))"), buildingHeight, 0.5);
+        mesh.addGeometry(wktReader.read("POLYGON ((50 40, 70 40, 70 60, 50 60, 50 40))"), 12, 0.5);
+        mesh.addTopographicPoint(new Coordinate(0, 0, 1));
+        mesh.addTopographicPoint(new Coordinate(100, 100, 5));
+        mesh.addTopographicPoint(new Coordinate(40, 80, 3));
+        return mesh;
+    }
+
+    @Test
+    public void testStoreLoad() throws Exception {
+        Envelope cellEnvelope = new Envelope(-20, 120, -20, 120);
+        MeshCache meshCache = new MeshCache(new File("target/test-resources/mesh_cache"));
+
+        MeshBuilder mesh = createMesh(10);
+        String key = MeshCache.computeKey(cellEnvelope, mesh);
+        assertEquals(key, MeshCache.computeKey(cellEnvelope, createMesh(10)));
+        assertFalse(key.equals(MeshCache.computeKey(cellEnvelope, createMesh(11))));
+        assertFalse(key.equals(MeshCache.computeKey(new Envelope(-20, 120, -20, 121), createMesh(10))));
+        // Buildings fetched in another order
+        WKTReader wktReader = new WKTReader(new GeometryFactory());
+        MeshBuilder reversedMesh = new MeshBuilder();
+        reversedMesh.addGeometry(wktReader.read("POLYGON ((50 40, 70 40, 70 60, 50 60, 50 40))"), 12, 0.5);
+        reversedMesh.addGeometry(wktReader.read("POLYGON ((10 10, 30 10, 30 30, 10 30, 10 10))"), 10, 0.5);
+        reversedMesh.addTopographicPoint(new Coordinate(40, 80, 3));
+        reversedMesh.addTopographicPoint(new Coordinate(100, 100, 5));
+        reversedMesh.addTopographicPoint(new Coordinate(0, 0, 1));
+        assertEquals(key, MeshCache.computeKey(cellEnvelope, reversedMesh));
+        mesh.finishPolygonFeeding(cellEnvelope);
+        meshCache.store(key, mesh);
+
+        assertNull(meshCache.load(MeshCache.computeKey(cellEnvelope, createMesh(11))));
+        MeshCache.CachedMesh cachedMesh = meshCache.load(key);
+        assertNotNull(cachedMesh);
+        assertEquals(mesh.getVertices().size(), cachedMesh.getVertices().size());
+        for(int i = 0; i < mesh.getVertices().size(); i++) {
+            assertEquals(0, mesh.getVertices().get(i).distance3D(cachedMesh.getVertices().get(i)), 0);
+        }
+        assertEquals(mesh.getTriangles().size(), cachedMesh.getTriangles().size());
+        for(int i = 0; i < mesh.getTriangles().size(); i++) {
+            Triangle expected = mesh.getTriangles().get(i);
+            Triangle got = cachedMesh.getTriangles().get(i);
+            assertEquals(expected.getA(), got.getA());
+            assertEquals(expected.getB(), got.getB());
+            assertEquals(expected.getC(), got.getC());
+            assertEquals(expected.getAttribute(), got.getAttribute());
+            Triangle expectedNeighbor = mesh.getTriNeighbors().get(i);
+            Triangle gotNeighbor = cachedMesh.getTriNeighbors().get(i);
+            assertEquals(expectedNeighbor.getA(), gotNeighbor.getA());
+            assertEquals(expectedNeighbor.getB(), gotNeighbor.getB());
+            assertEquals(expectedNeighbor.getC(), gotNeighbor.getC());
+        }
+        assertEquals(mesh.getPolygonWithHeight().size(), cachedMesh.getPolygonWithHeight().size());
+        for(int i = 0; i < mesh.getPolygonWithHeight().size(); i++) {
+            MeshBuilder.PolygonWithHeight expected = mesh.getPolygonWithHeight().get(i);
+            MeshBuilder.PolygonWithHeight got = cachedMesh.getPolygonWithHeight().get(i);
+            assertEquals(expected.getHeight(), got.getHeight(), 0);
+            assertEquals(expected.getAlpha(), got.getAlpha());
+            assertEquals(expected.getPrimaryKey(), got.getPrimaryKey());
+            assertEquals(0, expected.getGeometry().compareTo(got.getGeometry()));
+        }
+
+        FastObstructionTest expectedManager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(),
+                mesh.getTriNeighbors(), mesh.getVertices());
+        FastObstructionTest gotManager = new FastObstructionTest(cachedMesh.getPolygonWithHeight(),
+                cachedMesh.getTriangles(), cachedMesh.getTriNeighbors(), cachedMesh.getVertices());
+        Coordinate p1 = new Coordinate(0, 20, 2);
+        Coordinate p2 = new Coordinate(90, 50, 2);
+        assertEquals(expectedManager.isFreeField(p1, p2), gotManager.isFreeField(p1, p2));
+        assertEquals(expectedManager.getHeightAtPosition(p2), gotManager.getHeightAtPosition(p2), 1e-12);
+    }
+}
@@ -0,0 +1,144 @@
+package org.noise_planet.noisemodelling.propagation;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Nicolas Fortin
+ */
+public class TestRasterDem {
+
+    private static RasterDem createPlane(long maximumHeapNodes) {
+        // z = 0.5 x + 0.25 y, exactly interpolated by the bilinear interpolation
+        RasterDem dem = new RasterDem(10, 20, 2, 51, 41, maximumHeapNodes);
+        for(int row = 0; row < dem.getRowCount(); row++) {
+            for(int column = 0; column < dem.getColumnCount(); column++) {
+                dem.setHeight(column, row, 0.5 * (10 + column * 2) + 0.25 * (20 + row * 2));
+            }
+        }
+        return dem;
+    }
+
+    @Test
+    public void testBilinear() {
+        RasterDem dem = createPlane(RasterDem.DEFAULT_MAXIMUM_HEAP_NODES);
+        assertFalse(dem.isMemoryMapped());
+        assertEquals(0.5 * 33.3 + 0.25 * 41.7, dem.getHeight(33.3, 41.7), 1e-4);
+        assertEquals(0.5 * 110 + 0.25 * 100, dem.getHeight(110, 100), 1e-4);
+        assertEquals(0.5 * 10 + 0.25 * 20, dem.getHeight(new Coordinate(10, 20)), 1e-4);
+        assertTrue(Double.isNaN(dem.getHeight(9, 30)));
+        assertTrue(Double.isNaN(dem.getHeight(50, 101)));
+        // Saddle between 4 nodes
+        RasterDem saddle = new RasterDem(0, 0, 1, 2, 2);
+        saddle.setHeight(0, 0, 0);
+        saddle.setHeight(1, 0, 1);
+        saddle.setHeight(0, 1, 1);
+        saddle.setHeight(1, 1, 0);
+        assertEquals(0.5, saddle.getHeight(0.5, 0.5), 1e-6);
+        assertEquals(0.375, saddle.getHeight(0.25, 0.25), 1e-6);
+        // A node without height
+        saddle.setHeight(1, 1, Double.NaN);
+        assertTrue(Double.isNaN(saddle.getHeight(0.5, 0.5)));
+    }
+
+    @Test
+    public void testMemoryMapped() {
+        RasterDem dem = createPlane(100);
+        assertTrue(dem.isMemoryMapped());
+        RasterDem expected = createPlane(RasterDem.DEFAULT_MAXIMUM_HEAP_NODES);
+        for(double x = 10; x <= 110; x += 3.7) {
+            for(double y = 20; y <= 100; y += 4.1) {
+                assertEquals(expected.getHeight(x, y), dem.getHeight(x, y), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testProfile() {
+        RasterDem dem = createPlane(RasterDem.DEFAULT_MAXIMUM_HEAP_NODES);
+        Coordinate p1 = new Coordinate(11, 21);
+        Coordinate p2 = new Coordinate(30, 25);
+        List<Coordinate> profile = dem.getProfile(p1, p2);
+        // Both ends, 9 columns and 2 rows crossed
+        assertEquals(13, profile.size());
+        assertEquals(p1.x, profile.get(0).x, 1e-9);
+        assertEquals(p2.x, profile.get(profile.size() - 1).x, 1e-9);
+        double lastDistance = -1;
+        for(Coordinate pt : profile) {
+            assertEquals(0.5 * pt.x + 0.25 * pt.y, pt.z, 1e-4);
+            double distance = pt.distance(p1);
+            assertTrue(distance > lastDistance);
+            lastDistance = distance;
+        }
+        // Reversed segment
+        List<Coordinate> reversed = dem.getProfile(p2, p1);
+        assertEquals(profile.size(), reversed.size());
+        for(int i = 0; i < profile.size(); i++) {
+            assertEquals(0, profile.get(i).distance(reversed.get(reversed.size() - 1 - i)), 1e-9);
+        }
+        // Along a row
+        assertEquals(4, dem.getProfile(new Coordinate(12, 22), new Coordinate(18, 22)).size());
+    }
+
+    @Test
+    public void testIntersects() {
+        RasterDem dem = new RasterDem(0, 0, 1, 101, 3);
+        for(int column = 0; column <= 100; column++) {
+            for(int row = 0; row < 3; row++) {
+                // Ridge of 10 m at x = 50
+                dem.setHeight(column, row, column == 50 ? 10 : 0);
+            }
+        }
+        assertTrue(dem.intersects(new Coordinate(10, 1, 2), new Coordinate(90, 1, 2)));
+        assertFalse(dem.intersects(new Coordinate(10, 1, 11), new Coordinate(90, 1, 11)));
+        assertFalse(dem.intersects(new Coordinate(10, 1, 2), new Coordinate(45, 1, 2)));
+        assertFalse(dem.intersects(new Coordinate(10, 1), new Coordinate(90, 1)));
+    }
+
+    @Test
+    public void testFromPoints() {
+        List<Coordinate> points = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            for(int j = 0; j < 5; j++) {
+                points.add(new Coordinate(100 + i * 5, 200 + j * 5, i + j));
+            }
+        }
+        RasterDem dem = RasterDem.fromPoints(points, 5);
+        assertEquals(10, dem.getColumnCount());
+        assertEquals(5, dem.getRowCount());
+        assertEquals(3.5, dem.getHeight(112.5, 205), 1e-6);
+        assertEquals(13, dem.getHeight(145, 220), 1e-6);
+    }
+
+    @Test
+    public void testAsciiGrid() throws Exception {
+        File file = new File("target/test-resources/dem.asc");
+        file.getParentFile().mkdirs();
+        try(Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII)) {
+            writer.write("ncols 3\nnrows 2\nxllcorner 100\nyllcorner 200\ncellsize 10\nNODATA_value -9999\n" +
+                    "1 2 3\n4 5 -9999\n");
+        }
+        RasterDem dem = RasterDem.readAsciiGrid(file);
+        assertEquals(3, dem.getColumnCount());
+        assertEquals(2, dem.getRowCount());
+        assertEquals(105, dem.getMinX(), 0);
+        assertEquals(205, dem.getMinY(), 0);
+        // First line of the file is the upper row
+        assertEquals(4, dem.getHeight(105, 205), 1e-6);
+        assertEquals(1, dem.getHeight(105, 215), 1e-6);
+        assertEquals(3, dem.getHeight(110, 210), 1e-6);
+        assertTrue(Double.isNaN(dem.getHeight(125, 205)));
+    }
+}
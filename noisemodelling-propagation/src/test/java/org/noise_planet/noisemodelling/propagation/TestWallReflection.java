@@ -44,6 +44,7 @@ import org.locationtech.jts.io.WKTReader;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -147,6 +148,79 @@ public class TestWallReflection extends TestCase {
         assertFalse(it.hasNext());
     }
 
+    public void testMirrorReceiverTree() {
+        Coordinate a = new Coordinate(2, 3);
+        Coordinate b = new Coordinate(6, 3);
+        Coordinate c = new Coordinate(2, 1);
+        Coordinate d = new Coordinate(6, 1);
+        Coordinate e = new Coordinate(3, 7);
+        Coordinate f = new Coordinate(7, 7);
+        Coordinate g = new Coordinate(3, 5);
+        Coordinate h = new Coordinate(7, 5);
+        List<FastObstructionTest.Wall> walls = new ArrayList<>(8);
+        walls.add(new FastObstructionTest.Wall(a, b, 0));
+        walls.add(new FastObstructionTest.Wall(b, d, 0));
+        walls.add(new FastObstructionTest.Wall(d, c, 0));
+        walls.add(new FastObstructionTest.Wall(c, a, 0));
+        walls.add(new FastObstructionTest.Wall(g, e, 1));
+        walls.add(new FastObstructionTest.Wall(h, g, 1));
+        walls.add(new FastObstructionTest.Wall(f, h, 1));
+        walls.add(new FastObstructionTest.Wall(e, f, 1));
+        Coordinate receiver = new Coordinate(0, 4);
+        Coordinate source = new Coordinate(9, 4);
+
+        MirrorReceiverTree tree = new MirrorReceiverTree(receiver, walls, 2);
+        Iterator<MirrorReceiverResult> it = tree.iterate(new LineSegment(source, receiver), 20, 40, null).iterator();
+        // [0, 4], [4, 0] and [5, 0] walls are not visible from the first order image through the first wall
+        wallTest(new Coordinate(0, 2), new int[]{0}, it.next());
+        wallTest(new Coordinate(0, 8), new int[]{0, 5}, it.next());
+        wallTest(new Coordinate(4, 4), new int[]{3}, it.next());
+        wallTest(new Coordinate(6, 4), new int[]{4}, it.next());
+        wallTest(new Coordinate(0, 6), new int[]{5}, it.next());
+        assertFalse(it.hasNext());
+        int nodeCount = tree.getNodeCount();
+
+        // Same tree with only the walls of the second building
+        BitSet activeWalls = tree.addWalls(walls.subList(4, 8));
+        it = tree.iterate(new LineSegment(source, receiver), 20, 40, activeWalls).iterator();
+        wallTest(new Coordinate(6, 4), new int[]{4}, it.next());
+        wallTest(new Coordinate(0, 6), new int[]{5}, it.next());
+        assertFalse(it.hasNext());
+        // Mirrored receivers are reused
+        assertEquals(nodeCount, tree.getNodeCount());
+
+        // Inactive walls do not create mirrored receivers
+        tree = new MirrorReceiverTree(receiver, 2);
+        activeWalls = tree.addWalls(walls.subList(4, 8));
+        tree.addWalls(walls.subList(0, 4));
+        it = tree.iterate(new LineSegment(source, receiver), 20, 40, activeWalls).iterator();
+        wallTest(new Coordinate(6, 4), new int[]{0}, it.next());
+        wallTest(new Coordinate(0, 6), new int[]{1}, it.next());
+        assertFalse(it.hasNext());
+        int activeNodeCount = tree.getNodeCount();
+        assertTrue(activeNodeCount < nodeCount);
+        // Other walls are expanded when they become active
+        it = tree.iterate(new LineSegment(source, receiver), 20, 40, null).iterator();
+        int imageCount = 0;
+        while(it.hasNext()) {
+            it.next();
+            imageCount++;
+        }
+        assertEquals(5, imageCount);
+        assertEquals(nodeCount, tree.getNodeCount());
+    }
+
+    public void testBeam() {
+        LineSegment parentWall = new LineSegment(new Coordinate(2, 3), new Coordinate(6, 3));
+        Coordinate apex = new Coordinate(0, 2);
+        assertTrue(MirrorReceiverTree.isInBeam(apex, parentWall, new LineSegment(new Coordinate(10, 5), new Coordinate(8, 5))));
+        // Cross the beam without end points inside
+        assertTrue(MirrorReceiverTree.isInBeam(apex, parentWall, new LineSegment(new Coordinate(30, 5), new Coordinate(0, 5))));
+        assertFalse(MirrorReceiverTree.isInBeam(apex, parentWall, new LineSegment(new Coordinate(3, 5), new Coordinate(3, 7))));
+        // Behind the apex
+        assertFalse(MirrorReceiverTree.isInBeam(apex, parentWall, new LineSegment(new Coordinate(5, 0), new Coordinate(-5, 0))));
+    }
+
     private void wallTest(Coordinate expectedCoordinate,int[] expectedWalls,MirrorReceiverResult res) {
         int[] resultWalls = new int[expectedWalls.length];
         int id = 0;
@@ -203,6 +277,28 @@ public class TestWallReflection extends TestCase {
         assertFalse(it.hasNext());
     }
 
+    public void testWallIndex() throws ParseException, LayerDelaunayError {
+        GeometryFactory factory = new GeometryFactory();
+        WKTReader wktReader = new WKTReader(factory);
+        Envelope cellEnvelope = wktReader.read("POLYGON ((316849.05 6703855.11, 316849.05 6703924.04, " +
+                "316925.36 6703924.04, 316925.36 6703855.11, 316849.05 6703855.11))").getEnvelopeInternal();
+        MeshBuilder mesh = new MeshBuilder();
+        mesh.addGeometry(wktReader.read("POLYGON ((316900.21711186244 6703891.837263795, 316903.24859771173 6703904.468454833, 316926.44405761914 6703898.451414739, 316925.433562336 6703889.678478417, 316914.1343878069 6703892.480306247, 316913.53727695777 6703890.367452473, 316906.78533120255 6703892.066921813, 316906.4178783723 6703890.32152087, 316900.21711186244 6703891.837263795))"), 11.915885805791621);
+        mesh.addGeometry(wktReader.read("POLYGON ((316886.41 6703903.61, 316888.31 6703910.59, 316899.79 6703907.69, 316897.99 6703900.71, 316886.41 6703903.61))"), 13.143551238469575);
+        mesh.finishPolygonFeeding(cellEnvelope);
+        FastObstructionTest manager = new FastObstructionTest(mesh.getPolygonWithHeight(), mesh.getTriangles(), mesh.getTriNeighbors(), mesh.getVertices());
+        Coordinate[] origins = new Coordinate[] {new Coordinate(316900.8845049501,6703903.754851485, 0.05),
+                new Coordinate(316898.0027227718, 6703891.69841584, 4), new Coordinate(316860, 6703870, 4)};
+        for(Coordinate origin : origins) {
+            for(double maxDist : new double[] {5, 15, 50, 200}) {
+                // The indexed search must return the same walls than the navigation through the mesh
+                Set<FastObstructionTest.Wall> expected = new HashSet<>(manager.getLimitsInRange(maxDist, origin, false));
+                Set<FastObstructionTest.Wall> got = new HashSet<>(manager.getWallsInRange(maxDist, origin));
+                assertEquals(expected, got);
+            }
+        }
+    }
+
     public void testPath() throws ParseException, LayerDelaunayError {
 
         GeometryFactory factory = new GeometryFactory();
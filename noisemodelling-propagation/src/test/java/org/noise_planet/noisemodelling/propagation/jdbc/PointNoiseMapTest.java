@@ -1,5 +1,6 @@
 package org.noise_planet.noisemodelling.propagation.jdbc;
 
+import org.h2.jdbcx.JdbcDataSource;
 import org.h2.util.StringUtils;
 import org.h2gis.api.EmptyProgressVisitor;
 import org.h2gis.functions.factory.H2GISDBFactory;
@@ -8,17 +9,25 @@ import org.h2gis.utilities.SpatialResultSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
 import org.noise_planet.noisemodelling.propagation.*;
 
 import java.io.*;
 import java.net.URISyntaxException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,6 +54,31 @@ public class PointNoiseMapTest {
         return "RUNSCRIPT FROM "+StringUtils.quoteStringSQL(resourceFile.getPath());
     }
 
+    /**
+     * Load the scene with land cover
+     * @param connection Active connection
+     * @return Noise map of the roads with diffractions, without reflection and with a propagation distance of 100 m,
+     * not initialized
+     */
+    private static PointNoiseMap createLandcoverNoiseMap(Connection connection) throws SQLException,
+            URISyntaxException {
+        try(Statement st = connection.createStatement()) {
+            st.execute(String.format("CALL SHPREAD('%s', 'LANDCOVER2000')", PointNoiseMapTest.class.getResource("landcover2000.shp").getFile()));
+            st.execute(getRunScriptRes("scene_with_landcover.sql"));
+        }
+        PointNoiseMap pointNoiseMap = new PointNoiseMap("BUILDINGS", "ROADS_GEOM", "RECEIVERS");
+        pointNoiseMap.setComputeHorizontalDiffraction(true);
+        pointNoiseMap.setComputeVerticalDiffraction(true);
+        pointNoiseMap.setSoundReflectionOrder(0);
+        pointNoiseMap.setHeightField("HEIGHT");
+        pointNoiseMap.setSoilTableName("LAND_G");
+        pointNoiseMap.setMaximumPropagationDistance(100);
+        pointNoiseMap.setMaximumReflectionDistance(100);
+        pointNoiseMap.setComputeRaysOutFactory(new JDBCComputeRaysOut(false));
+        pointNoiseMap.setPropagationProcessDataFactory(new JDBCPropagationData());
+        return pointNoiseMap;
+    }
+
     /**
      * DEM is 22m height between sources and receiver. There is a direct field propagation over the building
      * @throws SQLException
@@ -138,6 +172,192 @@ public class PointNoiseMapTest {
         }
     }
 
+    /**
+     * Evaluate the cells of the noise map one after the other
+     * @return Levels of each receiver_source pair
+     */
+    private static Map<String, double[]> computeSequentialLevels(Connection connection, PointNoiseMap pointNoiseMap)
+            throws SQLException {
+        Map<String, double[]> expectedLevels = new HashMap<>();
+        Set<Long> receivers = new HashSet<>();
+        for(int i=0; i < pointNoiseMap.getGridDim(); i++) {
+            for(int j=0; j < pointNoiseMap.getGridDim(); j++) {
+                IComputeRaysOut out = pointNoiseMap.evaluateCell(connection, i, j, new EmptyProgressVisitor(), receivers);
+                for(ComputeRaysOut.verticeSL v : ((ComputeRaysOut) out).getVerticesSoundLevel()) {
+                    expectedLevels.put(v.receiverId + "_" + v.sourceId, v.value);
+                }
+            }
+        }
+        assertFalse(expectedLevels.isEmpty());
+        return expectedLevels;
+    }
+
+    /**
+     * Cells prepared in background must give the same levels than the sequential evaluation
+     */
+    @Test
+    public void testPipelinedCells() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        pointNoiseMap.setGridDim(2);
+
+        LevelsComparisonVisitor visitor = new LevelsComparisonVisitor(computeSequentialLevels(connection,
+                pointNoiseMap));
+        PointNoiseMapPipeline pipeline = new PointNoiseMapPipeline(pointNoiseMap);
+        pipeline.setPrefetchCellCount(2);
+        pipeline.run(connection, new EmptyProgressVisitor(), new HashSet<Long>(), visitor);
+        visitor.assertAllVisited(pointNoiseMap);
+
+        // An error thrown while preparing a cell must stop the computation and be thrown back
+        final StackOverflowError prepareError = new StackOverflowError();
+        pointNoiseMap.setPropagationProcessDataFactory(new PointNoiseMap.PropagationProcessDataFactory() {
+            @Override
+            public PropagationProcessData create(FastObstructionTest freeFieldFinder) {
+                throw prepareError;
+            }
+        });
+        try {
+            pipeline.run(connection, new EmptyProgressVisitor(), new HashSet<Long>(),
+                    new PointNoiseMapPipeline.CellResultVisitor() {
+                @Override
+                public void visitCellResult(int cellId, IComputeRaysOut result) {
+                    fail("No cell can be prepared");
+                }
+            });
+            fail("The preparation error must be thrown");
+        } catch (StackOverflowError ex) {
+            assertSame(prepareError, ex);
+        }
+    }
+
+    /**
+     * Cells evaluated concurrently must give the same levels than the sequential evaluation
+     */
+    @Test
+    public void testParallelCells() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        pointNoiseMap.setGridDim(2);
+
+        LevelsComparisonVisitor visitor = new LevelsComparisonVisitor(computeSequentialLevels(connection,
+                pointNoiseMap));
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(connection.getMetaData().getURL());
+        dataSource.setUser("sa");
+        dataSource.setPassword("sa");
+        PointNoiseMapParallel parallel = new PointNoiseMapParallel(pointNoiseMap, dataSource);
+        parallel.setThreadBudget(4);
+        parallel.setCellConcurrency(2);
+        parallel.run(new EmptyProgressVisitor(), null, visitor);
+        visitor.assertAllVisited(pointNoiseMap);
+
+        // An error thrown by a worker must stop the computation and be thrown back
+        final StackOverflowError workerError = new StackOverflowError();
+        try {
+            parallel.run(new EmptyProgressVisitor(), null, new PointNoiseMapPipeline.CellResultVisitor() {
+                @Override
+                public void visitCellResult(int cellId, IComputeRaysOut result) {
+                    throw workerError;
+                }
+            });
+            fail("The worker error must be thrown");
+        } catch (StackOverflowError ex) {
+            assertSame(workerError, ex);
+        }
+    }
+
+    /**
+     * Cells are split according to the receivers budget, empty cells are skipped
+     */
+    @Test
+    public void testAdaptiveCells() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.setSoilTableName("");
+        pointNoiseMap.setCellReceiverBudget(2);
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        assertTrue(pointNoiseMap.isAdaptiveSubdivision());
+        try(Statement st = connection.createStatement()) {
+            Map<Integer, Envelope> cells = pointNoiseMap.getCellEnvelopes();
+            assertTrue(cells.size() > 1);
+            assertEquals(cells.size(), pointNoiseMap.getCellCount());
+            long receiverCount;
+            try(ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM RECEIVERS")) {
+                assertTrue(rs.next());
+                receiverCount = rs.getLong(1);
+            }
+            Set<Long> receivers = new HashSet<>();
+            for(Map.Entry<Integer, Envelope> cell : cells.entrySet()) {
+                PropagationProcessData data = pointNoiseMap.prepareCell(connection, cell.getKey(), cell.getValue(),
+                        new EmptyProgressVisitor(), receivers);
+                assertFalse(data.receivers.isEmpty());
+                assertTrue(data.receivers.size() <= 2);
+                assertEquals(cell.getKey().intValue(), data.cellId);
+            }
+            assertEquals(receiverCount, receivers.size());
+        }
+    }
+
+    /**
+     * The second computation use the cached meshes and must give the same levels
+     */
+    @Test
+    public void testMeshCache() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            st.execute(getRunScriptRes("scene_with_dem.sql"));
+            st.execute("DROP TABLE IF EXISTS RECEIVERS");
+            st.execute("CREATE TABLE RECEIVERS(the_geom POINT, GID SERIAL)");
+            st.execute("INSERT INTO RECEIVERS(the_geom) VALUES ('POINT(-72 41 11)')");
+            st.execute("INSERT INTO RECEIVERS(the_geom) VALUES ('POINT(-9 41 1.6)')");
+            st.execute("INSERT INTO RECEIVERS(the_geom) VALUES ('POINT(70 11 7)')");
+            PointNoiseMap pointNoiseMap = new PointNoiseMap("BUILDINGS", "SOUND_SOURCE", "RECEIVERS");
+            pointNoiseMap.setSoundReflectionOrder(1);
+            pointNoiseMap.setReceiverHasAbsoluteZCoordinates(true);
+            pointNoiseMap.setHeightField("HEIGHT");
+            pointNoiseMap.setDemTable("DEM");
+            File cacheDirectory = new File("target/test-resources/point_noise_map_mesh_cache");
+            if(cacheDirectory.exists()) {
+                for(File cachedFile : cacheDirectory.listFiles()) {
+                    assertTrue(cachedFile.delete());
+                }
+            }
+            pointNoiseMap.setMeshCache(new MeshCache(cacheDirectory));
+            pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+            pointNoiseMap.setComputeRaysOutFactory(new JDBCComputeRaysOut(false));
+            pointNoiseMap.setPropagationProcessDataFactory(new JDBCPropagationData());
+
+            List<double[]> expectedLevels = new ArrayList<>();
+            for(int run = 0; run < 2; run++) {
+                Set<Long> receivers = new HashSet<>();
+                int levelIndex = 0;
+                for (Map.Entry<Integer, Envelope> cell : pointNoiseMap.getCellEnvelopes().entrySet()) {
+                    IComputeRaysOut out = pointNoiseMap.evaluateCell(connection, cell.getKey(), cell.getValue(),
+                            new EmptyProgressVisitor(), receivers);
+                    List<ComputeRaysOut.verticeSL> levels = ((ComputeRaysOut) out).getVerticesSoundLevel();
+                    Collections.sort(levels, new Comparator<ComputeRaysOut.verticeSL>() {
+                        @Override
+                        public int compare(ComputeRaysOut.verticeSL o1, ComputeRaysOut.verticeSL o2) {
+                            int cmp = Long.compare(o1.receiverId, o2.receiverId);
+                            return cmp != 0 ? cmp : Long.compare(o1.sourceId, o2.sourceId);
+                        }
+                    });
+                    for (ComputeRaysOut.verticeSL v : levels) {
+                        if (run == 0) {
+                            expectedLevels.add(v.value);
+                        } else {
+                            assertArrayEquals(expectedLevels.get(levelIndex++), v.value, 1e-6);
+                        }
+                    }
+                }
+                if (run == 0) {
+                    assertEquals(pointNoiseMap.getCellCount(), cacheDirectory.listFiles().length);
+                } else {
+                    assertEquals(expectedLevels.size(), levelIndex);
+                }
+            }
+            assertFalse(expectedLevels.isEmpty());
+        }
+    }
+
     @Test
     public void testNoiseMapBuilding() throws Exception {
         try(Statement st = connection.createStatement()) {
@@ -159,6 +379,79 @@ public class PointNoiseMapTest {
         }
     }
 
+    /**
+     * Receivers over the holes of the raster DEM must use the triangulated DEM points
+     */
+    @Test
+    public void testNoiseMapBuildingDemRaster() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            st.execute(String.format("CALL SHPREAD('%s', 'LANDCOVER2000')", PointNoiseMapTest.class.getResource("landcover2000.shp").getFile()));
+            st.execute(getRunScriptRes("scene_with_landcover.sql"));
+            // Regular grid of 4 m at 10 m height, without the nodes of a square in the middle of the roads
+            st.execute("CREATE TABLE DEM_GRID(the_geom POINT) AS SELECT * FROM (SELECT ST_MAKEPOINT(X * 4 + 183600, " +
+                    "Y * 4 + 2428700, 10) the_geom FROM (SELECT X FROM SYSTEM_RANGE(0, 200)), " +
+                    "(SELECT X Y FROM SYSTEM_RANGE(0, 200))) WHERE NOT ST_INTERSECTS(the_geom, " +
+                    "'POLYGON ((183840 2428980, 183920 2428980, 183920 2429060, 183840 2429060, 183840 2428980))')");
+            TriangleNoiseMap noisemap = new TriangleNoiseMap("BUILDINGS", "ROADS_GEOM");
+            noisemap.setReceiverHasAbsoluteZCoordinates(false);
+            noisemap.setSourceHasAbsoluteZCoordinates(false);
+            noisemap.setHeightField("HEIGHT");
+            noisemap.setDemTable("DEM_GRID");
+            noisemap.initialize(connection, new EmptyProgressVisitor());
+            noisemap.loadDemRaster(connection, 4);
+
+            AtomicInteger pk = new AtomicInteger(0);
+            for(int i=0; i < noisemap.getGridDim(); i++) {
+                for(int j=0; j < noisemap.getGridDim(); j++) {
+                    noisemap.generateReceivers(connection, i, j, "NM_RECEIVERS", "TRIANGLES", pk);
+                }
+            }
+            int holeReceiverCount = 0;
+            try(ResultSet rs = st.executeQuery("SELECT ST_X(THE_GEOM), ST_Y(THE_GEOM), ST_Z(THE_GEOM) " +
+                    "FROM NM_RECEIVERS")) {
+                while (rs.next()) {
+                    assertEquals(10 + noisemap.getReceiverHeight(), rs.getDouble(3), 1e-6);
+                    if(Double.isNaN(noisemap.getDemRaster().getHeight(rs.getDouble(1), rs.getDouble(2)))) {
+                        holeReceiverCount++;
+                    }
+                }
+            }
+            assertTrue(holeReceiverCount > 0);
+        }
+    }
+
+    /**
+     * Compare the levels of the visited cells with the levels of the sequential evaluation
+     */
+    private static final class LevelsComparisonVisitor implements PointNoiseMapPipeline.CellResultVisitor {
+        private final Map<String, double[]> expectedLevels;
+        private final AtomicInteger levelCount = new AtomicInteger();
+        private final AtomicInteger cellCount = new AtomicInteger();
+
+        LevelsComparisonVisitor(Map<String, double[]> expectedLevels) {
+            this.expectedLevels = expectedLevels;
+        }
+
+        @Override
+        public void visitCellResult(int cellId, IComputeRaysOut result) {
+            cellCount.incrementAndGet();
+            for(ComputeRaysOut.verticeSL v : ((ComputeRaysOut) result).getVerticesSoundLevel()) {
+                double[] expected = expectedLevels.get(v.receiverId + "_" + v.sourceId);
+                assertNotNull(expected);
+                assertArrayEquals(expected, v.value, 1e-6);
+                levelCount.incrementAndGet();
+            }
+        }
+
+        /**
+         * All cells and all levels must have been visited once
+         */
+        void assertAllVisited(PointNoiseMap pointNoiseMap) {
+            assertEquals(pointNoiseMap.getCellCount(), cellCount.get());
+            assertEquals(expectedLevels.size(), levelCount.get());
+        }
+    }
+
     private static class JDBCPropagationData implements PointNoiseMap.PropagationProcessDataFactory {
         @Override
         public PropagationProcessData create(FastObstructionTest freeFieldFinder) {
@@ -166,6 +459,13 @@ public class PointNoiseMapTest {
         }
     }
 
+    private static class ReceiverLevelsOutFactory implements PointNoiseMap.IComputeRaysOutFactory {
+        @Override
+        public IComputeRaysOut create(PropagationProcessData threadData, PropagationProcessPathData pathData) {
+            return new ReceiverLevelsOut(pathData, threadData);
+        }
+    }
+
     private static class JDBCComputeRaysOut implements PointNoiseMap.IComputeRaysOutFactory {
         boolean keepRays;
 
@@ -179,6 +479,250 @@ public class PointNoiseMapTest {
         }
     }
 
+    @Test
+    public void testTimeSeriesNoiseMap() throws Exception {
+        File directory = new File("target/test-resources/attenuation_matrix");
+        assertTrue(directory.exists() || directory.mkdirs());
+        File file = new File(directory, "matrix_jdbc.bin");
+        int frequencyCount = PropagationProcessPathData.freq_lvl.size();
+        double[] attenuation = new double[frequencyCount];
+        Arrays.fill(attenuation, -30);
+        try(AttenuationMatrixWriter writer = new AttenuationMatrixWriter(file, frequencyCount, true)) {
+            writer.writeReceiver(2, new long[]{10, 20}, new double[][]{attenuation, attenuation});
+            writer.writeReceiver(1, new long[]{20}, new double[][]{attenuation});
+        }
+        try(Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE EMISSION(TIME integer, IDSOURCE integer, HZ63 double, HZ125 double," +
+                    " HZ250 double, HZ500 double, HZ1000 double, HZ2000 double, HZ4000 double, HZ8000 double)");
+            // Source 20 does not emit on the first time step, source 10 is silent on the last band
+            st.execute("INSERT INTO EMISSION VALUES (0, 10, 80, 80, 80, 80, 80, 80, 80, -1e400)");
+            st.execute("INSERT INTO EMISSION VALUES (1, 20, 80, 80, 80, 80, 80, 80, 80, 80)");
+            st.execute("INSERT INTO EMISSION VALUES (1, 10, 80, 80, 80, 80, 80, 80, 80, 80)");
+            // Unknown source
+            st.execute("INSERT INTO EMISSION VALUES (1, 30, 80, 80, 80, 80, 80, 80, 80, 80)");
+            try(AttenuationMatrixReader reader = new AttenuationMatrixReader(file);
+                TimeSeriesNoiseEngine engine = new TimeSeriesNoiseEngine(reader)) {
+                TimeSeriesNoiseMap timeSeriesNoiseMap = new TimeSeriesNoiseMap("EMISSION", "LEVELS");
+                timeSeriesNoiseMap.setBatchSize(1);
+                assertEquals(2, timeSeriesNoiseMap.run(connection, engine));
+            }
+            try(ResultSet rs = st.executeQuery("SELECT TIME, IDRECEIVER, HZ63, HZ8000 FROM LEVELS ORDER BY TIME, IDRECEIVER")) {
+                // Receiver 1 only receives the source 20
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+                assertEquals(2, rs.getInt(2));
+                assertEquals(50, rs.getDouble(3), 1e-6);
+                rs.getDouble(4);
+                assertTrue(rs.wasNull());
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+                assertEquals(1, rs.getInt(2));
+                assertEquals(50, rs.getDouble(4), 1e-6);
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+                assertEquals(2, rs.getInt(2));
+                assertEquals(50 + 10 * Math.log10(2), rs.getDouble(3), 1e-6);
+                assertFalse(rs.next());
+            }
+        }
+    }
+
+    /**
+     * Patching stored levels with the old and new contributions of a changed source must give the levels of a full
+     * computation
+     */
+    @Test
+    public void testSourcesDelta() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.setMaximumPropagationDistance(200);
+        pointNoiseMap.setMaximumReflectionDistance(200);
+        pointNoiseMap.setComputeRaysOutFactory(new ReceiverLevelsOutFactory());
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        pointNoiseMap.setGridDim(2);
+        try(Statement st = connection.createStatement()) {
+            Set<Long> allSources = new HashSet<>();
+            try(ResultSet rs = st.executeQuery("SELECT ID FROM ROADS_GEOM")) {
+                while (rs.next()) {
+                    allSources.add(rs.getLong(1));
+                }
+            }
+            Set<Long> changedSources = Collections.singleton(1L);
+            Map<Long, double[]> levels = ReceiverLevelsPatch.computeSourcesContribution(connection, pointNoiseMap,
+                    allSources, new EmptyProgressVisitor());
+            Map<Long, double[]> removed = ReceiverLevelsPatch.computeSourcesContribution(connection, pointNoiseMap,
+                    changedSources, new EmptyProgressVisitor());
+            assertNull(pointNoiseMap.getSourcesPkFilter());
+            assertFalse(removed.isEmpty());
+            // Receivers far from the changed source are not computed
+            assertTrue(removed.size() < levels.size());
+            st.execute("CREATE TABLE LEVELS(IDRECEIVER bigint primary key, HZ63 double, HZ125 double, HZ250 double," +
+                    " HZ500 double, HZ1000 double, HZ2000 double, HZ4000 double, HZ8000 double)");
+            ReceiverLevelsPatch patch = new ReceiverLevelsPatch("LEVELS");
+            assertEquals(levels.size(), patch.patch(connection, new HashMap<Long, double[]>(), levels));
+
+            st.execute("UPDATE ROADS_GEOM SET DB_M63 = DB_M63 + 6, DB_M1000 = DB_M1000 - 10 WHERE ID = 1");
+            Map<Long, double[]> added = ReceiverLevelsPatch.computeSourcesContribution(connection, pointNoiseMap,
+                    changedSources, new EmptyProgressVisitor());
+            assertEquals(removed.keySet(), added.keySet());
+            assertEquals(removed.size(), patch.patch(connection, removed, added));
+
+            Map<Long, double[]> expected = ReceiverLevelsPatch.computeSourcesContribution(connection, pointNoiseMap,
+                    allSources, new EmptyProgressVisitor());
+            int rowCount = 0;
+            try(ResultSet rs = st.executeQuery("SELECT * FROM LEVELS")) {
+                while (rs.next()) {
+                    double[] level = new double[PropagationProcessPathData.freq_lvl.size()];
+                    for(int idFreq = 0; idFreq < level.length; idFreq++) {
+                        level[idFreq] = rs.getDouble(2 + idFreq);
+                    }
+                    assertArrayEquals(expected.get(rs.getLong(1)), level, 1e-6);
+                    rowCount++;
+                }
+            }
+            assertEquals(expected.size(), rowCount);
+        }
+    }
+
+    /**
+     * A fully removed contribution must be stored as NULL instead of -Infinity, on more receivers than a batch
+     */
+    @Test
+    public void testPatchRemovedContribution() throws Exception {
+        try(Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE LEVELS(IDRECEIVER bigint primary key, HZ63 double, HZ125 double, HZ250 double," +
+                    " HZ500 double, HZ1000 double, HZ2000 double, HZ4000 double, HZ8000 double)");
+            int frequencyCount = PropagationProcessPathData.freq_lvl.size();
+            Map<Long, double[]> levels = new HashMap<>();
+            for(long receiverId = 0; receiverId < 250; receiverId++) {
+                double[] level = new double[frequencyCount];
+                Arrays.fill(level, 60 + receiverId % 5);
+                levels.put(receiverId, level);
+            }
+            ReceiverLevelsPatch patch = new ReceiverLevelsPatch("LEVELS");
+            assertEquals(levels.size(), patch.patch(connection, new HashMap<Long, double[]>(), levels));
+            Map<Long, double[]> removed = new HashMap<>();
+            for(long receiverId = 0; receiverId < 150; receiverId++) {
+                removed.put(receiverId, levels.get(receiverId));
+            }
+            assertEquals(removed.size(), patch.patch(connection, removed, new HashMap<Long, double[]>()));
+            try(ResultSet rs = st.executeQuery("SELECT * FROM LEVELS ORDER BY IDRECEIVER")) {
+                long receiverId = 0;
+                while (rs.next()) {
+                    assertEquals(receiverId, rs.getLong(1));
+                    for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                        double level = rs.getDouble(2 + idFreq);
+                        if(receiverId < 150) {
+                            assertTrue(rs.wasNull());
+                        } else {
+                            assertEquals(60 + receiverId % 5, level, 1e-6);
+                        }
+                    }
+                    receiverId++;
+                }
+                assertEquals(levels.size(), receiverId);
+            }
+            // A NULL level has no sound power
+            double[] added = new double[frequencyCount];
+            Arrays.fill(added, 50);
+            assertEquals(1, patch.patch(connection, new HashMap<Long, double[]>(),
+                    Collections.singletonMap(0L, added)));
+            try(ResultSet rs = st.executeQuery("SELECT * FROM LEVELS WHERE IDRECEIVER = 0")) {
+                assertTrue(rs.next());
+                for(int idFreq = 0; idFreq < frequencyCount; idFreq++) {
+                    assertEquals(50, rs.getDouble(2 + idFreq), 1e-6);
+                }
+            }
+        }
+    }
+
+    /**
+     * Patching stored levels with the contribution of the pairs near a new building computed before and after the
+     * change must give the levels of a full computation
+     */
+    @Test
+    public void testChangedBuildings() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.setSoundReflectionOrder(1);
+        pointNoiseMap.setMaximumPropagationDistance(200);
+        pointNoiseMap.setComputeRaysOutFactory(new ReceiverLevelsOutFactory());
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        pointNoiseMap.setGridDim(2);
+        try(Statement st = connection.createStatement()) {
+            Map<Long, double[]> levels = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                    new EmptyProgressVisitor());
+            st.execute("CREATE TABLE LEVELS(IDRECEIVER bigint primary key, HZ63 double, HZ125 double, HZ250 double," +
+                    " HZ500 double, HZ1000 double, HZ2000 double, HZ4000 double, HZ8000 double)");
+            ReceiverLevelsPatch patch = new ReceiverLevelsPatch("LEVELS");
+            patch.patch(connection, new HashMap<Long, double[]>(), levels);
+
+            // New building between the second road and the first receiver
+            String newBuilding = "POLYGON ((183905 2429045, 183915 2429045, 183915 2429065, 183905 2429065, 183905 2429045))";
+            pointNoiseMap.setChangedArea(new WKTReader().read(newBuilding));
+            Map<Long, double[]> removed = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                    new EmptyProgressVisitor());
+            assertFalse(removed.isEmpty());
+            st.execute("INSERT INTO BUILDINGS(THE_GEOM, HEIGHT) VALUES ('" + newBuilding + "', 10)");
+            Map<Long, double[]> added = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                    new EmptyProgressVisitor());
+            assertEquals(removed.keySet(), added.keySet());
+            patch.patch(connection, removed, added);
+
+            pointNoiseMap.setChangedArea(null);
+            Map<Long, double[]> expected = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                    new EmptyProgressVisitor());
+            int rowCount = 0;
+            boolean modified = false;
+            try(ResultSet rs = st.executeQuery("SELECT * FROM LEVELS")) {
+                while (rs.next()) {
+                    double[] level = new double[PropagationProcessPathData.freq_lvl.size()];
+                    for(int idFreq = 0; idFreq < level.length; idFreq++) {
+                        level[idFreq] = rs.getDouble(2 + idFreq);
+                    }
+                    assertArrayEquals(expected.get(rs.getLong(1)), level, 1e-6);
+                    modified |= Math.abs(levels.get(rs.getLong(1))[0] - level[0]) > 1e-3;
+                    rowCount++;
+                }
+            }
+            assertEquals(expected.size(), rowCount);
+            // The building is an obstacle for some receivers
+            assertTrue(modified);
+        }
+    }
+
+    /**
+     * A raster DEM of constant height must give the levels computed without DEM, as sources, receivers and buildings
+     * are translated to the ground height
+     */
+    @Test
+    public void testDemRaster() throws Exception {
+        PointNoiseMap pointNoiseMap = createLandcoverNoiseMap(connection);
+        pointNoiseMap.setSoundReflectionOrder(1);
+        pointNoiseMap.setComputeRaysOutFactory(new ReceiverLevelsOutFactory());
+        pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
+        try(Statement st = connection.createStatement()) {
+            // Regular grid of 4 m at 10 m height
+            st.execute("DROP TABLE IF EXISTS DEM_GRID");
+            st.execute("CREATE TABLE DEM_GRID(the_geom POINT) AS SELECT ST_MAKEPOINT(X * 4 + 183700, Y * 4 + 2428800, 10) " +
+                    "FROM (SELECT X FROM SYSTEM_RANGE(0, 150)), (SELECT X Y FROM SYSTEM_RANGE(0, 200))");
+        }
+        Map<Long, double[]> expected = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                new EmptyProgressVisitor());
+        assertFalse(expected.isEmpty());
+
+        pointNoiseMap.setDemTable("DEM_GRID");
+        RasterDem raster = pointNoiseMap.loadDemRaster(connection, 4);
+        assertEquals(151, raster.getColumnCount());
+        assertEquals(201, raster.getRowCount());
+        assertEquals(10, raster.getHeight(183935.5, 2429052.7), 1e-6);
+        assertSame(raster, pointNoiseMap.getDemRaster());
+        Map<Long, double[]> levels = ReceiverLevelsPatch.computeContribution(connection, pointNoiseMap,
+                new EmptyProgressVisitor());
+        assertEquals(expected.keySet(), levels.keySet());
+        for(Map.Entry<Long, double[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), levels.get(entry.getKey()), 1e-6);
+        }
+    }
+
     private static final class RayOut extends ComputeRaysOut {
         private DirectPropagationProcessData processData;
 
@@ -8,6 +8,7 @@ import org.h2gis.functions.io.geojson.GeoJsonRead;
 import org.h2gis.functions.io.shp.SHPRead;
 import org.h2gis.utilities.SFSUtilities;
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
 import org.noise_planet.noisemodelling.propagation.*;
 import org.noise_planet.noisemodelling.propagation.jdbc.PointNoiseMap;
 import org.slf4j.Logger;
@@ -23,8 +24,8 @@ import java.sql.Statement;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 
 class Main {
@@ -102,24 +103,22 @@ class Main {
         pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
 
         // Set of already processed receivers
-        Set<Long> receivers = new HashSet<>();
-        ProgressVisitor progressVisitor = progressLogger.subProcess(pointNoiseMap.getGridDim()*pointNoiseMap.getGridDim());
+        Set<Long> receivers = new CompressedLongSet();
+        ProgressVisitor progressVisitor = progressLogger.subProcess(pointNoiseMap.getCellCount());
         logger.info("start");
         long start = System.currentTimeMillis();
         System.out.println("Rec\tSource\tLevel");
         // Iterate over computation areas
-        for (int i = 0; i < pointNoiseMap.getGridDim(); i++) {
-            for (int j = 0; j < pointNoiseMap.getGridDim(); j++) {
-                // Run ray propagation
-                IComputeRaysOut out = pointNoiseMap.evaluateCell(connection, i, j, progressVisitor, receivers);
-                // Return results with level spectrum for each source/receiver tuple
-                if(out instanceof ComputeRaysOut) {
-                    ComputeRaysOut cellStorage = (ComputeRaysOut) out;
-                    exportScene(String.format("target/scene_%d_%d.kml", i, j), cellStorage.inputData.freeFieldFinder, cellStorage);
-                    for(ComputeRaysOut.verticeSL v : cellStorage.receiversAttenuationLevels) {
-                        double globalDbValue = ComputeRays.wToDba(ComputeRays.sumArray(ComputeRays.dbaToW(v.value)));
-                        System.out.println(String.format("%d\t%d\t%.2f", v.receiverId, v.sourceId, globalDbValue));
-                    }
+        for (Map.Entry<Integer, Envelope> cell : pointNoiseMap.getCellEnvelopes().entrySet()) {
+            // Run ray propagation
+            IComputeRaysOut out = pointNoiseMap.evaluateCell(connection, cell.getKey(), cell.getValue(), progressVisitor, receivers);
+            // Return results with level spectrum for each source/receiver tuple
+            if(out instanceof ComputeRaysOut) {
+                ComputeRaysOut cellStorage = (ComputeRaysOut) out;
+                exportScene(String.format("target/scene_%d.kml", cell.getKey()), cellStorage.inputData.freeFieldFinder, cellStorage);
+                for(ComputeRaysOut.verticeSL v : cellStorage.receiversAttenuationLevels) {
+                    double globalDbValue = ComputeRays.wToDba(ComputeRays.sumArray(ComputeRays.dbaToW(v.value)));
+                    System.out.println(String.format("%d\t%d\t%.2f", v.receiverId, v.sourceId, globalDbValue));
                 }
             }
         }
@@ -190,7 +190,7 @@ def run(input) {
         pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
 
         // Set of already processed receivers
-        Set<Long> receivers = new HashSet<>();
+        Set<Long> receivers = new CompressedLongSet();
         ProgressVisitor progressVisitor = progressLogger.subProcess(pointNoiseMap.getGridDim() * pointNoiseMap.getGridDim());
 
         long start = System.currentTimeMillis();
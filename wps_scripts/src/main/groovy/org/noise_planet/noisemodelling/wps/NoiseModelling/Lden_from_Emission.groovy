@@ -24,6 +24,8 @@ import org.h2gis.utilities.wrapper.*
 
 import org.noise_planet.noisemodelling.propagation.*
 import org.noise_planet.noisemodelling.propagation.jdbc.PointNoiseMap
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
 
 import java.sql.SQLException
 
@@ -139,7 +141,10 @@ def run(input) {
 
     System.out.println("Run ...")
 
-    List<ComputeRaysOut.verticeSL> allLevels = new ArrayList<>()
+    Logger logger = LoggerFactory.getLogger("Lden_from_Emission")
+
+    // Sound level of each receiver
+    Map<Long, double[]> soundLevels = new HashMap<>()
     // Attenuation matrix table
     ArrayList<PropagationPath> propaMap2 = new ArrayList<>()
     // All rays storage
@@ -180,6 +185,13 @@ def run(input) {
 
         TrafficPropagationProcessDataEmissionFactory trafficPropagationProcessDataEmissionFactory = new TrafficPropagationProcessDataEmissionFactory();
         pointNoiseMap.setPropagationProcessDataFactory(trafficPropagationProcessDataEmissionFactory)
+        // Sum the sources contributions of each receiver in the computation threads
+        pointNoiseMap.setComputeRaysOutFactory(new PointNoiseMap.IComputeRaysOutFactory() {
+            @Override
+            IComputeRaysOut create(PropagationProcessData threadData, PropagationProcessPathData pathData) {
+                return new ReceiverLevelsOut(pathData, threadData)
+            }
+        })
 
 
         RootProgressVisitor progressLogger = new RootProgressVisitor(1, true, 1);
@@ -188,64 +200,31 @@ def run(input) {
         pointNoiseMap.initialize(connection, new EmptyProgressVisitor());
 
         // Set of already processed receivers
-        Set<Long> receivers = new HashSet<>();
+        Set<Long> receivers = new CompressedLongSet();
         ProgressVisitor progressVisitor = progressLogger.subProcess(pointNoiseMap.getGridDim() * pointNoiseMap.getGridDim());
 
         long start = System.currentTimeMillis();
         System.out.println("Start ...")
 
-        Map<Integer, double[]> SourceSpectrum = new HashMap<>()
-
         // Iterate over computation areas
         for (int i = 0; i < pointNoiseMap.getGridDim(); i++) {
             for (int j = 0; j < pointNoiseMap.getGridDim(); j++) {
                 // Run ray propagation
                 IComputeRaysOut out = pointNoiseMap.evaluateCell(connection, i, j, progressVisitor, receivers);
-                // Return results with level spectrum for each source/receiver tuple
-                if (out instanceof ComputeRaysOut) {
-
-                    ComputeRaysOut cellStorage = (ComputeRaysOut) out;
-
-                    allLevels.addAll(((ComputeRaysOut) out).getVerticesSoundLevel())
-
-                    //exportScene(String.format(resultPath+"/scene_%d_%d.kml", i, j), cellStorage.inputData.freeFieldFinder, cellStorage);
-                    cellStorage.receiversAttenuationLevels.each { v ->
-                        double globalDbValue = ComputeRays.wToDba(ComputeRays.sumArray(ComputeRays.dbaToW(v.value)));
-                        def idSource = out.inputData.SourcesPk.get(v.sourceId)
-                        double[] w_spectrum = ComputeRays.wToDba(out.inputData.wjSourcesDEN.get(idSource))
-                        SourceSpectrum.put(v.sourceId as Integer, w_spectrum)
+                // Return results with level spectrum for each receiver
+                if (out instanceof ReceiverLevelsOut) {
+                    ((ReceiverLevelsOut) out).receiversLevels.each { v ->
+                        if (v.value.any { Double.isNaN(it) }) {
+                            logger.warn("NaN on Rec :" + v.receiverId)
+                        } else {
+                            soundLevels.put(v.receiverId, v.value)
+                        }
                     }
                 }
             }
         }
 
 
-        Map<Integer, double[]> soundLevels = new HashMap<>()
-        for (int i = 0; i < allLevels.size(); i++) {
-            int idReceiver = (Integer) allLevels.get(i).receiverId
-            int idSource = (Integer) allLevels.get(i).sourceId
-
-            double[] soundLevel = allLevels.get(i).value
-            if (!Double.isNaN(soundLevel[0]) && !Double.isNaN(soundLevel[1]) && !Double.isNaN(soundLevel[2]) && !Double.isNaN(soundLevel[3]) && !Double.isNaN(soundLevel[4]) && !Double.isNaN(soundLevel[5]) && !Double.isNaN(soundLevel[6]) && !Double.isNaN(soundLevel[7])
-
-            ) {
-                if (soundLevels.containsKey(idReceiver)) {
-                    //soundLevel = DBToDBA(soundLevel)
-
-                    soundLevel = ComputeRays.sumDbArray(Utilities.sumArraySR(soundLevel, SourceSpectrum.get(idSource)), soundLevels.get(idReceiver))
-                    soundLevels.replace(idReceiver, soundLevel)
-                } else {
-                    //soundLevel = DBToDBA(soundLevel)
-                    soundLevels.put(idReceiver, Utilities.sumArraySR(soundLevel, SourceSpectrum.get(idSource)))
-
-
-                }
-            } else {
-                System.out.println("NaN on Rec :" + idReceiver + "and Src :" + idSource)
-            }
-        }
-
-
         Sql sql = new Sql(connection)
         System.out.println("Export data to table")
         sql.execute("drop table if exists LDEN;")